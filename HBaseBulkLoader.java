@@ -0,0 +1,511 @@
+import com.stacksight.dump.DumpPosts;
+import com.stacksight.dump.DumpRowReader;
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.HFileSink;
+import com.stacksight.hbase.QuestionPuts;
+import com.stacksight.hbase.TopAnswers;
+import com.stacksight.hbase.TrendSeries;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.tool.BulkLoadHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Bulk loader for Stack Exchange data dumps
+ *
+ * Seeds the StackSights tables with the full history of a site from the
+ * Posts.xml and Tags.xml files of its data dump, without going through the
+ * RegionServers' write path:
+ * 1. Posts: Posts.xml is read with StAX in chunks of rows. Each chunk becomes
+ *    the stackoverflow_qna and stackoverflow_tag_index cells the streaming job
+ *    would write for the same posts, sorted and written as one HFile per
+ *    column family and region, then bulk-loaded
+ * 2. Top answers: once all answers are in, each stackoverflow_qna region is
+ *    scanned to rank its answers, mark the accepted ones and set is_answered,
+ *    and the resulting cells are bulk-loaded the same way
+ * 3. Tags: one stackoverflow_trends snapshot and leaderboard entry per tag of
+ *    Tags.xml, at the time the dump was taken
+ *
+ * Completed chunks and regions are recorded in the work directory, so a
+ * restarted load skips them; a chunk that was loaded but not yet recorded is
+ * loaded again with the same cells and timestamps, which is harmless. Cells
+ * are timestamped with the post's last activity, so later writes of the
+ * streaming job always take precedence.
+ *
+ * The tables must exist (see HBaseTableCreator).
+ */
+public class HBaseBulkLoader {
+
+    // Configuration
+    private static final String HBASE_ZOOKEEPER_QUORUM = "localhost";
+    private static final String HBASE_ZOOKEEPER_CLIENT_PORT = "2181";
+
+    private static final int DEFAULT_CHUNK_POSTS = 250000;
+    private static final String DEFAULT_WORK_DIR = "/tmp/stacksights/bulkload";
+    private static final String DEFAULT_SITE_URL = "https://stackoverflow.com";
+
+    private static final byte[] ACCEPTED_ANSWER_ID = Bytes.toBytes("accepted_answer_id");
+    private static final byte[] IS_ANSWERED = Bytes.toBytes("is_answered");
+    private static final String PROGRESS_FILE = "progress.properties";
+
+    private final Configuration conf;
+    private final Connection connection;
+    private final FileSystem fs;
+    private final Path workDir;
+    private final Properties progress = new Properties();
+
+    /**
+     * Constructor
+     *
+     * @param workDir where HFiles are staged and progress is kept, on the cluster's file system
+     */
+    public HBaseBulkLoader(String workDir) throws IOException {
+        this.conf = HBaseConfiguration.create();
+        conf.set("hbase.zookeeper.quorum", HBASE_ZOOKEEPER_QUORUM);
+        conf.set("hbase.zookeeper.property.clientPort", HBASE_ZOOKEEPER_CLIENT_PORT);
+        this.connection = ConnectionFactory.createConnection(conf);
+        this.workDir = new Path(workDir);
+        this.fs = this.workDir.getFileSystem(conf);
+        fs.mkdirs(this.workDir);
+
+        Path progressFile = new Path(this.workDir, PROGRESS_FILE);
+        if (fs.exists(progressFile)) {
+            try (FSDataInputStream in = fs.open(progressFile)) {
+                progress.load(in);
+            }
+        }
+    }
+
+    /**
+     * Load the questions and answers of Posts.xml
+     *
+     * @param chunkPosts rows per chunk; bounds the memory used for sorting
+     * @param siteUrl    base URL of the site, for question links
+     */
+    public void loadPosts(String postsFile, int chunkPosts, String siteUrl) throws IOException {
+        int completed = Integer.parseInt(progress.getProperty("posts.chunks", "0"));
+        TableName qnaTable = TableName.valueOf(HBaseSchema.QNA_TABLE);
+        TableName tagIndexTable = TableName.valueOf(HBaseSchema.TAG_INDEX_TABLE);
+
+        try (DumpRowReader reader = new DumpRowReader(openDump(postsFile))) {
+            int chunk = 0;
+            boolean more = true;
+            while (more) {
+                boolean skip = chunk < completed;
+                List<Cell> qnaCells = new ArrayList<>();
+                List<Cell> tagIndexCells = new ArrayList<>();
+                int rows = 0;
+                while (rows < chunkPosts && (more = reader.next())) {
+                    rows++;
+                    if (!skip) {
+                        addPost(reader, siteUrl, qnaCells, tagIndexCells);
+                    }
+                }
+                if (rows == 0) {
+                    break;
+                }
+
+                if (skip) {
+                    System.out.println("Chunk " + chunk + " already loaded, skipping");
+                } else {
+                    long startMillis = System.currentTimeMillis();
+                    String name = String.format("posts-%06d", chunk);
+                    bulkLoad(name, qnaTable, qnaCells);
+                    bulkLoad(name, tagIndexTable, tagIndexCells);
+                    saveProgress("posts.chunks", String.valueOf(chunk + 1));
+                    System.out.println("Loaded chunk " + chunk + " (rows up to " + reader.getRowNumber() + "): " +
+                            qnaCells.size() + " qna cells, " + tagIndexCells.size() + " tag index cells in " +
+                            (System.currentTimeMillis() - startMillis) + " ms");
+                }
+                chunk++;
+            }
+        }
+    }
+
+    /**
+     * Add the cells of the current Posts.xml row, if it is a question or an answer
+     */
+    private static void addPost(DumpRowReader reader, String siteUrl, List<Cell> qnaCells,
+                                List<Cell> tagIndexCells) {
+        String postType = DumpPosts.postType(reader);
+        if (DumpPosts.QUESTION.equals(postType)) {
+            JSONObject question = DumpPosts.question(reader, siteUrl);
+            long timestamp = TimeUnit.SECONDS.toMillis(question.getLong("last_activity_date"));
+            addCells(QuestionPuts.qnaPut(question), timestamp, qnaCells);
+            for (Put put : QuestionPuts.tagIndexPuts(question)) {
+                addCells(put, timestamp, tagIndexCells);
+            }
+        } else if (DumpPosts.ANSWER.equals(postType)) {
+            JSONObject answer = DumpPosts.answer(reader);
+            long timestamp = TimeUnit.SECONDS.toMillis(reader.getEpochSeconds("LastActivityDate",
+                    answer.getLong("creation_date")));
+            Put put = new Put(HBaseSchema.qnaRowKey(answer.getLong("question_id")));
+            put.addColumn(HBaseSchema.ANSWERS_CF, Bytes.toBytes(String.valueOf(answer.getLong("answer_id"))),
+                    Bytes.toBytes(answer.toString()));
+            addCells(put, timestamp, qnaCells);
+        }
+    }
+
+    /**
+     * Rank the answers of every question, one stackoverflow_qna region at a time
+     *
+     * Writes the top_answers columns, the accepted answer with is_accepted set,
+     * and is_answered as the API defines it (an accepted answer or one with a
+     * positive score).
+     */
+    public void loadTopAnswers() throws IOException {
+        TableName qnaTable = TableName.valueOf(HBaseSchema.QNA_TABLE);
+        try (Table table = connection.getTable(qnaTable);
+             RegionLocator locator = connection.getRegionLocator(qnaTable)) {
+            byte[][] startKeys = locator.getStartKeys();
+            byte[][] endKeys = locator.getEndKeys();
+
+            for (int region = 0; region < startKeys.length; region++) {
+                String key = "top_answers." + (startKeys[region].length == 0 ? "first" : Bytes.toHex(startKeys[region]));
+                if (progress.containsKey(key)) {
+                    System.out.println("Top answers of region " + region + " already loaded, skipping");
+                    continue;
+                }
+
+                Scan scan = new Scan()
+                        .withStartRow(startKeys[region])
+                        .withStopRow(endKeys[region])
+                        .addColumn(HBaseSchema.QUESTION_CF, ACCEPTED_ANSWER_ID)
+                        .addFamily(HBaseSchema.ANSWERS_CF)
+                        .setCaching(100)
+                        .setCacheBlocks(false);
+
+                // Rows come in key order and each row's cells are written in qualifier order
+                Path dir = new Path(workDir, String.format("top-answers-%05d", region) + "/" + qnaTable.getNameAsString());
+                fs.delete(dir, true);
+                long rows = 0;
+                try (ResultScanner scanner = table.getScanner(scan);
+                     HFileSink sink = new HFileSink(conf, dir, table.getDescriptor(), startKeys)) {
+                    for (Result row : scanner) {
+                        for (Cell cell : topAnswerCells(row)) {
+                            sink.append(cell);
+                        }
+                        rows++;
+                    }
+                }
+                BulkLoadHFiles.create(conf).bulkLoad(qnaTable, dir);
+                fs.delete(dir.getParent(), true);
+                saveProgress(key, "done");
+                System.out.println("Ranked answers of " + rows + " questions in region " + region);
+            }
+        }
+    }
+
+    /**
+     * Build the ranking cells of a stackoverflow_qna row
+     */
+    private static List<Cell> topAnswerCells(Result row) {
+        List<Cell> cells = new ArrayList<>();
+        Map<byte[], byte[]> answerCells = row.getFamilyMap(HBaseSchema.ANSWERS_CF);
+        if (answerCells == null || answerCells.isEmpty()) {
+            return cells;
+        }
+
+        byte[] acceptedValue = row.getValue(HBaseSchema.QUESTION_CF, ACCEPTED_ANSWER_ID);
+        long acceptedAnswerId = acceptedValue == null ? -1 : Long.parseLong(Bytes.toString(acceptedValue));
+        long timestamp = 0;
+        for (Cell cell : row.rawCells()) {
+            timestamp = Math.max(timestamp, cell.getTimestamp());
+        }
+        // Newer than the row's cells, older than anything the streaming job writes later
+        timestamp++;
+
+        List<JSONObject> answers = new ArrayList<>(answerCells.size());
+        JSONObject accepted = null;
+        boolean answered = false;
+        for (byte[] value : answerCells.values()) {
+            JSONObject answer = new JSONObject(Bytes.toString(value));
+            if (answer.optLong("answer_id") == acceptedAnswerId) {
+                answer.put("is_accepted", true);
+                accepted = answer;
+            }
+            answered |= answer.optBoolean("is_accepted", false) || answer.optInt("score", 0) > 0;
+            answers.add(answer);
+        }
+        answers.sort(TopAnswers.RANKING);
+
+        byte[] rowKey = row.getRow();
+        if (accepted != null) {
+            cells.add(new KeyValue(rowKey, HBaseSchema.ANSWERS_CF,
+                    Bytes.toBytes(String.valueOf(accepted.getLong("answer_id"))), timestamp, KeyValue.Type.Put,
+                    Bytes.toBytes(accepted.toString())));
+        }
+        cells.add(new KeyValue(rowKey, HBaseSchema.QUESTION_CF, IS_ANSWERED, timestamp, KeyValue.Type.Put,
+                Bytes.toBytes(String.valueOf(answered))));
+        for (int rank = 0; rank < Math.min(TopAnswers.TOP_N, answers.size()); rank++) {
+            cells.add(new KeyValue(rowKey, HBaseSchema.TOP_ANSWERS_CF, Bytes.toBytes(String.valueOf(rank + 1)),
+                    timestamp, KeyValue.Type.Put, Bytes.toBytes(answers.get(rank).toString())));
+        }
+        return cells;
+    }
+
+    /**
+     * Load a tag count snapshot from Tags.xml
+     *
+     * The snapshot is skipped if its cells would already be past the TTL of
+     * stackoverflow_trends: the next compaction would drop them.
+     *
+     * @param snapshotTime when the dump was taken (epoch seconds)
+     */
+    public void loadTags(String tagsFile, long snapshotTime) throws IOException {
+        if (progress.containsKey("tags")) {
+            System.out.println("Tags already loaded, skipping");
+            return;
+        }
+
+        long ttlSeconds = trendsTtlSeconds();
+        long ageSeconds = System.currentTimeMillis() / 1000 - snapshotTime;
+        if (ageSeconds >= ttlSeconds) {
+            System.err.println("WARNING: the tag snapshot is " + TimeUnit.SECONDS.toDays(ageSeconds) + 
+                    " days old, past the " + TimeUnit.SECONDS.toDays(ttlSeconds) + "-day TTL of " + 
+                    HBaseSchema.TRENDS_TABLE + "; its cells would be dropped at the next compaction. " +
+                    "Skipping tags; raise the TTL (HBaseTableCreator --trends-ttl-days) to load them.");
+            return;
+        }
+
+        // A few tens of thousands of tags; one chunk
+        List<Cell> cells = new ArrayList<>();
+        long timestamp = TimeUnit.SECONDS.toMillis(snapshotTime);
+        try (DumpRowReader reader = new DumpRowReader(openDump(tagsFile))) {
+            while (reader.next()) {
+                String tag = reader.get("TagName");
+                if (tag == null) {
+                    continue;
+                }
+                Put snapshot = TrendSeries.snapshotPut(tag, reader.getLong("Count", 0), snapshotTime);
+                addCells(snapshot, timestamp, cells);
+                addCells(TrendSeries.summary(tag, snapshot), timestamp, cells);
+            }
+        }
+        bulkLoad("tags", TableName.valueOf(HBaseSchema.TRENDS_TABLE), cells);
+        saveProgress("tags", "done");
+        System.out.println("Loaded " + cells.size() + " trend cells");
+    }
+
+    /**
+     * Get the TTL of the stackoverflow_trends cells in seconds
+     */
+    private long trendsTtlSeconds() throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            ColumnFamilyDescriptor family = admin.getDescriptor(TableName.valueOf(HBaseSchema.TRENDS_TABLE))
+                    .getColumnFamily(HBaseSchema.TREND_CF);
+            int ttl = family == null ? HConstants.FOREVER : family.getTimeToLive();
+            return ttl == HConstants.FOREVER ? Long.MAX_VALUE : ttl;
+        }
+    }
+
+    /**
+     * Sort cells, write them as HFiles split along the table's regions and bulk-load them
+     */
+    private void bulkLoad(String name, TableName tableName, List<Cell> cells) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+        cells.sort(CellComparator.getInstance());
+
+        // Leftovers of an interrupted attempt are rewritten from scratch
+        Path dir = new Path(workDir, name + "/" + tableName.getNameAsString());
+        fs.delete(dir, true);
+        try (Table table = connection.getTable(tableName);
+             RegionLocator locator = connection.getRegionLocator(tableName);
+             HFileSink sink = new HFileSink(conf, dir, table.getDescriptor(), locator.getStartKeys())) {
+            Cell previous = null;
+            for (Cell cell : cells) {
+                // The same cell twice in a chunk (e.g. a repeated tag) would break the HFile order
+                if (previous == null || CellComparator.getInstance().compare(previous, cell) != 0) {
+                    sink.append(cell);
+                }
+                previous = cell;
+            }
+        }
+        BulkLoadHFiles.create(conf).bulkLoad(tableName, dir);
+        fs.delete(dir, true);
+    }
+
+    /**
+     * Copy the cells of a Put with an explicit timestamp
+     */
+    private static void addCells(Put put, long timestamp, List<Cell> cells) {
+        for (List<Cell> family : put.getFamilyCellMap().values()) {
+            for (Cell cell : family) {
+                cells.add(new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell),
+                        CellUtil.cloneQualifier(cell), timestamp, KeyValue.Type.Put, CellUtil.cloneValue(cell)));
+            }
+        }
+    }
+
+    /**
+     * Record a completed step; the file is replaced, never rewritten in place
+     */
+    private void saveProgress(String key, String value) throws IOException {
+        progress.setProperty(key, value);
+        Path progressFile = new Path(workDir, PROGRESS_FILE);
+        Path tmp = new Path(workDir, PROGRESS_FILE + ".tmp");
+        try (FSDataOutputStream out = fs.create(tmp, true)) {
+            progress.store(out, "StackSights bulk load progress");
+        }
+        fs.delete(progressFile, false);
+        if (!fs.rename(tmp, progressFile)) {
+            throw new IOException("Cannot save progress to " + progressFile);
+        }
+    }
+
+    /**
+     * Open a dump file, decompressing it if it ends with .gz
+     */
+    private static InputStream openDump(String file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(file)), 1 << 16);
+        return file.endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    public void close() throws IOException {
+        connection.close();
+    }
+
+    /**
+     * Print usage information
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java HBaseBulkLoader [--posts FILE] [--tags FILE] [--site-url URL] " +
+                "[--chunk-posts N] [--work-dir DIR] [--snapshot-time SECONDS] [--skip-top-answers]");
+        System.out.println("  --posts FILE            Posts.xml of the dump (or Posts.xml.gz)");
+        System.out.println("  --tags FILE             Tags.xml of the dump (or Tags.xml.gz)");
+        System.out.println("  --site-url URL          Base URL of the site, for question links (default: " +
+                DEFAULT_SITE_URL + ")");
+        System.out.println("  --chunk-posts N         Posts.xml rows per HFile chunk (default: " +
+                DEFAULT_CHUNK_POSTS + ")");
+        System.out.println("  --work-dir DIR          Staging and progress directory on the cluster file system " +
+                "(default: " + DEFAULT_WORK_DIR + ")");
+        System.out.println("  --snapshot-time SECONDS Time of the tag counts, epoch seconds (default: the " +
+                "modification time of the tags file)");
+        System.out.println("  --skip-top-answers      Do not rank answers after loading posts");
+    }
+
+    /**
+     * Main method
+     */
+    public static void main(String[] args) {
+        String postsFile = null;
+        String tagsFile = null;
+        String siteUrl = DEFAULT_SITE_URL;
+        int chunkPosts = DEFAULT_CHUNK_POSTS;
+        String workDir = DEFAULT_WORK_DIR;
+        long snapshotTime = -1;
+        boolean topAnswers = true;
+
+        // Parse command line arguments
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            try {
+                if ("--posts".equals(arg) && i + 1 < args.length) {
+                    postsFile = args[++i];
+                } else if ("--tags".equals(arg) && i + 1 < args.length) {
+                    tagsFile = args[++i];
+                } else if ("--site-url".equals(arg) && i + 1 < args.length) {
+                    siteUrl = args[++i];
+                } else if ("--chunk-posts".equals(arg) && i + 1 < args.length) {
+                    chunkPosts = Integer.parseInt(args[++i]);
+                    if (chunkPosts < 1) {
+                        throw new IllegalArgumentException("Invalid chunk size: " + chunkPosts);
+                    }
+                } else if ("--work-dir".equals(arg) && i + 1 < args.length) {
+                    workDir = args[++i];
+                } else if ("--snapshot-time".equals(arg) && i + 1 < args.length) {
+                    snapshotTime = Long.parseLong(args[++i]);
+                } else if ("--skip-top-answers".equals(arg)) {
+                    topAnswers = false;
+                } else {
+                    System.err.println("Unknown argument: " + arg);
+                    printUsage();
+                    System.exit(1);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (postsFile == null && tagsFile == null) {
+            System.err.println("Nothing to load: give --posts and/or --tags");
+            printUsage();
+            System.exit(1);
+        }
+
+        HBaseBulkLoader loader = null;
+        boolean failed = false;
+        try {
+            loader = new HBaseBulkLoader(workDir);
+            if (postsFile != null) {
+                System.out.println("Loading posts from " + postsFile);
+                loader.loadPosts(postsFile, chunkPosts, siteUrl);
+                if (topAnswers) {
+                    System.out.println("Ranking answers");
+                    loader.loadTopAnswers();
+                }
+            }
+            if (tagsFile != null) {
+                if (snapshotTime < 0) {
+                    snapshotTime = TimeUnit.MILLISECONDS.toSeconds(
+                            Files.getLastModifiedTime(Paths.get(tagsFile)).toMillis());
+                }
+                System.out.println("Loading tags from " + tagsFile);
+                loader.loadTags(tagsFile, snapshotTime);
+            }
+            System.out.println("\nBulk load complete!");
+        } catch (Exception e) {
+            System.err.println("Bulk load failed, run again to resume: " + e.getMessage());
+            e.printStackTrace();
+            failed = true;
+        } finally {
+            if (loader != null) {
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    // Exiting anyway
+                }
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,12 +1,16 @@
+import com.stacksight.hbase.HBaseSchema;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
-import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HBase Table Creator for StackSights
@@ -15,6 +19,11 @@ import java.util.List;
  * - stackoverflow_qna: Stores questions and answers
  * - stackoverflow_trends: Stores trend metrics
  * - stackoverflow_tag_index: Maps tags to question IDs
+ *
+ * With the tuned layout (default) tables are pre-split so writes spread over
+ * region servers from the start, and each column family gets compression,
+ * data block encoding, Bloom filters and block cache settings that match how
+ * it is read. The basic layout creates single-region tables with defaults.
  */
 public class HBaseTableCreator {
 
@@ -23,16 +32,21 @@ public class HBaseTableCreator {
     private static final String HBASE_ZOOKEEPER_CLIENT_PORT = "2181";
     
     // Table names
-    private static final String QNA_TABLE = "stackoverflow_qna";
-    private static final String TRENDS_TABLE = "stackoverflow_trends";
-    private static final String TAG_INDEX_TABLE = "stackoverflow_tag_index";
+    private static final String QNA_TABLE = HBaseSchema.QNA_TABLE;
+    private static final String TRENDS_TABLE = HBaseSchema.TRENDS_TABLE;
+    private static final String TAG_INDEX_TABLE = HBaseSchema.TAG_INDEX_TABLE;
     
     // Column family names
-    private static final byte[] QUESTION_CF = Bytes.toBytes("question");
-    private static final byte[] ANSWERS_CF = Bytes.toBytes("answers");
-    private static final byte[] TOP_ANSWERS_CF = Bytes.toBytes("top_answers");
-    private static final byte[] TREND_CF = Bytes.toBytes("trend");
-    private static final byte[] QUESTION_IDS_CF = Bytes.toBytes("question_ids");
+    private static final byte[] QUESTION_CF = HBaseSchema.QUESTION_CF;
+    private static final byte[] ANSWERS_CF = HBaseSchema.ANSWERS_CF;
+    private static final byte[] TOP_ANSWERS_CF = HBaseSchema.TOP_ANSWERS_CF;
+    private static final byte[] TREND_CF = HBaseSchema.TREND_CF;
+    private static final byte[] QUESTION_IDS_CF = HBaseSchema.QUESTION_IDS_CF;
+    
+    // Layout defaults
+    private static final String DEFAULT_COMPRESSION = "snappy";
+    private static final int DEFAULT_TAG_REGIONS = 6;
+    private static final int DEFAULT_TRENDS_TTL_DAYS = 90;
     
     /**
      * Create an HBase connection
@@ -45,10 +59,54 @@ public class HBaseTableCreator {
         return ConnectionFactory.createConnection(config);
     }
     
+    /**
+     * Table layout settings
+     */
+    private static class Layout {
+        private boolean tuned = true;
+        private Compression.Algorithm compression = Compression.getCompressionAlgorithmByName(DEFAULT_COMPRESSION);
+        private int tagRegions = DEFAULT_TAG_REGIONS;
+        private int trendsTtlDays = DEFAULT_TRENDS_TTL_DAYS;
+    }
+    
+    /**
+     * Create a column family descriptor builder with the settings shared by all families
+     */
+    private static ColumnFamilyDescriptorBuilder newFamily(byte[] family, Layout layout) {
+        ColumnFamilyDescriptorBuilder cfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(family);
+        cfBuilder.setMaxVersions(1);
+        
+        if (layout.tuned) {
+            cfBuilder.setCompressionType(layout.compression);
+            cfBuilder.setDataBlockEncoding(DataBlockEncoding.FAST_DIFF);
+            cfBuilder.setBloomFilterType(BloomType.ROW);
+        }
+        return cfBuilder;
+    }
+    
+    /**
+     * Create a table, pre-split with the given keys in the tuned layout
+     */
+    private static void createTable(Admin admin, TableDescriptor table, byte[][] splitKeys, 
+                                    Layout layout) throws IOException {
+        if (layout.tuned && splitKeys.length > 0) {
+            admin.createTable(table, splitKeys);
+            System.out.println("Created table " + table.getTableName().getNameAsString() + 
+                    " with " + (splitKeys.length + 1) + " regions");
+        } else {
+            admin.createTable(table);
+            System.out.println("Created table " + table.getTableName().getNameAsString());
+        }
+    }
+    
     /**
      * Create the stackoverflow_qna table
+     *
+     * Rows are salted (see HBaseSchema) and split into one region per salt bucket.
+     * top_answers is read with every question page and kept in memory; answers is
+     * only read for full answer lists and bypasses the block cache.
      */
-    private static void createQnaTable(Admin admin) throws IOException {
+    private static void createQnaTable(Admin admin, Layout layout) throws IOException {
         TableName tableName = TableName.valueOf(QNA_TABLE);
         
         if (admin.tableExists(tableName)) {
@@ -59,27 +117,36 @@ public class HBaseTableCreator {
         TableDescriptorBuilder tableBuilder = TableDescriptorBuilder.newBuilder(tableName);
         
         // Add column families
-        ColumnFamilyDescriptorBuilder questionCfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(QUESTION_CF);
-        questionCfBuilder.setMaxVersions(1);
+        ColumnFamilyDescriptorBuilder questionCfBuilder = newFamily(QUESTION_CF, layout);
         tableBuilder.setColumnFamily(questionCfBuilder.build());
         
-        ColumnFamilyDescriptorBuilder answersCfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(ANSWERS_CF);
-        answersCfBuilder.setMaxVersions(1);
+        ColumnFamilyDescriptorBuilder answersCfBuilder = newFamily(ANSWERS_CF, layout);
+        if (layout.tuned) {
+            // Cold: large blocks, no block cache; ROWCOL for lookups of single answers
+            answersCfBuilder.setBlocksize(128 * 1024);
+            answersCfBuilder.setBlockCacheEnabled(false);
+            answersCfBuilder.setBloomFilterType(BloomType.ROWCOL);
+        }
         tableBuilder.setColumnFamily(answersCfBuilder.build());
         
-        ColumnFamilyDescriptorBuilder topAnswersCfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(TOP_ANSWERS_CF);
-        topAnswersCfBuilder.setMaxVersions(1);
+        ColumnFamilyDescriptorBuilder topAnswersCfBuilder = newFamily(TOP_ANSWERS_CF, layout);
+        if (layout.tuned) {
+            // Hot: small blocks, cached with in-memory priority
+            topAnswersCfBuilder.setBlocksize(16 * 1024);
+            topAnswersCfBuilder.setInMemory(true);
+        }
         tableBuilder.setColumnFamily(topAnswersCfBuilder.build());
         
         // Create the table
-        admin.createTable(tableBuilder.build());
-        System.out.println("Created table " + QNA_TABLE);
+        createTable(admin, tableBuilder.build(), HBaseSchema.qnaSplitKeys(), layout);
     }
     
     /**
      * Create the stackoverflow_trends table
+     *
+     * Trend cells expire after the configured TTL.
      */
-    private static void createTrendsTable(Admin admin) throws IOException {
+    private static void createTrendsTable(Admin admin, Layout layout) throws IOException {
         TableName tableName = TableName.valueOf(TRENDS_TABLE);
         
         if (admin.tableExists(tableName)) {
@@ -90,19 +157,21 @@ public class HBaseTableCreator {
         TableDescriptorBuilder tableBuilder = TableDescriptorBuilder.newBuilder(tableName);
         
         // Add column family
-        ColumnFamilyDescriptorBuilder trendCfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(TREND_CF);
-        trendCfBuilder.setMaxVersions(1);
+        ColumnFamilyDescriptorBuilder trendCfBuilder = newFamily(TREND_CF, layout);
+        if (layout.tuned) {
+            trendCfBuilder.setTimeToLive((int) TimeUnit.DAYS.toSeconds(layout.trendsTtlDays));
+            trendCfBuilder.setInMemory(true);
+        }
         tableBuilder.setColumnFamily(trendCfBuilder.build());
         
         // Create the table
-        admin.createTable(tableBuilder.build());
-        System.out.println("Created table " + TRENDS_TABLE);
+        createTable(admin, tableBuilder.build(), HBaseSchema.tagSplitKeys(layout.tagRegions), layout);
     }
     
     /**
      * Create the stackoverflow_tag_index table
      */
-    private static void createTagIndexTable(Admin admin) throws IOException {
+    private static void createTagIndexTable(Admin admin, Layout layout) throws IOException {
         TableName tableName = TableName.valueOf(TAG_INDEX_TABLE);
         
         if (admin.tableExists(tableName)) {
@@ -112,27 +181,25 @@ public class HBaseTableCreator {
         
         TableDescriptorBuilder tableBuilder = TableDescriptorBuilder.newBuilder(tableName);
         
-        // Add column family
-        ColumnFamilyDescriptorBuilder questionIdsCfBuilder = ColumnFamilyDescriptorBuilder.newBuilder(QUESTION_IDS_CF);
-        questionIdsCfBuilder.setMaxVersions(1);
+        // Add column family (sequential qualifiers compress well with FAST_DIFF)
+        ColumnFamilyDescriptorBuilder questionIdsCfBuilder = newFamily(QUESTION_IDS_CF, layout);
         tableBuilder.setColumnFamily(questionIdsCfBuilder.build());
         
         // Create the table
-        admin.createTable(tableBuilder.build());
-        System.out.println("Created table " + TAG_INDEX_TABLE);
+        createTable(admin, tableBuilder.build(), HBaseSchema.tagSplitKeys(layout.tagRegions), layout);
     }
     
     /**
      * Create all tables
      */
-    private static void createAllTables() {
+    private static void createAllTables(Layout layout) {
         try (Connection connection = createConnection();
              Admin admin = connection.getAdmin()) {
             
             // Create tables
-            createQnaTable(admin);
-            createTrendsTable(admin);
-            createTagIndexTable(admin);
+            createQnaTable(admin, layout);
+            createTrendsTable(admin, layout);
+            createTagIndexTable(admin, layout);
             
             // List tables
             List<TableDescriptor> tables = admin.listTableDescriptors();
@@ -177,8 +244,15 @@ public class HBaseTableCreator {
      * Print usage information
      */
     private static void printUsage() {
-        System.out.println("Usage: java HBaseTableCreator [--clean]");
-        System.out.println("  --clean  Delete tables before creating them");
+        System.out.println("Usage: java HBaseTableCreator [--clean] [--layout tuned|basic] [--compression ALGORITHM]");
+        System.out.println("                          [--tag-regions N] [--trends-ttl-days DAYS]");
+        System.out.println("  --clean                 Delete tables before creating them");
+        System.out.println("  --layout tuned|basic    Pre-split, tuned tables or single-region defaults (default: tuned)");
+        System.out.println("  --compression ALGORITHM snappy, zstd, lz4, gz or none (default: " + DEFAULT_COMPRESSION + ")");
+        System.out.println("  --tag-regions N         Initial regions of the tag-keyed tables (default: " + 
+                DEFAULT_TAG_REGIONS + ")");
+        System.out.println("  --trends-ttl-days DAYS  TTL of stackoverflow_trends cells (default: " + 
+                DEFAULT_TRENDS_TTL_DAYS + ")");
     }
     
     /**
@@ -186,13 +260,33 @@ public class HBaseTableCreator {
      */
     public static void main(String[] args) {
         boolean clean = false;
+        Layout layout = new Layout();
         
         // Parse command line arguments
-        for (String arg : args) {
-            if ("--clean".equals(arg)) {
-                clean = true;
-            } else {
-                System.err.println("Unknown argument: " + arg);
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            try {
+                if ("--clean".equals(arg)) {
+                    clean = true;
+                } else if ("--layout".equals(arg) && i + 1 < args.length) {
+                    String value = args[++i];
+                    if (!"tuned".equals(value) && !"basic".equals(value)) {
+                        throw new IllegalArgumentException("Invalid layout: " + value);
+                    }
+                    layout.tuned = "tuned".equals(value);
+                } else if ("--compression".equals(arg) && i + 1 < args.length) {
+                    layout.compression = Compression.getCompressionAlgorithmByName(args[++i].toLowerCase(Locale.ROOT));
+                } else if ("--tag-regions".equals(arg) && i + 1 < args.length) {
+                    layout.tagRegions = Integer.parseInt(args[++i]);
+                } else if ("--trends-ttl-days".equals(arg) && i + 1 < args.length) {
+                    layout.trendsTtlDays = Integer.parseInt(args[++i]);
+                } else {
+                    System.err.println("Unknown argument: " + arg);
+                    printUsage();
+                    System.exit(1);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
                 printUsage();
                 System.exit(1);
             }
@@ -206,7 +300,7 @@ public class HBaseTableCreator {
         
         // Create tables
         System.out.println("Creating HBase tables for StackSights...");
-        createAllTables();
+        createAllTables(layout);
         
         System.out.println("\nHBase setup complete!");
     }
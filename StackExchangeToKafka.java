@@ -1,16 +1,50 @@
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import com.stacksight.ingest.ApiSource;
+import com.stacksight.ingest.DeliveryStats;
+import com.stacksight.ingest.FetchBudget;
+import com.stacksight.ingest.FetchScheduler;
+import com.stacksight.ingest.IngestMetrics;
+import com.stacksight.ingest.IngestShard;
+import com.stacksight.ingest.KafkaCheckpointStore;
+import com.stacksight.ingest.ProducerProfiles;
+import com.stacksight.ingest.QuestionDedupCache;
+import com.stacksight.ingest.QuestionPageReader;
+import com.stacksight.ingest.QuestionRecord;
+import com.stacksight.ingest.RangeWatermark;
+import com.stacksight.ingest.RecordingApiSource;
+import com.stacksight.ingest.ReplayApiSource;
+import com.stacksight.ingest.ReplayServer;
+import com.stacksight.ingest.ShardLeases;
+import com.stacksight.ingest.SharedTokenBucket;
+import com.stacksight.ingest.StackExchangeApiClient;
+import com.stacksight.ingest.WorkerThreads;
 import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Stack Exchange API to Kafka Ingestion in Java
@@ -20,6 +54,13 @@ import java.util.zip.GZIPInputStream;
  * 2. Produces messages to Kafka topics for the StackSights pipeline
  * 3. Handles rate limiting, authentication, and error handling
  * 4. Provides both questions and tag trends data
+ * 5. Polls each shard as often as its questions arrive, within freshness
+ *    bounds and the daily quota (see {@link FetchScheduler})
+ *
+ * A worker process ingests one or more shards: a Stack Exchange site, or a
+ * share of a site's time range (see {@link IngestShard}). Workers started with
+ * the same --lease-dir split the shards between them and draw API requests
+ * from one shared daily quota.
  */
 public class StackExchangeToKafka {
 
@@ -28,127 +69,244 @@ public class StackExchangeToKafka {
     private static final String KAFKA_BOOTSTRAP_SERVERS = "localhost:29092";
     private static final String QUESTION_TOPIC = "stackoverflow-questions";
     private static final String TRENDS_TOPIC = "stackoverflow-trends";
-    private static final String SITE = "stackoverflow";
+    private static final String CHECKPOINT_TOPIC = KafkaCheckpointStore.DEFAULT_TOPIC;
+    private static final String DEFAULT_SITES = IngestShard.DEFAULT_SITE;
     private static final int PAGE_SIZE = 100;
     private static final int BACKFILL_DAYS = 7;
-    private static final int DEFAULT_FETCH_INTERVAL = 300; // seconds
+    private static final int DEFAULT_MIN_INTERVAL = 30; // seconds
+    private static final int DEFAULT_MAX_INTERVAL = 600; // seconds, the freshness bound
+    private static final int DEFAULT_TAG_INTERVAL = 900; // seconds
+    private static final int DEFAULT_ACTIVITY_PAGES = 5; // pages of changed questions per cycle
+    private static final long ACTIVITY_OVERLAP_SECONDS = 60; // activity indexed late by the API is still seen
+    private static final String DEFAULT_PRODUCER_PROFILE = ProducerProfiles.THROUGHPUT;
+    private static final String REPLAY_CHECKPOINT_SUFFIX = "-replay";
+    
+    // Fetch pipeline
+    private static final long FETCH_SLICE_SECONDS = 6 * 3600; // width of a concurrently fetched sub-range
+    private static final int MAX_IN_FLIGHT_REQUESTS = 4;
+    private static final int QUOTA_RESERVE = 10;
+    private static final long ERROR_PAUSE_MILLIS = 5000;
+    private static final long WORKER_TICK_MILLIS = 1000; // how often the worker checks for due shards
+    
+    // Sharded workers
+    private static final long LEASE_MILLIS = 60000;
+    private static final long LEASE_RENEW_MILLIS = 15000;
+    private static final long DEFAULT_DAILY_QUOTA = 10000; // requests per day with an API key
+    private static final int QUOTA_BURST_HOURS = 1; // bucket capacity, in hours of quota
+    
+    // Dedup of re-fetched questions
+    private static final int DEDUP_MAX_ENTRIES = 500000;
+    private static final long DEDUP_TTL_MILLIS = TimeUnit.DAYS.toMillis(BACKFILL_DAYS + 1);
     
     // Stack Exchange API key (optional)
     private static final String API_KEY = null;
     
-    private final KafkaProducer<String, String> producer;
-    private long lastFetchTime = -1;
-    private int quotaRemaining = -1;
-    private long backoffUntil = -1;
+    private final KafkaProducer<String, byte[]> producer;
+    private final IngestMetrics metrics;
+    private final DeliveryStats deliveryStats;
+    private final QuestionDedupCache dedupCache = new QuestionDedupCache(DEDUP_MAX_ENTRIES, DEDUP_TTL_MILLIS);
+    private final KafkaCheckpointStore checkpointStore = 
+            new KafkaCheckpointStore(KAFKA_BOOTSTRAP_SERVERS, CHECKPOINT_TOPIC);
+    private final ApiSource apiSource;
+    private final IngestShard shard;
+    // Checkpoint and transactional ID key; replays keep their own so they never move the live checkpoint
+    private final String checkpointKey;
+    private final FetchBudget budget = new FetchBudget(MAX_IN_FLIGHT_REQUESTS, QUOTA_RESERVE);
+    // Daily quota shared with other workers, or null
+    private final SharedTokenBucket quotaBucket;
+    private final PayloadCodec payloads;
+    private final FetchScheduler scheduler;
+    // Pages of changed questions fetched per questions cycle, or 0 for none
+    private final int activityPages;
+    
+    // Pipeline stages: budget waits, JSON parsing and Kafka produce run on separate threads;
+    // HTTP I/O runs asynchronously on the API client
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService parseExecutor;
+    private final ExecutorService produceExecutor;
+    
+    // creation_date up to which all questions are committed to Kafka, or -1 before the first backfill
+    private volatile long lastFetchTime = -1;
+    
+    // last_activity_date from which changed questions are fetched next, or -1 before the first fetch
+    private volatile long activitySince = -1;
+    
+    // Pages and items fetched in the current questions cycle
+    private final AtomicInteger cyclePages = new AtomicInteger();
+    private final AtomicInteger cycleItems = new AtomicInteger();
     
     /**
      * Constructor
+     *
+     * @param producerProfile Kafka producer settings, see {@link ProducerProfiles}
+     * @param virtualThreads run the pipeline stages on virtual threads (Java 21+)
+     * @param metrics where to publish ingestion metrics
+     * @param apiSource where to fetch the shard's site's API pages from
+     * @param shard the site and share of its time range to ingest
+     * @param checkpointKey key of this ingester's checkpoint and transactional ID
+     * @param quotaBucket API quota shared with other workers, or null
+     * @param payloads encoding of the produced records
+     * @param scheduler when the shard's questions and tags are fetched; kept when the shard moves back
+     * @param activityPages pages of changed questions fetched per cycle on the site's first shard, or 0
      */
-    public StackExchangeToKafka() {
+    public StackExchangeToKafka(String producerProfile, boolean virtualThreads, IngestMetrics metrics,
+                                ApiSource apiSource, IngestShard shard, String checkpointKey,
+                                SharedTokenBucket quotaBucket, PayloadCodec payloads, FetchScheduler scheduler,
+                                int activityPages) {
+        this.metrics = metrics;
+        this.apiSource = apiSource;
+        this.shard = shard;
+        this.checkpointKey = checkpointKey;
+        this.quotaBucket = quotaBucket;
+        this.payloads = payloads;
+        this.scheduler = scheduler;
+        this.activityPages = shard.fetchesTrends() ? activityPages : 0;
+        this.deliveryStats = new DeliveryStats(metrics);
+        
+        // Produce stays on one thread either way: records and transactions must keep their order
+        this.fetchExecutor = WorkerThreads.pool("fetch-" + shard, MAX_IN_FLIGHT_REQUESTS, virtualThreads);
+        this.parseExecutor = WorkerThreads.single("parse-" + shard, virtualThreads);
+        this.produceExecutor = WorkerThreads.single("produce-" + shard, virtualThreads);
+        
         // Configure Kafka producer
-        Properties props = new Properties();
-        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, KAFKA_BOOTSTRAP_SERVERS);
+        Properties props = ProducerProfiles.forName(producerProfile, KAFKA_BOOTSTRAP_SERVERS);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.ACKS_CONFIG, "all");
-        props.put(ProducerConfig.RETRIES_CONFIG, 3);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        
+        // Questions and checkpoints are committed together
+        props.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "stacksights-ingest-" + checkpointKey);
+        props.put(ProducerConfig.TRANSACTION_TIMEOUT_CONFIG, 900000);
         
         this.producer = new KafkaProducer<>(props);
+        this.producer.initTransactions();
+        metrics.bindProducer(producer);
+        
+        // Resume from the last committed checkpoint; an unreadable one must not restart the backfill
+        try {
+            this.lastFetchTime = checkpointStore.load(checkpointKey);
+        } catch (IllegalStateException e) {
+            close();
+            throw e;
+        }
     }
     
     /**
      * Make a request to the Stack Exchange API
      */
     private JSONObject makeRequest(String endpoint, Map<String, String> params) {
+        return parseResponse(fetchAsync(endpoint, params).join());
+    }
+    
+    /**
+     * Send a request to the Stack Exchange API once the fetch budget allows it
+     *
+     * The future completes with the response once its headers have arrived, or
+     * with null if the request failed or the quota is exhausted.
+     */
+    private CompletableFuture<StackExchangeApiClient.Response> fetchAsync(String endpoint, 
+                                                                          Map<String, String> params) {
+        return CompletableFuture
+                .supplyAsync(() -> acquireBudget(endpoint), fetchExecutor)
+                .thenCompose(acquired -> {
+                    if (!acquired) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    
+                    long startNanos = System.nanoTime();
+                    return apiSource.getAsync(endpoint, params).handle((response, error) -> {
+                        budget.release();
+                        long latencyNanos = System.nanoTime() - startNanos;
+                        
+                        if (error != null) {
+                            metrics.recordApiRequest(endpoint, "error", latencyNanos);
+                            System.err.println("Error making API request: " + error.getMessage());
+                            // Hold back all fetchers for a bit before retrying
+                            budget.pause(ERROR_PAUSE_MILLIS);
+                            return null;
+                        }
+                        
+                        if (!response.isOk()) {
+                            metrics.recordApiRequest(endpoint, String.valueOf(response.getStatusCode()), latencyNanos);
+                            System.err.println("API request failed with status code: " + response.getStatusCode());
+                            closeQuietly(response);
+                            budget.pause(ERROR_PAUSE_MILLIS);
+                            return null;
+                        }
+                        
+                        metrics.recordApiRequest(endpoint, "ok", latencyNanos);
+                        return response;
+                    });
+                });
+    }
+    
+    /**
+     * Wait for a slot in the fetch budget, which also enforces API backoff, and
+     * for a token of the shared quota
+     */
+    private boolean acquireBudget(String endpoint) {
         try {
-            // Check if we need to wait due to backoff
-            long now = System.currentTimeMillis() / 1000;
-            if (backoffUntil > 0 && now < backoffUntil) {
-                long sleepTime = backoffUntil - now;
-                System.out.println("Backing off for " + sleepTime + " seconds");
-                Thread.sleep(sleepTime * 1000);
+            if (!budget.acquire()) {
+                metrics.recordQuotaSkipped();
+                return false;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        if (quotaBucket == null) {
+            return true;
+        }
+        try {
+            quotaBucket.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Cannot read the shared quota bucket: " + e.getMessage());
+        }
+        budget.release();
+        return false;
+    }
+    
+    /**
+     * Parse an API response body and record its quota and backoff fields
+     *
+     * The body is decompressed and tokenized as it streams in.
+     */
+    private JSONObject parseResponse(StackExchangeApiClient.Response response) {
+        if (response == null) {
+            return null;
+        }
+        
+        try (response) {
+            JSONObject jsonResponse = new JSONObject(new JSONTokener(response.getBody()));
             
-            // Build URL
-            StringBuilder urlBuilder = new StringBuilder(STACK_API_BASE_URL + "/" + endpoint + "?site=" + SITE);
-            
-            // Add parameters
-            for (Map.Entry<String, String> entry : params.entrySet()) {
-                urlBuilder.append("&").append(entry.getKey()).append("=").append(entry.getValue());
-            }
-            
-            // Add API key if available
-            if (API_KEY != null && !API_KEY.isEmpty()) {
-                urlBuilder.append("&key=").append(API_KEY);
-            }
-            
-            URL url = new URL(urlBuilder.toString());
-            
-            // Make the request
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept-Encoding", "gzip");
-            
-            int responseCode = connection.getResponseCode();
-            
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // Read response (handle gzip compression)
-                BufferedReader in;
-                if ("gzip".equals(connection.getContentEncoding())) {
-                    in = new BufferedReader(new InputStreamReader(
-                            new GZIPInputStream(connection.getInputStream())));
-                } else {
-                    in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                }
-                
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = in.readLine()) != null) {
-                    response.append(line);
-                }
-                in.close();
-                
-                // Parse JSON response
-                JSONObject jsonResponse = new JSONObject(response.toString());
-                
-                // Update quota information
-                if (jsonResponse.has("quota_remaining")) {
-                    quotaRemaining = jsonResponse.getInt("quota_remaining");
-                    System.out.println("API quota remaining: " + quotaRemaining);
-                }
-                
-                // Handle backoff
-                if (jsonResponse.has("backoff")) {
-                    int backoffSeconds = jsonResponse.getInt("backoff");
-                    backoffUntil = System.currentTimeMillis() / 1000 + backoffSeconds;
-                    System.out.println("API requested backoff: " + backoffSeconds + " seconds");
-                }
-                
-                return jsonResponse;
-            } else {
-                System.err.println("API request failed with status code: " + responseCode);
-                return null;
-            }
+            int quotaRemaining = jsonResponse.optInt("quota_remaining", -1);
+            int backoffSeconds = jsonResponse.optInt("backoff", 0);
+            budget.update(quotaRemaining, backoffSeconds);
+            metrics.recordQuota(quotaRemaining, backoffSeconds);
             
+            return jsonResponse;
         } catch (Exception e) {
-            System.err.println("Error making API request: " + e.getMessage());
-            e.printStackTrace();
-            
-            // Sleep a bit before retrying
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-            }
-            
+            metrics.recordParseError();
+            System.err.println("Error parsing API response: " + e.getMessage());
             return null;
         }
     }
     
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nothing left to do with a failed response
+        }
+    }
+    
     /**
      * Get questions from Stack Overflow
      */
-    private JSONObject getQuestions(Long fromDate, Long toDate, int page) {
+    private CompletableFuture<StackExchangeApiClient.Response> getQuestions(Long fromDate, Long toDate, int page) {
         Map<String, String> params = new HashMap<>();
         params.put("page", String.valueOf(page));
         params.put("pagesize", String.valueOf(PAGE_SIZE));
@@ -164,7 +322,27 @@ public class StackExchangeToKafka {
             params.put("todate", String.valueOf(toDate));
         }
         
-        return makeRequest("questions", params);
+        return fetchAsync("questions", params);
+    }
+    
+    /**
+     * Get questions created in a time range whose last activity is at or after a time,
+     * least recently active first
+     */
+    private CompletableFuture<StackExchangeApiClient.Response> getActiveQuestions(long since, long fromDate,
+                                                                                  long toDate, int page) {
+        Map<String, String> params = new HashMap<>();
+        params.put("page", String.valueOf(page));
+        params.put("pagesize", String.valueOf(PAGE_SIZE));
+        params.put("sort", "activity");
+        params.put("order", "asc");
+        params.put("filter", "!9_bDE(fI5"); // Include tags and answers
+        // min applies to the sort field, fromdate and todate to creation_date
+        params.put("min", String.valueOf(since));
+        params.put("fromdate", String.valueOf(fromDate));
+        params.put("todate", String.valueOf(toDate));
+        
+        return fetchAsync("questions", params);
     }
     
     /**
@@ -182,27 +360,68 @@ public class StackExchangeToKafka {
     
     /**
      * Send data to Kafka
+     *
+     * Delivery results are recorded in the delivery stats; ackCounter (if given)
+     * is incremented once the broker has acknowledged the record.
+     *
+     * @param creationDate creation_date of a question, for the ingestion lag metric, or -1
+     * @param update whether the record updates a question produced before (see {@link QuestionRecord#UPDATE_HEADER})
      */
-    private boolean sendToKafka(String topic, String key, String data) {
+    private boolean sendToKafka(String topic, String key, byte[] data, AtomicInteger ackCounter, long creationDate,
+                                boolean update) {
         try {
-            ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, data);
-            producer.send(record, (metadata, exception) -> {
-                if (exception != null) {
-                    System.err.println("Error sending message to Kafka: " + exception.getMessage());
-                } else {
-                    System.out.println("Message sent to " + metadata.topic() + 
-                            " partition " + metadata.partition() + 
-                            " offset " + metadata.offset());
-                }
-            });
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key, data);
+            if (update) {
+                record.headers().add(QuestionRecord.UPDATE_HEADER, new byte[0]);
+            }
+            producer.send(record, deliveryStats.newCallback(topic, ackCounter, creationDate));
             return true;
         } catch (Exception e) {
+            deliveryStats.recordSendError(topic, e);
             System.err.println("Error sending message to Kafka: " + e.getMessage());
-            e.printStackTrace();
             return false;
         }
     }
     
+    /**
+     * Commit the current producer transaction
+     *
+     * @param checkpoint creation_date to checkpoint in the same transaction, or -1
+     * @return false if the transaction had to be aborted
+     */
+    private boolean commitTransaction(long checkpoint) {
+        try {
+            if (checkpoint != -1) {
+                producer.send(checkpointStore.checkpointRecord(checkpointKey, checkpoint),
+                        deliveryStats.newCallback(checkpointStore.getTopic(), null, -1));
+            }
+            producer.commitTransaction();
+            if (checkpoint != -1) {
+                lastFetchTime = checkpoint;
+            }
+            return true;
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+            // Fatal: the producer cannot continue
+            throw e;
+        } catch (KafkaException e) {
+            System.err.println("Kafka transaction failed, aborting: " + e.getMessage());
+            producer.abortTransaction();
+            // The aborted questions were remembered as produced
+            dedupCache.clear();
+            return false;
+        }
+    }
+    
+    /**
+     * Report delivery results
+     */
+    private void reportDelivery() {
+        System.out.println("[" + shard + "] Kafka delivery: " + deliveryStats);
+        if (deliveryStats.getLastError() != null) {
+            System.err.println("Last Kafka delivery error: " + deliveryStats.getLastError());
+        }
+    }
+    
     /**
      * Calculate the time range for fetching questions
      */
@@ -213,16 +432,15 @@ public class StackExchangeToKafka {
         if (lastFetchTime == -1) {
             // First run, get historical data
             fromDate = now - (BACKFILL_DAYS * 86400);
-            System.out.println("First run, fetching data for the past " + BACKFILL_DAYS + " days");
+            System.out.println("[" + shard + "] First run, fetching data for the past " + BACKFILL_DAYS + " days");
         } else {
-            // Subsequent runs, get data since last fetch
-            fromDate = lastFetchTime;
+            // Subsequent runs, get data after the last checkpoint
+            // (lastFetchTime only advances once the questions up to it are committed)
+            fromDate = lastFetchTime + 1;
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            System.out.println("Fetching data since " + sdf.format(new Date(fromDate * 1000)));
+            System.out.println("[" + shard + "] Fetching data since " + sdf.format(new Date(fromDate * 1000)));
         }
         
-        lastFetchTime = now;
-        
         Map<String, Long> result = new HashMap<>();
         result.put("fromDate", fromDate);
         result.put("toDate", now);
@@ -230,58 +448,254 @@ public class StackExchangeToKafka {
         return result;
     }
     
+    /**
+     * Split a time range into the sub-ranges of this shard, which can be fetched concurrently
+     *
+     * Sub-ranges are aligned to the epoch, so a shard owns the same ones in every
+     * cycle. Both bounds of each sub-range are inclusive, matching fromdate/todate.
+     */
+    private List<long[]> splitTimeRange(long fromDate, long toDate) {
+        List<long[]> slices = new ArrayList<>();
+        long start = fromDate;
+        while (start <= toDate) {
+            long sliceStart = Math.floorDiv(start, FETCH_SLICE_SECONDS) * FETCH_SLICE_SECONDS;
+            long end = Math.min(toDate, sliceStart + FETCH_SLICE_SECONDS - 1);
+            if (shard.ownsSlice(sliceStart, FETCH_SLICE_SECONDS)) {
+                slices.add(new long[] {start, end});
+            }
+            start = end + 1;
+        }
+        return slices;
+    }
+    
     /**
      * Fetch questions and ingest into Kafka
+     *
+     * The time range is split into sub-ranges that are paged through concurrently.
+     * Each page flows through the fetch, parse and produce stages, so the next
+     * request of a sub-range is issued while the previous page is still being sent.
+     *
+     * Whenever the sub-ranges are complete without gaps up to a later point, the
+     * open transaction is committed together with a checkpoint of that point. A
+     * sub-range that fails (or runs out of quota) holds the checkpoint back, so
+     * the next cycle fetches it again instead of skipping it.
      */
     public void fetchAndIngestQuestions() {
         Map<String, Long> timeRange = getTimeRange();
         Long fromDate = timeRange.get("fromDate");
         Long toDate = timeRange.get("toDate");
         
-        // Fetch questions
-        int page = 1;
-        boolean hasMore = true;
-        int questionsCount = 0;
+        long startNanos = System.nanoTime();
+        cyclePages.set(0);
+        cycleItems.set(0);
+        AtomicInteger questionsCount = new AtomicInteger();
+        List<long[]> slices = splitTimeRange(fromDate, toDate);
         
-        while (hasMore) {
-            JSONObject response = getQuestions(fromDate, toDate, page);
-            
-            if (response != null && response.has("items")) {
-                JSONArray items = response.getJSONArray("items");
-                hasMore = response.optBoolean("has_more", false);
-                
-                // Send each question to Kafka
-                for (int i = 0; i < items.length(); i++) {
-                    JSONObject question = items.getJSONObject(i);
-                    String questionId = String.valueOf(question.getLong("question_id"));
-                    boolean success = sendToKafka(QUESTION_TOPIC, questionId, question.toString());
-                    if (success) {
-                        questionsCount++;
+        RangeWatermark watermark = new RangeWatermark(fromDate - 1, slices);
+        AtomicBoolean checkpointValid = new AtomicBoolean(true);
+        
+        producer.beginTransaction();
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            int sliceIndex = i;
+            long[] slice = slices.get(i);
+            // Commits run on the produce stage, after the sub-range's sends
+            fetches.add(fetchQuestionPages(slice[0], slice[1], 1, slice[1] + 1, questionsCount)
+                    .thenAcceptAsync(complete -> {
+                        if (complete && watermark.complete(sliceIndex) && checkpointValid.get()) {
+                            // An aborted transaction loses its records, so stop checkpointing this cycle
+                            checkpointValid.set(commitTransaction(watermark.get()));
+                            producer.beginTransaction();
+                        }
+                    }, produceExecutor));
+        }
+        CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).join();
+        
+        // Commit the questions of incomplete sub-ranges without moving the checkpoint
+        CompletableFuture.runAsync(() -> commitTransaction(-1), produceExecutor).join();
+        metrics.recordCycle("questions", System.nanoTime() - startNanos, cyclePages.get(), cycleItems.get());
+        reportDelivery();
+        System.out.println("[" + shard + "] Dedup cache: " + dedupCache);
+        
+        System.out.println("[" + shard + "] Total questions acknowledged by Kafka: " + questionsCount.get() + 
+                " (" + slices.size() + " sub-ranges)");
+        System.out.println("[" + shard + "] API source: " + apiSource);
+    }
+    
+    /**
+     * Fetch a page of a sub-range and chain the fetch of the following pages
+     *
+     * The future completes with true once all pages of the sub-range have been
+     * handed to the producer, or false if a page could not be fetched. Pages
+     * are sorted newest first, so when paging stops early the questions from the
+     * oldest one seen up to toDate are still known to be complete, and are what
+     * the scheduler gets as covered.
+     *
+     * @param oldestSeen oldest creation_date on the previous pages, or toDate + 1 on the first
+     */
+    private CompletableFuture<Boolean> fetchQuestionPages(long fromDate, long toDate, int page, long oldestSeen,
+                                                          AtomicInteger questionsCount) {
+        return getQuestions(fromDate, toDate, page)
+                .thenApplyAsync(this::parseQuestionPage, parseExecutor)
+                .thenComposeAsync(questionPage -> {
+                    if (questionPage == null) {
+                        if (!budget.isQuotaExhausted()) {
+                            System.err.println("Failed to fetch questions or empty response");
+                        }
+                        scheduler.recordCoverage(oldestSeen, toDate);
+                        return CompletableFuture.completedFuture(false);
                     }
-                }
-                
-                System.out.println("Processed " + items.length() + " questions (page " + page + ")");
-                page++;
-                
-                // Check if we should continue or stop due to quota limits
-                if (quotaRemaining != -1 && quotaRemaining < 10) {
-                    System.out.println("API quota running low, stopping fetch");
-                    break;
-                }
-                
-                // Small delay between requests to be nice to the API
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                System.err.println("Failed to fetch questions or empty response");
-                hasMore = false;
+                    
+                    scheduler.recordPage(questionPage.items);
+                    long oldest = oldestSeen;
+                    for (QuestionRecord question : questionPage.items) {
+                        oldest = Math.min(oldest, question.getCreationDate());
+                    }
+                    CompletableFuture<Void> produced = CompletableFuture.runAsync(
+                            () -> ingestQuestions(questionPage.items, questionsCount, false), produceExecutor);
+                    
+                    // Request the next page while this one is being produced
+                    if (questionPage.hasMore) {
+                        if (budget.isQuotaExhausted()) {
+                            scheduler.recordCoverage(oldest, toDate);
+                            return produced.thenApply(v -> false);
+                        }
+                        return fetchQuestionPages(fromDate, toDate, page + 1, oldest, questionsCount)
+                                .thenCombine(produced, (complete, v) -> complete);
+                    }
+                    scheduler.recordCoverage(fromDate, toDate);
+                    return produced.thenApply(v -> true);
+                }, parseExecutor);
+    }
+    
+    /**
+     * Stream-parse a page of questions and record its quota and backoff fields
+     *
+     * Items keep the raw bytes returned by the API, or are read into binary
+     * records during the same scan; no JSON tree is built.
+     */
+    private QuestionPage parseQuestionPage(StackExchangeApiClient.Response response) {
+        if (response == null) {
+            return null;
+        }
+        
+        try (response) {
+            QuestionPageReader reader = new QuestionPageReader(response.getBody(), payloads.getQuestionSchema());
+            List<QuestionRecord> items = new ArrayList<>(PAGE_SIZE);
+            while (reader.nextItem()) {
+                items.add(new QuestionRecord(reader.getQuestionId(), reader.getCreationDate(), 
+                        reader.getLastActivityDate(), payloads.encodeQuestion(reader)));
+            }
+            
+            budget.update(reader.getQuotaRemaining(), reader.getBackoff());
+            metrics.recordQuota(reader.getQuotaRemaining(), reader.getBackoff());
+            if (reader.getErrorMessage() != null) {
+                System.err.println("API error: " + reader.getErrorMessage());
+                return null;
+            }
+            
+            cyclePages.incrementAndGet();
+            cycleItems.addAndGet(items.size());
+            return new QuestionPage(items, reader.hasMore());
+        } catch (Exception e) {
+            metrics.recordParseError();
+            System.err.println("Error parsing API response: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Send a page of questions to Kafka
+     *
+     * Questions that were already produced and have not changed since (same
+     * last_activity_date) are dropped. questionsCount is incremented as the
+     * broker acknowledges each question.
+     *
+     * @param update whether the questions were produced before and are sent again because they changed
+     */
+    private void ingestQuestions(List<QuestionRecord> items, AtomicInteger questionsCount, boolean update) {
+        for (QuestionRecord question : items) {
+            boolean changed = dedupCache.shouldProduce(question.getQuestionId(), question.getLastActivityDate());
+            metrics.recordItem(changed);
+            if (!changed) {
+                continue;
             }
+            String key = shard.recordKey(String.valueOf(question.getQuestionId()));
+            sendToKafka(QUESTION_TOPIC, key, question.getJson(), questionsCount, question.getCreationDate(), update);
+        }
+    }
+    
+    /**
+     * Fetch the questions that changed since the last fetch and ingest them again
+     *
+     * The questions cycles only fetch questions created after the checkpoint, so
+     * without this the new answers, votes and edits of a checkpointed question
+     * never reach the stream. Questions created within the backfill window up to
+     * the checkpoint are fetched least recently active first, at most
+     * activityPages pages per cycle; the rest follow in the next cycle. Their
+     * records carry {@link QuestionRecord#UPDATE_HEADER}.
+     */
+    public void fetchAndIngestActivity() {
+        long checkpoint = lastFetchTime;
+        if (activityPages == 0 || checkpoint == -1) {
+            return;
+        }
+        if (activitySince == -1) {
+            // Questions up to the checkpoint were fetched as they were when it was taken
+            activitySince = checkpoint;
         }
         
-        System.out.println("Total questions sent to Kafka: " + questionsCount);
+        long startNanos = System.nanoTime();
+        cyclePages.set(0);
+        cycleItems.set(0);
+        AtomicInteger questionsCount = new AtomicInteger();
+        long since = activitySince - ACTIVITY_OVERLAP_SECONDS;
+        
+        producer.beginTransaction();
+        long newest = fetchActivityPages(since, checkpoint - BACKFILL_DAYS * 86400L, checkpoint, 1, activitySince, 
+                questionsCount).join();
+        boolean committed = CompletableFuture.supplyAsync(() -> commitTransaction(-1), produceExecutor).join();
+        if (committed) {
+            activitySince = newest;
+        }
+        metrics.recordCycle("activity", System.nanoTime() - startNanos, cyclePages.get(), cycleItems.get());
+        
+        System.out.println("[" + shard + "] Changed questions acknowledged by Kafka: " + questionsCount.get() + 
+                " (active since " + since + ")");
+    }
+    
+    /**
+     * Fetch a page of changed questions and chain the fetch of the following pages
+     *
+     * Pages are sorted least recently active first, so all changes up to the
+     * newest last_activity_date on the fetched pages are known to be ingested.
+     *
+     * @param newestSeen newest last_activity_date on the previous pages
+     * @return a future of the newest last_activity_date on all fetched pages
+     */
+    private CompletableFuture<Long> fetchActivityPages(long since, long fromDate, long toDate, int page, 
+                                                       long newestSeen, AtomicInteger questionsCount) {
+        return getActiveQuestions(since, fromDate, toDate, page)
+                .thenApplyAsync(this::parseQuestionPage, parseExecutor)
+                .thenComposeAsync(questionPage -> {
+                    if (questionPage == null) {
+                        return CompletableFuture.completedFuture(newestSeen);
+                    }
+                    
+                    long newest = newestSeen;
+                    for (QuestionRecord question : questionPage.items) {
+                        newest = Math.max(newest, question.getLastActivityDate());
+                    }
+                    CompletableFuture<Void> produced = CompletableFuture.runAsync(
+                            () -> ingestQuestions(questionPage.items, questionsCount, true), produceExecutor);
+                    
+                    if (questionPage.hasMore && page < activityPages && !budget.isQuotaExhausted()) {
+                        return fetchActivityPages(since, fromDate, toDate, page + 1, newest, questionsCount)
+                                .thenCombine(produced, (reached, v) -> reached);
+                    }
+                    long reached = newest;
+                    return produced.thenApply(v -> reached);
+                }, parseExecutor);
     }
     
     /**
@@ -289,60 +703,181 @@ public class StackExchangeToKafka {
      */
     public void fetchAndIngestTrends() {
         // Fetch popular tags
+        long startNanos = System.nanoTime();
         JSONObject response = getTags(1);
         
         if (response != null && response.has("items")) {
             JSONArray items = response.getJSONArray("items");
-            int trendsCount = 0;
+            AtomicInteger trendsCount = new AtomicInteger();
+            long timestamp = System.currentTimeMillis() / 1000;
+            producer.beginTransaction();
             
             // Send each tag trend to Kafka
             for (int i = 0; i < items.length(); i++) {
                 JSONObject tag = items.getJSONObject(i);
                 
-                JSONObject trendData = new JSONObject();
-                trendData.put("tag", tag.getString("name"));
-                trendData.put("count", tag.getInt("count"));
-                
                 String tagName = tag.getString("name");
-                boolean success = sendToKafka(TRENDS_TOPIC, tagName, trendData.toString());
-                if (success) {
-                    trendsCount++;
-                }
+                byte[] value = payloads.encodeTrend(tagName, tag.getLong("count"), timestamp);
+                sendToKafka(TRENDS_TOPIC, shard.recordKey(tagName), value, trendsCount, -1, false);
             }
+            commitTransaction(-1);
+            metrics.recordCycle("trends", System.nanoTime() - startNanos, 1, items.length());
+            reportDelivery();
             
-            System.out.println("Total tag trends sent to Kafka: " + trendsCount);
+            System.out.println("[" + shard + "] Total tag trends acknowledged by Kafka: " + trendsCount.get());
         } else {
             System.err.println("Failed to fetch tags or empty response");
         }
     }
     
     /**
-     * Run the ingestion process continuously
+     * Run one ingestion cycle of this shard: its questions and (on the site's first shard) tag trends,
+     * each if it is due
+     */
+    public void runCycle() {
+        long now = System.currentTimeMillis() / 1000;
+        // A failed fetch is rescheduled too, so the shard's next ingester does not retry it right away
+        if (scheduler.isQuestionsDue(now)) {
+            System.out.println("[" + shard + "] Fetching questions");
+            try {
+                fetchAndIngestQuestions();
+                fetchAndIngestActivity();
+            } finally {
+                long interval = scheduler.questionsFetched(now, budget.getQuotaRemaining(), QUOTA_RESERVE);
+                metrics.recordSchedule(shard.toString(), interval, scheduler.getArrivalsPerHour());
+                System.out.println("[" + shard + "] Next questions fetch in " + interval + "s (" + 
+                        Math.round(scheduler.getArrivalsPerHour()) + " questions/h)");
+            }
+        }
+        
+        if (scheduler.isTagsDue(now)) {
+            System.out.println("[" + shard + "] Fetching tag trends");
+            try {
+                fetchAndIngestTrends();
+            } finally {
+                scheduler.tagsFetched(now);
+            }
+        }
+    }
+    
+    /**
+     * Get the time until this shard has a fetch due, in milliseconds
+     */
+    public long millisUntilDue() {
+        return scheduler.secondsUntilDue(System.currentTimeMillis() / 1000) * 1000;
+    }
+    
+    /**
+     * Stop the pipeline stages and close the producer
      */
-    public void runIngestion(int interval) throws InterruptedException {
-        System.out.println("Starting Stack Exchange API to Kafka ingestion (interval: " + interval + "s)");
+    public void close() {
+        fetchExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
+        produceExecutor.shutdownNow();
+        producer.close();
+        System.out.println("[" + shard + "] Producer closed");
+    }
+    
+    /**
+     * Run the ingestion of a worker's shards continuously
+     *
+     * Without leases the worker owns every shard. With leases, ownership is
+     * renewed in the background and checked on every tick: shards that moved to
+     * another worker are closed once their running cycle ends, new ones get
+     * their own ingester, which resumes from the shard's checkpoint. Each owned
+     * shard starts a cycle whenever its scheduler has a fetch due, concurrently
+     * with the others.
+     *
+     * @param leases shard assignment shared with other workers, or null
+     * @param newIngester creates the ingester of a shard
+     */
+    private static void runWorker(List<IngestShard> shards, ShardLeases leases, 
+                                  Function<IngestShard, StackExchangeToKafka> newIngester) 
+            throws InterruptedException, IOException {
+        System.out.println("Starting Stack Exchange API to Kafka ingestion (shards: " + shards.size() + ")");
         
+        Set<String> allShards = new LinkedHashSet<>();
+        for (IngestShard shard : shards) {
+            allShards.add(shard.getCheckpointKey());
+        }
+        AtomicReference<Set<String>> owned = new AtomicReference<>(leases == null ? allShards : leases.renew());
+        
+        ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+        if (leases != null) {
+            leaseRenewer.scheduleAtFixedRate(() -> {
+                try {
+                    owned.set(leases.renew());
+                } catch (IOException e) {
+                    System.err.println("Cannot renew shard leases: " + e.getMessage());
+                }
+            }, LEASE_RENEW_MILLIS, LEASE_RENEW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        
+        ExecutorService shardExecutor = Executors.newCachedThreadPool();
+        Map<String, StackExchangeToKafka> ingesters = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Void>> cycles = new LinkedHashMap<>();
+        Set<String> reported = new HashSet<>();
         try {
             while (true) {
-                long startTime = System.currentTimeMillis();
-                
-                System.out.println("Fetching questions");
-                fetchAndIngestQuestions();
+                Set<String> current = owned.get();
+                if (!current.equals(reported)) {
+                    System.out.println("Owned shards: " + current);
+                    reported = current;
+                }
                 
-                System.out.println("Fetching tag trends");
-                fetchAndIngestTrends();
+                // Collect finished cycles
+                Iterator<Map.Entry<String, CompletableFuture<Void>>> done = cycles.entrySet().iterator();
+                while (done.hasNext()) {
+                    Map.Entry<String, CompletableFuture<Void>> cycle = done.next();
+                    if (!cycle.getValue().isDone()) {
+                        continue;
+                    }
+                    done.remove();
+                    try {
+                        cycle.getValue().join();
+                    } catch (Exception e) {
+                        // E.g. fenced by a worker that took the shard over; recreated if still owned
+                        System.err.println("[" + cycle.getKey() + "] Cycle failed, closing its ingester: " + 
+                                e.getMessage());
+                        ingesters.remove(cycle.getKey()).close();
+                    }
+                }
                 
-                // Calculate sleep time to maintain the interval
-                long elapsed = System.currentTimeMillis() - startTime;
-                long sleepTime = Math.max(0, interval * 1000 - elapsed);
+                // Close the ingesters of shards this worker lost, once they are idle
+                Iterator<Map.Entry<String, StackExchangeToKafka>> it = ingesters.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, StackExchangeToKafka> entry = it.next();
+                    if (!current.contains(entry.getKey()) && !cycles.containsKey(entry.getKey())) {
+                        entry.getValue().close();
+                        it.remove();
+                    }
+                }
                 
-                System.out.println("Fetch completed in " + (elapsed / 1000) + "s, sleeping for " + 
-                        (sleepTime / 1000) + "s");
-                TimeUnit.MILLISECONDS.sleep(sleepTime);
+                long sleepMillis = WORKER_TICK_MILLIS;
+                for (IngestShard shard : shards) {
+                    String key = shard.getCheckpointKey();
+                    if (!current.contains(key) || cycles.containsKey(key)) {
+                        continue;
+                    }
+                    StackExchangeToKafka ingester = ingesters.computeIfAbsent(key, k -> newIngester.apply(shard));
+                    long dueMillis = ingester.millisUntilDue();
+                    if (dueMillis == 0) {
+                        cycles.put(key, CompletableFuture.runAsync(ingester::runCycle, shardExecutor));
+                    } else {
+                        sleepMillis = Math.min(sleepMillis, dueMillis);
+                    }
+                }
+                TimeUnit.MILLISECONDS.sleep(sleepMillis);
             }
         } finally {
-            producer.close();
-            System.out.println("Producer closed");
+            leaseRenewer.shutdownNow();
+            shardExecutor.shutdownNow();
+            for (StackExchangeToKafka ingester : ingesters.values()) {
+                ingester.close();
+            }
+            if (leases != null) {
+                leases.release();
+            }
         }
     }
     
@@ -350,25 +885,203 @@ public class StackExchangeToKafka {
      * Print usage information
      */
     private static void printUsage() {
-        System.out.println("Usage: java StackExchangeToKafka [--fetch-interval SECONDS]");
-        System.out.println("  --fetch-interval SECONDS  Interval between API fetches in seconds (default: " + 
-                DEFAULT_FETCH_INTERVAL + ")");
+        System.out.println("Usage: java StackExchangeToKafka [--min-interval SECONDS] [--max-interval SECONDS] " +
+                "[--fetch-interval SECONDS] [--tag-interval SECONDS] [--producer-profile PROFILE] [--virtual-threads] [--metrics-port PORT [--metrics-address ADDR]] [--record DIR | --replay DIR [--replay-rate N] " +
+                "[--replay-scale N] [--replay-http]] [--sites LIST] [--shards N] [--lease-dir DIR " +
+                "[--worker-id ID] [--daily-quota N]] [--activity-pages N] [--payload-format FORMAT]");
+        System.out.println("  --min-interval SECONDS     Shortest interval between question fetches of a shard " +
+                "(default: " + DEFAULT_MIN_INTERVAL + ")");
+        System.out.println("  --max-interval SECONDS     Longest interval between question fetches of a shard, " +
+                "unless the quota runs short (default: " + DEFAULT_MAX_INTERVAL + ")");
+        System.out.println("  --fetch-interval SECONDS   Fetch questions at this fixed interval instead");
+        System.out.println("  --tag-interval SECONDS     Interval between tag fetches (default: " + 
+                DEFAULT_TAG_INTERVAL + ")");
+        System.out.println("  --producer-profile PROFILE Kafka producer settings: " + ProducerProfiles.THROUGHPUT + 
+                " or " + ProducerProfiles.BASIC + " (default: " + DEFAULT_PRODUCER_PROFILE + ")");
+        System.out.println("  --virtual-threads          Run fetch, parse and produce workers on virtual threads " +
+                "(Java 21+)");
+        System.out.println("  --metrics-port PORT        Serve Prometheus metrics on http://host:PORT/metrics " +
+                "(default: publish over JMX)");
+        System.out.println("  --metrics-address ADDR     Address the metrics port listens on (default: 127.0.0.1)");
+        System.out.println("  --record DIR               Save every API page fetched under DIR/SITE");
+        System.out.println("  --replay DIR               Serve pages saved with --record instead of calling the API");
+        System.out.println("  --replay-rate N            Replayed requests per second (default: unlimited)");
+        System.out.println("  --replay-scale N           Replay N synthesized copies of the recorded questions " +
+                "per time range (default: 1, the pages as recorded)");
+        System.out.println("  --replay-http              Replay through a local HTTP server and the real API client");
+        System.out.println("  --sites LIST               Comma-separated Stack Exchange sites to ingest (default: " + 
+                DEFAULT_SITES + ")");
+        System.out.println("  --shards N                 Split each site's time range into N shards (default: 1)");
+        System.out.println("  --lease-dir DIR            Share the shards and the API quota with the other workers " +
+                "using DIR");
+        System.out.println("  --worker-id ID             Name of this worker in the leases (default: PID@HOST)");
+        System.out.println("  --daily-quota N            API requests per day across all workers (default: " + 
+                DEFAULT_DAILY_QUOTA + ")");
+        System.out.println("  --activity-pages N         Pages of changed questions fetched per cycle on each " +
+                "site's first shard, 0 for none (default: " + DEFAULT_ACTIVITY_PAGES + ")");
+        System.out.println("  --payload-format FORMAT    Encoding of produced records: " + PayloadCodec.JSON + 
+                " or " + PayloadCodec.AVRO + " (default: " + PayloadCodec.JSON + ")");
+    }
+    
+    /**
+     * Create the API source of a site selected on the command line
+     *
+     * Recorded pages of each site are kept in a DIR/SITE subdirectory.
+     */
+    private static ApiSource createApiSource(String site, String recordDir, String replayDir, double replayRate, 
+                                             int replayScale, boolean replayHttp) throws IOException {
+        if (replayDir != null) {
+            Path directory = Paths.get(replayDir).resolve(site);
+            ReplayApiSource replay = new ReplayApiSource(directory, replayRate, replayScale);
+            System.out.println("Replaying API pages from " + directory + " (rate: " + 
+                    (replayRate > 0 ? replayRate + "/s" : "unlimited") + ", scale: " + replayScale + ")");
+            if (!replayHttp) {
+                return replay;
+            }
+            // Left running until the process exits
+            ReplayServer server = new ReplayServer(replay, MAX_IN_FLIGHT_REQUESTS);
+            System.out.println("Replay server listening on " + server.getBaseUrl());
+            return new StackExchangeApiClient(server.getBaseUrl(), site, null);
+        }
+        
+        StackExchangeApiClient apiClient = new StackExchangeApiClient(STACK_API_BASE_URL, site, API_KEY);
+        if (recordDir != null) {
+            Path directory = Paths.get(recordDir).resolve(site);
+            System.out.println("Recording API pages to " + directory);
+            return new RecordingApiSource(apiClient, directory);
+        }
+        return apiClient;
     }
     
     /**
      * Main method
      */
     public static void main(String[] args) {
-        int fetchInterval = DEFAULT_FETCH_INTERVAL;
+        int minInterval = DEFAULT_MIN_INTERVAL;
+        int maxInterval = DEFAULT_MAX_INTERVAL;
+        int tagInterval = DEFAULT_TAG_INTERVAL;
+        String producerProfile = DEFAULT_PRODUCER_PROFILE;
+        boolean virtualThreads = false;
+        int metricsPort = 0;
+        String metricsAddress = null;
+        String recordDir = null;
+        String replayDir = null;
+        double replayRate = 0;
+        int replayScale = 1;
+        boolean replayHttp = false;
+        String sites = DEFAULT_SITES;
+        int shardCount = 1;
+        String leaseDir = null;
+        String workerId = null;
+        long dailyQuota = DEFAULT_DAILY_QUOTA;
+        String payloadFormat = PayloadCodec.JSON;
+        int activityPages = DEFAULT_ACTIVITY_PAGES;
         
         // Parse command line arguments
         for (int i = 0; i < args.length; i++) {
-            if ("--fetch-interval".equals(args[i]) && i + 1 < args.length) {
+            if (("--fetch-interval".equals(args[i]) || "--min-interval".equals(args[i]) || 
+                    "--max-interval".equals(args[i]) || "--tag-interval".equals(args[i])) && i + 1 < args.length) {
+                String option = args[i];
+                int seconds = 0;
+                try {
+                    seconds = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+                if (seconds < 1) {
+                    System.err.println("Invalid interval: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+                if ("--fetch-interval".equals(option)) {
+                    minInterval = seconds;
+                    maxInterval = seconds;
+                } else if ("--min-interval".equals(option)) {
+                    minInterval = seconds;
+                } else if ("--max-interval".equals(option)) {
+                    maxInterval = seconds;
+                } else {
+                    tagInterval = seconds;
+                }
+            } else if ("--producer-profile".equals(args[i]) && i + 1 < args.length) {
+                producerProfile = args[++i];
+                if (!ProducerProfiles.THROUGHPUT.equals(producerProfile) && 
+                        !ProducerProfiles.BASIC.equals(producerProfile)) {
+                    System.err.println("Invalid producer profile: " + producerProfile);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--virtual-threads".equals(args[i])) {
+                virtualThreads = true;
+            } else if ("--metrics-port".equals(args[i]) && i + 1 < args.length) {
                 try {
-                    fetchInterval = Integer.parseInt(args[i + 1]);
-                    i++; // Skip the next argument
+                    metricsPort = Integer.parseInt(args[++i]);
                 } catch (NumberFormatException e) {
-                    System.err.println("Invalid fetch interval: " + args[i + 1]);
+                    System.err.println("Invalid metrics port: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--metrics-address".equals(args[i]) && i + 1 < args.length) {
+                metricsAddress = args[++i];
+            } else if ("--record".equals(args[i]) && i + 1 < args.length) {
+                recordDir = args[++i];
+            } else if ("--replay".equals(args[i]) && i + 1 < args.length) {
+                replayDir = args[++i];
+            } else if ("--replay-rate".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    replayRate = Double.parseDouble(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid replay rate: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--replay-scale".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    replayScale = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid replay scale: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--replay-http".equals(args[i])) {
+                replayHttp = true;
+            } else if ("--sites".equals(args[i]) && i + 1 < args.length) {
+                sites = args[++i];
+            } else if ("--shards".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    shardCount = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid shard count: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--lease-dir".equals(args[i]) && i + 1 < args.length) {
+                leaseDir = args[++i];
+            } else if ("--worker-id".equals(args[i]) && i + 1 < args.length) {
+                workerId = args[++i];
+            } else if ("--daily-quota".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    dailyQuota = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid daily quota: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--activity-pages".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    activityPages = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    activityPages = -1;
+                }
+                if (activityPages < 0) {
+                    System.err.println("Invalid activity page count: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if ("--payload-format".equals(args[i]) && i + 1 < args.length) {
+                payloadFormat = args[++i];
+                if (!PayloadCodec.JSON.equals(payloadFormat) && !PayloadCodec.AVRO.equals(payloadFormat)) {
+                    System.err.println("Invalid payload format: " + payloadFormat);
                     printUsage();
                     System.exit(1);
                 }
@@ -379,10 +1092,88 @@ public class StackExchangeToKafka {
             }
         }
         
+        if (recordDir != null && replayDir != null) {
+            System.err.println("--record and --replay cannot be combined");
+            printUsage();
+            System.exit(1);
+        }
+        if (replayScale < 1) {
+            System.err.println("Invalid replay scale: " + replayScale);
+            printUsage();
+            System.exit(1);
+        }
+        if (minInterval > maxInterval) {
+            System.err.println("--min-interval cannot be longer than --max-interval");
+            printUsage();
+            System.exit(1);
+        }
+        if (shardCount < 1 || dailyQuota < 1) {
+            System.err.println("Invalid shard count or daily quota: " + shardCount + ", " + dailyQuota);
+            printUsage();
+            System.exit(1);
+        }
+        
+        if (virtualThreads && !WorkerThreads.virtualThreadsSupported()) {
+            System.err.println("Virtual threads need Java 21 or later, using platform threads");
+            virtualThreads = false;
+        }
+        
         // Create and run the ingestion
-        StackExchangeToKafka ingestion = new StackExchangeToKafka();
         try {
-            ingestion.runIngestion(fetchInterval);
+            IngestMetrics metrics = IngestMetrics.create(metricsPort, metricsAddress);
+            List<String> siteList = Arrays.asList(sites.split(","));
+            List<IngestShard> shards = IngestShard.forSites(siteList, shardCount);
+            
+            // One API source per site, shared by its shards
+            Map<String, ApiSource> apiSources = new HashMap<>();
+            for (String site : siteList) {
+                apiSources.put(site, createApiSource(site, recordDir, replayDir, replayRate, replayScale, replayHttp));
+                if (!IngestShard.DEFAULT_SITE.equals(site)) {
+                    System.out.println("Records of " + site + " are produced but not yet written to the tables, " +
+                            "the search index or the live feed");
+                }
+            }
+            
+            ShardLeases leases = null;
+            SharedTokenBucket quotaBucket = null;
+            if (leaseDir != null) {
+                if (workerId == null) {
+                    workerId = ProcessHandle.current().pid() + "@" + InetAddress.getLocalHost().getHostName();
+                }
+                List<String> shardKeys = new ArrayList<>();
+                for (IngestShard shard : shards) {
+                    shardKeys.add(shard.getCheckpointKey());
+                }
+                leases = new ShardLeases(Paths.get(leaseDir), workerId, shardKeys, LEASE_MILLIS);
+                quotaBucket = new SharedTokenBucket(Paths.get(leaseDir).resolve("quota.bucket"), dailyQuota, 
+                        Math.max(1, dailyQuota * QUOTA_BURST_HOURS / 24));
+                System.out.println("Worker " + workerId + " sharing " + shards.size() + " shards and " + 
+                        dailyQuota + " requests/day through " + leaseDir);
+            }
+            
+            String producer = producerProfile;
+            boolean virtual = virtualThreads;
+            boolean replay = replayDir != null;
+            SharedTokenBucket bucket = quotaBucket;
+            // Recordings hold only the pages of the questions cycles
+            int pagesPerCycle = replay ? 0 : activityPages;
+            PayloadCodec payloads = new PayloadCodec(SchemaRegistry.load(), payloadFormat);
+            
+            // Schedulers outlive ingesters, so a shard that comes back keeps its rate estimates;
+            // all shards draw from one API key, so each plans with its share of the quota
+            Map<String, FetchScheduler> schedulers = new HashMap<>();
+            for (IngestShard shard : shards) {
+                schedulers.put(shard.getCheckpointKey(), new FetchScheduler(minInterval, maxInterval, tagInterval, 
+                        shard.fetchesTrends(), PAGE_SIZE, 1.0 / shards.size()));
+            }
+            System.out.println("Question fetch interval: " + (minInterval == maxInterval 
+                    ? minInterval + "s" : minInterval + "-" + maxInterval + "s") + ", tag interval: " + 
+                    tagInterval + "s");
+            runWorker(shards, leases, shard -> new StackExchangeToKafka(producer, virtual, metrics, 
+                    apiSources.get(shard.getSite()), shard, 
+                    replay ? shard.getCheckpointKey() + REPLAY_CHECKPOINT_SUFFIX : shard.getCheckpointKey(), 
+                    bucket, payloads, schedulers.get(shard.getCheckpointKey()), 
+                    pagesPerCycle));
         } catch (InterruptedException e) {
             System.out.println("Ingestion interrupted, shutting down");
             Thread.currentThread().interrupt();
@@ -391,4 +1182,17 @@ public class StackExchangeToKafka {
             e.printStackTrace();
         }
     }
+    
+    /**
+     * A parsed page of questions
+     */
+    private static class QuestionPage {
+        private final List<QuestionRecord> items;
+        private final boolean hasMore;
+        
+        QuestionPage(List<QuestionRecord> items, boolean hasMore) {
+            this.items = items;
+            this.hasMore = hasMore;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+import com.stacksight.codec.Payload;
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import com.stacksight.hbase.HBaseConnections;
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.QuestionPuts;
+import com.stacksight.hbase.TopAnswersUpdater;
+import com.stacksight.hbase.TrendSeries;
+import com.stacksight.ingest.IngestShard;
+import com.stacksight.ingest.QuestionRecord;
+import com.stacksight.trends.TagStreamAggregator;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.spark.api.java.function.ForeachPartitionFunction;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.Trigger;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Kafka to HBase Structured Streaming job for StackSights
+ *
+ * This application:
+ * 1. Reads the stackoverflow-questions and stackoverflow-trends topics (committed records only)
+ * 2. Writes questions and answers to stackoverflow_qna, and rewrites the top_answers
+ *    ranks whose answer changed
+ * 3. Adds each question to the stackoverflow_tag_index rows of its tags
+ * 4. Writes timestamped tag count snapshots, with 1h/24h/7d deltas, to stackoverflow_trends
+ * 5. Counts questions per tag and tag pair (velocity and co-occurrence) into stackoverflow_trends
+ * 6. Records the time of each query's last written batch (the ingestion watermark)
+ *
+ * Each partition of a micro-batch writes through BufferedMutators on the
+ * executor's shared HBase connection, so mutations are sent in batches rather
+ * than one RPC per row. Throughput is bounded by maxOffsetsPerTrigger and the
+ * trigger interval.
+ */
+public class StackSightsStreaming {
+
+    // Configuration
+    private static final String KAFKA_BOOTSTRAP_SERVERS = "localhost:29092";
+    private static final String QUESTION_TOPIC = "stackoverflow-questions";
+    private static final String TRENDS_TOPIC = "stackoverflow-trends";
+    private static final String HBASE_ZOOKEEPER_QUORUM = "localhost";
+    private static final String HBASE_ZOOKEEPER_CLIENT_PORT = "2181";
+
+    private static final long DEFAULT_MAX_OFFSETS_PER_TRIGGER = 10000;
+    private static final int DEFAULT_TRIGGER_INTERVAL = 10; // seconds
+    private static final String DEFAULT_CHECKPOINT_DIR = "/tmp/stacksights/checkpoints";
+    private static final long WRITE_BUFFER_BYTES = 4L * 1024 * 1024;
+    private static final int TOP_ANSWERS_BATCH = 500; // questions per multi-Get of the stored ranks
+
+    // Reads both JSON and binary payloads; loaded once per executor JVM
+    private static final PayloadCodec PAYLOADS = new PayloadCodec(SchemaRegistry.load(), PayloadCodec.JSON);
+
+    /**
+     * Open a Kafka topic as a stream of (key, value, updated) rows
+     *
+     * updated is true for records that update a question produced before.
+     */
+    private static Dataset<Row> readTopic(SparkSession spark, String topic, long maxOffsetsPerTrigger) {
+        return spark.readStream()
+                .format("kafka")
+                .option("kafka.bootstrap.servers", KAFKA_BOOTSTRAP_SERVERS)
+                .option("subscribe", topic)
+                .option("startingOffsets", "earliest")
+                .option("maxOffsetsPerTrigger", maxOffsetsPerTrigger)
+                // The ingester produces in transactions; skip aborted records
+                .option("kafka.isolation.level", "read_committed")
+                .option("failOnDataLoss", "false")
+                .option("includeHeaders", "true")
+                .load()
+                .selectExpr("CAST(key AS STRING) AS key", "value",
+                        "coalesce(exists(headers, h -> h.key = '" + QuestionRecord.UPDATE_HEADER + "'), false) "
+                                + "AS updated");
+    }
+
+    /**
+     * Start a query that hands each micro-batch partition to a writer
+     *
+     * Once all partitions of a batch are written, the query's watermark in
+     * stackoverflow_trends is advanced; the web app keys its ETags on it.
+     */
+    private static StreamingQuery startQuery(Dataset<Row> stream, String name,
+                                             ForeachPartitionFunction<Row> writer,
+                                             int triggerInterval, String checkpointDir) throws Exception {
+        return stream.writeStream()
+                .queryName(name)
+                .trigger(Trigger.ProcessingTime(triggerInterval * 1000L))
+                .option("checkpointLocation", checkpointDir + "/" + name)
+                .foreachBatch((VoidFunction2<Dataset<Row>, Long>) (batch, batchId) -> {
+                    batch.foreachPartition(writer);
+                    writeWatermark(name);
+                })
+                .start();
+    }
+
+    /**
+     * Record on the driver that a query has written a batch
+     */
+    private static void writeWatermark(String name) throws IOException {
+        Connection connection = HBaseConnections.get(HBASE_ZOOKEEPER_QUORUM, HBASE_ZOOKEEPER_CLIENT_PORT);
+        try (Table trends = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE))) {
+            trends.put(TrendSeries.watermark(name, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Create a BufferedMutator on the executor's shared HBase connection
+     */
+    private static BufferedMutator openMutator(String table) throws IOException {
+        Connection connection = HBaseConnections.get(HBASE_ZOOKEEPER_QUORUM, HBASE_ZOOKEEPER_CLIENT_PORT);
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(table))
+                .writeBufferSize(WRITE_BUFFER_BYTES);
+        return connection.getBufferedMutator(params);
+    }
+
+    /**
+     * Write a partition of questions to stackoverflow_qna and stackoverflow_tag_index
+     *
+     * Puts are idempotent, so a replayed micro-batch rewrites the same cells. The
+     * top_answers ranks are compared with the stored ones and only changed ranks
+     * are written, so a replay writes none. The partition's tag velocity and
+     * co-occurrence counts are flushed to stackoverflow_trends as increments at
+     * the end; those are counted again if a micro-batch is replayed. Updates of
+     * questions produced before are not counted again. Questions of sites other
+     * than stackoverflow are skipped.
+     */
+    private static void writeQuestions(Iterator<Row> rows) throws IOException, InterruptedException {
+        TagStreamAggregator tagAggregator = new TagStreamAggregator();
+        Connection connection = HBaseConnections.get(HBASE_ZOOKEEPER_QUORUM, HBASE_ZOOKEEPER_CLIENT_PORT);
+
+        // Closing the mutators flushes them; a failed flush fails the task, which Spark retries
+        try (Table qnaTable = connection.getTable(TableName.valueOf(HBaseSchema.QNA_TABLE));
+             BufferedMutator qna = openMutator(HBaseSchema.QNA_TABLE);
+             BufferedMutator tagIndex = openMutator(HBaseSchema.TAG_INDEX_TABLE)) {
+            TopAnswersUpdater topAnswers = new TopAnswersUpdater(qnaTable, qna, TOP_ANSWERS_BATCH);
+
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                if (!IngestShard.isDefaultSiteKey(row.getAs("key"))) {
+                    continue;
+                }
+                Payload question = parseValue(row);
+                if (question == null || !question.has("question_id")) {
+                    continue;
+                }
+                long questionId = question.getLong("question_id", -1);
+                List<String> tags = question.getStrings("tags");
+
+                // The qna row keeps the question fields and answers in the JSON shape of the API
+                JSONObject item = question.toJson();
+                qna.mutate(QuestionPuts.qnaPut(item));
+                tagIndex.mutate(QuestionPuts.tagIndexPuts(questionId, question.getLong("creation_date", 0), tags));
+                topAnswers.add(item);
+
+                boolean updated = row.getAs("updated");
+                if (!tags.isEmpty() && question.has("creation_date") && !updated) {
+                    tagAggregator.add(question.getLong("creation_date", -1), tags);
+                }
+            }
+            topAnswers.flush();
+        }
+
+        flushTagCounts(tagAggregator);
+    }
+
+    /**
+     * Apply the aggregated tag counts to stackoverflow_trends in one batch
+     */
+    private static void flushTagCounts(TagStreamAggregator tagAggregator) throws IOException, InterruptedException {
+        if (tagAggregator.isEmpty()) {
+            return;
+        }
+
+        List<Increment> increments = tagAggregator.drain();
+        Connection connection = HBaseConnections.get(HBASE_ZOOKEEPER_QUORUM, HBASE_ZOOKEEPER_CLIENT_PORT);
+        try (Table trends = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE))) {
+            trends.batch(increments, new Object[increments.size()]);
+        }
+    }
+
+    /**
+     * Write a partition of tag count snapshots to stackoverflow_trends
+     *
+     * Each snapshot becomes a tag#reversedTimeBucket row with its deltas against
+     * the snapshots 1h, 24h and 7d earlier, and updates the tag's leaderboard cell.
+     * Snapshots of sites other than stackoverflow are skipped.
+     */
+    private static void writeTrends(Iterator<Row> rows) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        Connection connection = HBaseConnections.get(HBASE_ZOOKEEPER_QUORUM, HBASE_ZOOKEEPER_CLIENT_PORT);
+
+        try (Table history = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE));
+             BufferedMutator trends = openMutator(HBaseSchema.TRENDS_TABLE)) {
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                if (!IngestShard.isDefaultSiteKey(row.getAs("key"))) {
+                    continue;
+                }
+                Payload trend = parseValue(row);
+                if (trend == null || !trend.has("tag")) {
+                    continue;
+                }
+
+                String tag = trend.getString("tag");
+                Put snapshot = TrendSeries.snapshotPut(history, tag, trend.getLong("count", 0), 
+                        trend.getLong("timestamp", now));
+                trends.mutate(snapshot);
+                trends.mutate(TrendSeries.summary(tag, snapshot));
+            }
+        }
+    }
+
+    /**
+     * Decode the JSON or binary value of a record, or return null if it is malformed
+     */
+    private static Payload parseValue(Row row) {
+        byte[] value = row.getAs("value");
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return PAYLOADS.decode(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping malformed record " + row.getAs("key") + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Print usage information
+     */
+    private static void printUsage() {
+        System.out.println("Usage: spark-submit --class StackSightsStreaming JAR [--max-offsets-per-trigger N] " +
+                "[--trigger-interval SECONDS] [--checkpoint-dir DIR]");
+        System.out.println("  --max-offsets-per-trigger N  Records read per micro-batch across partitions (default: " +
+                DEFAULT_MAX_OFFSETS_PER_TRIGGER + ")");
+        System.out.println("  --trigger-interval SECONDS   Interval between micro-batches (default: " +
+                DEFAULT_TRIGGER_INTERVAL + ")");
+        System.out.println("  --checkpoint-dir DIR         Streaming checkpoint directory (default: " +
+                DEFAULT_CHECKPOINT_DIR + ")");
+    }
+
+    /**
+     * Main method
+     */
+    public static void main(String[] args) throws Exception {
+        long maxOffsetsPerTrigger = DEFAULT_MAX_OFFSETS_PER_TRIGGER;
+        int triggerInterval = DEFAULT_TRIGGER_INTERVAL;
+        String checkpointDir = DEFAULT_CHECKPOINT_DIR;
+
+        // Parse command line arguments
+        for (int i = 0; i < args.length; i++) {
+            try {
+                if ("--max-offsets-per-trigger".equals(args[i]) && i + 1 < args.length) {
+                    maxOffsetsPerTrigger = Long.parseLong(args[++i]);
+                } else if ("--trigger-interval".equals(args[i]) && i + 1 < args.length) {
+                    triggerInterval = Integer.parseInt(args[++i]);
+                } else if ("--checkpoint-dir".equals(args[i]) && i + 1 < args.length) {
+                    checkpointDir = args[++i];
+                } else {
+                    System.err.println("Unknown argument: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid value for " + args[i - 1] + ": " + args[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        SparkSession spark = SparkSession.builder()
+                .appName("StackSightsStreaming")
+                // Batch durations, input rates and row counts per query, in Spark's metrics sinks
+                .config("spark.sql.streaming.metricsEnabled", "true")
+                .getOrCreate();
+
+        startQuery(readTopic(spark, QUESTION_TOPIC, maxOffsetsPerTrigger), TrendSeries.QUESTIONS_QUERY,
+                StackSightsStreaming::writeQuestions, triggerInterval, checkpointDir);
+        startQuery(readTopic(spark, TRENDS_TOPIC, maxOffsetsPerTrigger), TrendSeries.TRENDS_QUERY,
+                StackSightsStreaming::writeTrends, triggerInterval, checkpointDir);
+
+        System.out.println("StackSights streaming started (maxOffsetsPerTrigger: " + maxOffsetsPerTrigger +
+                ", trigger interval: " + triggerInterval + "s)");
+        spark.streams().awaitAnyTermination();
+    }
+}
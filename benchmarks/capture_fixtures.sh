@@ -0,0 +1,38 @@
+#!/bin/bash
+
+# Capture Stack Exchange API pages as benchmark fixtures
+#
+# Saves /questions pages with the ingester's filter (bodies, tags and answers)
+# under src/main/resources/fixtures, where PageFixtures finds them by name:
+#   java -jar target/benchmarks.jar -p fixture=questions-java -prof gc
+# Each request uses API quota; set STACK_API_KEY for the keyed quota.
+
+SITE=${SITE:-"stackoverflow"}
+TAGS=${TAGS:-"java python javascript apache-kafka"}
+PAGE_SIZE=${PAGE_SIZE:-100}
+FIXTURE_DIR="$(dirname "$0")/src/main/resources/fixtures"
+API_URL="https://api.stackexchange.com/2.3/questions"
+
+mkdir -p ${FIXTURE_DIR}
+
+capture() {
+  local name=$1
+  local query=$2
+  local url="${API_URL}?site=${SITE}&pagesize=${PAGE_SIZE}&sort=creation&order=desc&filter=!9_bDE(fI5${query}"
+  if [ -n "${STACK_API_KEY}" ]; then
+    url="${url}&key=${STACK_API_KEY}"
+  fi
+
+  # The API always gzips; --compressed stores the decompressed body
+  if curl -sf --compressed -o ${FIXTURE_DIR}/${name}.json "${url}"; then
+    echo "Captured ${name}.json ($(wc -c < ${FIXTURE_DIR}/${name}.json) bytes)"
+  else
+    echo "Error: failed to capture ${name}"
+    rm -f ${FIXTURE_DIR}/${name}.json
+  fi
+}
+
+capture "questions-latest" ""
+for tag in ${TAGS}; do
+  capture "questions-${tag}" "&tagged=${tag}"
+done
@@ -0,0 +1,76 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.hbase.HBaseSchema;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * In-memory stand-ins for the HBase tables read on the benchmarked paths
+ *
+ * Each implements only the calls its code path makes; anything else throws
+ * UnsupportedOperationException. The tag index fake is the unit tests'
+ * FakeTagIndexTable, from the main module's test-jar.
+ */
+public final class FakeTables {
+
+    private FakeTables() {
+    }
+
+    /**
+     * A stackoverflow_trends table whose history scans all find the same earlier snapshot
+     */
+    public static Table trendHistory(long count, long timestamp) {
+        Result snapshot = Result.create(new Cell[] {
+                new KeyValue(Bytes.toBytes("history"), HBaseSchema.TREND_CF, Bytes.toBytes("count"),
+                        Bytes.toBytes(String.valueOf(count))),
+                new KeyValue(Bytes.toBytes("history"), HBaseSchema.TREND_CF, Bytes.toBytes("timestamp"),
+                        Bytes.toBytes(String.valueOf(timestamp)))
+        });
+
+        return table((method, args) -> {
+            if (!"getScanner".equals(method)) {
+                return null;
+            }
+            boolean[] consumed = {false};
+            return Proxy.newProxyInstance(FakeTables.class.getClassLoader(), new Class<?>[] {ResultScanner.class},
+                    (proxy, scannerMethod, scannerArgs) -> {
+                        switch (scannerMethod.getName()) {
+                            case "next":
+                                if (consumed[0]) {
+                                    return null;
+                                }
+                                consumed[0] = true;
+                                return snapshot;
+                            case "close":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(scannerMethod.getName());
+                        }
+                    });
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    private static Table table(Handler handler) {
+        return (Table) Proxy.newProxyInstance(FakeTables.class.getClassLoader(), new Class<?>[] {Table.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        return null;
+                    }
+                    Object result = handler.handle(method.getName(), args);
+                    if (result == null) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    return result;
+                });
+    }
+}
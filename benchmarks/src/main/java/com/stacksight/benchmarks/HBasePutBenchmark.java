@@ -0,0 +1,166 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.QuestionPuts;
+import com.stacksight.hbase.TopAnswers;
+import com.stacksight.hbase.TrendSeries;
+import com.stacksight.trends.TagStreamAggregator;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the HBase mutations of the streaming job for one page of records
+ *
+ * - recordValues: parsing the Kafka record values into JSONObjects, as parseValue does
+ * - qnaPuts: stackoverflow_qna rows (question and answers)
+ * - topAnswerChanges: ranking each question's answers and diffing them against
+ *   its stored top_answers, here unchanged, as for a question fetched again
+ * - tagIndexPuts: stackoverflow_tag_index columns, one Put per tag
+ * - tagCounts: tag velocity and co-occurrence increments for stackoverflow_trends
+ * - trendSnapshots: stackoverflow_trends snapshot rows and leaderboard cells, with
+ *   the history scans answered by an in-memory table
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HBasePutBenchmark {
+
+    @Param({PageFixtures.SYNTHETIC})
+    private String fixture;
+
+    @Param({"100"})
+    private int itemCount;
+
+    @Param({"3"})
+    private int answersPerQuestion;
+
+    @Param({"100"})
+    private int trendCount;
+
+    private byte[][] values;
+    private List<JSONObject> questions;
+    private List<List<String>> questionTags;
+    private String[] trendTags;
+    private Table trendHistory;
+    private Result[] storedRanks;
+
+    @Setup
+    public void setUp() {
+        byte[] page = PageFixtures.questions(fixture, itemCount, answersPerQuestion);
+        JSONArray items = new JSONObject(new JSONTokener(new ByteArrayInputStream(page))).getJSONArray("items");
+
+        values = new byte[items.length()][];
+        questions = new ArrayList<>(items.length());
+        questionTags = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject question = items.getJSONObject(i);
+            values[i] = question.toString().getBytes(StandardCharsets.UTF_8);
+            questions.add(question);
+
+            List<String> tags = new ArrayList<>();
+            JSONArray array = question.optJSONArray("tags");
+            for (int t = 0; array != null && t < array.length(); t++) {
+                tags.add(array.getString(t));
+            }
+            questionTags.add(tags);
+        }
+
+        storedRanks = new Result[questions.size()];
+        for (int i = 0; i < questions.size(); i++) {
+            long questionId = questions.get(i).getLong("question_id");
+            List<JSONObject> top = TopAnswers.select(questions.get(i));
+            List<Cell> cells = new ArrayList<>();
+            for (int rank = 0; top != null && rank < top.size(); rank++) {
+                cells.add(new KeyValue(HBaseSchema.qnaRowKey(questionId), HBaseSchema.TOP_ANSWERS_CF,
+                        Bytes.toBytes(String.valueOf(rank + 1)), Bytes.toBytes(top.get(rank).toString())));
+            }
+            storedRanks[i] = Result.create(cells);
+        }
+
+        trendTags = new String[trendCount];
+        for (int i = 0; i < trendCount; i++) {
+            trendTags[i] = "tag-" + i;
+        }
+        trendHistory = FakeTables.trendHistory(1000, 1700000000L);
+    }
+
+    @Benchmark
+    public void recordValues(Blackhole blackhole) {
+        for (byte[] value : values) {
+            blackhole.consume(new JSONObject(new String(value, StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Benchmark
+    public void qnaPuts(Blackhole blackhole) {
+        for (JSONObject question : questions) {
+            blackhole.consume(QuestionPuts.qnaPut(question));
+        }
+    }
+
+    @Benchmark
+    public void topAnswerChanges(Blackhole blackhole) {
+        for (int i = 0; i < questions.size(); i++) {
+            JSONObject question = questions.get(i);
+            List<JSONObject> top = TopAnswers.select(question);
+            if (top != null) {
+                blackhole.consume(TopAnswers.changes(question.getLong("question_id"), top, storedRanks[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void tagIndexPuts(Blackhole blackhole) {
+        for (JSONObject question : questions) {
+            blackhole.consume(QuestionPuts.tagIndexPuts(question));
+        }
+    }
+
+    @Benchmark
+    public void tagCounts(Blackhole blackhole) {
+        TagStreamAggregator aggregator = new TagStreamAggregator();
+        for (int i = 0; i < questions.size(); i++) {
+            aggregator.add(questions.get(i).optLong("creation_date", 0), questionTags.get(i));
+        }
+        blackhole.consume(aggregator.drain());
+    }
+
+    @Benchmark
+    public void trendSnapshots(Blackhole blackhole) throws IOException {
+        long timestamp = 1700000000L + 7 * 24 * 3600;
+        for (int i = 0; i < trendTags.length; i++) {
+            Put snapshot = TrendSeries.snapshotPut(trendHistory, trendTags[i], 1000 + i, timestamp);
+            blackhole.consume(snapshot);
+            blackhole.consume(TrendSeries.summary(trendTags[i], snapshot));
+        }
+    }
+}
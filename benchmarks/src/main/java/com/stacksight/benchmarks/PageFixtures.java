@@ -0,0 +1,110 @@
+package com.stacksight.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stack Exchange API pages for the benchmarks
+ *
+ * Pages are either captured responses under fixtures/ on the classpath
+ * (see capture_fixtures.sh) or synthetic pages shaped like the responses of
+ * the ingester's queries.
+ */
+public final class PageFixtures {
+
+    private static final String[] TAGS = {"java", "apache-kafka", "hbase", "apache-spark", "json", "python", "javascript"};
+
+    public static final String SYNTHETIC = "synthetic";
+
+    private PageFixtures() {
+    }
+
+    /**
+     * Get a /questions page: a captured fixture by name, or a synthetic page
+     *
+     * @param fixture            name of a fixtures/NAME.json resource, or {@link #SYNTHETIC}
+     * @param itemCount          items of a synthetic page
+     * @param answersPerQuestion answers per item of a synthetic page
+     */
+    public static byte[] questions(String fixture, int itemCount, int answersPerQuestion) {
+        if (SYNTHETIC.equals(fixture)) {
+            return questionsPage(itemCount, answersPerQuestion);
+        }
+        return load(fixture);
+    }
+
+    /**
+     * Read a captured page from fixtures/NAME.json on the classpath
+     */
+    public static byte[] load(String name) {
+        String resource = "/fixtures/" + name + ".json";
+        try (InputStream in = PageFixtures.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture " + resource + "; capture it with capture_fixtures.sh");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Build a /questions page as returned with filter !9_bDE(fI5 (bodies, tags and answers)
+     */
+    public static byte[] questionsPage(int itemCount, int answersPerQuestion) {
+        StringBuilder page = new StringBuilder(itemCount * 8192);
+        page.append("{\"items\":[");
+        for (int i = 0; i < itemCount; i++) {
+            if (i > 0) {
+                page.append(',');
+            }
+            long questionId = 78000000L + i;
+            long creationDate = 1700000000L + i * 37L;
+            page.append("{\"tags\":[\"").append(TAGS[i % TAGS.length]).append("\",\"")
+                    .append(TAGS[(i + 3) % TAGS.length]).append("\"],")
+                    .append("\"owner\":{\"account_id\":").append(1000 + i)
+                    .append(",\"reputation\":").append(i * 13)
+                    .append(",\"user_id\":").append(2000 + i)
+                    .append(",\"user_type\":\"registered\",\"display_name\":\"user").append(i).append("\"},")
+                    .append("\"is_answered\":").append(i % 2 == 0)
+                    .append(",\"view_count\":").append(i * 7)
+                    .append(",\"answer_count\":").append(answersPerQuestion)
+                    .append(",\"score\":").append(i % 5)
+                    .append(",\"last_activity_date\":").append(creationDate + 600)
+                    .append(",\"creation_date\":").append(creationDate)
+                    .append(",\"question_id\":").append(questionId)
+                    .append(",\"link\":\"https://stackoverflow.com/questions/").append(questionId).append("/example\"")
+                    .append(",\"title\":\"How do I configure a &quot;batched&quot; producer number ").append(i).append("?\"")
+                    .append(",\"body\":\"").append(body(i, 1500)).append('"')
+                    .append(",\"answers\":[");
+            for (int a = 0; a < answersPerQuestion; a++) {
+                if (a > 0) {
+                    page.append(',');
+                }
+                page.append("{\"owner\":{\"user_id\":").append(3000 + a).append("},")
+                        .append("\"is_accepted\":").append(a == 0)
+                        .append(",\"score\":").append(answersPerQuestion - a)
+                        .append(",\"creation_date\":").append(creationDate + 60 * (a + 1))
+                        .append(",\"answer_id\":").append(questionId * 10 + a)
+                        .append(",\"question_id\":").append(questionId)
+                        .append(",\"body\":\"").append(body(i + a, 800)).append("\"}");
+            }
+            page.append("]}");
+        }
+        page.append("],\"has_more\":true,\"quota_max\":10000,\"quota_remaining\":9876}");
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String body(int seed, int length) {
+        StringBuilder body = new StringBuilder(length + 64);
+        body.append("<p>");
+        while (body.length() < length) {
+            body.append("Setting linger.ms \\u0026 batch.size to ").append(seed++)
+                    .append(" gives <code>KafkaProducer</code> more room.\\n");
+        }
+        body.append("</p>");
+        return body.toString();
+    }
+}
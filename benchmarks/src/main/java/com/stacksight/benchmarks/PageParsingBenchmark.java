@@ -0,0 +1,79 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.ingest.QuestionPageReader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a /questions page into Kafka keys and values
+ *
+ * Compares the org.json path (tree per page, toString() per item) with the
+ * streaming QuestionPageReader. Run with -prof gc and compare gc.alloc.rate.norm
+ * for the allocation per page. -p fixture=NAME parses a captured page instead
+ * of a synthetic one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageParsingBenchmark {
+
+    @Param({PageFixtures.SYNTHETIC})
+    private String fixture;
+
+    @Param({"100"})
+    private int itemCount;
+
+    @Param({"3"})
+    private int answersPerQuestion;
+
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        page = PageFixtures.questions(fixture, itemCount, answersPerQuestion);
+    }
+
+    @Benchmark
+    public void orgJson(Blackhole blackhole) {
+        JSONObject response = new JSONObject(new JSONTokener(new ByteArrayInputStream(page)));
+        JSONArray items = response.getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject question = items.getJSONObject(i);
+            blackhole.consume(String.valueOf(question.getLong("question_id")));
+            blackhole.consume(question.toString());
+        }
+        blackhole.consume(response.optBoolean("has_more", false));
+        blackhole.consume(response.optInt("quota_remaining", -1));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        QuestionPageReader reader = new QuestionPageReader(new ByteArrayInputStream(page));
+        while (reader.nextItem()) {
+            blackhole.consume(String.valueOf(reader.getQuestionId()));
+            blackhole.consume(reader.copyItem());
+        }
+        blackhole.consume(reader.hasMore());
+        blackhole.consume(reader.getQuotaRemaining());
+    }
+}
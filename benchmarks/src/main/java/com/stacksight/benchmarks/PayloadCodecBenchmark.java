@@ -0,0 +1,100 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.codec.Payload;
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import com.stacksight.ingest.QuestionPageReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding the question payloads of a page, JSON vs Avro
+ *
+ * encode includes reading the page, since binary records are filled during
+ * that scan. decode reads the fields the live feed and text indexer read;
+ * decodeToJson converts the whole item, as the qna writer does.
+ *
+ * Setup prints the total payload size of the page in each format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCodecBenchmark {
+
+    @Param({PageFixtures.SYNTHETIC})
+    private String fixture;
+
+    @Param({"100"})
+    private int itemCount;
+
+    @Param({"3"})
+    private int answersPerQuestion;
+
+    @Param({PayloadCodec.JSON, PayloadCodec.AVRO})
+    private String format;
+
+    private PayloadCodec codec;
+    private byte[] page;
+    private List<byte[]> payloads;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new PayloadCodec(SchemaRegistry.load(), format);
+        page = PageFixtures.questions(fixture, itemCount, answersPerQuestion);
+        QuestionPageReader reader = new QuestionPageReader(new ByteArrayInputStream(page), codec.getQuestionSchema());
+        payloads = new ArrayList<>();
+        long bytes = 0;
+        while (reader.nextItem()) {
+            byte[] payload = codec.encodeQuestion(reader);
+            payloads.add(payload);
+            bytes += payload.length;
+        }
+        System.out.println(format + ": " + payloads.size() + " questions, " + bytes + " payload bytes");
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) throws IOException {
+        QuestionPageReader reader = new QuestionPageReader(new ByteArrayInputStream(page), codec.getQuestionSchema());
+        while (reader.nextItem()) {
+            blackhole.consume(codec.encodeQuestion(reader));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (byte[] payload : payloads) {
+            Payload question = codec.decode(payload);
+            blackhole.consume(question.getLong("question_id", -1));
+            blackhole.consume(question.getLong("creation_date", -1));
+            blackhole.consume(question.getString("title"));
+            blackhole.consume(question.getString("body"));
+            blackhole.consume(question.getStrings("tags"));
+        }
+    }
+
+    @Benchmark
+    public void decodeToJson(Blackhole blackhole) {
+        for (byte[] payload : payloads) {
+            blackhole.consume(codec.decode(payload).toJson());
+        }
+    }
+}
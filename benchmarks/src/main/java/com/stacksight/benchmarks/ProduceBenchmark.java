@@ -0,0 +1,93 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.ingest.DeliveryStats;
+import com.stacksight.ingest.IngestMetrics;
+import com.stacksight.ingest.QuestionPageReader;
+import com.stacksight.ingest.QuestionRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Producing a parsed /questions page in one transaction
+ *
+ * Mirrors the ingester's ingestQuestions and sendToKafka (a record and a
+ * DeliveryStats callback per question, metrics included) against a
+ * MockProducer that acknowledges each send immediately, so the measurement is
+ * the client-side cost per page without a broker. Deduplication is left out:
+ * every invocation sends the whole page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProduceBenchmark {
+
+    private static final String QUESTION_TOPIC = "stackoverflow-questions";
+
+    @Param({PageFixtures.SYNTHETIC})
+    private String fixture;
+
+    @Param({"100"})
+    private int itemCount;
+
+    @Param({"3"})
+    private int answersPerQuestion;
+
+    private List<QuestionRecord> items;
+    private MockProducer<String, byte[]> producer;
+    private DeliveryStats deliveryStats;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] page = PageFixtures.questions(fixture, itemCount, answersPerQuestion);
+        QuestionPageReader reader = new QuestionPageReader(new ByteArrayInputStream(page));
+        items = new ArrayList<>();
+        while (reader.nextItem()) {
+            items.add(new QuestionRecord(reader.getQuestionId(), reader.getCreationDate(),
+                    reader.getLastActivityDate(), reader.copyItem()));
+        }
+
+        producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        producer.initTransactions();
+        deliveryStats = new DeliveryStats(new IngestMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Benchmark
+    public int sendPage() {
+        AtomicInteger acknowledged = new AtomicInteger();
+        producer.beginTransaction();
+        for (QuestionRecord question : items) {
+            String questionId = String.valueOf(question.getQuestionId());
+            producer.send(new ProducerRecord<>(QUESTION_TOPIC, questionId, question.getJson()),
+                    deliveryStats.newCallback(QUESTION_TOPIC, acknowledged, question.getCreationDate()));
+        }
+        producer.commitTransaction();
+
+        // The mock keeps every record it was sent
+        producer.clear();
+        return acknowledged.get();
+    }
+}
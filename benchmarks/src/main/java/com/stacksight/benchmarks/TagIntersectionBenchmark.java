@@ -0,0 +1,89 @@
+package com.stacksight.benchmarks;
+
+import com.stacksight.search.FakeTagIndexTable;
+import com.stacksight.search.TagIndexCursor;
+import com.stacksight.search.TagIntersection;
+import org.apache.hadoop.hbase.client.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intersecting tag index rows for one page of search results
+ *
+ * A common tag and a rare tag are drawn from the same ID range, so the
+ * intersection has to skip through the common tag around the rare tag's IDs.
+ * The index is an in-memory table answering TagIndexCursor's chunked Gets;
+ * the measurement covers the join, chunk decoding and Get construction, not
+ * region server round trips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagIntersectionBenchmark {
+
+    private static final long ID_RANGE = 10_000_000L;
+
+    @Param({"1000000"})
+    private int commonTagSize;
+
+    @Param({"1000", "100000"})
+    private int rareTagSize;
+
+    @Param({"256"})
+    private int chunkSize;
+
+    @Param({"20"})
+    private int pageSize;
+
+    private Table tagIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Map<String, long[]> questionIds = new HashMap<>();
+        questionIds.put("common", randomIds(random, commonTagSize));
+        questionIds.put("rare", randomIds(random, rareTagSize));
+        tagIndex = FakeTagIndexTable.of(questionIds);
+    }
+
+    private static long[] randomIds(Random random, int count) {
+        return random.longs(0, ID_RANGE).distinct().limit(count).toArray();
+    }
+
+    @Benchmark
+    public int firstPage(Blackhole blackhole) throws IOException {
+        List<TagIndexCursor> cursors = new ArrayList<>(2);
+        cursors.add(new TagIndexCursor(tagIndex, "rare", chunkSize));
+        cursors.add(new TagIndexCursor(tagIndex, "common", chunkSize));
+        TagIntersection matches = new TagIntersection(cursors, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        int found = 0;
+        long questionId;
+        while (found < pageSize && (questionId = matches.next()) >= 0) {
+            blackhole.consume(questionId);
+            found++;
+        }
+        return found;
+    }
+}
@@ -37,6 +37,16 @@ ${KAFKA_HOME}/bin/kafka-topics.sh --create \
   --config cleanup.policy=delete \
   --if-not-exists
 
+# Create the compacted topic holding the ingester's checkpoints
+echo "Creating stacksights-ingest-checkpoints topic..."
+${KAFKA_HOME}/bin/kafka-topics.sh --create \
+  --topic stacksights-ingest-checkpoints \
+  --bootstrap-server ${BOOTSTRAP_SERVER} \
+  --partitions 1 \
+  --replication-factor ${REPLICATION_FACTOR} \
+  --config cleanup.policy=compact \
+  --if-not-exists
+
 # List all topics
 echo -e "\nAvailable Kafka topics:"
 ${KAFKA_HOME}/bin/kafka-topics.sh --list --bootstrap-server ${BOOTSTRAP_SERVER}
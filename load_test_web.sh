@@ -0,0 +1,106 @@
+#!/bin/bash
+
+# Load test of the web app's read API on platform vs. virtual threads
+#
+# Starts the app once per thread mode, logs in, drives the HBase-backed
+# endpoints with hey (https://github.com/rakyll/hey) at high concurrency, and
+# samples the process's resident memory and OS thread count while under load.
+# Needs a Java 21 build (mvn -Pjava21 package) and HBase with ingested data.
+
+APP_JAR=${APP_JAR:-"target/stacksights-1.0-SNAPSHOT.jar"}
+PORT=${PORT:-8080}
+BASE_URL="http://localhost:${PORT}"
+CONCURRENCY=${CONCURRENCY:-1000}
+DURATION=${DURATION:-60s}
+USERNAME=${USERNAME:-"user"}
+PASSWORD=${PASSWORD:-"password"}
+SEARCH_TAG=${SEARCH_TAG:-"java"}
+LOG_DIR="logs"
+CURRENT_DATE=$(date +"%Y-%m-%d_%H-%M-%S")
+
+mkdir -p ${LOG_DIR}
+
+if ! command -v hey > /dev/null; then
+  echo "Error: hey is not installed (go install github.com/rakyll/hey@latest)"
+  exit 1
+fi
+
+# Start the app and wait until it answers
+start_app() {
+  local virtual=$1
+  java -cp ${APP_JAR} com.stacksight.StackSightApplication --server.port=${PORT} --spring.threads.virtual.enabled=${virtual} \
+    > ${LOG_DIR}/web_${virtual}_${CURRENT_DATE}.log 2>&1 &
+  APP_PID=$!
+
+  for i in $(seq 1 60); do
+    if curl -s -o /dev/null ${BASE_URL}/login; then
+      return 0
+    fi
+    sleep 1
+  done
+  echo "Error: app did not start, see ${LOG_DIR}/web_${virtual}_${CURRENT_DATE}.log"
+  kill ${APP_PID}
+  exit 1
+}
+
+# Log in through the form (with its CSRF token) and print the session cookie
+login() {
+  local cookies=$(mktemp)
+  local csrf=$(curl -s -c ${cookies} ${BASE_URL}/login | sed -n 's/.*name="_csrf" value="\([^"]*\)".*/\1/p' | head -1)
+  curl -s -o /dev/null -b ${cookies} -c ${cookies} \
+    --data-urlencode "username=${USERNAME}" --data-urlencode "password=${PASSWORD}" \
+    --data-urlencode "_csrf=${csrf}" ${BASE_URL}/login
+  awk '$6 == "JSESSIONID" { print "JSESSIONID=" $7 }' ${cookies}
+  rm -f ${cookies}
+}
+
+# Print the peak RSS (MB) and OS thread count of a process until it exits or the flag file goes away
+sample() {
+  local pid=$1
+  local flag=$2
+  local peak_rss=0
+  local peak_threads=0
+  while [ -f ${flag} ]; do
+    read rss threads <<< $(ps -o rss=,nlwp= -p ${pid})
+    [ "${rss:-0}" -gt ${peak_rss} ] && peak_rss=${rss}
+    [ "${threads:-0}" -gt ${peak_threads} ] && peak_threads=${threads}
+    sleep 1
+  done
+  echo "peak RSS: $((peak_rss / 1024)) MB, peak OS threads: ${peak_threads}"
+}
+
+run_mode() {
+  local virtual=$1
+  echo -e "\n===== Virtual threads: ${virtual} ====="
+  start_app ${virtual}
+  local cookie=$(login)
+  if [ -z "${cookie}" ]; then
+    echo "Error: login failed"
+    kill ${APP_PID}
+    exit 1
+  fi
+
+  # Warm up caches and the JIT
+  hey -z 10s -c 50 -H "Cookie: ${cookie}" ${BASE_URL}/api/trends > /dev/null
+
+  local flag=$(mktemp)
+  sample ${APP_PID} ${flag} > ${flag}.out &
+  local sampler=$!
+
+  for endpoint in "/api/trends" "/api/trends/${SEARCH_TAG}" "/api/search?tags=${SEARCH_TAG}"; do
+    echo -e "\n--- ${endpoint} (${CONCURRENCY} concurrent, ${DURATION}) ---"
+    hey -z ${DURATION} -c ${CONCURRENCY} -H "Cookie: ${cookie}" "${BASE_URL}${endpoint}" \
+      | grep -E "Requests/sec|Average|Slowest|50%|99%|\[[0-9]+\]"
+  done
+
+  rm -f ${flag}
+  wait ${sampler}
+  cat ${flag}.out
+  rm -f ${flag}.out
+
+  kill ${APP_PID}
+  wait ${APP_PID} 2> /dev/null
+}
+
+run_mode false 2>&1 | tee ${LOG_DIR}/load_test_platform_${CURRENT_DATE}.log
+run_mode true 2>&1 | tee ${LOG_DIR}/load_test_virtual_${CURRENT_DATE}.log
@@ -5,7 +5,7 @@
 # Configuration
 KAFKA_HOME=${KAFKA_HOME:-"/path/to/kafka"}
 BOOTSTRAP_SERVER="localhost:29092"
-FETCH_INTERVAL=300  # seconds
+MAX_FETCH_INTERVAL=600  # seconds, the longest a new question waits to be fetched
 LOG_DIR="logs"
 CURRENT_DATE=$(date +"%Y-%m-%d_%H-%M-%S")
 
@@ -32,7 +32,7 @@ chmod +x kafka_topics_creator.sh
 
 # Step 4: Start the Kafka ingestion in the background
 echo -e "\n===== Starting Stack Exchange to Kafka Ingestion ====="
-java -cp target/stacksights-1.0-SNAPSHOT.jar StackExchangeToKafka --fetch-interval ${FETCH_INTERVAL} > ${LOG_DIR}/kafka_ingestion_${CURRENT_DATE}.log 2>&1 &
+java -cp target/stacksights-1.0-SNAPSHOT.jar StackExchangeToKafka --max-interval ${MAX_FETCH_INTERVAL} > ${LOG_DIR}/kafka_ingestion_${CURRENT_DATE}.log 2>&1 &
 KAFKA_PID=$!
 echo "Kafka ingestion started with PID ${KAFKA_PID}"
 echo "Logs available at ${LOG_DIR}/kafka_ingestion_${CURRENT_DATE}.log"
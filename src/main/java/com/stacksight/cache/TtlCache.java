@@ -0,0 +1,167 @@
+package com.stacksight.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, TTL-evicting in-process cache with request coalescing
+ *
+ * - Entries expire ttlMillis after they were loaded
+ * - Beyond maxEntries the least recently used entry is evicted
+ * - Concurrent misses on the same key share one load: the first caller runs
+ *   the loader, the others wait for its result
+ */
+public class TtlCache<K, V> {
+
+    private final long ttlMillis;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public TtlCache(int maxEntries, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a value, loading it on a miss
+     */
+    public V get(K key, Loader<K, V> loader) throws Exception {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            coalesced.incrementAndGet();
+            return await(inFlight);
+        }
+
+        try {
+            V value = loader.load(key);
+            if (value != null) {
+                put(key, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (Exception e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Get a cached, unexpired value, or null
+     */
+    public V getIfPresent(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() >= entry.expiresAt) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * Put a value
+     */
+    public void put(K key, V value) {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Remove an entry
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of entries, including expired ones not yet evicted
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of misses that waited for another caller's load
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Loads the value of a missing key
+     */
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.stacksight.codec;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A decoded stackoverflow-questions or stackoverflow-trends payload
+ *
+ * Backed by the Avro record of a binary payload or the JSON object of a JSON
+ * one. The accessors read a single field where it is, so consumers that only
+ * need a few fields do not pay for converting the rest. Field names are those
+ * of the API item in both formats.
+ */
+public final class Payload {
+
+    private final GenericRecord record;
+    private final JSONObject json;
+
+    Payload(GenericRecord record) {
+        this.record = record;
+        this.json = null;
+    }
+
+    Payload(JSONObject json) {
+        this.record = null;
+        this.json = json;
+    }
+
+    /**
+     * Check whether a field has a value
+     */
+    public boolean has(String field) {
+        if (json != null) {
+            return json.has(field) && !json.isNull(field);
+        }
+        return value(field) != null;
+    }
+
+    /**
+     * Get a numeric field, or the default if it has no value
+     */
+    public long getLong(String field, long defaultValue) {
+        if (json != null) {
+            return json.optLong(field, defaultValue);
+        }
+        Object value = value(field);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * Get a string field, or null if it has no value
+     */
+    public String getString(String field) {
+        if (json != null) {
+            return json.isNull(field) ? null : json.optString(field, null);
+        }
+        Object value = value(field);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Get an array of strings field, or an empty list if it has no value
+     */
+    public List<String> getStrings(String field) {
+        if (json != null) {
+            JSONArray array = json.optJSONArray(field);
+            if (array == null) {
+                return Collections.emptyList();
+            }
+            List<String> strings = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                strings.add(array.optString(i));
+            }
+            return strings;
+        }
+        Object value = value(field);
+        if (!(value instanceof List)) {
+            return Collections.emptyList();
+        }
+        List<?> items = (List<?>) value;
+        List<String> strings = new ArrayList<>(items.size());
+        for (Object item : items) {
+            strings.add(String.valueOf(item));
+        }
+        return strings;
+    }
+
+    /**
+     * Get the whole payload in the JSON shape of the API item
+     *
+     * Binary records are converted on each call; fields without a value are
+     * left out, as they would be missing from JSON.
+     */
+    public JSONObject toJson() {
+        return json != null ? json : PayloadCodec.toJson(record);
+    }
+
+    private Object value(String field) {
+        // Record.get(String) throws for names the schema does not have
+        Schema.Field schemaField = record.getSchema().getField(field);
+        return schemaField == null ? null : record.get(schemaField.pos());
+    }
+}
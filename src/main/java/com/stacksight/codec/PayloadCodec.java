@@ -0,0 +1,213 @@
+package com.stacksight.codec;
+
+import com.stacksight.ingest.QuestionPageReader;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoding of the stackoverflow-questions and stackoverflow-trends payloads
+ *
+ * A payload is either JSON text or a binary record: a zero magic byte, the
+ * 4-byte big-endian ID of its writer schema in the {@link SchemaRegistry}, and
+ * the record in Avro binary encoding. Field names are not repeated in every
+ * message, and numbers are varints.
+ *
+ * Writers use the configured format, {@link #JSON} or {@link #AVRO}. Readers take both formats,
+ * told apart by the first byte (JSON starts with '{'), which is what makes the
+ * transition safe: consumers are upgraded first, then producers switch to
+ * binary while JSON records are still within retention.
+ *
+ * Neither direction goes through a JSON tree for binary records: questions
+ * are encoded from the record {@link QuestionPageReader} fills while it scans
+ * the page, and decoded payloads are read field by field (see {@link Payload}).
+ *
+ * Instances are thread-safe.
+ */
+public class PayloadCodec {
+
+    public static final String JSON = "json";
+    public static final String AVRO = "avro";
+
+    public static final String QUESTION = "question";
+    public static final String TREND = "trend";
+
+    private static final byte MAGIC = 0;
+    private static final int HEADER_LENGTH = 1 + Integer.BYTES;
+
+    private final SchemaRegistry registry;
+    private final String format;
+    private final Map<Integer, GenericDatumReader<GenericRecord>> readers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param format format of encoded payloads; decoding accepts both
+     */
+    public PayloadCodec(SchemaRegistry registry, String format) {
+        if (!JSON.equals(format) && !AVRO.equals(format)) {
+            throw new IllegalArgumentException("Unknown payload format: " + format);
+        }
+        this.registry = registry;
+        this.format = format;
+    }
+
+    /**
+     * Get the schema question pages are read into, or null in JSON format
+     *
+     * Pass it to the {@link QuestionPageReader} of the pages whose items go to
+     * {@link #encodeQuestion}.
+     */
+    public Schema getQuestionSchema() {
+        return JSON.equals(format) ? null : registry.getById(registry.getLatestId(QUESTION));
+    }
+
+    /**
+     * Encode the current item of a question page
+     *
+     * In JSON format the raw item is passed through as is. In binary format the
+     * record the reader filled is written; API fields the schema does not have
+     * were dropped by the reader.
+     *
+     * @throws IllegalArgumentException if a required field is missing
+     */
+    public byte[] encodeQuestion(QuestionPageReader reader) {
+        if (JSON.equals(format)) {
+            return reader.copyItem();
+        }
+        GenericRecord record = reader.getItemRecord();
+        if (record == null) {
+            throw new IllegalStateException("Question page not read with the question schema");
+        }
+        return encode(QUESTION, record);
+    }
+
+    /**
+     * Encode a tag count snapshot
+     */
+    public byte[] encodeTrend(String tag, long count, long timestamp) {
+        if (JSON.equals(format)) {
+            JSONObject trend = new JSONObject();
+            trend.put("tag", tag);
+            trend.put("count", count);
+            trend.put("timestamp", timestamp);
+            return trend.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        GenericRecord trend = new GenericData.Record(registry.getById(registry.getLatestId(TREND)));
+        trend.put("tag", tag);
+        trend.put("count", count);
+        trend.put("timestamp", timestamp);
+        return encode(TREND, trend);
+    }
+
+    private byte[] encode(String subject, GenericRecord record) {
+        int schemaId = registry.getLatestId(subject);
+        Schema schema = registry.getById(schemaId);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write(MAGIC);
+        out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(schemaId).array());
+        try {
+            // Missing required fields fail here
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+            encoder.flush();
+        } catch (IOException | AvroRuntimeException | NullPointerException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot encode " + subject + ": " + e.getMessage(), e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check whether a payload is in the binary format
+     */
+    public static boolean isBinary(byte[] value) {
+        return value.length >= HEADER_LENGTH && value[0] == MAGIC;
+    }
+
+    /**
+     * Decode a payload in either format
+     *
+     * Binary records are read with the latest schema of their subject, so
+     * records written with an older version get the defaults of new fields.
+     *
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public Payload decode(byte[] value) {
+        if (!isBinary(value)) {
+            try {
+                return new Payload(new JSONObject(new String(value, StandardCharsets.UTF_8)));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+
+        int schemaId = ByteBuffer.wrap(value, 1, Integer.BYTES).getInt();
+        try {
+            GenericDatumReader<GenericRecord> reader = readers.computeIfAbsent(schemaId, id -> {
+                Schema writer = registry.getById(id);
+                Schema latest = registry.getById(registry.getLatestId(registry.getSubject(id)));
+                return new GenericDatumReader<>(writer, latest);
+            });
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(value, HEADER_LENGTH,
+                    value.length - HEADER_LENGTH, null);
+            return new Payload(reader.read(null, decoder));
+        } catch (IOException | AvroRuntimeException e) {
+            throw new IllegalArgumentException("Malformed binary payload: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Convert a decoded record back to the JSON shape of the API item
+     */
+    static JSONObject toJson(GenericRecord record) {
+        JSONObject json = new JSONObject();
+        for (Schema.Field field : record.getSchema().getFields()) {
+            Object value = record.get(field.pos());
+            if (value != null) {
+                json.put(field.name(), toJsonValue(value));
+            }
+        }
+        return json;
+    }
+
+    private static Object toJsonValue(Object value) {
+        if (value instanceof GenericRecord) {
+            return toJson((GenericRecord) value);
+        }
+        if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            JSONArray array = new JSONArray();
+            for (Object item : items) {
+                array.put(toJsonValue(item));
+            }
+            return array;
+        }
+        if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+}
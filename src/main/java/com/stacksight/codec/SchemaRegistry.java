@@ -0,0 +1,128 @@
+package com.stacksight.codec;
+
+import org.apache.avro.Schema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * File-based stand-in for a schema registry
+ *
+ * Schemas are .avsc files next to a registry.properties that maps each schema
+ * ID to its file, either on the classpath under schemas/ or in a directory.
+ * Files are named SUBJECT-vN.avsc; the latest version of a subject is the one
+ * writers use and readers resolve older versions to.
+ */
+public class SchemaRegistry {
+
+    public static final String CLASSPATH_LOCATION = "/schemas/";
+    private static final String INDEX = "registry.properties";
+
+    private final Map<Integer, Schema> schemas = new HashMap<>();
+    private final Map<Integer, String> subjects = new HashMap<>();
+    private final Map<String, Integer> latestIds = new HashMap<>();
+    private final Map<String, Integer> latestVersions = new HashMap<>();
+
+    private SchemaRegistry() {
+    }
+
+    /**
+     * Load the schemas bundled on the classpath
+     */
+    public static SchemaRegistry load() {
+        try {
+            return load(name -> SchemaRegistry.class.getResourceAsStream(CLASSPATH_LOCATION + name));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load the bundled schemas", e);
+        }
+    }
+
+    /**
+     * Load the schemas of a directory
+     */
+    public static SchemaRegistry load(Path directory) throws IOException {
+        return load(name -> {
+            Path file = directory.resolve(name);
+            return Files.exists(file) ? Files.newInputStream(file) : null;
+        });
+    }
+
+    private interface Opener {
+        InputStream open(String name) throws IOException;
+    }
+
+    private static SchemaRegistry load(Opener opener) throws IOException {
+        Properties index = new Properties();
+        try (InputStream in = opener.open(INDEX)) {
+            if (in == null) {
+                throw new IOException("No " + INDEX);
+            }
+            index.load(in);
+        }
+
+        SchemaRegistry registry = new SchemaRegistry();
+        for (String key : index.stringPropertyNames()) {
+            int id = Integer.parseInt(key.trim());
+            String file = index.getProperty(key).trim();
+            int versionAt = file.lastIndexOf("-v");
+            if (versionAt < 0 || !file.endsWith(".avsc")) {
+                throw new IOException("Schema file name is not SUBJECT-vN.avsc: " + file);
+            }
+            String subject = file.substring(0, versionAt);
+            int version = Integer.parseInt(file.substring(versionAt + 2, file.length() - ".avsc".length()));
+
+            try (InputStream in = opener.open(file)) {
+                if (in == null) {
+                    throw new IOException("Schema " + id + " not found: " + file);
+                }
+                registry.schemas.put(id, new Schema.Parser().parse(in));
+            }
+            registry.subjects.put(id, subject);
+            if (version > registry.latestVersions.getOrDefault(subject, 0)) {
+                registry.latestVersions.put(subject, version);
+                registry.latestIds.put(subject, id);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Get a schema by ID
+     *
+     * @throws IllegalArgumentException if the ID is unknown
+     */
+    public Schema getById(int id) {
+        Schema schema = schemas.get(id);
+        if (schema == null) {
+            throw new IllegalArgumentException("Unknown schema ID " + id);
+        }
+        return schema;
+    }
+
+    /**
+     * Get the subject of a schema ID
+     */
+    public String getSubject(int id) {
+        getById(id);
+        return subjects.get(id);
+    }
+
+    /**
+     * Get the ID of the latest version of a subject
+     *
+     * @throws IllegalArgumentException if the subject is unknown
+     */
+    public int getLatestId(String subject) {
+        Integer id = latestIds.get(subject);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown schema subject " + subject);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,30 @@
+package com.stacksight.config;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+@Configuration
+public class HBaseConfig {
+
+    /**
+     * The one HBase connection of the web app; it is thread-safe and shared by all requests
+     */
+    @Bean(destroyMethod = "close")
+    public Connection hbaseConnection(@Value("${stacksight.hbase.zookeeper-quorum}") String zookeeperQuorum,
+                                      @Value("${stacksight.hbase.zookeeper-port}") String zookeeperPort) throws IOException {
+        org.apache.hadoop.conf.Configuration config = HBaseConfiguration.create();
+        config.set("hbase.zookeeper.quorum", zookeeperQuorum);
+        config.set("hbase.zookeeper.property.clientPort", zookeeperPort);
+        // Fail fast instead of holding request threads through long retry loops
+        config.setInt("hbase.client.retries.number", 3);
+        config.setInt("hbase.rpc.timeout", 2000);
+        config.setInt("hbase.client.operation.timeout", 5000);
+        return ConnectionFactory.createConnection(config);
+    }
+}
@@ -0,0 +1,63 @@
+package com.stacksight.config;
+
+import com.stacksight.cache.TtlCache;
+import com.stacksight.live.LiveFeed;
+import com.stacksight.repository.QuestionRepository;
+import com.stacksight.repository.TrendRepository;
+import com.stacksight.search.TextIndexer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Web tier metrics, published through Actuator next to the HTTP server metrics
+ *
+ * - stacksight.cache.*: size, hits, misses and coalesced misses of the read API caches
+ * - stacksight.live.clients / stacksight.live.dropped: live feed connections and conflated-away events
+ * - stacksight.text.segments / stacksight.text.documents: size of the full-text index
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder readCacheMetrics(QuestionRepository questionRepository, TrendRepository trendRepository) {
+        return registry -> {
+            bindCache(registry, "questions", questionRepository.getCache());
+            bindCache(registry, "trends", trendRepository.getCache());
+        };
+    }
+
+    @Bean
+    public MeterBinder liveFeedMetrics(LiveFeed liveFeed) {
+        return registry -> {
+            Gauge.builder("stacksight.live.clients", liveFeed, LiveFeed::getClientCount).register(registry);
+            Gauge.builder("stacksight.live.dropped", liveFeed, LiveFeed::getDroppedEvents)
+                    .description("Events dropped from the buffers of connected clients")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder textIndexMetrics(TextIndexer textIndexer) {
+        return registry -> {
+            Gauge.builder("stacksight.text.segments", textIndexer, t -> t.getIndex().getSegmentCount())
+                    .register(registry);
+            Gauge.builder("stacksight.text.documents", textIndexer, t -> t.getIndex().getDocCount())
+                    .description("Indexed questions, counting replaced copies until they are merged away")
+                    .register(registry);
+        };
+    }
+
+    private static void bindCache(MeterRegistry registry, String name, TtlCache<?, ?> cache) {
+        Gauge.builder("stacksight.cache.size", cache, TtlCache::size).tag("cache", name).register(registry);
+        FunctionCounter.builder("stacksight.cache.requests", cache, TtlCache::getHits)
+                .tag("cache", name).tag("result", "hit").register(registry);
+        FunctionCounter.builder("stacksight.cache.requests", cache, TtlCache::getMisses)
+                .tag("cache", name).tag("result", "miss").register(registry);
+        FunctionCounter.builder("stacksight.cache.coalesced", cache, TtlCache::getCoalesced)
+                .tag("cache", name).register(registry);
+    }
+}
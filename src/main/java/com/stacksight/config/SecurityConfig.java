@@ -1,25 +1,48 @@
 package com.stacksight.config;
 
+import com.stacksight.security.BoundedPasswordEncoder;
+import com.stacksight.security.TtlUserCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
+    /**
+     * Access rules: Actuator runs on the management port, bound to loopback, and
+     * only health and the Prometheus scrape are open there
+     */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, DaoAuthenticationProvider authenticationProvider,
+                                                   @Value("${management.server.port}") int managementPort)
+            throws Exception {
         http
             .authorizeHttpRequests(authorize -> authorize
                 .requestMatchers("/", "/about", "/signup", "/css/**", "/js/**", "/images/**").permitAll()
+                .requestMatchers(request -> request.getLocalPort() == managementPort
+                        && ("/actuator/health".equals(request.getRequestURI())
+                            || "/actuator/prometheus".equals(request.getRequestURI()))).permitAll()
                 .requestMatchers("/profile", "/questions", "/trends").authenticated()
                 .anyRequest().authenticated()
             )
+            .authenticationProvider(authenticationProvider)
             .formLogin(form -> form
                 .loginPage("/login")
                 .defaultSuccessUrl("/trends")
@@ -33,8 +56,57 @@ public class SecurityConfig {
         return http.build();
     }
     
+    /**
+     * Password encoder: hashes are stored as {id}hash and new ones use bcrypt at the configured cost
+     *
+     * Legacy unprefixed bcrypt hashes still match. Hashes with another id or a
+     * lower cost are upgraded on the user's next successful login. Hashing runs
+     * on a bounded pool, see {@link BoundedPasswordEncoder}.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public BoundedPasswordEncoder passwordEncoder(@Value("${stacksight.security.bcrypt-strength}") int strength,
+                                                  @Value("${stacksight.security.hashing-threads}") int threads,
+                                                  @Value("${stacksight.security.hashing-queue-size}") int queueSize,
+                                                  @Value("${stacksight.security.hashing-timeout-ms}") long timeoutMillis) {
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put("bcrypt", new BCryptPasswordEncoder(strength));
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder("bcrypt", encoders);
+        encoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder());
+
+        return new BoundedPasswordEncoder(encoder, threads, queueSize, timeoutMillis);
+    }
+
+    @Bean
+    public InMemoryUserDetailsManager userDetailsService(SecurityProperties properties, PasswordEncoder passwordEncoder) {
+        SecurityProperties.User user = properties.getUser();
+        UserDetails userDetails = User.withUsername(user.getName())
+                .password(passwordEncoder.encode(user.getPassword()))
+                .roles(user.getRoles().toArray(new String[0]))
+                .build();
+        return new InMemoryUserDetailsManager(userDetails);
+    }
+
+    @Bean
+    public UserCache userCache(@Value("${stacksight.security.user-cache.max-entries}") int maxEntries,
+                               @Value("${stacksight.security.user-cache.ttl-ms}") long ttlMillis) {
+        return new TtlUserCache(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Form login authentication with the user cache and rehash-on-login
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public DaoAuthenticationProvider authenticationProvider(InMemoryUserDetailsManager userDetailsService,
+                                                            PasswordEncoder passwordEncoder, UserCache userCache) {
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        provider.setUserDetailsService(userDetailsService);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserCache(userCache);
+        // Store upgraded hashes, and drop the cached user that still has the old one
+        provider.setUserDetailsPasswordService((user, newPassword) -> {
+            userCache.removeUserFromCache(user.getUsername());
+            return userDetailsService.updatePassword(user, newPassword);
+        });
+        return provider;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+package com.stacksight.controller;
+
+import com.stacksight.hbase.TrendSeries;
+import com.stacksight.repository.QuestionRepository;
+import com.stacksight.repository.SearchRepository;
+import com.stacksight.repository.TextSearchRepository;
+import com.stacksight.repository.TrendRepository;
+import com.stacksight.repository.WatermarkRepository;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JSON read API over the HBase tables, used by the /questions and /trends pages
+ *
+ * Responses carry an ETag made of the ingestion watermarks of the data they
+ * read; a request whose If-None-Match still matches gets a 304 without any
+ * data being read.
+ */
+@RestController
+@RequestMapping("/api")
+public class ApiController {
+
+    private static final int MAX_IDS_PER_REQUEST = 100;
+    private static final int MAX_LEADERBOARD_SIZE = 500;
+    private static final int MAX_HISTORY_HOURS = 7 * 24;
+    private static final int MAX_SEARCH_TAGS = 5;
+    private static final int MAX_PAGE_SIZE = 50;
+
+    private final QuestionRepository questionRepository;
+    private final TrendRepository trendRepository;
+    private final SearchRepository searchRepository;
+    private final TextSearchRepository textSearchRepository;
+    private final WatermarkRepository watermarkRepository;
+
+    public ApiController(QuestionRepository questionRepository, TrendRepository trendRepository,
+                         SearchRepository searchRepository, TextSearchRepository textSearchRepository,
+                         WatermarkRepository watermarkRepository) {
+        this.questionRepository = questionRepository;
+        this.trendRepository = trendRepository;
+        this.searchRepository = searchRepository;
+        this.textSearchRepository = textSearchRepository;
+        this.watermarkRepository = watermarkRepository;
+    }
+
+    @GetMapping("/questions/{id}")
+    public Map<String, Object> question(@PathVariable long id, WebRequest request,
+                                        HttpServletResponse response) throws Exception {
+        if (notModified(request, response, "q" + watermarkRepository.current().getQuestions())) {
+            return null;
+        }
+
+        Map<String, Object> question = questionRepository.findById(id);
+        if (question == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Question " + id + " not found");
+        }
+        return question;
+    }
+
+    @GetMapping("/questions")
+    public List<Map<String, Object>> questions(@RequestParam List<Long> ids, WebRequest request,
+                                               HttpServletResponse response) throws Exception {
+        if (ids.size() > MAX_IDS_PER_REQUEST) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + MAX_IDS_PER_REQUEST + " ids per request");
+        }
+        if (notModified(request, response, "q" + watermarkRepository.current().getQuestions())) {
+            return null;
+        }
+        return questionRepository.findByIds(ids);
+    }
+
+    @GetMapping("/trends")
+    public List<Map<String, Object>> trends(@RequestParam(defaultValue = "50") int limit, WebRequest request,
+                                            HttpServletResponse response) throws Exception {
+        if (notModified(request, response, "t" + watermarkRepository.current().getTrends())) {
+            return null;
+        }
+        return trendRepository.leaderboard(Math.max(1, Math.min(limit, MAX_LEADERBOARD_SIZE)));
+    }
+
+    @GetMapping("/trends/{tag}")
+    public List<Map<String, Object>> trendHistory(@PathVariable String tag,
+                                                  @RequestParam(defaultValue = "24") int hours,
+                                                  WebRequest request, HttpServletResponse response) throws Exception {
+        // The history window moves with the clock, so its version includes the current snapshot bucket
+        WatermarkRepository.Watermark watermark = watermarkRepository.current();
+        long bucket = TrendSeries.bucket(System.currentTimeMillis() / 1000);
+        String version = "t" + watermark.getTrends() + "-q" + watermark.getQuestions() + "-b" + bucket;
+        if (notModified(request, response, version)) {
+            return null;
+        }
+        return trendRepository.history(tag, Math.max(1, Math.min(hours, MAX_HISTORY_HOURS)));
+    }
+
+    /**
+     * Search questions by tags, newest first, or by keywords alone, best match first
+     *
+     * language is one more tag. With tags, q filters on title words; without
+     * any, q is a full-text query over titles, bodies and tags. Pass the
+     * next_cursor of a page as cursor to get the next one.
+     */
+    @GetMapping("/search")
+    public Map<String, Object> search(@RequestParam(required = false) List<String> tags,
+                                      @RequestParam(required = false) String language,
+                                      @RequestParam(required = false) String date,
+                                      @RequestParam(required = false) String status,
+                                      @RequestParam(required = false) String q,
+                                      @RequestParam(required = false) String cursor,
+                                      @RequestParam(defaultValue = "20") int size,
+                                      WebRequest request, HttpServletResponse response) throws Exception {
+        Set<String> allTags = new LinkedHashSet<>();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (!tag.isBlank()) {
+                    allTags.add(tag.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        if (language != null && !language.isBlank()) {
+            allTags.add(language.trim().toLowerCase(Locale.ROOT));
+        }
+        if (allTags.isEmpty() && q != null && !q.isBlank()) {
+            return textSearch(q, date, status, cursor, size, request, response);
+        }
+        if (allTags.isEmpty() || allTags.size() > MAX_SEARCH_TAGS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Between 1 and " + MAX_SEARCH_TAGS + " tags, or a query, are required");
+        }
+
+        long beforeId = Long.MAX_VALUE;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                beforeId = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor);
+            }
+        }
+
+        // Date filters are relative to now; include the day so their results do not go stale
+        long day = System.currentTimeMillis() / 86400000;
+        if (notModified(request, response, "q" + watermarkRepository.current().getQuestions() + "-d" + day)) {
+            return null;
+        }
+
+        return searchRepository.search(new ArrayList<>(allTags), minCreationDate(date), status, q, beforeId,
+                Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+    }
+
+    private Map<String, Object> textSearch(String q, String date, String status, String cursor, int size,
+                                           WebRequest request, HttpServletResponse response) throws Exception {
+        int offset = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                offset = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor);
+            }
+            if (offset < 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor);
+            }
+        }
+
+        // Hits come from the text index, which commits on its own schedule
+        long day = System.currentTimeMillis() / 86400000;
+        String version = "q" + watermarkRepository.current().getQuestions()
+                + "-x" + textSearchRepository.getGeneration() + "-d" + day;
+        if (notModified(request, response, version)) {
+            return null;
+        }
+
+        return textSearchRepository.search(q, minCreationDate(date), status, offset,
+                Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * Check the request's If-None-Match against the version of the data it reads
+     *
+     * Responses may be stored by the browser but are revalidated on every use.
+     *
+     * @return true if a 304 has been prepared and the handler should return null
+     */
+    private static boolean notModified(WebRequest request, HttpServletResponse response, String version) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        return request.checkNotModified("\"" + version + "\"");
+    }
+
+    /**
+     * Earliest creation_date of a date filter (day, week, month or year)
+     */
+    private static long minCreationDate(String date) {
+        if (date == null) {
+            return 0;
+        }
+
+        long days;
+        switch (date) {
+            case "day":
+                days = 1;
+                break;
+            case "week":
+                days = 7;
+                break;
+            case "month":
+                days = 30;
+                break;
+            case "year":
+                days = 365;
+                break;
+            default:
+                return 0;
+        }
+        return System.currentTimeMillis() / 1000 - days * 86400;
+    }
+}
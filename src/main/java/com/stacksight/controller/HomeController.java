@@ -23,11 +23,11 @@ public class HomeController {
     
     @GetMapping("/questions")
     public String questions() {
-        return "questions"; // Create this view later
+        return "questions";
     }
     
     @GetMapping("/trends")
     public String trends() {
-        return "trends"; // Create this view later
+        return "trends";
     }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.stacksight.controller;
+
+import com.stacksight.live.LiveFeed;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-sent events stream of trend updates and new questions
+ */
+@RestController
+public class LiveController {
+
+    private final LiveFeed liveFeed;
+
+    public LiveController(LiveFeed liveFeed) {
+        this.liveFeed = liveFeed;
+    }
+
+    @GetMapping(path = "/api/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter live() {
+        return liveFeed.subscribe();
+    }
+}
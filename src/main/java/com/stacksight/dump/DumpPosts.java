@@ -0,0 +1,100 @@
+package com.stacksight.dump;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Posts.xml rows in the shape of Stack Exchange API items
+ *
+ * Questions and answers are built with the field names of the /questions
+ * items the ingester produces, so QuestionPuts turns them into the same rows
+ * the streaming job writes. Answer rows carry their score but not whether
+ * they were accepted; only the question's AcceptedAnswerId says so. Once all
+ * answers are loaded, HBaseBulkLoader sets is_accepted on the accepted answer,
+ * derives the question's is_answered and ranks its top_answers.
+ */
+public final class DumpPosts {
+
+    public static final String QUESTION = "1";
+    public static final String ANSWER = "2";
+
+    private DumpPosts() {
+    }
+
+    /**
+     * Get the post type of the current row: {@link #QUESTION}, {@link #ANSWER} or another type
+     */
+    public static String postType(DumpRowReader row) {
+        return row.get("PostTypeId");
+    }
+
+    /**
+     * Build a question item from the current row
+     *
+     * @param siteUrl base URL of the site, for question links
+     */
+    public static JSONObject question(DumpRowReader row, String siteUrl) {
+        long questionId = row.getLong("Id", -1);
+        JSONObject question = new JSONObject();
+        question.put("question_id", questionId);
+        question.put("title", row.get("Title"));
+        question.put("body", row.get("Body"));
+        question.put("link", siteUrl + "/questions/" + questionId);
+        question.put("score", row.getLong("Score", 0));
+        question.put("view_count", row.getLong("ViewCount", 0));
+        question.put("answer_count", row.getLong("AnswerCount", 0));
+        question.put("creation_date", row.getEpochSeconds("CreationDate", 0));
+        question.put("last_activity_date", row.getEpochSeconds("LastActivityDate", 0));
+        question.put("tags", new JSONArray(row.getTags("Tags")));
+
+        long acceptedAnswerId = row.getLong("AcceptedAnswerId", -1);
+        if (acceptedAnswerId >= 0) {
+            question.put("accepted_answer_id", acceptedAnswerId);
+        }
+        question.put("is_answered", acceptedAnswerId >= 0);
+
+        JSONObject owner = owner(row);
+        if (owner != null) {
+            question.put("owner", owner);
+        }
+        return question;
+    }
+
+    /**
+     * Build an answer item from the current row
+     */
+    public static JSONObject answer(DumpRowReader row) {
+        JSONObject answer = new JSONObject();
+        answer.put("answer_id", row.getLong("Id", -1));
+        answer.put("question_id", row.getLong("ParentId", -1));
+        answer.put("score", row.getLong("Score", 0));
+        answer.put("is_accepted", false);
+        answer.put("creation_date", row.getEpochSeconds("CreationDate", 0));
+        answer.put("body", row.get("Body"));
+
+        JSONObject owner = owner(row);
+        if (owner != null) {
+            answer.put("owner", owner);
+        }
+        return answer;
+    }
+
+    /**
+     * Build the owner of the current row; display names are only in the dump for deleted users
+     */
+    private static JSONObject owner(DumpRowReader row) {
+        long userId = row.getLong("OwnerUserId", -1);
+        String displayName = row.get("OwnerDisplayName");
+        if (userId < 0 && displayName == null) {
+            return null;
+        }
+        JSONObject owner = new JSONObject();
+        if (userId >= 0) {
+            owner.put("user_id", userId);
+        }
+        if (displayName != null) {
+            owner.put("display_name", displayName);
+        }
+        return owner;
+    }
+}
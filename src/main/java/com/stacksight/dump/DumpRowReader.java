@@ -0,0 +1,136 @@
+package com.stacksight.dump;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for the row files of a Stack Exchange data dump (Posts.xml, Tags.xml, ...)
+ *
+ * Dump files are one root element holding a flat list of self-closing row
+ * elements whose attributes are the columns:
+ * <posts><row Id="1" PostTypeId="1" Title="..." .../>...</posts>
+ * Rows are read one at a time with StAX, so memory use does not depend on the
+ * size of the file. DTDs and external entities are not resolved.
+ *
+ * A reader is not thread-safe.
+ */
+public class DumpRowReader implements Closeable {
+
+    private final InputStream in;
+    private final XMLStreamReader xml;
+    private long rowNumber = 0;
+
+    /**
+     * Constructor
+     */
+    public DumpRowReader(InputStream in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        this.in = in;
+        try {
+            this.xml = factory.createXMLStreamReader(in, "UTF-8");
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read dump: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Advance to the next row
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && "row".equals(xml.getLocalName())) {
+                    rowNumber++;
+                    return true;
+                }
+            }
+            return false;
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed dump after row " + rowNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get an attribute of the current row, or null if the row does not have it
+     */
+    public String get(String name) {
+        return xml.getAttributeValue(null, name);
+    }
+
+    /**
+     * Get a numeric attribute of the current row
+     */
+    public long getLong(String name, long defaultValue) {
+        String value = get(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * Get a date attribute of the current row (UTC, e.g. 2008-07-31T21:42:52.667) as epoch seconds
+     */
+    public long getEpochSeconds(String name, long defaultValue) {
+        String value = get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return LocalDateTime.parse(value).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Get the tags of the current row
+     *
+     * Older dumps write them as <java><spring>, newer ones as |java|spring|.
+     */
+    public List<String> getTags(String name) {
+        String value = get(name);
+        List<String> tags = new ArrayList<>();
+        if (value == null) {
+            return tags;
+        }
+        int start = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '<' || (c == '|' && start < 0)) {
+                start = i + 1;
+            } else if ((c == '>' || c == '|') && start >= 0) {
+                if (i > start) {
+                    tags.add(value.substring(start, i));
+                }
+                start = c == '|' ? i + 1 : -1;
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Get the number of rows read so far, including the current one
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            // Closing the stream below is what matters
+        } finally {
+            in.close();
+        }
+    }
+}
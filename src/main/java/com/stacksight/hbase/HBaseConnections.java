@@ -0,0 +1,45 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+
+import java.io.IOException;
+
+/**
+ * One shared HBase connection per JVM
+ *
+ * HBase connections are heavyweight and thread-safe; Spark tasks on the same
+ * executor (and request threads of the web app) share this one instead of
+ * opening their own. It is closed when the JVM shuts down.
+ */
+public final class HBaseConnections {
+
+    private static Connection connection;
+
+    private HBaseConnections() {
+    }
+
+    /**
+     * Get the shared connection, creating it on first use
+     */
+    public static synchronized Connection get(String zookeeperQuorum, String zookeeperClientPort) throws IOException {
+        if (connection == null || connection.isClosed()) {
+            Configuration config = HBaseConfiguration.create();
+            config.set("hbase.zookeeper.quorum", zookeeperQuorum);
+            config.set("hbase.zookeeper.property.clientPort", zookeeperClientPort);
+
+            connection = ConnectionFactory.createConnection(config);
+            Connection created = connection;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    created.close();
+                } catch (IOException e) {
+                    // Shutting down anyway
+                }
+            }));
+        }
+        return connection;
+    }
+}
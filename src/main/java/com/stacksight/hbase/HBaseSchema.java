@@ -0,0 +1,110 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Table, column family and row key layout of the StackSights HBase tables
+ *
+ * - stackoverflow_qna: one row per question; question, answers and top_answers families.
+ *   Row keys are a salt byte followed by the big-endian question_id, so consecutive
+ *   (monotonically increasing) questions spread over SALT_BUCKETS regions
+ * - stackoverflow_trends: time-bucketed tag count snapshots (see TrendSeries)
+ * - stackoverflow_tag_index: one row per tag; one question_ids column per question
+ */
+public final class HBaseSchema {
+
+    // Table names
+    public static final String QNA_TABLE = "stackoverflow_qna";
+    public static final String TRENDS_TABLE = "stackoverflow_trends";
+    public static final String TAG_INDEX_TABLE = "stackoverflow_tag_index";
+
+    // Column family names
+    public static final byte[] QUESTION_CF = Bytes.toBytes("question");
+    public static final byte[] ANSWERS_CF = Bytes.toBytes("answers");
+    public static final byte[] TOP_ANSWERS_CF = Bytes.toBytes("top_answers");
+    public static final byte[] TREND_CF = Bytes.toBytes("trend");
+    public static final byte[] QUESTION_IDS_CF = Bytes.toBytes("question_ids");
+
+    // Number of salt prefixes (and initial regions) of stackoverflow_qna
+    public static final int SALT_BUCKETS = 16;
+
+    private HBaseSchema() {
+    }
+
+    /**
+     * Row key of a question in stackoverflow_qna: salt byte + 8-byte question_id
+     */
+    public static byte[] qnaRowKey(long questionId) {
+        byte[] rowKey = new byte[1 + Bytes.SIZEOF_LONG];
+        rowKey[0] = salt(questionId);
+        Bytes.putLong(rowKey, 1, questionId);
+        return rowKey;
+    }
+
+    /**
+     * Question ID of a stackoverflow_qna row key
+     */
+    public static long questionIdOfQnaRowKey(byte[] rowKey) {
+        return Bytes.toLong(rowKey, 1);
+    }
+
+    /**
+     * Salt bucket of a question
+     */
+    public static byte salt(long questionId) {
+        // Spread sequential IDs with a multiplicative hash before taking the bucket
+        long h = questionId * 0x9E3779B97F4A7C15L;
+        return (byte) Math.floorMod(h ^ (h >>> 32), SALT_BUCKETS);
+    }
+
+    /**
+     * Split keys for stackoverflow_qna: one region per salt bucket
+     */
+    public static byte[][] qnaSplitKeys() {
+        byte[][] splitKeys = new byte[SALT_BUCKETS - 1][];
+        for (int bucket = 1; bucket < SALT_BUCKETS; bucket++) {
+            splitKeys[bucket - 1] = new byte[] {(byte) bucket};
+        }
+        return splitKeys;
+    }
+
+    /**
+     * Split keys for tables keyed by tag name
+     *
+     * Tags are lower-case ASCII; the split points divide 0-9a-z evenly by first character.
+     */
+    public static byte[][] tagSplitKeys(int regions) {
+        String alphabet = "0123456789abcdefghijklmnopqrstuvwxyz";
+        int count = Math.max(1, Math.min(regions, alphabet.length()));
+        byte[][] splitKeys = new byte[count - 1][];
+        for (int i = 1; i < count; i++) {
+            splitKeys[i - 1] = Bytes.toBytes(alphabet.substring(i * alphabet.length() / count, 
+                    i * alphabet.length() / count + 1));
+        }
+        return splitKeys;
+    }
+
+    /**
+     * Row key of a tag in stackoverflow_tag_index
+     */
+    public static byte[] tagRowKey(String tag) {
+        return Bytes.toBytes(tag);
+    }
+
+    /**
+     * Column qualifier of a question in the question_ids family
+     *
+     * Qualifiers are Long.MAX_VALUE - question_id, big-endian, so the newest
+     * questions of a tag sort first.
+     */
+    public static byte[] tagIndexQualifier(long questionId) {
+        return Bytes.toBytes(Long.MAX_VALUE - questionId);
+    }
+
+    /**
+     * Question ID of a question_ids column qualifier
+     */
+    public static long questionIdOfTagIndexQualifier(byte[] qualifier) {
+        return Long.MAX_VALUE - Bytes.toLong(qualifier);
+    }
+}
@@ -0,0 +1,153 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes cells of one table into HFiles ready for bulk loading
+ *
+ * Files go to DIR/FAMILY/, one per column family and region, so a bulk load
+ * moves each file into its region as is instead of splitting it. Cells must
+ * be appended sorted per column family (CellComparator order); a sorted list
+ * holding several families is fine. Each family's files take the compression,
+ * data block encoding, block size and Bloom filter of the table's descriptor.
+ */
+public class HFileSink implements Closeable {
+
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final Path directory;
+    private final TableDescriptor table;
+    private final byte[][] regionStartKeys;
+    private final Map<String, FamilyWriter> writers = new HashMap<>();
+    private long cellCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param regionStartKeys start keys of the table's regions, as from RegionLocator.getStartKeys()
+     */
+    public HFileSink(Configuration conf, Path directory, TableDescriptor table, byte[][] regionStartKeys)
+            throws IOException {
+        this.conf = conf;
+        this.fs = directory.getFileSystem(conf);
+        this.directory = directory;
+        this.table = table;
+        this.regionStartKeys = regionStartKeys.clone();
+        Arrays.sort(this.regionStartKeys, Bytes.BYTES_COMPARATOR);
+    }
+
+    /**
+     * Append a cell; its timestamp must be set
+     */
+    public void append(Cell cell) throws IOException {
+        String family = Bytes.toString(CellUtil.cloneFamily(cell));
+        FamilyWriter writer = writers.get(family);
+        if (writer == null) {
+            ColumnFamilyDescriptor descriptor = table.getColumnFamily(CellUtil.cloneFamily(cell));
+            if (descriptor == null) {
+                throw new IllegalArgumentException("No family " + family + " in " + table.getTableName());
+            }
+            writer = new FamilyWriter(descriptor);
+            writers.put(family, writer);
+        }
+        writer.append(cell);
+        cellCount++;
+    }
+
+    /**
+     * Get the number of cells appended
+     */
+    public long getCellCount() {
+        return cellCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FamilyWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    /**
+     * Region index of a row: the last region whose start key is at or before it
+     */
+    private int regionOf(byte[] row) {
+        int index = Arrays.binarySearch(regionStartKeys, row, Bytes.BYTES_COMPARATOR);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    /**
+     * The open HFile of one column family, rolled over at region boundaries
+     */
+    private class FamilyWriter {
+
+        private final ColumnFamilyDescriptor descriptor;
+        private final Path familyDirectory;
+        private StoreFileWriter writer;
+        private int region = -1;
+
+        FamilyWriter(ColumnFamilyDescriptor descriptor) throws IOException {
+            this.descriptor = descriptor;
+            this.familyDirectory = new Path(directory, descriptor.getNameAsString());
+            fs.mkdirs(familyDirectory);
+        }
+
+        void append(Cell cell) throws IOException {
+            int cellRegion = regionOf(CellUtil.cloneRow(cell));
+            if (cellRegion != region) {
+                if (cellRegion < region) {
+                    throw new IllegalStateException("Cells of " + descriptor.getNameAsString() + " are not sorted");
+                }
+                close();
+                writer = open(cellRegion);
+                region = cellRegion;
+            }
+            writer.append(cell);
+        }
+
+        private StoreFileWriter open(int region) throws IOException {
+            HFileContext context = new HFileContextBuilder()
+                    .withCompression(descriptor.getCompressionType())
+                    .withDataBlockEncoding(descriptor.getDataBlockEncoding())
+                    .withBlockSize(descriptor.getBlocksize())
+                    .withColumnFamily(descriptor.getName())
+                    .withTableName(table.getTableName().getName())
+                    .build();
+            return new StoreFileWriter.Builder(conf, CacheConfig.DISABLED, fs)
+                    .withFilePath(new Path(familyDirectory, String.format("region-%05d", region)))
+                    .withBloomType(descriptor.getBloomFilterType())
+                    .withFileContext(context)
+                    .build();
+        }
+
+        void close() throws IOException {
+            if (writer == null) {
+                return;
+            }
+            writer.appendFileInfo(HStoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+            writer.appendFileInfo(HStoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendTrackedTimestampsToMetadata();
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the HBase mutations for a question from the stackoverflow-questions topic
+ *
+ * - question family: one column per question field (string values)
+ * - answers family: one column per answer, qualified by answer_id, holding the answer JSON
+ * - tag index: one question_ids column per tag of the question
+ *
+ * The top_answers family is maintained separately, by {@link TopAnswersUpdater}.
+ */
+public final class QuestionPuts {
+
+    private static final String[] QUESTION_FIELDS = {
+            "title", "body", "link", "score", "view_count", "answer_count", "is_answered",
+            "creation_date", "last_activity_date", "accepted_answer_id"
+    };
+
+    private QuestionPuts() {
+    }
+
+    /**
+     * Build the stackoverflow_qna row of a question
+     */
+    public static Put qnaPut(JSONObject question) {
+        long questionId = question.getLong("question_id");
+        Put put = new Put(HBaseSchema.qnaRowKey(questionId));
+
+        for (String field : QUESTION_FIELDS) {
+            if (question.has(field)) {
+                put.addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes(field), 
+                        Bytes.toBytes(String.valueOf(question.get(field))));
+            }
+        }
+
+        JSONArray tags = question.optJSONArray("tags");
+        if (tags != null) {
+            put.addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("tags"), Bytes.toBytes(tags.toString()));
+        }
+
+        JSONObject owner = question.optJSONObject("owner");
+        if (owner != null && owner.has("display_name")) {
+            put.addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("owner"), 
+                    Bytes.toBytes(owner.getString("display_name")));
+        }
+
+        JSONArray answers = question.optJSONArray("answers");
+        if (answers != null) {
+            for (int i = 0; i < answers.length(); i++) {
+                JSONObject answer = answers.getJSONObject(i);
+                put.addColumn(HBaseSchema.ANSWERS_CF, Bytes.toBytes(String.valueOf(answer.getLong("answer_id"))), 
+                        Bytes.toBytes(answer.toString()));
+            }
+        }
+
+        return put;
+    }
+
+    /**
+     * Build the stackoverflow_tag_index columns of a question, one Put per tag
+     *
+     * The cell value is the question's creation_date.
+     */
+    public static List<Put> tagIndexPuts(JSONObject question) {
+        JSONArray tagArray = question.optJSONArray("tags");
+        if (tagArray == null) {
+            return new ArrayList<>();
+        }
+
+        List<String> tags = new ArrayList<>(tagArray.length());
+        for (int i = 0; i < tagArray.length(); i++) {
+            tags.add(tagArray.getString(i));
+        }
+        return tagIndexPuts(question.getLong("question_id"), question.optLong("creation_date", 0), tags);
+    }
+
+    /**
+     * Build the stackoverflow_tag_index columns of a question from its fields
+     */
+    public static List<Put> tagIndexPuts(long questionId, long creationDate, List<String> tags) {
+        byte[] qualifier = HBaseSchema.tagIndexQualifier(questionId);
+        byte[] value = Bytes.toBytes(creationDate);
+
+        List<Put> puts = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            Put put = new Put(HBaseSchema.tagRowKey(tag));
+            put.addColumn(HBaseSchema.QUESTION_IDS_CF, qualifier, value);
+            puts.add(put);
+        }
+        return puts;
+    }
+}
@@ -0,0 +1,140 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ranking of a question's answers into the top_answers family of stackoverflow_qna
+ *
+ * top_answers holds the best {@link #TOP_N} answers, accepted first, then by
+ * score, as columns 1..N with the answer JSON. A question page reads only this
+ * family, never the full answers family.
+ *
+ * The ranking is kept up to date incrementally: the new top N of a question
+ * is compared with the stored ranks, and only ranks whose answer or content
+ * changed are written; ranks past the new answer count are deleted. A score
+ * change below the top N, or a question edit, writes nothing here.
+ */
+public final class TopAnswers {
+
+    public static final int TOP_N = 3;
+
+    /**
+     * Best first: the accepted answer, then by score; ties keep the API order
+     */
+    public static final Comparator<JSONObject> RANKING = Comparator
+            .comparing((JSONObject answer) -> answer.optBoolean("is_accepted", false)).reversed()
+            .thenComparing(Comparator.comparingInt((JSONObject answer) -> answer.optInt("score", 0)).reversed());
+
+    private static final byte[][] RANK_QUALIFIERS = new byte[TOP_N][];
+
+    static {
+        for (int rank = 0; rank < TOP_N; rank++) {
+            RANK_QUALIFIERS[rank] = Bytes.toBytes(String.valueOf(rank + 1));
+        }
+    }
+
+    private TopAnswers() {
+    }
+
+    /**
+     * Select the best n answers, best first, without sorting the others
+     */
+    public static List<JSONObject> select(JSONArray answers, int n) {
+        List<JSONObject> top = new ArrayList<>(n + 1);
+        for (int i = 0; i < answers.length(); i++) {
+            JSONObject answer = answers.getJSONObject(i);
+            int position = top.size();
+            while (position > 0 && RANKING.compare(answer, top.get(position - 1)) < 0) {
+                position--;
+            }
+            if (position < n) {
+                top.add(position, answer);
+                if (top.size() > n) {
+                    top.remove(n);
+                }
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Select the top answers of a question record
+     *
+     * @return the answers best first, empty if the question has none, or null if
+     *         the record does not carry its answers
+     */
+    public static List<JSONObject> select(JSONObject question) {
+        JSONArray answers = question.optJSONArray("answers");
+        if (answers != null) {
+            return select(answers, TOP_N);
+        }
+        // The API leaves answers out when there are none
+        return question.optInt("answer_count", -1) == 0 ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Get the stored ranks of a question
+     */
+    public static Get storedRanks(long questionId) {
+        return new Get(HBaseSchema.qnaRowKey(questionId)).addFamily(HBaseSchema.TOP_ANSWERS_CF);
+    }
+
+    /**
+     * Build the mutations that turn the stored ranks into the given ones
+     *
+     * @param top    the answers, best first, at most {@link #TOP_N}
+     * @param stored the question's top_answers family, as read with {@link #storedRanks}
+     * @return a Put of the changed ranks and a Delete of the ranks past the end, each only if needed
+     */
+    public static List<Mutation> changes(long questionId, List<JSONObject> top, Result stored) {
+        byte[] rowKey = HBaseSchema.qnaRowKey(questionId);
+        Put put = new Put(rowKey);
+        Delete delete = new Delete(rowKey);
+        for (int rank = 0; rank < TOP_N; rank++) {
+            byte[] current = stored.getValue(HBaseSchema.TOP_ANSWERS_CF, RANK_QUALIFIERS[rank]);
+            if (rank < top.size()) {
+                JSONObject answer = top.get(rank);
+                if (!sameAnswer(current, answer)) {
+                    put.addColumn(HBaseSchema.TOP_ANSWERS_CF, RANK_QUALIFIERS[rank], Bytes.toBytes(answer.toString()));
+                }
+            } else if (current != null) {
+                delete.addColumns(HBaseSchema.TOP_ANSWERS_CF, RANK_QUALIFIERS[rank]);
+            }
+        }
+
+        List<Mutation> mutations = new ArrayList<>(2);
+        if (!put.isEmpty()) {
+            mutations.add(put);
+        }
+        if (!delete.isEmpty()) {
+            mutations.add(delete);
+        }
+        return mutations;
+    }
+
+    /**
+     * Compare a stored rank with an answer by content, so field order does not count as a change
+     */
+    private static boolean sameAnswer(byte[] stored, JSONObject answer) {
+        if (stored == null) {
+            return false;
+        }
+        try {
+            return new JSONObject(Bytes.toString(stored)).similar(answer);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies the top_answers changes of a stream of question records
+ *
+ * The top N of each question is kept until a batch is full; a question seen
+ * again in the batch replaces its earlier ranking. The batch's stored ranks are
+ * then read with one multi-Get and only the changes (see {@link TopAnswers#changes})
+ * go to the mutator. Not thread-safe; one per partition writer.
+ */
+public class TopAnswersUpdater {
+
+    private final Table table;
+    private final BufferedMutator mutator;
+    private final int batchSize;
+
+    private final Map<Long, List<JSONObject>> pending = new LinkedHashMap<>();
+    private long questions = 0;
+    private long mutations = 0;
+
+    /**
+     * Constructor
+     *
+     * @param table   stackoverflow_qna, to read the stored ranks
+     * @param mutator stackoverflow_qna mutator the changes are written through
+     */
+    public TopAnswersUpdater(Table table, BufferedMutator mutator, int batchSize) {
+        this.table = table;
+        this.mutator = mutator;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Rank the answers of a question record; records without their answers are skipped
+     */
+    public void add(JSONObject question) throws IOException {
+        List<JSONObject> top = TopAnswers.select(question);
+        if (top == null) {
+            return;
+        }
+        pending.put(question.getLong("question_id"), top);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the changes of the pending questions
+     */
+    public void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Ranks this writer changed in an earlier batch must be visible to the Gets
+        mutator.flush();
+
+        List<Long> ids = new ArrayList<>(pending.keySet());
+        List<Get> gets = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            gets.add(TopAnswers.storedRanks(id));
+        }
+        Result[] stored = table.get(gets);
+        for (int i = 0; i < ids.size(); i++) {
+            List<Mutation> changes = TopAnswers.changes(ids.get(i), pending.get(ids.get(i)), stored[i]);
+            mutator.mutate(changes);
+            mutations += changes.size();
+        }
+        questions += ids.size();
+        pending.clear();
+    }
+
+    /**
+     * Get the number of question rankings checked so far
+     */
+    public long getQuestions() {
+        return questions;
+    }
+
+    /**
+     * Get the number of Puts and Deletes written so far; unchanged rankings write none
+     */
+    public long getMutations() {
+        return mutations;
+    }
+}
@@ -0,0 +1,158 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time-bucketed tag count series in stackoverflow_trends
+ *
+ * Row keys are tag + '#' + (Long.MAX_VALUE - bucket start), so the rows of a tag
+ * sort newest first and a tag's recent history is one short range scan. Each row
+ * holds the count snapshot and its deltas and hourly rates over the 1h, 24h and
+ * 7d windows. The leaderboard row holds the latest snapshot of every tag, and
+ * the watermark row the time each streaming query last wrote a batch.
+ * The same rows carry the question and co-occurrence counters that
+ * TagStreamAggregator derives from the question stream.
+ *
+ * Tags may themselves contain '#' (c#), but the reversed bucket always starts
+ * with 0x7F, so the bounded scans of one tag never include rows of another.
+ */
+public final class TrendSeries {
+
+    public static final long BUCKET_SECONDS = 300;
+
+    public static final String[] WINDOW_NAMES = {"1h", "24h", "7d"};
+    public static final long[] WINDOW_SECONDS = {
+            TimeUnit.HOURS.toSeconds(1), TimeUnit.HOURS.toSeconds(24), TimeUnit.DAYS.toSeconds(7)
+    };
+
+    public static final byte[] LEADERBOARD_ROW = Bytes.toBytes("#leaderboard");
+    public static final byte[] WATERMARK_ROW = Bytes.toBytes("#watermark");
+
+    // Streaming queries, as named in the watermark row
+    public static final String QUESTIONS_QUERY = "questions-to-hbase";
+    public static final String TRENDS_QUERY = "trends-to-hbase";
+
+    private static final byte[] COUNT = Bytes.toBytes("count");
+    private static final byte[] TIMESTAMP = Bytes.toBytes("timestamp");
+
+    private TrendSeries() {
+    }
+
+    /**
+     * Start of the bucket holding a timestamp (epoch seconds)
+     */
+    public static long bucket(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, BUCKET_SECONDS);
+    }
+
+    /**
+     * Row key of a tag's snapshot in a time bucket
+     */
+    public static byte[] rowKey(String tag, long timestamp) {
+        return Bytes.add(Bytes.toBytes(tag + "#"), Bytes.toBytes(Long.MAX_VALUE - bucket(timestamp)));
+    }
+
+    /**
+     * Scan over a tag's snapshots from newest to oldest within [from, to]
+     */
+    public static Scan historyScan(String tag, long from, long to) {
+        return new Scan()
+                .withStartRow(rowKey(tag, to))
+                .withStopRow(rowKey(tag, from), true)
+                .addFamily(HBaseSchema.TREND_CF);
+    }
+
+    /**
+     * Build the row of a new snapshot, with deltas against earlier snapshots
+     *
+     * @param trends the stackoverflow_trends table to read earlier snapshots from
+     * @return the snapshot row; {@link #summary(String, Put)} gives its leaderboard entry
+     */
+    public static Put snapshotPut(Table trends, String tag, long count, long timestamp) throws IOException {
+        Put put = snapshotPut(tag, count, timestamp);
+
+        for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+            long[] earlier = snapshotAtOrBefore(trends, tag, timestamp - WINDOW_SECONDS[i]);
+            if (earlier == null) {
+                continue;
+            }
+
+            long delta = count - earlier[0];
+            long elapsed = Math.max(1, timestamp - earlier[1]);
+            double ratePerHour = delta * 3600.0 / elapsed;
+            put.addColumn(HBaseSchema.TREND_CF, Bytes.toBytes("delta_" + WINDOW_NAMES[i]),
+                    Bytes.toBytes(String.valueOf(delta)));
+            put.addColumn(HBaseSchema.TREND_CF, Bytes.toBytes("rate_" + WINDOW_NAMES[i]),
+                    Bytes.toBytes(String.format("%.2f", ratePerHour)));
+        }
+        return put;
+    }
+
+    /**
+     * Build the row of a snapshot without deltas, e.g. the first one of a tag
+     */
+    public static Put snapshotPut(String tag, long count, long timestamp) {
+        Put put = new Put(rowKey(tag, timestamp));
+        put.addColumn(HBaseSchema.TREND_CF, COUNT, Bytes.toBytes(String.valueOf(count)));
+        put.addColumn(HBaseSchema.TREND_CF, TIMESTAMP, Bytes.toBytes(String.valueOf(timestamp)));
+        return put;
+    }
+
+    /**
+     * Build the leaderboard cell of a snapshot row: qualifier tag, value the snapshot's columns as JSON
+     */
+    public static Put summary(String tag, Put snapshot) {
+        JSONObject summary = new JSONObject();
+        for (Cell cell : snapshot.getFamilyCellMap().get(HBaseSchema.TREND_CF)) {
+            summary.put(Bytes.toString(CellUtil.cloneQualifier(cell)), Bytes.toString(CellUtil.cloneValue(cell)));
+        }
+
+        Put put = new Put(LEADERBOARD_ROW);
+        put.addColumn(HBaseSchema.TREND_CF, Bytes.toBytes(tag), Bytes.toBytes(summary.toString()));
+        return put;
+    }
+
+    /**
+     * Build the watermark cell of a streaming query: qualifier the query name, value the batch time
+     */
+    public static Put watermark(String query, long timeMillis) {
+        Put put = new Put(WATERMARK_ROW);
+        put.addColumn(HBaseSchema.TREND_CF, Bytes.toBytes(query), Bytes.toBytes(String.valueOf(timeMillis)));
+        return put;
+    }
+
+    /**
+     * Find the newest snapshot at or before a time, within the 7-day window before it
+     *
+     * @return {count, timestamp}, or null if there is none
+     */
+    private static long[] snapshotAtOrBefore(Table trends, String tag, long timestamp) throws IOException {
+        Scan scan = historyScan(tag, timestamp - WINDOW_SECONDS[WINDOW_SECONDS.length - 1], timestamp)
+                .addColumn(HBaseSchema.TREND_CF, COUNT)
+                .addColumn(HBaseSchema.TREND_CF, TIMESTAMP)
+                .setLimit(1)
+                .setCaching(1);
+
+        try (ResultScanner scanner = trends.getScanner(scan)) {
+            Result result = scanner.next();
+            if (result == null) {
+                return null;
+            }
+            return new long[] {
+                    Long.parseLong(Bytes.toString(result.getValue(HBaseSchema.TREND_CF, COUNT))),
+                    Long.parseLong(Bytes.toString(result.getValue(HBaseSchema.TREND_CF, TIMESTAMP)))
+            };
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.stacksight.ingest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where the ingester gets Stack Exchange API pages from
+ *
+ * - {@link StackExchangeApiClient}: the live API
+ * - {@link RecordingApiSource}: another source, saving each page it returns to disk
+ * - {@link ReplayApiSource}: pages recorded earlier, at a configurable rate
+ *
+ * toString() summarizes the requests served so far for the cycle log.
+ */
+public interface ApiSource {
+
+    /**
+     * Send a GET request to an API endpoint
+     *
+     * The future completes once the response headers have arrived. The caller
+     * must read and close the response body.
+     */
+    CompletableFuture<StackExchangeApiClient.Response> getAsync(String endpoint, Map<String, String> params);
+}
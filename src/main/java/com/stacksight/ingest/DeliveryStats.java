@@ -0,0 +1,95 @@
+package com.stacksight.ingest;
+
+import org.apache.kafka.clients.producer.Callback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery accounting for Kafka sends
+ *
+ * Replaces the per-record log line in the send callback with counters and a
+ * send-to-ack latency histogram for the cycle summary, and feeds acks and
+ * failures into the ingester's {@link IngestMetrics}.
+ */
+public class DeliveryStats {
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final IngestMetrics metrics;
+    private volatile String lastError = null;
+
+    /**
+     * Constructor
+     */
+    public DeliveryStats(IngestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Create the callback for a record that is about to be sent
+     *
+     * @param ackCounter   counter incremented once the record is acknowledged, or null
+     * @param creationDate creation_date of a question record (for the lag metric), or -1
+     */
+    public Callback newCallback(String topic, AtomicInteger ackCounter, long creationDate) {
+        long startNanos = System.nanoTime();
+        sent.incrementAndGet();
+        return (metadata, exception) -> {
+            if (exception != null) {
+                failed.incrementAndGet();
+                lastError = exception.getMessage();
+                metrics.recordSendError(topic);
+            } else {
+                long latencyNanos = System.nanoTime() - startNanos;
+                acknowledged.incrementAndGet();
+                ackLatency.record(latencyNanos);
+                metrics.recordAck(topic, latencyNanos, creationDate);
+                if (ackCounter != null) {
+                    ackCounter.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Record a send that failed before reaching the producer buffer
+     */
+    public void recordSendError(String topic, Exception e) {
+        sent.incrementAndGet();
+        failed.incrementAndGet();
+        lastError = e.getMessage();
+        metrics.recordSendError(topic);
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    /**
+     * Get the message of the most recent failure, or null
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "sent=" + getSent() + ", acked=" + getAcknowledged() + ", failed=" + getFailed() +
+                ", ackLatency(" + ackLatency + ")";
+    }
+}
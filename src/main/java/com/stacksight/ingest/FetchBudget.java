@@ -0,0 +1,194 @@
+package com.stacksight.ingest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Request budget shared by the concurrent Stack Exchange API fetchers
+ *
+ * The budget bounds the number of requests in flight and replaces the fixed
+ * sleep between pages:
+ * 1. At most maxInFlight requests run at the same time
+ * 2. No request is issued while quota_remaining (minus in-flight requests) is at the reserve
+ * 3. All fetchers wait while an API backoff is active
+ *
+ * The daily quota resets at UTC midnight, so a quota_remaining reported on an
+ * earlier UTC day no longer counts. In case the reset comes at another time, a
+ * single probe request is let through once an hour while the quota is
+ * exhausted; its response reports the quota again.
+ *
+ * Waiting uses a ReentrantLock rather than a monitor, so fetchers on virtual
+ * threads unmount while they wait instead of pinning their carrier thread.
+ */
+public class FetchBudget {
+
+    private static final long DAY_MILLIS = 86_400_000;
+    private static final long PROBE_INTERVAL_MILLIS = 3_600_000;
+
+    private final int maxInFlight;
+    private final int quotaReserve;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private int inFlight = 0;
+    private int quotaRemaining = -1;
+    // UTC day of the last reported quota_remaining
+    private long quotaDay = -1;
+    // No probe is sent before this time while the quota is exhausted
+    private long probeAfterMillis = -1;
+    private long backoffUntilMillis = -1;
+
+    /**
+     * Constructor
+     */
+    public FetchBudget(int maxInFlight, int quotaReserve) {
+        this(maxInFlight, quotaReserve, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor with the clock in epoch milliseconds, for tests
+     */
+    FetchBudget(int maxInFlight, int quotaReserve, LongSupplier clock) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.quotaReserve = quotaReserve;
+        this.clock = clock;
+    }
+
+    /**
+     * Wait for a request slot
+     *
+     * While the quota is exhausted, a slot is only granted to the hourly probe.
+     *
+     * @return true if a slot was acquired, false if the quota is exhausted
+     */
+    public boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = clock.getAsLong();
+                boolean probe = quotaExhausted(now);
+                if (probe && (inFlight > 0 || now < probeAfterMillis)) {
+                    return false;
+                }
+
+                long backoffMillis = backoffUntilMillis - now;
+                if (backoffMillis > 0) {
+                    changed.await(backoffMillis, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+
+                if (inFlight < maxInFlight) {
+                    inFlight++;
+                    if (probe) {
+                        // The next probe waits from when this one was actually sent
+                        probeAfterMillis = now + PROBE_INTERVAL_MILLIS;
+                    }
+                    return true;
+                }
+
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a slot acquired with {@link #acquire()}
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the quota_remaining and backoff fields of an API response
+     *
+     * @param quotaRemaining quota_remaining from the response, or -1 if absent
+     * @param backoffSeconds backoff from the response, or 0 if absent
+     */
+    public void update(int quotaRemaining, int backoffSeconds) {
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            if (quotaRemaining >= 0) {
+                this.quotaRemaining = quotaRemaining;
+                quotaDay = now / DAY_MILLIS;
+                probeAfterMillis = now + PROBE_INTERVAL_MILLIS;
+            }
+            if (backoffSeconds > 0) {
+                long until = now + backoffSeconds * 1000L;
+                backoffUntilMillis = Math.max(backoffUntilMillis, until);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pause all fetchers for the given time, e.g. after a failed request
+     */
+    public void pause(long millis) {
+        lock.lock();
+        try {
+            backoffUntilMillis = Math.max(backoffUntilMillis, clock.getAsLong() + millis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether the remaining quota is at the reserve
+     */
+    public boolean isQuotaExhausted() {
+        lock.lock();
+        try {
+            return quotaExhausted(clock.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the last reported quota_remaining, or -1 if unknown or reported before the last reset
+     */
+    public int getQuotaRemaining() {
+        lock.lock();
+        try {
+            expireQuota(clock.getAsLong());
+            return quotaRemaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether the remaining quota is at the reserve; the lock must be held
+     */
+    private boolean quotaExhausted(long now) {
+        expireQuota(now);
+        return quotaRemaining != -1 && quotaRemaining - inFlight <= quotaReserve;
+    }
+
+    /**
+     * Forget a quota_remaining reported before the last UTC midnight; the lock must be held
+     */
+    private void expireQuota(long now) {
+        if (quotaRemaining != -1 && now / DAY_MILLIS != quotaDay) {
+            quotaRemaining = -1;
+        }
+    }
+}
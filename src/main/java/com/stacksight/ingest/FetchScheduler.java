@@ -0,0 +1,246 @@
+package com.stacksight.ingest;
+
+import java.util.List;
+
+/**
+ * Decides when a shard fetches its questions and tags next
+ *
+ * A questions cycle costs one request per page of new questions, plus one for
+ * the last, partly filled page. Polling more often than a page fills up spends
+ * requests without getting more questions; polling less often makes questions
+ * wait. So the scheduler aims at one page per cycle:
+ * 1. The arrival rate is estimated from the creation_date of the questions
+ *    fetched, over the part of the time range a cycle covered (all of it, or
+ *    down to the oldest question seen when has_more was cut short). A short
+ *    average gives the current rate, an hour-of-day profile the expected one
+ * 2. The interval is a page's worth of arrivals at the current rate, kept
+ *    between the minimum and the maximum (the freshness bound)
+ * 3. The remaining daily quota is planned until it resets at UTC midnight:
+ *    pages of questions and tag fetches come first, and if the polls the
+ *    profile expects for the rest of the day do not fit in what is left, all
+ *    intervals are stretched by the same factor (and by the shortfall when
+ *    not even the pages fit)
+ * Tags are fetched on their own, fixed interval.
+ *
+ * With equal minimum and maximum the question interval is fixed.
+ */
+public class FetchScheduler {
+
+    private static final int HOURS = 24;
+    private static final long HOUR_SECONDS = 3600;
+    private static final long DAY_SECONDS = 86400;
+    // Memory of the current rate, and of the hour-of-day profile
+    private static final double RATE_HALF_LIFE_SECONDS = 3600;
+    private static final double PROFILE_HALF_LIFE_SECONDS = 7 * DAY_SECONDS;
+    // Hours observed for less than this use the current rate instead of the profile
+    private static final double MIN_PROFILE_EXPOSURE_SECONDS = 1800;
+
+    private final long minIntervalSeconds;
+    private final long maxIntervalSeconds;
+    private final long tagIntervalSeconds;
+    private final boolean fetchesTags;
+    private final int pageSize;
+    private final double quotaShare;
+
+    // Arrivals and observed seconds by UTC hour of day, decayed over time
+    private final double[] hourArrivals = new double[HOURS];
+    private final double[] hourExposure = new double[HOURS];
+    private long profileDecayedAt = -1;
+
+    // Current cycle, and the rate averaged over past cycles (-1 before the first)
+    private long cycleArrivals = 0;
+    private long cycleExposure = 0;
+    private double rate = -1;
+
+    private long intervalSeconds;
+    private long nextQuestionsAt = 0;
+    private long nextTagsAt = 0;
+
+    /**
+     * Constructor
+     *
+     * @param fetchesTags whether the shard fetches tags, which then count against its quota
+     * @param pageSize    questions per page
+     * @param quotaShare  share of the API key's quota this shard may plan with, e.g. 1 / shards
+     */
+    public FetchScheduler(long minIntervalSeconds, long maxIntervalSeconds, long tagIntervalSeconds,
+                          boolean fetchesTags, int pageSize, double quotaShare) {
+        if (minIntervalSeconds < 1 || maxIntervalSeconds < minIntervalSeconds || tagIntervalSeconds < 1) {
+            throw new IllegalArgumentException("Invalid intervals: " + minIntervalSeconds + ", " +
+                    maxIntervalSeconds + ", " + tagIntervalSeconds);
+        }
+        this.minIntervalSeconds = minIntervalSeconds;
+        this.maxIntervalSeconds = maxIntervalSeconds;
+        this.tagIntervalSeconds = tagIntervalSeconds;
+        this.fetchesTags = fetchesTags;
+        this.pageSize = pageSize;
+        this.quotaShare = quotaShare;
+        this.intervalSeconds = maxIntervalSeconds;
+    }
+
+    /**
+     * Count the questions of a fetched page as arrivals at their creation_date
+     */
+    public synchronized void recordPage(List<QuestionRecord> items) {
+        for (QuestionRecord item : items) {
+            hourArrivals[hourOfDay(item.getCreationDate())]++;
+        }
+        cycleArrivals += items.size();
+    }
+
+    /**
+     * Record that all questions created in a time range have been fetched
+     *
+     * @param fromDate start of the range, in epoch seconds, inclusive
+     * @param toDate   end of the range, inclusive
+     */
+    public synchronized void recordCoverage(long fromDate, long toDate) {
+        for (long start = fromDate; start <= toDate; ) {
+            long end = Math.min(toDate, start - Math.floorMod(start, HOUR_SECONDS) + HOUR_SECONDS - 1);
+            hourExposure[hourOfDay(start)] += end - start + 1;
+            start = end + 1;
+        }
+        cycleExposure += Math.max(0, toDate - fromDate + 1);
+    }
+
+    /**
+     * Check whether the questions are due
+     */
+    public synchronized boolean isQuestionsDue(long nowSeconds) {
+        return nowSeconds >= nextQuestionsAt;
+    }
+
+    /**
+     * Check whether the tags are due
+     */
+    public synchronized boolean isTagsDue(long nowSeconds) {
+        return fetchesTags && nowSeconds >= nextTagsAt;
+    }
+
+    /**
+     * Schedule the next tags fetch, after one started at the given time
+     */
+    public synchronized void tagsFetched(long startSeconds) {
+        nextTagsAt = startSeconds + tagIntervalSeconds;
+    }
+
+    /**
+     * Update the rates with the cycle that started at the given time and schedule the next one
+     *
+     * @param quotaRemaining quota_remaining of the API key, or -1 if unknown
+     * @param quotaReserve   requests that are never planned with
+     * @return the interval until the next cycle, in seconds
+     */
+    public synchronized long questionsFetched(long startSeconds, int quotaRemaining, int quotaReserve) {
+        decayProfile(startSeconds);
+        if (cycleExposure > 0) {
+            double cycleRate = (double) cycleArrivals / cycleExposure;
+            // A cycle's weight grows with the time it covered, so a long backfill outweighs a few quiet seconds
+            double weight = rate < 0 ? 1 : 1 - Math.pow(0.5, cycleExposure / RATE_HALF_LIFE_SECONDS);
+            rate = rate < 0 ? cycleRate : rate + weight * (cycleRate - rate);
+        }
+        cycleArrivals = 0;
+        cycleExposure = 0;
+
+        intervalSeconds = plan(startSeconds, quotaRemaining, quotaReserve);
+        nextQuestionsAt = startSeconds + intervalSeconds;
+        return intervalSeconds;
+    }
+
+    /**
+     * Get the time until the next fetch of either kind is due, in seconds
+     */
+    public synchronized long secondsUntilDue(long nowSeconds) {
+        long next = fetchesTags ? Math.min(nextQuestionsAt, nextTagsAt) : nextQuestionsAt;
+        return Math.max(0, next - nowSeconds);
+    }
+
+    /**
+     * Get the current question interval, in seconds
+     */
+    public synchronized long getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    /**
+     * Get the current arrival rate, in questions per hour, or -1 before the first cycle
+     */
+    public synchronized double getArrivalsPerHour() {
+        return rate < 0 ? -1 : rate * HOUR_SECONDS;
+    }
+
+    private long plan(long nowSeconds, int quotaRemaining, int quotaReserve) {
+        if (rate < 0) {
+            return maxIntervalSeconds;
+        }
+        long interval = desiredInterval(rate);
+        if (quotaRemaining < 0 || minIntervalSeconds == maxIntervalSeconds) {
+            return interval;
+        }
+
+        // Requests needed until the quota resets: question pages and tags, which no schedule avoids,
+        // then the polls the desired intervals would add
+        double available = (quotaRemaining - quotaReserve) * quotaShare;
+        double required = 0;
+        double polls = 0;
+        long resetAt = nowSeconds - Math.floorMod(nowSeconds, DAY_SECONDS) + DAY_SECONDS;
+        for (long start = nowSeconds; start < resetAt; ) {
+            long end = Math.min(resetAt, start - Math.floorMod(start, HOUR_SECONDS) + HOUR_SECONDS);
+            double hourRate = start == nowSeconds ? rate : expectedRate(hourOfDay(start));
+            long seconds = end - start;
+            required += hourRate * seconds / pageSize;
+            if (fetchesTags) {
+                required += (double) seconds / tagIntervalSeconds;
+            }
+            polls += (double) seconds / desiredInterval(hourRate);
+            start = end;
+        }
+
+        double spare = available - required;
+        double stretch;
+        if (spare >= polls) {
+            return interval;
+        } else if (spare > 0) {
+            stretch = polls / spare;
+        } else if (available > 0) {
+            // Not even the pages fit: some questions will be missed, so spread what is left over the day
+            stretch = (required + polls) / available;
+        } else {
+            return Math.max(interval, resetAt - nowSeconds);
+        }
+        return Math.min(resetAt - nowSeconds, (long) Math.ceil(interval * stretch));
+    }
+
+    /**
+     * The interval in which a page of questions arrives, within the bounds
+     */
+    private long desiredInterval(double arrivalRate) {
+        if (arrivalRate <= 0) {
+            return maxIntervalSeconds;
+        }
+        long interval = (long) Math.ceil(pageSize / arrivalRate);
+        return Math.max(minIntervalSeconds, Math.min(maxIntervalSeconds, interval));
+    }
+
+    private double expectedRate(int hour) {
+        if (hourExposure[hour] < MIN_PROFILE_EXPOSURE_SECONDS) {
+            return rate;
+        }
+        return hourArrivals[hour] / hourExposure[hour];
+    }
+
+    private void decayProfile(long nowSeconds) {
+        if (profileDecayedAt >= 0 && nowSeconds > profileDecayedAt) {
+            double factor = Math.pow(0.5, (nowSeconds - profileDecayedAt) / PROFILE_HALF_LIFE_SECONDS);
+            for (int hour = 0; hour < HOURS; hour++) {
+                hourArrivals[hour] *= factor;
+                hourExposure[hour] *= factor;
+            }
+        }
+        profileDecayedAt = nowSeconds;
+    }
+
+    private static int hourOfDay(long epochSeconds) {
+        return (int) (Math.floorMod(epochSeconds, DAY_SECONDS) / HOUR_SECONDS);
+    }
+}
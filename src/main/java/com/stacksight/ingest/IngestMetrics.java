@@ -0,0 +1,231 @@
+package com.stacksight.ingest;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.apache.kafka.clients.producer.Producer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the ingester, from API fetch to Kafka ack
+ *
+ * - stacksight.api.requests: request latency (until headers) by endpoint and outcome
+ * - stacksight.api.quota.remaining / stacksight.api.backoff: last reported quota and backoff
+ * - stacksight.api.quota.skipped: requests not made because the quota is at the reserve
+ * - stacksight.ingest.cycle: duration of a questions, activity or trends cycle, with its
+ *   pages and items in stacksight.ingest.cycle.pages / .items
+ * - stacksight.ingest.items: questions produced or dropped as unchanged
+ * - stacksight.ingest.schedule.interval / .arrivals: a shard's planned questions interval and
+ *   its estimated arrival rate (questions per hour)
+ * - stacksight.kafka.acks: send-to-ack latency by topic, stacksight.kafka.errors: failed sends
+ * - stacksight.ingest.lag: question creation_date to Kafka ack
+ * - kafka.producer.*: the producer's own metrics (batch sizes, request rates, buffer use)
+ *
+ * Meters are published for Prometheus over HTTP, or over JMX when no port is set.
+ * The HTTP port listens on loopback unless another address is given, like the
+ * web app's management port.
+ */
+public class IngestMetrics {
+
+    private final MeterRegistry registry;
+    private final AtomicInteger quotaRemaining = new AtomicInteger(-1);
+    private final AtomicInteger backoffSeconds = new AtomicInteger();
+
+    private final Counter quotaSkipped;
+    private final Counter itemsProduced;
+    private final Counter itemsDeduplicated;
+    private final Counter parseErrors;
+    private final Timer lag;
+
+    // Meters by tag values, looked up once rather than registered on every call
+    private final Map<String, Timer> apiRequestTimers = new ConcurrentHashMap<>();
+    private final Map<String, CycleMeters> cycleMeters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> ackTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sendErrors = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> scheduleIntervals = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> scheduleArrivals = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     */
+    public IngestMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        Gauge.builder("stacksight.api.quota.remaining", quotaRemaining, AtomicInteger::get)
+                .description("quota_remaining of the last API response")
+                .register(registry);
+        Gauge.builder("stacksight.api.backoff", backoffSeconds, AtomicInteger::get)
+                .description("backoff of the last API response, 0 if it had none")
+                .baseUnit("seconds")
+                .register(registry);
+
+        quotaSkipped = Counter.builder("stacksight.api.quota.skipped")
+                .description("Requests not made because the quota is at the reserve")
+                .register(registry);
+        itemsProduced = Counter.builder("stacksight.ingest.items").tag("outcome", "produced").register(registry);
+        itemsDeduplicated = Counter.builder("stacksight.ingest.items").tag("outcome", "unchanged").register(registry);
+        parseErrors = Counter.builder("stacksight.api.parse.errors").register(registry);
+        lag = Timer.builder("stacksight.ingest.lag")
+                .description("Question creation_date to Kafka ack")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofDays(8))
+                .register(registry);
+    }
+
+    /**
+     * Create the metrics of the ingester process
+     *
+     * @param prometheusPort port to serve /metrics on, or 0 to publish over JMX instead
+     * @param bindAddress address to serve /metrics on, or null for loopback
+     */
+    public static IngestMetrics create(int prometheusPort, String bindAddress) throws IOException {
+        if (prometheusPort <= 0) {
+            return new IngestMetrics(new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM));
+        }
+
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress == null
+                ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress), prometheusPort), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return new IngestMetrics(registry);
+    }
+
+    /**
+     * Publish the producer's client metrics
+     */
+    public void bindProducer(Producer<?, ?> producer) {
+        new KafkaClientMetrics(producer).bindTo(registry);
+    }
+
+    public void recordApiRequest(String endpoint, String outcome, long nanos) {
+        apiRequestTimers.computeIfAbsent(endpoint + "/" + outcome, key -> Timer.builder("stacksight.api.requests")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the quota_remaining and backoff fields of an API response (-1 and 0 if absent)
+     */
+    public void recordQuota(int quotaRemaining, int backoffSeconds) {
+        if (quotaRemaining >= 0) {
+            this.quotaRemaining.set(quotaRemaining);
+        }
+        this.backoffSeconds.set(Math.max(0, backoffSeconds));
+    }
+
+    public void recordQuotaSkipped() {
+        quotaSkipped.increment();
+    }
+
+    public void recordParseError() {
+        parseErrors.increment();
+    }
+
+    public void recordItem(boolean produced) {
+        (produced ? itemsProduced : itemsDeduplicated).increment();
+    }
+
+    /**
+     * Record a finished cycle
+     *
+     * @param kind questions, activity or trends
+     */
+    public void recordCycle(String kind, long nanos, long pages, long items) {
+        CycleMeters meters = cycleMeters.computeIfAbsent(kind, k -> new CycleMeters(registry, k));
+        meters.duration.record(nanos, TimeUnit.NANOSECONDS);
+        meters.pages.record(pages);
+        meters.items.record(items);
+    }
+
+    /**
+     * Record the schedule a shard planned after a questions cycle
+     */
+    public void recordSchedule(String shard, long intervalSeconds, double arrivalsPerHour) {
+        scheduleIntervals.computeIfAbsent(shard, key -> {
+            AtomicLong value = new AtomicLong();
+            Gauge.builder("stacksight.ingest.schedule.interval", value, AtomicLong::get)
+                    .tag("shard", key).baseUnit("seconds").register(registry);
+            return value;
+        }).set(intervalSeconds);
+        scheduleArrivals.computeIfAbsent(shard, key -> {
+            AtomicLong value = new AtomicLong();
+            Gauge.builder("stacksight.ingest.schedule.arrivals", value, AtomicLong::get)
+                    .tag("shard", key).description("Estimated questions per hour").register(registry);
+            return value;
+        }).set(Math.round(arrivalsPerHour));
+    }
+
+    /**
+     * Record a Kafka ack
+     *
+     * @param creationDate creation_date of the question in epoch seconds, or -1 for other records
+     */
+    public void recordAck(String topic, long latencyNanos, long creationDate) {
+        ackTimers.computeIfAbsent(topic, t -> Timer.builder("stacksight.kafka.acks")
+                .tag("topic", t)
+                .publishPercentileHistogram()
+                .register(registry))
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+        if (creationDate > 0) {
+            long lagMillis = System.currentTimeMillis() - creationDate * 1000;
+            lag.record(Math.max(0, lagMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void recordSendError(String topic) {
+        sendErrors.computeIfAbsent(topic, t -> Counter.builder("stacksight.kafka.errors")
+                .tag("topic", t)
+                .register(registry))
+                .increment();
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * The meters of one kind of cycle
+     */
+    private static class CycleMeters {
+        private final Timer duration;
+        private final DistributionSummary pages;
+        private final DistributionSummary items;
+
+        CycleMeters(MeterRegistry registry, String kind) {
+            duration = Timer.builder("stacksight.ingest.cycle").tag("kind", kind).register(registry);
+            pages = DistributionSummary.builder("stacksight.ingest.cycle.pages").tag("kind", kind).register(registry);
+            items = DistributionSummary.builder("stacksight.ingest.cycle.items").tag("kind", kind).register(registry);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.stacksight.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A unit of ingestion work: one Stack Exchange site, or a share of its time range
+ *
+ * Time is cut into fixed slices aligned to the epoch; shard i of n owns the
+ * slices whose number is i modulo n. Ownership never depends on when a cycle
+ * starts, so a shard picks up where it left off after moving between workers.
+ * Each shard keeps its own checkpoint and transactional ID; a shard of a site
+ * split n ways is keyed SITE#i/n, and an unsplit site keeps the plain SITE key.
+ */
+public class IngestShard {
+
+    public static final String DEFAULT_SITE = "stackoverflow";
+
+    private final String site;
+    private final int index;
+    private final int count;
+
+    /**
+     * Constructor
+     *
+     * @param index shard number, from 0
+     * @param count shards the site's time range is split into
+     */
+    public IngestShard(String site, int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+        }
+        this.site = site;
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Get all shards of the given sites
+     */
+    public static List<IngestShard> forSites(List<String> sites, int count) {
+        List<IngestShard> shards = new ArrayList<>(sites.size() * count);
+        for (String site : sites) {
+            for (int i = 0; i < count; i++) {
+                shards.add(new IngestShard(site, i, count));
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Check whether this shard owns the time slice starting at the given second
+     *
+     * @param sliceSeconds width of the slices the time range is cut into
+     */
+    public boolean ownsSlice(long sliceStart, long sliceSeconds) {
+        return Math.floorMod(Math.floorDiv(sliceStart, sliceSeconds), (long) count) == index;
+    }
+
+    /**
+     * Get the Kafka record key of an item of this shard's site
+     *
+     * Items of the default site keep their plain ID as key, so its existing
+     * records and partitioning are unchanged.
+     */
+    public String recordKey(String id) {
+        return DEFAULT_SITE.equals(site) ? id : site + ":" + id;
+    }
+
+    /**
+     * Check whether a record key belongs to the default site
+     *
+     * The tables, indexes and feeds downstream are keyed by plain IDs and tag
+     * names, so their consumers skip the records of other sites instead of
+     * overwriting the default site's entries.
+     */
+    public static boolean isDefaultSiteKey(String key) {
+        return key == null || key.indexOf(':') < 0;
+    }
+
+    /**
+     * Check whether this shard fetches the site's tag trends (the first shard of each site)
+     */
+    public boolean fetchesTrends() {
+        return index == 0;
+    }
+
+    /**
+     * Get the key of this shard's checkpoint and transactional ID
+     */
+    public String getCheckpointKey() {
+        return count == 1 ? site : site + "#" + index + "/" + count;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return getCheckpointKey();
+    }
+}
@@ -0,0 +1,141 @@
+package com.stacksight.ingest;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Ingestion checkpoints kept in a compacted Kafka topic
+ *
+ * A checkpoint is the creation_date up to which every question has been
+ * acknowledged by Kafka, keyed by site. The ingester writes checkpoint records
+ * in the same transaction as the questions they cover, so a checkpoint is
+ * visible to read_committed readers exactly when its data is.
+ */
+public class KafkaCheckpointStore {
+
+    public static final String DEFAULT_TOPIC = "stacksights-ingest-checkpoints";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final Duration METADATA_TIMEOUT = Duration.ofSeconds(10);
+    private static final int LOAD_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    private final String bootstrapServers;
+    private final String topic;
+
+    /**
+     * Constructor
+     */
+    public KafkaCheckpointStore(String bootstrapServers, String topic) {
+        this.bootstrapServers = bootstrapServers;
+        this.topic = topic;
+    }
+
+    /**
+     * Read the latest committed checkpoint of a site
+     *
+     * Reads that fail are retried with backoff. Since no checkpoint means a full
+     * backfill, -1 is only returned when the topic or the site's key does not exist.
+     *
+     * @return the checkpointed creation_date in epoch seconds, or -1 if there is none
+     * @throws IllegalStateException if the checkpoint cannot be read
+     */
+    public long load(String site) {
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return read(site);
+            } catch (KafkaException e) {
+                if (attempt == LOAD_ATTEMPTS) {
+                    throw new IllegalStateException("Cannot read the checkpoint of " + site + " from " + topic, e);
+                }
+                System.err.println("Error reading checkpoint from " + topic + " (attempt " + attempt + "/" +
+                        LOAD_ATTEMPTS + "), retrying in " + backoffMillis + " ms: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted reading the checkpoint of " + site, e);
+            }
+            backoffMillis *= 2;
+        }
+    }
+
+    private long read(String site) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+
+        long checkpoint = -1;
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props)) {
+            List<PartitionInfo> partitionInfos = consumer.partitionsFor(topic, METADATA_TIMEOUT);
+            if (partitionInfos == null || partitionInfos.isEmpty()) {
+                // The topic is created with the first checkpoint
+                return -1;
+            }
+
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : partitionInfos) {
+                partitions.add(new TopicPartition(topic, info.partition()));
+            }
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+            // Replay the (compacted) topic up to its end; the last record per key wins
+            while (!reachedEnd(consumer, endOffsets)) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                    if (site.equals(record.key()) && record.value() != null) {
+                        String value = new String(record.value(), StandardCharsets.UTF_8);
+                        try {
+                            checkpoint = Long.parseLong(value);
+                        } catch (NumberFormatException e) {
+                            throw new IllegalStateException("Malformed checkpoint of " + site + " in " + topic +
+                                    " at offset " + record.offset() + ": " + value, e);
+                        }
+                    }
+                }
+            }
+        }
+        return checkpoint;
+    }
+
+    private static boolean reachedEnd(KafkaConsumer<?, ?> consumer, Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+            if (consumer.position(entry.getKey()) < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the record that stores a checkpoint; send it inside the transaction
+     * that produced the data it covers
+     */
+    public ProducerRecord<String, byte[]> checkpointRecord(String site, long creationDate) {
+        return new ProducerRecord<>(topic, site, String.valueOf(creationDate).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+}
@@ -0,0 +1,64 @@
+package com.stacksight.ingest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two millisecond buckets
+ *
+ * Bucket i counts latencies in [2^(i-1), 2^i) ms, bucket 0 counts latencies below 1 ms.
+ * Percentiles are reported as the upper bound of the bucket they fall into.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 24; // up to ~2.3 hours
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record a latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long millis = nanos / 1_000_000;
+        int bucket = millis <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Get the number of recorded latencies
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the upper bound in milliseconds of the bucket holding the given percentile
+     *
+     * @param percentile percentile between 0 and 1
+     */
+    public long getPercentileMillis(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50<=%dms, p99<=%dms, max<=%dms",
+                getPercentileMillis(0.5), getPercentileMillis(0.99), getPercentileMillis(1.0));
+    }
+}
@@ -0,0 +1,66 @@
+package com.stacksight.ingest;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Properties;
+
+/**
+ * Kafka producer settings for the ingester
+ *
+ * - basic: acks=all with a few retries, one request per record burst
+ * - throughput: idempotent delivery with lingering, compressed batches for backfills
+ */
+public final class ProducerProfiles {
+
+    public static final String BASIC = "basic";
+    public static final String THROUGHPUT = "throughput";
+
+    private ProducerProfiles() {
+    }
+
+    /**
+     * Get the producer properties of a profile (serializers not included)
+     */
+    public static Properties forName(String profile, String bootstrapServers) {
+        if (BASIC.equals(profile)) {
+            return basic(bootstrapServers);
+        } else if (THROUGHPUT.equals(profile)) {
+            return throughput(bootstrapServers);
+        }
+        throw new IllegalArgumentException("Unknown producer profile: " + profile);
+    }
+
+    /**
+     * Original settings: acks=all and 3 retries
+     */
+    public static Properties basic(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.RETRIES_CONFIG, 3);
+        return props;
+    }
+
+    /**
+     * High-throughput settings
+     *
+     * Idempotence keeps retries from duplicating or reordering records, which
+     * requires acks=all and at most 5 in-flight requests per connection.
+     */
+    public static Properties throughput(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        props.put(ProducerConfig.RETRIES_CONFIG, Integer.MAX_VALUE);
+        props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, 120000);
+
+        // Question items are several KB of JSON; let batches fill up before sending
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 20);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, 256 * 1024);
+        props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 64L * 1024 * 1024);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "zstd");
+        return props;
+    }
+}
@@ -0,0 +1,207 @@
+package com.stacksight.ingest;
+
+import java.util.Arrays;
+
+/**
+ * Memory-bounded cache of recently produced questions
+ *
+ * Remembers the last_activity_date of each question_id that was sent to Kafka,
+ * so unchanged re-fetches (overlapping fetch windows, questions re-surfacing)
+ * can be dropped before they are produced again:
+ * 1. Entries live in a few generations of primitive long-to-long hash maps
+ * 2. The oldest generation is dropped when the newest one has been open for
+ *    ttl / generations, or has reached its share of maxEntries
+ * 3. A question seen again is moved to the newest generation
+ */
+public class QuestionDedupCache {
+
+    private static final int GENERATIONS = 4;
+
+    private final long generationMillis;
+    private final int generationCapacity;
+
+    // generations[0] is the newest
+    private final LongLongMap[] generations = new LongLongMap[GENERATIONS];
+    private long generationStartMillis;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries upper bound of remembered questions
+     * @param ttlMillis how long an untouched question is remembered (at least)
+     */
+    public QuestionDedupCache(int maxEntries, long ttlMillis) {
+        this.generationCapacity = Math.max(1, maxEntries / GENERATIONS);
+        this.generationMillis = Math.max(1, ttlMillis / (GENERATIONS - 1));
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations[i] = new LongLongMap(generationCapacity);
+        }
+        this.generationStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Check whether a question has to be produced, and remember it
+     *
+     * @param lastActivityDate last_activity_date of the fetched question
+     * @return false if the same (or a newer) version was already produced
+     */
+    public synchronized boolean shouldProduce(long questionId, long lastActivityDate) {
+        rotateIfDue();
+
+        for (int i = 0; i < GENERATIONS; i++) {
+            long cached = generations[i].get(questionId);
+            if (cached != LongLongMap.MISSING && lastActivityDate <= cached) {
+                hits++;
+                if (i > 0) {
+                    remember(questionId, cached);
+                }
+                return false;
+            }
+            if (cached != LongLongMap.MISSING) {
+                // Changed since it was produced; the stale entry ages out with its generation
+                break;
+            }
+        }
+
+        misses++;
+        remember(questionId, lastActivityDate);
+        return true;
+    }
+
+    private void remember(long questionId, long lastActivityDate) {
+        if (generations[0].size() >= generationCapacity) {
+            rotate();
+        }
+        generations[0].put(questionId, lastActivityDate);
+    }
+
+    private void rotateIfDue() {
+        if (System.currentTimeMillis() - generationStartMillis >= generationMillis) {
+            rotate();
+        }
+    }
+
+    /**
+     * Drop the oldest generation and open a new one
+     */
+    private void rotate() {
+        LongLongMap oldest = generations[GENERATIONS - 1];
+        evictions += oldest.size();
+        oldest.clear();
+
+        System.arraycopy(generations, 0, generations, 1, GENERATIONS - 1);
+        generations[0] = oldest;
+        generationStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Forget everything, e.g. after the records of an aborted transaction were lost
+     */
+    public synchronized void clear() {
+        for (LongLongMap generation : generations) {
+            evictions += generation.size();
+            generation.clear();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (LongLongMap generation : generations) {
+            size += generation.size();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions;
+    }
+
+    /**
+     * Open-addressing long-to-long hash map with a fixed capacity and no removal
+     */
+    private static class LongLongMap {
+
+        static final long MISSING = Long.MIN_VALUE;
+
+        private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+        private final long[] keys;
+        private final long[] values;
+        private final int mask;
+        private int size = 0;
+
+        LongLongMap(int capacity) {
+            // Keep the load factor at or below 0.5
+            int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            keys = new long[slots];
+            values = new long[slots];
+            mask = slots - 1;
+            Arrays.fill(keys, EMPTY_KEY);
+        }
+
+        long get(long key) {
+            int slot = slot(key);
+            while (true) {
+                long k = keys[slot];
+                if (k == key) {
+                    return values[slot];
+                }
+                if (k == EMPTY_KEY) {
+                    return MISSING;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        void put(long key, long value) {
+            int slot = slot(key);
+            while (true) {
+                long k = keys[slot];
+                if (k == key) {
+                    values[slot] = value;
+                    return;
+                }
+                if (k == EMPTY_KEY) {
+                    keys[slot] = key;
+                    values[slot] = value;
+                    size++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, EMPTY_KEY);
+                size = 0;
+            }
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,653 @@
+package com.stacksight.ingest;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for Stack Exchange API response pages
+ *
+ * Reads a response wrapper such as {"items":[...],"has_more":true,"quota_remaining":42}
+ * straight from the (decompressed) body stream without building a JSON tree:
+ * 1. {@link #nextItem()} advances to the next element of items and captures its
+ *    raw bytes, which can be handed to Kafka as-is
+ * 2. question_id, creation_date and last_activity_date of the current item are
+ *    picked out while it is scanned
+ * 3. has_more, quota_remaining and backoff are available once nextItem() returns false
+ *
+ * Given an item schema, the fields of the schema are also read into an Avro
+ * record during the same scan (see {@link #getItemRecord()}), for payloads
+ * encoded as binary records. Fields the schema does not have are skipped.
+ *
+ * A reader is not thread-safe and reads a single page.
+ */
+public class QuestionPageReader {
+
+    private static final byte[] ITEMS = ascii("items");
+    private static final byte[] HAS_MORE = ascii("has_more");
+    private static final byte[] QUOTA_REMAINING = ascii("quota_remaining");
+    private static final byte[] BACKOFF = ascii("backoff");
+    private static final byte[] ERROR_MESSAGE = ascii("error_message");
+    private static final byte[] QUESTION_ID = ascii("question_id");
+    private static final byte[] CREATION_DATE = ascii("creation_date");
+    private static final byte[] LAST_ACTIVITY_DATE = ascii("last_activity_date");
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final Schema itemSchema;
+    // UTF-8 names of the fields of each record schema, by position
+    private final Map<Schema, byte[][]> fieldNames = new IdentityHashMap<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    // Raw bytes of the current item
+    private byte[] item = new byte[BUFFER_SIZE];
+    private int itemLength = 0;
+    private boolean capturing = false;
+
+    // Scratch space for object keys
+    private byte[] key = new byte[64];
+    private int keyLength = 0;
+
+    private boolean started = false;
+    private boolean inItems = false;
+    private boolean finished = false;
+
+    private long questionId = -1;
+    private long creationDate = -1;
+    private long lastActivityDate = -1;
+
+    private boolean hasMore = false;
+    private int quotaRemaining = -1;
+    private int backoff = 0;
+    private String errorMessage = null;
+
+    private GenericRecord itemRecord = null;
+
+    /**
+     * Constructor
+     */
+    public QuestionPageReader(InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param itemSchema record schema to read items into, or null to only capture their bytes
+     */
+    public QuestionPageReader(InputStream in, Schema itemSchema) {
+        this.in = in;
+        this.itemSchema = itemSchema;
+    }
+
+    /**
+     * Advance to the next element of the items array
+     *
+     * @return false once all items have been read and the rest of the page consumed
+     */
+    public boolean nextItem() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            expect('{');
+            readRootMembers();
+        }
+        if (!inItems) {
+            return false;
+        }
+
+        int c = skipWhitespace();
+        if (c == ',') {
+            position++;
+            c = skipWhitespace();
+        }
+        if (c == ']') {
+            position++;
+            inItems = false;
+            readRootMembers();
+            return false;
+        }
+
+        questionId = -1;
+        creationDate = -1;
+        lastActivityDate = -1;
+        itemLength = 0;
+        itemRecord = itemSchema == null ? null : new GenericData.Record(itemSchema);
+        capturing = true;
+        try {
+            readItem();
+        } finally {
+            capturing = false;
+        }
+        if (itemRecord != null) {
+            putIfPresent(itemRecord, "question_id", questionId);
+            putIfPresent(itemRecord, "creation_date", creationDate);
+            putIfPresent(itemRecord, "last_activity_date", lastActivityDate);
+            putDefaults(itemRecord);
+        }
+        return true;
+    }
+
+    /**
+     * Read root members until the items array starts or the page ends
+     */
+    private void readRootMembers() throws IOException {
+        while (true) {
+            int c = skipWhitespace();
+            if (c == ',') {
+                position++;
+                c = skipWhitespace();
+            }
+            if (c == '}') {
+                position++;
+                finished = true;
+                return;
+            }
+
+            readKey();
+            skipWhitespace();
+            expect(':');
+            c = skipWhitespace();
+
+            if (keyEquals(ITEMS) && c == '[') {
+                position++;
+                inItems = true;
+                return;
+            } else if (keyEquals(HAS_MORE)) {
+                hasMore = readLiteral() == Boolean.TRUE;
+            } else if (keyEquals(QUOTA_REMAINING)) {
+                quotaRemaining = (int) readLong();
+            } else if (keyEquals(BACKOFF)) {
+                backoff = (int) readLong();
+            } else if (keyEquals(ERROR_MESSAGE)) {
+                errorMessage = readString();
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * Read one item object, picking out its top-level fields
+     */
+    private void readItem() throws IOException {
+        expect('{');
+        while (true) {
+            // Separators are consumed with read() so they are captured too
+            int c = skipWhitespace();
+            if (c == ',') {
+                read();
+                c = skipWhitespace();
+            }
+            if (c == '}') {
+                read();
+                return;
+            }
+
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (keyEquals(QUESTION_ID)) {
+                questionId = readLong();
+            } else if (keyEquals(CREATION_DATE)) {
+                creationDate = readLong();
+            } else if (keyEquals(LAST_ACTIVITY_DATE)) {
+                lastActivityDate = readLong();
+            } else if (itemRecord != null) {
+                readField(itemRecord);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * Read the value of the current key into its field of a record, or skip it
+     */
+    private void readField(GenericRecord record) throws IOException {
+        Schema schema = record.getSchema();
+        byte[][] names = fieldNames.computeIfAbsent(schema, QuestionPageReader::fieldNames);
+        for (int i = 0; i < names.length; i++) {
+            if (keyEquals(names[i])) {
+                record.put(i, readValue(schema.getFields().get(i).schema()));
+                return;
+            }
+        }
+        skipValue();
+    }
+
+    /**
+     * Read a value of a schema; null, or a value of the wrong JSON type, is read as null
+     */
+    private Object readValue(Schema schema) throws IOException {
+        int c = skipWhitespace();
+        if (c == 'n') {
+            skipValue();
+            return null;
+        }
+
+        switch (schema.getType()) {
+            case UNION:
+                // Only ["null", type] unions are used
+                for (Schema branch : schema.getTypes()) {
+                    if (branch.getType() != Schema.Type.NULL) {
+                        return readValue(branch);
+                    }
+                }
+                break;
+            case RECORD:
+                if (c == '{') {
+                    return readRecord(schema);
+                }
+                break;
+            case ARRAY:
+                if (c == '[') {
+                    return readArray(schema.getElementType());
+                }
+                break;
+            case STRING:
+                if (c == '"') {
+                    return readText();
+                }
+                break;
+            case LONG:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readLong();
+                }
+                break;
+            case INT:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return (int) readLong();
+                }
+                break;
+            case BOOLEAN:
+                return readLiteral();
+            default:
+                break;
+        }
+        skipValue();
+        return null;
+    }
+
+    private GenericRecord readRecord(Schema schema) throws IOException {
+        GenericRecord record = new GenericData.Record(schema);
+        expect('{');
+        while (true) {
+            int c = skipWhitespace();
+            if (c == ',') {
+                read();
+                c = skipWhitespace();
+            }
+            if (c == '}') {
+                read();
+                break;
+            }
+
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            readField(record);
+        }
+        putDefaults(record);
+        return record;
+    }
+
+    private List<Object> readArray(Schema elementType) throws IOException {
+        List<Object> items = new ArrayList<>();
+        expect('[');
+        while (true) {
+            int c = skipWhitespace();
+            if (c == ',') {
+                read();
+                c = skipWhitespace();
+            }
+            if (c == ']') {
+                read();
+                return items;
+            }
+            items.add(readValue(elementType));
+        }
+    }
+
+    /**
+     * Read a string value, unescaped
+     */
+    private String readText() throws IOException {
+        readKey();
+        String text = new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        return text.indexOf('\\') < 0 ? text : unescape(text);
+    }
+
+    private static String unescape(String text) throws IOException {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (++i == text.length()) {
+                throw new IOException("Malformed API response: unterminated escape");
+            }
+            c = text.charAt(i);
+            switch (c) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= text.length()) {
+                        throw new IOException("Malformed API response: truncated \\u escape");
+                    }
+                    try {
+                        // Surrogate pairs come as two escapes and combine in the string
+                        out.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed API response: bad \\u escape", e);
+                    }
+                    i += 4;
+                    break;
+                default:
+                    // \", \\ and \/
+                    out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Set a field picked out by the scan, unless it was absent
+     */
+    private static void putIfPresent(GenericRecord record, String name, long value) {
+        Schema.Field field = record.getSchema().getField(name);
+        if (field != null && value != -1) {
+            record.put(field.pos(), value);
+        }
+    }
+
+    /**
+     * Give the fields the item did not have their schema defaults
+     *
+     * Required fields without a default stay null, and fail when the record is written.
+     */
+    private static void putDefaults(GenericRecord record) {
+        for (Schema.Field field : record.getSchema().getFields()) {
+            if (record.get(field.pos()) == null && field.hasDefaultValue()) {
+                record.put(field.pos(), GenericData.get().getDefaultValue(field));
+            }
+        }
+    }
+
+    private static byte[][] fieldNames(Schema schema) {
+        List<Schema.Field> fields = schema.getFields();
+        byte[][] names = new byte[fields.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fields.get(i).name().getBytes(StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    /**
+     * Skip any JSON value
+     */
+    private void skipValue() throws IOException {
+        int c = skipWhitespace();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = read();
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            // Number or literal: runs up to the next delimiter
+            while (true) {
+                c = peek();
+                if (c == ',' || c == '}' || c == ']' || c == -1 || isWhitespace(c)) {
+                    return;
+                }
+                read();
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        skipStringBody();
+    }
+
+    private void skipStringBody() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '\\') {
+                read();
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read an object key into the key scratch buffer (escapes are kept verbatim)
+     */
+    private void readKey() throws IOException {
+        expect('"');
+        keyLength = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (keyLength == key.length) {
+                key = Arrays.copyOf(key, key.length * 2);
+            }
+            key[keyLength++] = (byte) c;
+            if (c == '\\') {
+                if (keyLength == key.length) {
+                    key = Arrays.copyOf(key, key.length * 2);
+                }
+                key[keyLength++] = (byte) read();
+            }
+        }
+    }
+
+    private boolean keyEquals(byte[] expected) {
+        return Arrays.equals(key, 0, keyLength, expected, 0, expected.length);
+    }
+
+    private String readString() throws IOException {
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        readKey();
+        return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+    }
+
+    private long readLong() throws IOException {
+        int c = peek();
+        if (c != '-' && (c < '0' || c > '9')) {
+            skipValue();
+            return -1;
+        }
+
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            read();
+        }
+
+        long value = 0;
+        while ((c = peek()) >= '0' && c <= '9') {
+            value = value * 10 + (read() - '0');
+        }
+        // Ignore any fraction or exponent
+        skipValue();
+        return negative ? -value : value;
+    }
+
+    private Boolean readLiteral() throws IOException {
+        int c = peek();
+        skipValue();
+        if (c == 't') {
+            return Boolean.TRUE;
+        }
+        return c == 'f' ? Boolean.FALSE : null;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = read();
+        if (c != expected) {
+            throw new IOException("Malformed API response: expected '" + expected + "' but found " + describe(c));
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while (isWhitespace(c = peek())) {
+            read();
+        }
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            throw new IOException("Malformed API response: unexpected end of input");
+        }
+        byte b = buffer[position++];
+        if (capturing) {
+            if (itemLength == item.length) {
+                item = Arrays.copyOf(item, item.length * 2);
+            }
+            item[itemLength++] = b;
+        }
+        return b & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private static String describe(int c) {
+        return c == -1 ? "end of input" : "'" + (char) c + "'";
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Get question_id of the current item, or -1 if absent
+     */
+    public long getQuestionId() {
+        return questionId;
+    }
+
+    /**
+     * Get creation_date of the current item, or -1 if absent
+     */
+    public long getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * Get last_activity_date of the current item, or -1 if absent
+     */
+    public long getLastActivityDate() {
+        return lastActivityDate;
+    }
+
+    /**
+     * Get the current item read into the item schema, or null without one
+     */
+    public GenericRecord getItemRecord() {
+        return itemRecord;
+    }
+
+    /**
+     * Copy the raw JSON bytes of the current item
+     */
+    public byte[] copyItem() {
+        return Arrays.copyOf(item, itemLength);
+    }
+
+    /**
+     * Get the has_more field; valid once nextItem() has returned false
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Get the quota_remaining field, or -1 if absent
+     */
+    public int getQuotaRemaining() {
+        return quotaRemaining;
+    }
+
+    /**
+     * Get the backoff field in seconds, or 0 if absent
+     */
+    public int getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Get the error_message of an API error response, or null
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
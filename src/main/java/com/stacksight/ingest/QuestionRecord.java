@@ -0,0 +1,48 @@
+package com.stacksight.ingest;
+
+/**
+ * A question read from an API page, kept as the raw JSON bytes of the item
+ * or, with binary payloads, as its encoded record
+ */
+public class QuestionRecord {
+
+    /**
+     * Kafka header of a record that updates a question produced before (new answers,
+     * votes or edits), so consumers that count or announce new questions skip it
+     */
+    public static final String UPDATE_HEADER = "stacksight-update";
+
+    private final long questionId;
+    private final long creationDate;
+    private final long lastActivityDate;
+    private final byte[] json;
+
+    /**
+     * Constructor
+     */
+    public QuestionRecord(long questionId, long creationDate, long lastActivityDate, byte[] json) {
+        this.questionId = questionId;
+        this.creationDate = creationDate;
+        this.lastActivityDate = lastActivityDate;
+        this.json = json;
+    }
+
+    public long getQuestionId() {
+        return questionId;
+    }
+
+    public long getCreationDate() {
+        return creationDate;
+    }
+
+    public long getLastActivityDate() {
+        return lastActivityDate;
+    }
+
+    /**
+     * Get the item exactly as returned by the API (UTF-8 JSON)
+     */
+    public byte[] getJson() {
+        return json;
+    }
+}
@@ -0,0 +1,54 @@
+package com.stacksight.ingest;
+
+import java.util.List;
+
+/**
+ * Tracks how far a time range split into sub-ranges has been completed without gaps
+ *
+ * Sub-ranges complete in any order; the watermark only moves past a sub-range
+ * once it and every earlier sub-range are complete.
+ */
+public class RangeWatermark {
+
+    private final long[] ends;
+    private final boolean[] completed;
+    private int nextPending = 0;
+    private long watermark;
+
+    /**
+     * Constructor
+     *
+     * @param start first second of the range, minus one (the initial watermark)
+     * @param slices ascending, contiguous sub-ranges as {start, end} pairs
+     */
+    public RangeWatermark(long start, List<long[]> slices) {
+        this.watermark = start;
+        this.ends = new long[slices.size()];
+        this.completed = new boolean[slices.size()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = slices.get(i)[1];
+        }
+    }
+
+    /**
+     * Mark a sub-range as complete
+     *
+     * @return true if the watermark advanced
+     */
+    public synchronized boolean complete(int slice) {
+        completed[slice] = true;
+
+        long before = watermark;
+        while (nextPending < ends.length && completed[nextPending]) {
+            watermark = ends[nextPending++];
+        }
+        return watermark != before;
+    }
+
+    /**
+     * Get the last second up to which all sub-ranges are complete
+     */
+    public synchronized long get() {
+        return watermark;
+    }
+}
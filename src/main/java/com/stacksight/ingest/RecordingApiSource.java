@@ -0,0 +1,168 @@
+package com.stacksight.ingest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * API source that saves the pages returned by another source
+ *
+ * The decompressed body of each successful response is copied to a file as
+ * the ingester reads it, as DIR/ENDPOINT/NNNNNN.json in request order. A page
+ * is only kept once its body has been read in full, so a replay never serves a
+ * truncated page. Recording adds no requests: it sees what the ingester fetches.
+ */
+public class RecordingApiSource implements ApiSource {
+
+    private final ApiSource delegate;
+    private final Path directory;
+    private final AtomicInteger sequence;
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param directory where to save pages; numbering continues after any pages already there
+     */
+    public RecordingApiSource(ApiSource delegate, Path directory) throws IOException {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.sequence = new AtomicInteger(countPages(directory));
+    }
+
+    private static int countPages(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return (int) files.filter(file -> file.toString().endsWith(".json")).count();
+        }
+    }
+
+    @Override
+    public CompletableFuture<StackExchangeApiClient.Response> getAsync(String endpoint, Map<String, String> params) {
+        return delegate.getAsync(endpoint, params).thenApply(response -> {
+            if (!response.isOk()) {
+                return response;
+            }
+            try {
+                Path endpointDirectory = Files.createDirectories(directory.resolve(endpoint));
+                Path file = endpointDirectory.resolve(String.format("%06d.json", sequence.incrementAndGet()));
+                return StackExchangeApiClient.Response.of(response.getStatusCode(),
+                        new RecordingInputStream(response.getBody(), file));
+            } catch (IOException e) {
+                System.err.println("Not recording " + endpoint + " page: " + e.getMessage());
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Get the number of pages saved so far
+     */
+    public int getRecorded() {
+        return recorded.get();
+    }
+
+    @Override
+    public String toString() {
+        return delegate + ", recorded=" + recorded.get() + " pages to " + directory;
+    }
+
+    /**
+     * Copies the bytes read to a temporary file, moved into place once the body is read to the end
+     */
+    private class RecordingInputStream extends FilterInputStream {
+
+        private final Path file;
+        private final Path temporary;
+        private OutputStream out;
+        private boolean complete = false;
+
+        RecordingInputStream(InputStream in, Path file) throws IOException {
+            super(in);
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = Files.newOutputStream(temporary);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                copy(new byte[] {(byte) b}, 0, 1);
+            } else {
+                complete = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy(b, off, n);
+            } else if (n < 0) {
+                complete = true;
+            }
+            return n;
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                // Stop recording this page, but let the ingester read on
+                System.err.println("Error recording " + file + ": " + e.getMessage());
+                discard();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // The page reader stops at the closing brace; keep whatever follows it too
+                if (out != null && !complete) {
+                    byte[] rest = new byte[8192];
+                    while (read(rest, 0, rest.length) >= 0) {
+                        // Copied by read()
+                    }
+                }
+                if (out != null) {
+                    out.close();
+                    out = null;
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+                    recorded.incrementAndGet();
+                }
+            } catch (IOException e) {
+                System.err.println("Error recording " + file + ": " + e.getMessage());
+                discard();
+            } finally {
+                super.close();
+            }
+        }
+
+        private void discard() {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // The temporary file is ignored by replay either way
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.stacksight.ingest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * API source that serves pages recorded by {@link RecordingApiSource}, without network access
+ *
+ * Pages of an endpoint are served in recorded order, by the page parameter of
+ * the request, and at most requestsPerSecond requests are answered per second
+ * across all fetchers. When the recordings were made their quota fields were
+ * real; replayed pages always report a full quota and no backoff.
+ *
+ * With a scale of 1, each range of /questions pages is the recorded pages as
+ * they are. With a larger scale, each range is scale copies of them, and every
+ * copy is synthesized: question IDs are shifted so each copy is new to the
+ * ingester's dedup cache, and creation dates are moved into the requested
+ * fromdate/todate range. That produces scale times the recorded volume per
+ * cycle, for load tests of the produce path.
+ */
+public class ReplayApiSource implements ApiSource {
+
+    public static final String QUESTIONS = "questions";
+
+    private static final int REPLAY_QUOTA = 10000;
+    private static final long ID_STRIDE = 1_000_000_000L;
+
+    private final Path directory;
+    private final int scale;
+    private final long intervalNanos;
+    private final Map<String, List<RecordedPage>> pages = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSlotNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong synthesizedPages = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param requestsPerSecond rate to answer requests at, or 0 for as fast as they come
+     * @param scale             copies of the recorded /questions pages per time range
+     */
+    public ReplayApiSource(Path directory, double requestsPerSecond, int scale) throws IOException {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale must be at least 1: " + scale);
+        }
+        if (!Files.isDirectory(directory.resolve(QUESTIONS))) {
+            throw new IOException("No recorded " + QUESTIONS + " pages in " + directory);
+        }
+        this.directory = directory;
+        this.scale = scale;
+        this.intervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+    }
+
+    @Override
+    public CompletableFuture<StackExchangeApiClient.Response> getAsync(String endpoint, Map<String, String> params) {
+        long delayNanos = reserveDelayNanos();
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] body = nextPage(endpoint, params);
+            if (body == null) {
+                return StackExchangeApiClient.Response.of(404, new ByteArrayInputStream(new byte[0]));
+            }
+            return StackExchangeApiClient.Response.of(200, new ByteArrayInputStream(body));
+        }, CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Reserve the next request slot at the configured rate
+     *
+     * @return how long to wait before answering the request
+     */
+    public long reserveDelayNanos() {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long slot = nextSlotNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + intervalNanos);
+        return Math.max(0, slot - now);
+    }
+
+    /**
+     * Get the body of the page answering a request
+     *
+     * @return the page, or null if the endpoint has no recorded pages
+     */
+    public byte[] nextPage(String endpoint, Map<String, String> params) {
+        List<RecordedPage> recorded = pages.computeIfAbsent(endpoint, this::load);
+        if (recorded.isEmpty()) {
+            return null;
+        }
+
+        int page = Math.max(1, parseInt(params.get("page"), 1));
+        RecordedPage source = recorded.get((page - 1) % recorded.size());
+        byte[] body;
+        if (!QUESTIONS.equals(endpoint)) {
+            body = source.last;
+        } else {
+            boolean hasMore = page < recorded.size() * scale;
+            body = scale == 1 ? (hasMore ? source.more : source.last)
+                    : synthesize(source, hasMore, params.get("fromdate"), params.get("todate"));
+        }
+
+        served.incrementAndGet();
+        bytesServed.addAndGet(body.length);
+        return body;
+    }
+
+    /**
+     * Build a new copy of a recorded questions page
+     */
+    private byte[] synthesize(RecordedPage source, boolean hasMore, String fromDate, String toDate) {
+        long idOffset = (synthesizedPages.getAndIncrement() + 1) * ID_STRIDE;
+        long from = parseLong(fromDate, -1);
+        long to = parseLong(toDate, -1);
+        long newestCreationDate = newestCreationDate();
+
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < source.items.length(); i++) {
+            JSONObject recordedItem = source.items.getJSONObject(i);
+            JSONObject item = new JSONObject(recordedItem, JSONObject.getNames(recordedItem));
+            item.put("question_id", recordedItem.getLong("question_id") + idOffset);
+
+            long creationDate = recordedItem.optLong("creation_date", -1);
+            if (creationDate >= 0 && from >= 0 && to >= from) {
+                // Keep the recorded spacing of questions, wrapped into the requested range
+                long shifted = to - (newestCreationDate - creationDate) % (to - from + 1);
+                item.put("creation_date", shifted);
+                long lastActivityDate = recordedItem.optLong("last_activity_date", creationDate);
+                item.put("last_activity_date", shifted + Math.max(0, lastActivityDate - creationDate));
+            }
+            items.put(item);
+        }
+        return page(items, hasMore);
+    }
+
+    private long newestCreationDate() {
+        long newest = 0;
+        for (RecordedPage page : pages.get(QUESTIONS)) {
+            newest = Math.max(newest, page.newestCreationDate);
+        }
+        return newest;
+    }
+
+    /**
+     * Load the recorded pages of an endpoint, in recorded order
+     */
+    private List<RecordedPage> load(String endpoint) {
+        Path endpointDirectory = directory.resolve(endpoint);
+        List<RecordedPage> recorded = new ArrayList<>();
+        if (!Files.isDirectory(endpointDirectory)) {
+            return recorded;
+        }
+
+        try (Stream<Path> files = Files.list(endpointDirectory)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().collect(Collectors.toList())) {
+                JSONObject response = new JSONObject(Files.readString(file));
+                JSONArray items = response.optJSONArray("items");
+                if (items != null) {
+                    recorded.add(new RecordedPage(items));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read recorded " + endpoint + " pages: " + e.getMessage(), e);
+        }
+        System.out.println("Replaying " + recorded.size() + " recorded " + endpoint + " pages from " +
+                endpointDirectory);
+        return recorded;
+    }
+
+    /**
+     * Build a response page with a full quota
+     */
+    private static byte[] page(JSONArray items, boolean hasMore) {
+        JSONObject response = new JSONObject();
+        response.put("items", items);
+        response.put("has_more", hasMore);
+        response.put("quota_max", REPLAY_QUOTA);
+        response.put("quota_remaining", REPLAY_QUOTA);
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return (int) parseLong(value, defaultValue);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the number of pages served so far
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("replayed=%d pages, bytes=%d, scale=%d, rate=%s", served.get(), bytesServed.get(),
+                scale, intervalNanos == 0 ? "unlimited" :
+                        String.format("%.1f/s", (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos));
+    }
+
+    /**
+     * A recorded page, with the bodies it is served as
+     */
+    private static class RecordedPage {
+        private final JSONArray items;
+        private final byte[] more;
+        private final byte[] last;
+        private final long newestCreationDate;
+
+        RecordedPage(JSONArray items) {
+            this.items = items;
+            this.more = page(items, true);
+            this.last = page(items, false);
+
+            long newest = 0;
+            for (int i = 0; i < items.length(); i++) {
+                newest = Math.max(newest, items.getJSONObject(i).optLong("creation_date", 0));
+            }
+            this.newestCreationDate = newest;
+        }
+    }
+}
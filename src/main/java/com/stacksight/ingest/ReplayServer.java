@@ -0,0 +1,115 @@
+package com.stacksight.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local HTTP stand-in for the Stack Exchange API, serving a {@link ReplayApiSource}
+ *
+ * Unlike using the replay source directly, requests go through the ingester's
+ * real {@link StackExchangeApiClient}: connection handling, gzip decoding and
+ * body streaming are all exercised. Bodies are gzipped like the API's.
+ */
+public class ReplayServer implements AutoCloseable {
+
+    public static final String API_PATH = "/2.3";
+
+    private final ReplayApiSource source;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    /**
+     * Start a server on a free loopback port
+     *
+     * @param threads requests answered concurrently
+     */
+    public ReplayServer(ReplayApiSource source, int threads) throws IOException {
+        this.source = source;
+        this.handlers = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(API_PATH + "/", this::handle);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String endpoint = exchange.getRequestURI().getPath().substring(API_PATH.length() + 1);
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            // Pace in the handler, so the client sees the latency
+            long delayNanos = source.reserveDelayNanos();
+            if (delayNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            }
+
+            byte[] page = source.nextPage(endpoint, params);
+            if (page == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] body = gzip(page);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] gzip(byte[] page) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(page.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(page);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Get the base URL to point a {@link StackExchangeApiClient} at
+     */
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + API_PATH;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+}
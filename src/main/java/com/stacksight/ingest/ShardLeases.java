@@ -0,0 +1,155 @@
+package com.stacksight.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Assignment of ingestion shards to worker processes through a lease file
+ *
+ * Works like a consumer group rebalance, with a locked properties file instead
+ * of a group coordinator. On every {@link #renew()} a worker, holding the file
+ * lock:
+ * 1. Extends its own lease (worker.ID = expiry time)
+ * 2. Drops workers whose lease has expired, freeing their shards
+ * 3. Gives up shards beyond its fair share (shards / live workers, rounded up)
+ * 4. Claims free shards up to its fair share
+ *
+ * A shard changes owner only after its old owner released it or stopped
+ * renewing. The new owner's producer then fences the old one's transactional
+ * ID, so a stalled worker cannot commit on a shard it lost.
+ */
+public class ShardLeases {
+
+    private static final String WORKER_PREFIX = "worker.";
+    private static final String SHARD_PREFIX = "shard.";
+
+    private final Path file;
+    private final String workerId;
+    private final List<String> shards;
+    private final long leaseMillis;
+
+    /**
+     * Constructor
+     *
+     * @param shards      keys of all shards, the same list on every worker
+     * @param leaseMillis how long a worker keeps its shards without renewing
+     */
+    public ShardLeases(Path directory, String workerId, List<String> shards, long leaseMillis) throws IOException {
+        this.file = Files.createDirectories(directory).resolve("leases.properties");
+        this.workerId = workerId;
+        this.shards = new ArrayList<>(shards);
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Renew this worker's lease and rebalance
+     *
+     * @return the shards this worker owns until its next renewal
+     */
+    public synchronized Set<String> renew() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock lock = channel.lock()) {
+            Properties leases = read(channel);
+            long now = System.currentTimeMillis();
+            leases.setProperty(WORKER_PREFIX + workerId, String.valueOf(now + leaseMillis));
+
+            // Live workers, and the shards of the others
+            Set<String> workers = new TreeSet<>();
+            for (String key : leases.stringPropertyNames()) {
+                if (key.startsWith(WORKER_PREFIX)) {
+                    if (Long.parseLong(leases.getProperty(key)) < now) {
+                        leases.remove(key);
+                    } else {
+                        workers.add(key.substring(WORKER_PREFIX.length()));
+                    }
+                }
+            }
+
+            int fairShare = (shards.size() + workers.size() - 1) / workers.size();
+            Set<String> owned = new LinkedHashSet<>();
+            List<String> free = new ArrayList<>();
+            for (String shard : shards) {
+                String owner = leases.getProperty(SHARD_PREFIX + shard);
+                if (workerId.equals(owner)) {
+                    if (owned.size() < fairShare) {
+                        owned.add(shard);
+                    } else {
+                        leases.remove(SHARD_PREFIX + shard);
+                    }
+                } else if (owner == null || !workers.contains(owner)) {
+                    free.add(shard);
+                }
+            }
+            for (String shard : free) {
+                if (owned.size() >= fairShare) {
+                    break;
+                }
+                leases.setProperty(SHARD_PREFIX + shard, workerId);
+                owned.add(shard);
+            }
+
+            // Forget shards no worker is configured with any more
+            for (String key : leases.stringPropertyNames()) {
+                if (key.startsWith(SHARD_PREFIX) && !shards.contains(key.substring(SHARD_PREFIX.length()))) {
+                    leases.remove(key);
+                }
+            }
+
+            write(channel, leases);
+            return Collections.unmodifiableSet(owned);
+        }
+    }
+
+    /**
+     * Give up all shards and the worker's lease, e.g. on shutdown
+     */
+    public synchronized void release() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock lock = channel.lock()) {
+            Properties leases = read(channel);
+            leases.remove(WORKER_PREFIX + workerId);
+            for (String key : leases.stringPropertyNames()) {
+                if (key.startsWith(SHARD_PREFIX) && workerId.equals(leases.getProperty(key))) {
+                    leases.remove(key);
+                }
+            }
+            write(channel, leases);
+        }
+    }
+
+    private static Properties read(FileChannel channel) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+        channel.read(content, 0);
+        Properties leases = new Properties();
+        leases.load(new ByteArrayInputStream(content.array()));
+        return leases;
+    }
+
+    private static void write(FileChannel channel, Properties leases) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        leases.store(content, "StackSights ingestion shard leases");
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(content.toByteArray()), 0);
+        channel.force(false);
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+}
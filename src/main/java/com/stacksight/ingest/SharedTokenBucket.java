@@ -0,0 +1,112 @@
+package com.stacksight.ingest;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API request budget shared by all ingestion workers on a host
+ *
+ * A token bucket whose state (tokens and last refill time) lives in a small
+ * file, updated under an exclusive file lock, so every worker process draws
+ * from the same budget. Tokens refill at the daily quota spread over the day,
+ * up to a burst capacity. Each API request takes one token.
+ *
+ * Locks are held by the process, so one bucket instance should be shared by
+ * all fetchers of a worker; the instance serializes them itself.
+ */
+public class SharedTokenBucket {
+
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+    private static final long MAX_WAIT_MILLIS = 1000;
+
+    private final Path file;
+    private final double tokensPerMilli;
+    private final double capacity;
+
+    /**
+     * Constructor
+     *
+     * @param dailyQuota requests per day across all workers
+     * @param capacity   tokens that can be used in a burst
+     */
+    public SharedTokenBucket(Path file, long dailyQuota, double capacity) {
+        if (dailyQuota < 1 || capacity < 1) {
+            throw new IllegalArgumentException("dailyQuota and capacity must be at least 1");
+        }
+        this.file = file;
+        this.tokensPerMilli = (double) dailyQuota / TimeUnit.SECONDS.toMillis(SECONDS_PER_DAY);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Wait for a token
+     */
+    public void acquire() throws IOException, InterruptedException {
+        while (true) {
+            long waitMillis = tryAcquire();
+            if (waitMillis == 0) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(Math.min(waitMillis, MAX_WAIT_MILLIS));
+        }
+    }
+
+    /**
+     * Take a token if one is available
+     *
+     * @return 0 if a token was taken, otherwise the time until the next one is due
+     */
+    public synchronized long tryAcquire() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock lock = channel.lock()) {
+            long now = System.currentTimeMillis();
+            ByteBuffer state = ByteBuffer.allocate(2 * Long.BYTES);
+            double tokens;
+            if (channel.read(state, 0) == state.capacity()) {
+                state.flip();
+                tokens = Double.longBitsToDouble(state.getLong());
+                long refilledAt = state.getLong();
+                tokens = Math.min(capacity, tokens + Math.max(0, now - refilledAt) * tokensPerMilli);
+            } else {
+                // New bucket: start full
+                tokens = capacity;
+            }
+
+            long waitMillis = 0;
+            if (tokens >= 1) {
+                tokens -= 1;
+            } else {
+                waitMillis = Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMilli));
+            }
+
+            state.clear();
+            state.putLong(Double.doubleToLongBits(tokens)).putLong(now).flip();
+            channel.write(state, 0);
+            return waitMillis;
+        }
+    }
+
+    /**
+     * Get the tokens currently available, without taking one
+     */
+    public synchronized double getAvailable() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock lock = channel.lock()) {
+            ByteBuffer state = ByteBuffer.allocate(2 * Long.BYTES);
+            if (channel.read(state, 0) != state.capacity()) {
+                return capacity;
+            }
+            state.flip();
+            double tokens = Double.longBitsToDouble(state.getLong());
+            long refilledAt = state.getLong();
+            return Math.min(capacity, tokens + Math.max(0, System.currentTimeMillis() - refilledAt) * tokensPerMilli);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.stacksight.ingest;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asynchronous client for the Stack Exchange API
+ *
+ * One client is shared by all fetchers:
+ * 1. Requests go through a single java.net.http.HttpClient, which negotiates HTTP/2
+ *    and keeps connections alive between requests
+ * 2. Response bodies are exposed as streams and decompressed on the fly
+ * 3. Latency, bytes transferred and connection reuse are recorded per request
+ */
+public class StackExchangeApiClient implements ApiSource {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final String site;
+    private final String apiKey;
+    private final Metrics metrics;
+
+    /**
+     * Constructor
+     *
+     * @param apiKey Stack Exchange API key, or null to make anonymous requests
+     */
+    public StackExchangeApiClient(String baseUrl, String site, String apiKey) {
+        this.baseUrl = baseUrl;
+        this.site = site;
+        this.apiKey = apiKey;
+        // New connections are only seen through the TLS engines the client creates
+        this.metrics = new Metrics(baseUrl.startsWith("https:"));
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .sslContext(ConnectionCountingSslContext.create(metrics))
+                .build();
+    }
+
+    /**
+     * Send a GET request to an API endpoint
+     *
+     * The future completes once the response headers have arrived. The caller
+     * must read and close the response body.
+     */
+    @Override
+    public CompletableFuture<Response> getAsync(String endpoint, Map<String, String> params) {
+        HttpRequest request = HttpRequest.newBuilder(buildUri(endpoint, params))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        long startNanos = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    metrics.recordResponse(System.nanoTime() - startNanos, response);
+                    return new Response(response, metrics);
+                });
+    }
+
+    /**
+     * Build the request URI for an endpoint
+     */
+    private URI buildUri(String endpoint, Map<String, String> params) {
+        StringBuilder uri = new StringBuilder(baseUrl).append('/').append(endpoint)
+                .append("?site=").append(encode(site));
+
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            uri.append('&').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+        }
+
+        if (apiKey != null && !apiKey.isEmpty()) {
+            uri.append("&key=").append(encode(apiKey));
+        }
+
+        return URI.create(uri.toString());
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the request metrics of this client
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return metrics.toString();
+    }
+
+    /**
+     * API response with a streaming, decompressed body
+     */
+    public static class Response implements AutoCloseable {
+
+        private final int statusCode;
+        private final InputStream body;
+
+        private Response(HttpResponse<InputStream> response, Metrics metrics) {
+            this.statusCode = response.statusCode();
+
+            InputStream counted = new CountingInputStream(response.body(), metrics);
+            boolean gzip = response.headers().firstValue("Content-Encoding")
+                    .map("gzip"::equalsIgnoreCase)
+                    .orElse(false);
+            this.body = gzip ? new LazyGzipInputStream(counted) : counted;
+        }
+
+        private Response(int statusCode, InputStream body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        /**
+         * Create a response from an already decompressed body, e.g. a recorded page
+         */
+        public static Response of(int statusCode, InputStream body) {
+            return new Response(statusCode, body);
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public boolean isOk() {
+            return statusCode == 200;
+        }
+
+        /**
+         * Get the decompressed body stream; it is consumed at most once
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * Per-client request metrics
+     *
+     * Connection reuse is the share of requests that did not need a new
+     * connection. New connections are counted as the client creates a TLS
+     * engine for each one, so reuse is only known for https base URLs.
+     */
+    public static class Metrics {
+
+        private final boolean countsConnections;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong connections = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private Metrics(boolean countsConnections) {
+            this.countsConnections = countsConnections;
+        }
+
+        private void recordResponse(long latencyNanos, HttpResponse<?> response) {
+            requests.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        }
+
+        private void recordConnection() {
+            connections.incrementAndGet();
+        }
+
+        private void recordBytes(long bytes) {
+            bytesReceived.addAndGet(bytes);
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Get the number of connections opened, or -1 if they are not counted
+         */
+        public long getConnections() {
+            return countsConnections ? connections.get() : -1;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public double getAverageLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : totalLatencyNanos.get() / 1e6 / count;
+        }
+
+        public double getMaxLatencyMillis() {
+            return maxLatencyNanos.get() / 1e6;
+        }
+
+        /**
+         * Get the share of requests sent on an already open connection, or -1 if connections are not counted
+         */
+        public double getConnectionReuseRate() {
+            if (!countsConnections) {
+                return -1;
+            }
+            long count = requests.get();
+            // Connections that failed before a response count against reuse, but never below 0
+            return count == 0 ? 0 : Math.max(0, count - connections.get()) / (double) count;
+        }
+
+        @Override
+        public String toString() {
+            String reuse = countsConnections ? String.format("%.0f%%", getConnectionReuseRate() * 100) : "n/a";
+            return String.format("requests=%d, avgLatency=%.1fms, maxLatency=%.1fms, bytes=%d, connectionReuse=%s",
+                    getRequests(), getAverageLatencyMillis(), getMaxLatencyMillis(), getBytesReceived(), reuse);
+        }
+    }
+
+    /**
+     * The default SSLContext, counting the engines HttpClient creates: one per new connection
+     */
+    private static class ConnectionCountingSslContext extends SSLContextSpi {
+
+        private final SSLContext delegate;
+        private final Metrics metrics;
+
+        private ConnectionCountingSslContext(SSLContext delegate, Metrics metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        static SSLContext create(Metrics metrics) {
+            try {
+                SSLContext delegate = SSLContext.getDefault();
+                return new SSLContext(new ConnectionCountingSslContext(delegate, metrics), delegate.getProvider(),
+                        delegate.getProtocol()) {
+                };
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("No default TLS context", e);
+            }
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers,
+                                  SecureRandom random) throws KeyManagementException {
+            throw new KeyManagementException("The default context is already initialized");
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            metrics.recordConnection();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            metrics.recordConnection();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+
+    /**
+     * Counts the bytes read off the wire (before decompression)
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final Metrics metrics;
+        private long count = 0;
+        private boolean closed = false;
+
+        CountingInputStream(InputStream in, Metrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                metrics.recordBytes(count);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Gzip stream that reads the gzip header on first use
+     *
+     * GZIPInputStream reads the header in its constructor, which would block the
+     * HTTP client thread that completes the response future.
+     */
+    private static class LazyGzipInputStream extends InputStream {
+
+        private final InputStream compressed;
+        private InputStream delegate;
+
+        LazyGzipInputStream(InputStream compressed) {
+            this.compressed = compressed;
+        }
+
+        private InputStream delegate() throws IOException {
+            if (delegate == null) {
+                delegate = new GZIPInputStream(compressed, 16 * 1024);
+            }
+            return delegate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return delegate().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return delegate().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            } else {
+                compressed.close();
+            }
+        }
+    }
+}
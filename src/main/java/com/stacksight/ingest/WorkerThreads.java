@@ -0,0 +1,77 @@
+package com.stacksight.ingest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the ingester's pipeline stages, on platform or virtual threads
+ *
+ * Virtual threads need Java 21. They are looked up reflectively so the ingester
+ * still compiles and runs on Java 11, where {@link #virtualThreadsSupported()}
+ * is false and the platform-thread executors are used.
+ */
+public final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    /**
+     * Check whether the running JVM has virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Executor for up to maxThreads concurrent blocking tasks
+     *
+     * With virtual threads every task gets its own thread; the caller is
+     * expected to bound concurrency itself (the fetch budget does).
+     */
+    public static ExecutorService pool(String name, int maxThreads, boolean virtual) {
+        if (virtual) {
+            try {
+                Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, virtualThreadFactory(name));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+            }
+        }
+        return Executors.newFixedThreadPool(maxThreads, platformThreadFactory(name));
+    }
+
+    /**
+     * Executor that runs tasks one at a time, in submission order
+     */
+    public static ExecutorService single(String name, boolean virtual) {
+        return Executors.newSingleThreadExecutor(virtual ? virtualThreadFactory(name) : platformThreadFactory(name));
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + count.getAndIncrement());
+    }
+
+    /**
+     * Thread.ofVirtual().name(name + "-", 0).factory(), looked up reflectively
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method nameMethod = builderType.getMethod("name", String.class, long.class);
+            builder = nameMethod.invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.stacksight.live;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One connected browser of the live feed
+ *
+ * Events wait in small per-client buffers until the next flush:
+ * - trend updates are conflated per tag, so a slow client gets the latest count
+ *   of each tag rather than every update in between
+ * - new questions are kept in a bounded queue that drops the oldest when full
+ *
+ * Event payloads are shared strings built once by {@link LiveFeed}; a client
+ * only holds references to them.
+ */
+class LiveClient {
+
+    private final SseEmitter emitter;
+    private final int maxPendingTags;
+    private final int maxPendingQuestions;
+
+    private final LinkedHashMap<String, String> pendingTrends = new LinkedHashMap<>();
+    private final ArrayDeque<String> pendingQuestions = new ArrayDeque<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private volatile boolean closed = false;
+    private volatile long lastSentMillis = System.currentTimeMillis();
+    private long droppedEvents = 0;
+
+    LiveClient(SseEmitter emitter, int maxPendingTags, int maxPendingQuestions) {
+        this.emitter = emitter;
+        this.maxPendingTags = maxPendingTags;
+        this.maxPendingQuestions = maxPendingQuestions;
+    }
+
+    /**
+     * Queue the latest snapshot of a tag, replacing any unsent one
+     */
+    synchronized void offerTrend(String tag, String data) {
+        if (pendingTrends.remove(tag) == null && pendingTrends.size() >= maxPendingTags) {
+            Iterator<String> eldest = pendingTrends.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            droppedEvents++;
+        }
+        pendingTrends.put(tag, data);
+    }
+
+    /**
+     * Queue a new question, dropping the oldest unsent one if the queue is full
+     */
+    synchronized void offerQuestion(String data) {
+        if (pendingQuestions.size() >= maxPendingQuestions) {
+            pendingQuestions.pollFirst();
+            droppedEvents++;
+        }
+        pendingQuestions.addLast(data);
+    }
+
+    synchronized boolean hasPending() {
+        return !pendingTrends.isEmpty() || !pendingQuestions.isEmpty();
+    }
+
+    /**
+     * Claim the client for a flush; only one flush of a client runs at a time
+     */
+    boolean tryStartFlush() {
+        return !closed && flushing.compareAndSet(false, true);
+    }
+
+    /**
+     * Release a claim taken with {@link #tryStartFlush()} without flushing
+     */
+    void abortFlush() {
+        flushing.set(false);
+    }
+
+    boolean isHeartbeatDue(long now, long heartbeatMillis) {
+        return now - lastSentMillis >= heartbeatMillis;
+    }
+
+    /**
+     * Send the pending events, or a heartbeat comment if there are none and the
+     * connection has been quiet for heartbeatMillis
+     *
+     * Must follow a successful {@link #tryStartFlush()}.
+     */
+    void flush(long heartbeatMillis) throws IOException {
+        try {
+            List<String> trends;
+            List<String> questions;
+            synchronized (this) {
+                trends = new ArrayList<>(pendingTrends.values());
+                questions = new ArrayList<>(pendingQuestions);
+                pendingTrends.clear();
+                pendingQuestions.clear();
+            }
+
+            long now = System.currentTimeMillis();
+            if (trends.isEmpty() && questions.isEmpty()) {
+                if (now - lastSentMillis >= heartbeatMillis) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    lastSentMillis = now;
+                }
+                return;
+            }
+
+            for (String trend : trends) {
+                emitter.send(SseEmitter.event().name("trend").data(trend));
+            }
+            for (String question : questions) {
+                emitter.send(SseEmitter.event().name("question").data(question));
+            }
+            lastSentMillis = now;
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    synchronized long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    SseEmitter getEmitter() {
+        return emitter;
+    }
+}
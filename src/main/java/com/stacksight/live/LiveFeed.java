@@ -0,0 +1,325 @@
+package com.stacksight.live;
+
+import com.stacksight.codec.Payload;
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import com.stacksight.ingest.IngestShard;
+import com.stacksight.ingest.QuestionRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live trend and question feed for the dashboards
+ *
+ * One Kafka consumer per web app reads stackoverflow-trends and
+ * stackoverflow-questions from their current end and fans each record out to
+ * every connected client:
+ * 1. The consumer thread turns a record into an event payload once and offers
+ *    it to each client's buffer (see {@link LiveClient})
+ * 2. A flush tick hands clients with pending events to a small sender pool;
+ *    a slow client holds at most one sender and keeps conflating meanwhile
+ * 3. Idle connections get a heartbeat comment so proxies keep them open
+ */
+@Component
+public class LiveFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveFeed.class);
+
+    private static final String TRENDS_TOPIC = "stackoverflow-trends";
+    private static final String QUESTION_TOPIC = "stackoverflow-questions";
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final Duration METADATA_TIMEOUT = Duration.ofSeconds(10);
+    private static final long INITIAL_METADATA_BACKOFF_MILLIS = 1000;
+    private static final long MAX_METADATA_BACKOFF_MILLIS = 60_000;
+
+    private final String bootstrapServers;
+    private final int maxPendingTags;
+    private final int maxPendingQuestions;
+    private final long flushIntervalMillis;
+    private final long heartbeatMillis;
+    private final long emitterTimeoutMillis;
+    private final int senderThreads;
+
+    private final Set<LiveClient> clients = ConcurrentHashMap.newKeySet();
+    private final PayloadCodec payloads = new PayloadCodec(SchemaRegistry.load(), PayloadCodec.JSON);
+
+    private KafkaConsumer<String, byte[]> consumer;
+    private Thread consumerThread;
+    private ScheduledExecutorService flushScheduler;
+    private ExecutorService senders;
+    private volatile boolean running = false;
+
+    public LiveFeed(@Value("${stacksight.kafka.bootstrap-servers}") String bootstrapServers,
+                    @Value("${stacksight.live.max-pending-tags}") int maxPendingTags,
+                    @Value("${stacksight.live.max-pending-questions}") int maxPendingQuestions,
+                    @Value("${stacksight.live.flush-interval-ms}") long flushIntervalMillis,
+                    @Value("${stacksight.live.heartbeat-interval-ms}") long heartbeatMillis,
+                    @Value("${stacksight.live.emitter-timeout-ms}") long emitterTimeoutMillis,
+                    @Value("${stacksight.live.sender-threads}") int senderThreads) {
+        this.bootstrapServers = bootstrapServers;
+        this.maxPendingTags = maxPendingTags;
+        this.maxPendingQuestions = maxPendingQuestions;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+        this.senderThreads = senderThreads;
+    }
+
+    @PostConstruct
+    public void start() {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumer = new KafkaConsumer<>(props);
+
+        running = true;
+        senders = Executors.newFixedThreadPool(senderThreads, daemon("live-feed-sender"));
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(daemon("live-feed-flush"));
+        flushScheduler.scheduleWithFixedDelay(this::flushClients, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+
+        consumerThread = daemon("live-feed-consumer").newThread(this::consume);
+        consumerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        consumer.wakeup();
+        consumerThread.join(TimeUnit.SECONDS.toMillis(5));
+        flushScheduler.shutdownNow();
+        senders.shutdownNow();
+        for (LiveClient client : clients) {
+            client.close();
+            client.getEmitter().complete();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Connect a client; events flow until the emitter completes, times out or fails
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        LiveClient client = new LiveClient(emitter, maxPendingTags, maxPendingQuestions);
+        emitter.onCompletion(() -> remove(client));
+        emitter.onTimeout(() -> remove(client));
+        emitter.onError(e -> remove(client));
+        clients.add(client);
+        return emitter;
+    }
+
+    private void remove(LiveClient client) {
+        client.close();
+        clients.remove(client);
+    }
+
+    /**
+     * Consumer loop: read both topics from their end and fan records out
+     */
+    private void consume() {
+        try {
+            List<TopicPartition> partitions = awaitPartitions();
+            if (partitions.isEmpty()) {
+                return;
+            }
+            // The feed is live only: no consumer group, no committed offsets
+            consumer.assign(partitions);
+            consumer.seekToEnd(partitions);
+
+            while (running) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                    // The feed and its links are stackoverflow's only
+                    if (record.value() == null || clients.isEmpty() 
+                            || !IngestShard.isDefaultSiteKey(record.key())) {
+                        continue;
+                    }
+                    if (TRENDS_TOPIC.equals(record.topic())) {
+                        publishTrend(record.value());
+                    } else if (record.headers().lastHeader(QuestionRecord.UPDATE_HEADER) == null) {
+                        // Changed questions were announced when they were new
+                        publishQuestion(record.value());
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutting down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Live feed consumer stopped", e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Get the partitions of both topics, waiting until they exist
+     *
+     * The web app may start before the ingester has created the topics, and
+     * polling without assigned partitions fails. Metadata is read again with
+     * exponential backoff.
+     *
+     * @return the partitions, or an empty list if the feed was stopped meanwhile
+     */
+    private List<TopicPartition> awaitPartitions() throws InterruptedException {
+        long backoffMillis = INITIAL_METADATA_BACKOFF_MILLIS;
+        while (running) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            String missing = null;
+            try {
+                for (String topic : new String[]{TRENDS_TOPIC, QUESTION_TOPIC}) {
+                    List<PartitionInfo> infos = consumer.partitionsFor(topic, METADATA_TIMEOUT);
+                    if (infos == null || infos.isEmpty()) {
+                        missing = topic;
+                        break;
+                    }
+                    for (PartitionInfo info : infos) {
+                        partitions.add(new TopicPartition(topic, info.partition()));
+                    }
+                }
+                if (missing == null) {
+                    return partitions;
+                }
+                log.info("Topic {} not found, retrying in {} ms", missing, backoffMillis);
+            } catch (TimeoutException e) {
+                log.warn("Could not read the partitions of the live topics, retrying in {} ms: {}", 
+                        backoffMillis, e.getMessage());
+            }
+            Thread.sleep(backoffMillis);
+            backoffMillis = Math.min(backoffMillis * 2, MAX_METADATA_BACKOFF_MILLIS);
+        }
+        return Collections.emptyList();
+    }
+
+    private void publishTrend(byte[] value) {
+        try {
+            Payload trend = payloads.decode(value);
+            String tag = trend.getString("tag");
+            if (tag == null) {
+                return;
+            }
+            JSONObject event = new JSONObject();
+            event.put("tag", tag);
+            event.put("count", trend.getLong("count", 0));
+            event.put("timestamp", trend.getLong("timestamp", 0));
+            String data = event.toString();
+            for (LiveClient client : clients) {
+                client.offerTrend(tag, data);
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Skipping malformed trend record: {}", e.getMessage());
+        }
+    }
+
+    private void publishQuestion(byte[] value) {
+        try {
+            // Clients only get a summary; bodies and answers stay in HBase
+            Payload question = payloads.decode(value);
+            JSONObject summary = new JSONObject();
+            summary.put("question_id", question.getLong("question_id", 0));
+            summary.put("title", nullToEmpty(question.getString("title")));
+            summary.put("link", nullToEmpty(question.getString("link")));
+            summary.put("creation_date", question.getLong("creation_date", 0));
+            summary.put("tags", new JSONArray(question.getStrings("tags")));
+
+            String data = summary.toString();
+            for (LiveClient client : clients) {
+                client.offerQuestion(data);
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Skipping malformed question record: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Flush tick: send pending events and heartbeats on the sender pool
+     */
+    private void flushClients() {
+        long now = System.currentTimeMillis();
+        for (LiveClient client : clients) {
+            if (!client.hasPending() && !client.isHeartbeatDue(now, heartbeatMillis)) {
+                continue;
+            }
+            if (!client.tryStartFlush()) {
+                continue;
+            }
+            try {
+                senders.execute(() -> {
+                    try {
+                        client.flush(heartbeatMillis);
+                    } catch (Exception e) {
+                        // The client went away; the emitter callbacks may not fire for a broken pipe
+                        remove(client);
+                        client.getEmitter().completeWithError(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                client.abortFlush();
+            }
+        }
+    }
+
+    /**
+     * Get the number of connected clients
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Get the number of events dropped from the buffers of connected clients
+     */
+    public long getDroppedEvents() {
+        long dropped = 0;
+        for (LiveClient client : clients) {
+            dropped += client.getDroppedEvents();
+        }
+        return dropped;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
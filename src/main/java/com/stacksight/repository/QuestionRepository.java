@@ -0,0 +1,143 @@
+package com.stacksight.repository;
+
+import com.stacksight.cache.TtlCache;
+import com.stacksight.hbase.HBaseSchema;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads questions from stackoverflow_qna
+ *
+ * Only the question and top_answers families are read; the full answers family
+ * stays on disk. Questions are cached by ID and questions watermark, like the
+ * trend caches, so a response is never older than its ETag. Entries of earlier
+ * watermarks are never read again and age out of the LRU, instead of the whole
+ * cache being swept on every streaming batch. Pages of IDs are fetched with one
+ * multi-Get for all cache misses.
+ */
+@Repository
+public class QuestionRepository {
+
+    private final Connection connection;
+    private final WatermarkRepository watermarkRepository;
+    private final TtlCache<String, Map<String, Object>> cache;
+
+    public QuestionRepository(Connection connection, WatermarkRepository watermarkRepository,
+                              @Value("${stacksight.cache.questions.max-entries}") int maxEntries,
+                              @Value("${stacksight.cache.questions.ttl-ms}") long ttlMillis) {
+        this.connection = connection;
+        this.watermarkRepository = watermarkRepository;
+        this.cache = new TtlCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Find a question by ID, or null if it does not exist
+     */
+    public Map<String, Object> findById(long questionId) throws Exception {
+        long watermark = watermarkRepository.current().getQuestions();
+        return cache.get(cacheKey(questionId, watermark), key -> {
+            try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.QNA_TABLE))) {
+                Result result = table.get(newGet(questionId));
+                return result.isEmpty() ? null : toQuestion(questionId, result);
+            }
+        });
+    }
+
+    /**
+     * Find questions by ID, in the given order; missing questions are skipped
+     */
+    public List<Map<String, Object>> findByIds(List<Long> questionIds) throws Exception {
+        long watermark = watermarkRepository.current().getQuestions();
+        Map<Long, Map<String, Object>> found = new LinkedHashMap<>();
+        List<Long> misses = new ArrayList<>();
+        for (Long id : questionIds) {
+            Map<String, Object> cached = cache.getIfPresent(cacheKey(id, watermark));
+            found.put(id, cached);
+            if (cached == null) {
+                misses.add(id);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            List<Get> gets = new ArrayList<>(misses.size());
+            for (Long id : misses) {
+                gets.add(newGet(id));
+            }
+
+            try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.QNA_TABLE))) {
+                Result[] results = table.get(gets);
+                for (int i = 0; i < results.length; i++) {
+                    if (!results[i].isEmpty()) {
+                        Map<String, Object> question = toQuestion(misses.get(i), results[i]);
+                        cache.put(cacheKey(misses.get(i), watermark), question);
+                        found.put(misses.get(i), question);
+                    }
+                }
+            }
+        }
+
+        List<Map<String, Object>> questions = new ArrayList<>(questionIds.size());
+        for (Map<String, Object> question : found.values()) {
+            if (question != null) {
+                questions.add(question);
+            }
+        }
+        return questions;
+    }
+
+    private static String cacheKey(long questionId, long watermark) {
+        return questionId + "@" + watermark;
+    }
+
+    private static Get newGet(long questionId) {
+        return new Get(HBaseSchema.qnaRowKey(questionId))
+                .addFamily(HBaseSchema.QUESTION_CF)
+                .addFamily(HBaseSchema.TOP_ANSWERS_CF);
+    }
+
+    /**
+     * Convert a stackoverflow_qna row into a JSON-ready map
+     */
+    private static Map<String, Object> toQuestion(long questionId, Result result) {
+        Map<String, Object> question = new LinkedHashMap<>();
+        question.put("question_id", questionId);
+
+        for (Map.Entry<byte[], byte[]> column : result.getFamilyMap(HBaseSchema.QUESTION_CF).entrySet()) {
+            String field = Bytes.toString(column.getKey());
+            String value = Bytes.toString(column.getValue());
+            question.put(field, "tags".equals(field) ? new JSONArray(value).toList() : value);
+        }
+
+        // top_answers columns are ranks 1..N; cells come back sorted by qualifier
+        List<Object> topAnswers = new ArrayList<>();
+        for (Cell cell : result.rawCells()) {
+            if (CellUtil.matchingFamily(cell, HBaseSchema.TOP_ANSWERS_CF)) {
+                topAnswers.add(new JSONObject(Bytes.toString(CellUtil.cloneValue(cell))).toMap());
+            }
+        }
+        question.put("top_answers", topAnswers);
+        return question;
+    }
+
+    /**
+     * Get the cache, for its hit and miss counters
+     */
+    public TtlCache<?, ?> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,147 @@
+package com.stacksight.repository;
+
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.search.TagIndexCursor;
+import com.stacksight.search.TagIntersection;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Table;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tag-filtered question search over stackoverflow_tag_index
+ *
+ * Matching IDs come from a {@link TagIntersection} of the tags' index rows,
+ * newest first, and only the questions of one page are read from
+ * stackoverflow_qna. Pages are addressed by keyset: the cursor of a page is the
+ * question ID to continue below, so a deep page costs the same as the first.
+ *
+ * Work per request is bounded. When the index loads or candidates run out
+ * before a page is full, the page is returned short with a cursor to resume from.
+ */
+@Repository
+public class SearchRepository {
+
+    private final Connection connection;
+    private final QuestionRepository questionRepository;
+    private final int chunkSize;
+    private final int maxLoads;
+    private final int maxCandidates;
+
+    public SearchRepository(Connection connection, QuestionRepository questionRepository,
+                            @Value("${stacksight.search.index-chunk-size}") int chunkSize,
+                            @Value("${stacksight.search.max-index-loads}") int maxLoads,
+                            @Value("${stacksight.search.max-candidates}") int maxCandidates) {
+        this.connection = connection;
+        this.questionRepository = questionRepository;
+        this.chunkSize = chunkSize;
+        this.maxLoads = maxLoads;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Search questions
+     *
+     * @param tags               tags the questions must all have (at least one)
+     * @param minCreationDate    earliest creation_date, or 0 for any
+     * @param status             answered, unanswered, accepted, or null for any
+     * @param text               words the title must contain, or null
+     * @param beforeId           cursor of the page, or Long.MAX_VALUE for the first page
+     * @param pageSize           questions per page
+     * @return the page's questions under "items" and, unless this is the last page, "next_cursor"
+     */
+    public Map<String, Object> search(List<String> tags, long minCreationDate, String status, String text,
+                                      long beforeId, int pageSize) throws Exception {
+        List<Map<String, Object>> items = new ArrayList<>(pageSize);
+        List<Long> batch = new ArrayList<>(pageSize);
+        String[] words = text == null || text.isBlank()
+                ? new String[0]
+                : text.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        int candidates = 0;
+        boolean stopped = false;
+        boolean done = false;
+
+        try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.TAG_INDEX_TABLE))) {
+            List<TagIndexCursor> cursors = new ArrayList<>(tags.size());
+            for (String tag : tags) {
+                cursors.add(new TagIndexCursor(table, tag, chunkSize));
+            }
+            TagIntersection matches = new TagIntersection(cursors, beforeId, maxLoads);
+
+            while (items.size() < pageSize && !stopped && candidates < maxCandidates) {
+                // Collect the next batch of candidates, then read them with one multi-Get
+                batch.clear();
+                while (batch.size() < pageSize - items.size() && candidates < maxCandidates) {
+                    long questionId = matches.next();
+                    if (questionId < 0) {
+                        stopped = true;
+                        done = matches.isExhausted();
+                        break;
+                    }
+                    // IDs are assigned in creation order, so nothing past the first older match can qualify
+                    long creationDate = matches.getCreationDate();
+                    if (creationDate >= 0 && creationDate < minCreationDate) {
+                        stopped = true;
+                        done = true;
+                        break;
+                    }
+                    batch.add(questionId);
+                    candidates++;
+                }
+
+                for (Map<String, Object> question : questionRepository.findByIds(batch)) {
+                    if (matchesStatus(question, status) && matchesText(question, words)) {
+                        items.add(question);
+                    }
+                }
+            }
+
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("items", items);
+            if (!done) {
+                page.put("next_cursor", Long.toString(matches.getResumeBefore()));
+            }
+            return page;
+        }
+    }
+
+    static boolean matchesStatus(Map<String, Object> question, String status) {
+        if (status == null) {
+            return true;
+        }
+        switch (status) {
+            case "answered":
+                return "true".equals(question.get("is_answered"));
+            case "unanswered":
+                return "0".equals(question.get("answer_count"));
+            case "accepted":
+                return question.containsKey("accepted_answer_id");
+            default:
+                return true;
+        }
+    }
+
+    private static boolean matchesText(Map<String, Object> question, String[] words) {
+        if (words.length == 0) {
+            return true;
+        }
+        Object title = question.get("title");
+        if (title == null) {
+            return false;
+        }
+        String lowerTitle = title.toString().toLowerCase(Locale.ROOT);
+        for (String word : words) {
+            if (!lowerTitle.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package com.stacksight.repository;
+
+import com.stacksight.search.TextIndexer;
+import com.stacksight.search.text.TextIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyword question search over the local full-text index
+ *
+ * The index ranks question IDs by relevance; only the questions of one page
+ * are read from stackoverflow_qna. Relevance order has no keyset, so pages are
+ * addressed by offset and results stop at max-results.
+ */
+@Repository
+public class TextSearchRepository {
+
+    private final TextIndexer indexer;
+    private final QuestionRepository questionRepository;
+    private final int maxResults;
+
+    public TextSearchRepository(TextIndexer indexer, QuestionRepository questionRepository,
+                                @Value("${stacksight.search.text.max-results}") int maxResults) {
+        this.indexer = indexer;
+        this.questionRepository = questionRepository;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Search questions by keywords
+     *
+     * @param text            the keywords; any may match
+     * @param minCreationDate earliest creation_date, or 0 for any
+     * @param status          answered, unanswered, accepted, or null for any
+     * @param offset          cursor of the page, or 0 for the first page
+     * @param pageSize        questions per page
+     * @return the page's questions, best first, under "items" and, unless this is the last page, "next_cursor"
+     */
+    public Map<String, Object> search(String text, long minCreationDate, String status, int offset, int pageSize)
+            throws Exception {
+        int end = Math.min(offset + pageSize, maxResults);
+        List<TextIndex.Hit> hits = offset < end
+                ? indexer.getIndex().search(text, end, minCreationDate)
+                : new ArrayList<>();
+
+        List<Long> ids = new ArrayList<>(pageSize);
+        Map<Long, Double> scores = new HashMap<>();
+        for (int i = offset; i < hits.size(); i++) {
+            ids.add(hits.get(i).getQuestionId());
+            scores.put(hits.get(i).getQuestionId(), hits.get(i).getScore());
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>(ids.size());
+        for (Map<String, Object> question : questionRepository.findByIds(ids)) {
+            if (SearchRepository.matchesStatus(question, status)) {
+                // Cached questions are shared, so the relevance goes on a copy; score stays the vote score
+                Map<String, Object> item = new LinkedHashMap<>(question);
+                item.put("relevance", scores.get((Long) question.get("question_id")));
+                items.add(item);
+            }
+        }
+
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("items", items);
+        if (hits.size() == end && end < maxResults) {
+            page.put("next_cursor", Integer.toString(end));
+        }
+        return page;
+    }
+
+    /**
+     * Get a version of the index contents, for ETags
+     */
+    public long getGeneration() {
+        return indexer.getIndex().getGeneration();
+    }
+}
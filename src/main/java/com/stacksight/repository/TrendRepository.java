@@ -0,0 +1,126 @@
+package com.stacksight.repository;
+
+import com.stacksight.cache.TtlCache;
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.TrendSeries;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads tag trends from stackoverflow_trends
+ *
+ * The leaderboard is one Get of the leaderboard row; a tag's history is one
+ * bounded scan of its tag#reversedTimeBucket rows. Both are cached under the
+ * current ingestion watermark, so new data is read as soon as it lands, and
+ * concurrent misses share a single HBase read.
+ */
+@Repository
+public class TrendRepository {
+
+    private static final String LEADERBOARD_KEY = "#leaderboard";
+
+    private final Connection connection;
+    private final WatermarkRepository watermarkRepository;
+    private final int maxHistoryRows;
+    private final TtlCache<String, List<Map<String, Object>>> cache;
+
+    public TrendRepository(Connection connection, WatermarkRepository watermarkRepository,
+                           @Value("${stacksight.trends.max-history-rows}") int maxHistoryRows,
+                           @Value("${stacksight.cache.trends.max-entries}") int maxEntries,
+                           @Value("${stacksight.cache.trends.ttl-ms}") long ttlMillis) {
+        this.connection = connection;
+        this.watermarkRepository = watermarkRepository;
+        this.maxHistoryRows = maxHistoryRows;
+        this.cache = new TtlCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Get the latest snapshot of every tag, highest count first
+     */
+    public List<Map<String, Object>> leaderboard(int limit) throws Exception {
+        WatermarkRepository.Watermark watermark = watermarkRepository.current();
+        List<Map<String, Object>> leaderboard = cache.get(LEADERBOARD_KEY + "@" + watermark.getTrends(), key -> {
+            try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE))) {
+                Result result = table.get(new Get(TrendSeries.LEADERBOARD_ROW).addFamily(HBaseSchema.TREND_CF));
+                if (result.isEmpty()) {
+                    return Collections.emptyList();
+                }
+
+                List<Map<String, Object>> entries = new ArrayList<>();
+                for (Map.Entry<byte[], byte[]> column : result.getFamilyMap(HBaseSchema.TREND_CF).entrySet()) {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("tag", Bytes.toString(column.getKey()));
+                    entry.putAll(new JSONObject(Bytes.toString(column.getValue())).toMap());
+                    entries.add(entry);
+                }
+                entries.sort((a, b) -> Long.compare(count(b), count(a)));
+                return Collections.unmodifiableList(entries);
+            }
+        });
+        return leaderboard.subList(0, Math.min(limit, leaderboard.size()));
+    }
+
+    /**
+     * Get a tag's snapshots of the last hours, newest first
+     */
+    public List<Map<String, Object>> history(String tag, int hours) throws Exception {
+        // Snapshot rows also carry the counters derived from the question stream
+        WatermarkRepository.Watermark watermark = watermarkRepository.current();
+        String cacheKey = tag + "#" + hours + "@" + watermark.getTrends() + "/" + watermark.getQuestions();
+        return cache.get(cacheKey, key -> {
+            long now = System.currentTimeMillis() / 1000;
+            Scan scan = TrendSeries.historyScan(tag, now - hours * 3600L, now)
+                    .setLimit(maxHistoryRows)
+                    .setCaching(Math.min(maxHistoryRows, 500));
+
+            List<Map<String, Object>> snapshots = new ArrayList<>();
+            try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE));
+                 ResultScanner scanner = table.getScanner(scan)) {
+                for (Result result : scanner) {
+                    Map<String, Object> snapshot = new LinkedHashMap<>();
+                    for (Map.Entry<byte[], byte[]> column : result.getFamilyMap(HBaseSchema.TREND_CF).entrySet()) {
+                        String qualifier = Bytes.toString(column.getKey());
+                        byte[] value = column.getValue();
+                        // Stream counters are 8-byte increments, snapshot columns are strings
+                        boolean counter = value.length == Bytes.SIZEOF_LONG &&
+                                (qualifier.equals("questions") || qualifier.startsWith("co:"));
+                        snapshot.put(qualifier, counter ? (Object) Bytes.toLong(value) : Bytes.toString(value));
+                    }
+                    snapshots.add(snapshot);
+                }
+            }
+            return Collections.unmodifiableList(snapshots);
+        });
+    }
+
+    private static long count(Map<String, Object> entry) {
+        Object count = entry.get("count");
+        try {
+            return count == null ? 0 : Long.parseLong(count.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the cache, for its hit and miss counters
+     */
+    public TtlCache<?, ?> getCache() {
+        return cache;
+    }
+}
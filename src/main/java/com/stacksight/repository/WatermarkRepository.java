@@ -0,0 +1,74 @@
+package com.stacksight.repository;
+
+import com.stacksight.cache.TtlCache;
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.TrendSeries;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads the ingestion watermark: when each streaming query last wrote a batch
+ *
+ * Data served by the API can only have changed when a watermark moves, so
+ * the watermarks are the versions behind the API's ETags. They are re-read
+ * at most once per TTL.
+ */
+@Repository
+public class WatermarkRepository {
+
+    private static final String KEY = "#watermark";
+
+    private final Connection connection;
+    private final TtlCache<String, Watermark> cache;
+
+    public WatermarkRepository(Connection connection,
+                               @Value("${stacksight.cache.watermark.ttl-ms}") long ttlMillis) {
+        this.connection = connection;
+        this.cache = new TtlCache<>(1, ttlMillis);
+    }
+
+    /**
+     * Get the current watermarks
+     */
+    public Watermark current() throws Exception {
+        return cache.get(KEY, key -> {
+            try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.TRENDS_TABLE))) {
+                Result result = table.get(new Get(TrendSeries.WATERMARK_ROW).addFamily(HBaseSchema.TREND_CF));
+                return new Watermark(millis(result, TrendSeries.QUESTIONS_QUERY), millis(result, TrendSeries.TRENDS_QUERY));
+            }
+        });
+    }
+
+    private static long millis(Result result, String query) {
+        byte[] value = result.getValue(HBaseSchema.TREND_CF, Bytes.toBytes(query));
+        return value == null ? 0 : Long.parseLong(Bytes.toString(value));
+    }
+
+    /**
+     * Batch times of the questions and trends queries (epoch millis, 0 if never written)
+     */
+    public static class Watermark {
+
+        private final long questions;
+        private final long trends;
+
+        Watermark(long questions, long trends) {
+            this.questions = questions;
+            this.trends = trends;
+        }
+
+        public long getQuestions() {
+            return questions;
+        }
+
+        public long getTrends() {
+            return trends;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.stacksight.search;
+
+import com.stacksight.hbase.HBaseSchema;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+
+/**
+ * Forward-only cursor over the question IDs of one tag, newest first
+ *
+ * The question_ids columns of a stackoverflow_tag_index row are read in chunks:
+ * a chunk is a Get with a ColumnRangeFilter starting at the sought ID, so the
+ * region server seeks straight to it and a seek far past the loaded chunk
+ * costs one Get no matter how many IDs the tag has. Within a chunk, seeks
+ * gallop from the current position.
+ */
+public class TagIndexCursor {
+
+    private final Table table;
+    private final byte[] row;
+    private final int chunkSize;
+
+    // Current chunk: IDs descending, with the creation_date of each
+    private long[] ids = new long[0];
+    private long[] creationDates = new long[0];
+    private int size = 0;
+    private int position = 0;
+    private long chunkCeiling = -1;
+    private boolean lastChunk = false;
+
+    private int loads = 0;
+
+    /**
+     * Constructor
+     */
+    public TagIndexCursor(Table table, String tag, int chunkSize) {
+        this.table = table;
+        this.row = HBaseSchema.tagRowKey(tag);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Move to the largest question ID that is at most maxId
+     *
+     * Seeks must not move backwards: maxId must not exceed the ID of an earlier seek.
+     *
+     * @return the question ID, or -1 if the tag has no more questions
+     */
+    public long seek(long maxId) throws IOException {
+        if (maxId < 0) {
+            return -1;
+        }
+        if (chunkCeiling < 0 || maxId > chunkCeiling) {
+            load(maxId);
+        }
+
+        while (true) {
+            position = gallop(maxId);
+            if (position < size) {
+                return ids[position];
+            }
+            if (lastChunk) {
+                return -1;
+            }
+            load(maxId);
+        }
+    }
+
+    /**
+     * Find the first index at or after the current position whose ID is at most maxId
+     */
+    private int gallop(long maxId) {
+        int low = position;
+        if (low >= size || ids[low] <= maxId) {
+            return low;
+        }
+
+        // Double the step until the target is passed, then binary search the last step
+        int step = 1;
+        int high = low + step;
+        while (high < size && ids[high] > maxId) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, size);
+
+        // ids[low] > maxId; find the first index in (low, high] with ids[i] <= maxId
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] > maxId) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Load the chunk of IDs starting at maxId
+     */
+    private void load(long maxId) throws IOException {
+        Get get = new Get(row)
+                .addFamily(HBaseSchema.QUESTION_IDS_CF)
+                .setFilter(new ColumnRangeFilter(HBaseSchema.tagIndexQualifier(maxId), true, null, false))
+                .setMaxResultsPerColumnFamily(chunkSize);
+        Result result = table.get(get);
+        loads++;
+
+        Cell[] cells = result.rawCells();
+        if (ids.length < cells.length) {
+            ids = new long[cells.length];
+            creationDates = new long[cells.length];
+        }
+        for (int i = 0; i < cells.length; i++) {
+            ids[i] = HBaseSchema.questionIdOfTagIndexQualifier(CellUtil.cloneQualifier(cells[i]));
+            byte[] value = CellUtil.cloneValue(cells[i]);
+            creationDates[i] = value.length == Bytes.SIZEOF_LONG ? Bytes.toLong(value) : -1;
+        }
+
+        size = cells.length;
+        position = 0;
+        chunkCeiling = maxId;
+        lastChunk = cells.length < chunkSize;
+    }
+
+    /**
+     * Get the creation_date of the question the cursor is on, or -1 if unknown
+     */
+    public long getCreationDate() {
+        return position < size ? creationDates[position] : -1;
+    }
+
+    /**
+     * Get the number of Gets issued so far
+     */
+    public int getLoads() {
+        return loads;
+    }
+}
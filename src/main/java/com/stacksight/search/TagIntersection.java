@@ -0,0 +1,108 @@
+package com.stacksight.search;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Question IDs tagged with all of a set of tags, newest first
+ *
+ * A leapfrog join over one {@link TagIndexCursor} per tag: the cursors take turns
+ * seeking to the current candidate, and any cursor that lands below it makes
+ * its ID the new candidate. The work depends on how interleaved the tags are,
+ * not on their sizes, so a rare tag combined with a tag of millions of
+ * questions only touches the large tag around the rare tag's IDs.
+ */
+public class TagIntersection {
+
+    private final TagIndexCursor[] cursors;
+    private final int maxLoads;
+
+    // Every ID above upperBound has been returned or ruled out
+    private long upperBound;
+    private boolean exhausted = false;
+    private long creationDate = -1;
+
+    /**
+     * Constructor
+     *
+     * @param beforeId only IDs below this are returned
+     * @param maxLoads Gets allowed across all cursors before {@link #next()} gives up
+     */
+    public TagIntersection(List<TagIndexCursor> cursors, long beforeId, int maxLoads) {
+        if (cursors.isEmpty()) {
+            throw new IllegalArgumentException("At least one tag is required");
+        }
+        this.cursors = cursors.toArray(new TagIndexCursor[0]);
+        this.upperBound = beforeId - 1;
+        this.maxLoads = maxLoads;
+    }
+
+    /**
+     * Get the next question ID with all tags
+     *
+     * @return the question ID, or -1 if there are no more or the load budget ran
+     *         out; {@link #isExhausted()} tells the two apart
+     */
+    public long next() throws IOException {
+        if (exhausted) {
+            return -1;
+        }
+
+        long candidate = cursors[0].seek(upperBound);
+        int agreeing = 1;
+        int turn = 1 % cursors.length;
+
+        while (candidate >= 0) {
+            if (agreeing == cursors.length) {
+                creationDate = cursors[0].getCreationDate();
+                upperBound = candidate - 1;
+                return candidate;
+            }
+            if (loads() > maxLoads) {
+                upperBound = candidate;
+                return -1;
+            }
+
+            long found = cursors[turn].seek(candidate);
+            if (found == candidate) {
+                agreeing++;
+            } else {
+                candidate = found;
+                agreeing = 1;
+            }
+            turn = (turn + 1) % cursors.length;
+        }
+
+        exhausted = true;
+        return -1;
+    }
+
+    private int loads() {
+        int loads = 0;
+        for (TagIndexCursor cursor : cursors) {
+            loads += cursor.getLoads();
+        }
+        return loads;
+    }
+
+    /**
+     * Get the creation_date of the last returned question, or -1 if unknown
+     */
+    public long getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * Check whether all matching IDs have been returned
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Get the ID below which a follow-up search should resume
+     */
+    public long getResumeBefore() {
+        return upperBound + 1;
+    }
+}
@@ -0,0 +1,361 @@
+package com.stacksight.search;
+
+import com.stacksight.codec.Payload;
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.ingest.IngestShard;
+import com.stacksight.search.text.TextIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the web app's full-text index current with stackoverflow-questions
+ *
+ * Each web app owns a local {@link TextIndex}. One consumer thread reads the
+ * question topic from the offsets committed with the index and flushes a new
+ * segment every flush-docs questions or flush-interval-ms, whichever comes
+ * first, so a question is searchable within about one flush interval of being
+ * produced. A merge thread keeps the segment count down meanwhile.
+ *
+ * An index without committed offsets is built first from a scan of
+ * stackoverflow_qna (when bootstrap is on), then caught up from the topic end
+ * offsets read before the scan. Questions updated during the scan are indexed
+ * again from the topic, and the newer copy wins. Segments flushed during the
+ * scan are committed with those end offsets and the last question scanned, so
+ * an interrupted scan resumes after that row instead of indexing every
+ * question again.
+ */
+@Component
+public class TextIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(TextIndexer.class);
+
+    private static final String QUESTION_TOPIC = "stackoverflow-questions";
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+    private static final Duration METADATA_TIMEOUT = Duration.ofSeconds(10);
+    private static final long INITIAL_METADATA_BACKOFF_MILLIS = 1000;
+    private static final long MAX_METADATA_BACKOFF_MILLIS = 60_000;
+    private static final int SCAN_CACHING = 500;
+    // Offset key of the last question a bootstrap scan committed; absent once the scan completes
+    private static final String BOOTSTRAP_POSITION = HBaseSchema.QNA_TABLE + "-scan";
+
+    private final Connection connection;
+    private final String bootstrapServers;
+    private final String indexDir;
+    private final int flushDocs;
+    private final long flushIntervalMillis;
+    private final int mergeFactor;
+    private final long maxSegmentBytes;
+    private final boolean bootstrapFromHBase;
+
+    private final PayloadCodec payloads = new PayloadCodec(SchemaRegistry.load(), PayloadCodec.JSON);
+
+    private TextIndex index;
+    private KafkaConsumer<String, byte[]> consumer;
+    private Thread consumerThread;
+    private ScheduledExecutorService mergeScheduler;
+    private volatile boolean running = false;
+
+    public TextIndexer(Connection connection,
+                       @Value("${stacksight.kafka.bootstrap-servers}") String bootstrapServers,
+                       @Value("${stacksight.search.text.index-dir}") String indexDir,
+                       @Value("${stacksight.search.text.flush-docs}") int flushDocs,
+                       @Value("${stacksight.search.text.flush-interval-ms}") long flushIntervalMillis,
+                       @Value("${stacksight.search.text.merge-factor}") int mergeFactor,
+                       @Value("${stacksight.search.text.max-segment-mb}") long maxSegmentMb,
+                       @Value("${stacksight.search.text.bootstrap-from-hbase}") boolean bootstrapFromHBase) {
+        this.connection = connection;
+        this.bootstrapServers = bootstrapServers;
+        this.indexDir = indexDir;
+        this.flushDocs = flushDocs;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.mergeFactor = mergeFactor;
+        this.maxSegmentBytes = maxSegmentMb << 20;
+        this.bootstrapFromHBase = bootstrapFromHBase;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        index = new TextIndex(Paths.get(indexDir));
+        log.info("Opened text index {}: {} segments, {} questions", indexDir, index.getSegmentCount(),
+                index.getDocCount());
+
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumer = new KafkaConsumer<>(props);
+
+        running = true;
+        mergeScheduler = Executors.newSingleThreadScheduledExecutor(daemon("text-index-merge"));
+        mergeScheduler.scheduleWithFixedDelay(this::merge, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+
+        consumerThread = daemon("text-index-consumer").newThread(this::consume);
+        consumerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        consumer.wakeup();
+        consumerThread.join(TimeUnit.SECONDS.toMillis(10));
+        mergeScheduler.shutdownNow();
+    }
+
+    /**
+     * Get the index, for queries
+     */
+    public TextIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Consumer loop: catch up from the committed offsets, then follow the topic
+     */
+    private void consume() {
+        try {
+            List<TopicPartition> partitions = awaitPartitions();
+            if (partitions.isEmpty()) {
+                return;
+            }
+            // The index keeps its own offsets, so no consumer group
+            consumer.assign(partitions);
+
+            Map<String, Long> committed = index.getOffsets();
+            if (bootstrapFromHBase && (committed.isEmpty() || committed.containsKey(BOOTSTRAP_POSITION))) {
+                committed = bootstrap(partitions, committed);
+            }
+            for (TopicPartition partition : partitions) {
+                Long offset = committed.get(offsetKey(partition));
+                if (offset != null) {
+                    consumer.seek(partition, offset);
+                } else {
+                    consumer.seekToBeginning(Collections.singletonList(partition));
+                }
+            }
+
+            long lastFlush = System.currentTimeMillis();
+            boolean pending = false;
+            while (running) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                    pending = true;
+                    // Other sites' question IDs would replace stackoverflow documents
+                    if (record.value() != null && IngestShard.isDefaultSiteKey(record.key())) {
+                        addQuestion(record.value());
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (index.getBufferedDocs() >= flushDocs || (pending && now - lastFlush >= flushIntervalMillis)) {
+                    Map<String, Long> positions = new HashMap<>();
+                    for (TopicPartition partition : partitions) {
+                        positions.put(offsetKey(partition), consumer.position(partition));
+                    }
+                    index.flush(positions);
+                    lastFlush = now;
+                    pending = false;
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutting down; whatever was not flushed is read again on the next start
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Text index consumer stopped", e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Get the partitions of the question topic, waiting until it exists
+     *
+     * The web app may start before the ingester has created the topic, and
+     * polling without assigned partitions fails. Metadata is read again with
+     * exponential backoff.
+     *
+     * @return the partitions, or an empty list if the indexer was stopped meanwhile
+     */
+    private List<TopicPartition> awaitPartitions() throws InterruptedException {
+        long backoffMillis = INITIAL_METADATA_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                List<PartitionInfo> infos = consumer.partitionsFor(QUESTION_TOPIC, METADATA_TIMEOUT);
+                if (infos != null && !infos.isEmpty()) {
+                    List<TopicPartition> partitions = new ArrayList<>();
+                    for (PartitionInfo info : infos) {
+                        partitions.add(new TopicPartition(QUESTION_TOPIC, info.partition()));
+                    }
+                    return partitions;
+                }
+                log.info("Topic {} not found, retrying in {} ms", QUESTION_TOPIC, backoffMillis);
+            } catch (TimeoutException e) {
+                log.warn("Could not read the partitions of {}, retrying in {} ms: {}", QUESTION_TOPIC,
+                        backoffMillis, e.getMessage());
+            }
+            Thread.sleep(backoffMillis);
+            backoffMillis = Math.min(backoffMillis * 2, MAX_METADATA_BACKOFF_MILLIS);
+        }
+        return Collections.emptyList();
+    }
+
+    private void addQuestion(byte[] value) {
+        try {
+            Payload question = payloads.decode(value);
+            long questionId = question.getLong("question_id", -1);
+            if (questionId < 0) {
+                return;
+            }
+            index.add(questionId, question.getLong("creation_date", 0), nullToEmpty(question.getString("title")),
+                    nullToEmpty(question.getString("body")), question.getStrings("tags"));
+        } catch (IllegalArgumentException e) {
+            log.debug("Skipping malformed question record: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Index every question in stackoverflow_qna, or the rest of them after an interrupted scan
+     *
+     * @param committed offsets committed with the index: empty, or those of an interrupted scan
+     * @return the topic offsets to continue from, read before the scan first started
+     */
+    private Map<String, Long> bootstrap(List<TopicPartition> partitions, Map<String, Long> committed)
+            throws IOException {
+        Map<String, Long> endOffsets = new HashMap<>(committed);
+        Long resumeAfter = endOffsets.remove(BOOTSTRAP_POSITION);
+        if (resumeAfter == null) {
+            for (Map.Entry<TopicPartition, Long> end : consumer.endOffsets(partitions).entrySet()) {
+                endOffsets.put(offsetKey(end.getKey()), end.getValue());
+            }
+            log.info("Building the text index from {}", HBaseSchema.QNA_TABLE);
+        } else {
+            log.info("Resuming the text index build from {} after question {}", HBaseSchema.QNA_TABLE,
+                    resumeAfter);
+        }
+
+        Scan scan = new Scan()
+                .addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("title"))
+                .addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("body"))
+                .addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("tags"))
+                .addColumn(HBaseSchema.QUESTION_CF, Bytes.toBytes("creation_date"))
+                .setCaching(SCAN_CACHING)
+                .setCacheBlocks(false);
+        if (resumeAfter != null) {
+            scan.withStartRow(HBaseSchema.qnaRowKey(resumeAfter), false);
+        }
+        long indexed = 0;
+        try (Table table = connection.getTable(TableName.valueOf(HBaseSchema.QNA_TABLE));
+             ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result : scanner) {
+                if (!running) {
+                    throw new WakeupException();
+                }
+                addQuestion(result);
+                if (index.getBufferedDocs() >= flushDocs) {
+                    // Rows are scanned in key order, so a restart continues after this one
+                    Map<String, Long> progress = new HashMap<>(endOffsets);
+                    progress.put(BOOTSTRAP_POSITION, HBaseSchema.questionIdOfQnaRowKey(result.getRow()));
+                    index.flush(progress);
+                }
+                indexed++;
+            }
+        }
+        index.flush(endOffsets);
+        log.info("Indexed {} questions from {}", indexed, HBaseSchema.QNA_TABLE);
+        return endOffsets;
+    }
+
+    private void addQuestion(Result result) {
+        long questionId = HBaseSchema.questionIdOfQnaRowKey(result.getRow());
+        String creationDate = column(result, "creation_date");
+        List<String> tags = new ArrayList<>();
+        String tagsJson = column(result, "tags");
+        if (tagsJson != null) {
+            try {
+                JSONArray tagArray = new JSONArray(tagsJson);
+                for (int i = 0; i < tagArray.length(); i++) {
+                    tags.add(tagArray.optString(i));
+                }
+            } catch (JSONException e) {
+                log.debug("Skipping malformed tags of question {}", questionId);
+            }
+        }
+        try {
+            index.add(questionId, creationDate == null ? 0 : Long.parseLong(creationDate),
+                    nullToEmpty(column(result, "title")), nullToEmpty(column(result, "body")), tags);
+        } catch (NumberFormatException e) {
+            log.debug("Skipping question {} with creation_date {}", questionId, creationDate);
+        }
+    }
+
+    private void merge() {
+        try {
+            while (running && index.mergeOnce(mergeFactor, maxSegmentBytes)) {
+                log.debug("Merged text index segments, {} left", index.getSegmentCount());
+            }
+        } catch (Exception e) {
+            // Keep the schedule alive; the same merge is tried again next time
+            log.warn("Text index merge failed", e);
+        }
+    }
+
+    private static String column(Result result, String qualifier) {
+        return Bytes.toString(result.getValue(HBaseSchema.QUESTION_CF, Bytes.toBytes(qualifier)));
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String offsetKey(TopicPartition partition) {
+        return partition.topic() + "-" + partition.partition();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package com.stacksight.search.text;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Documents indexed since the last flush, kept on the heap until written as a segment
+ *
+ * A question added again (its activity changed) replaces its earlier version.
+ * Not thread-safe.
+ */
+final class IndexBuffer {
+
+    private final TreeMap<Long, Document> documents = new TreeMap<>();
+
+    private static final class Document {
+        final long creationDate;
+        final int length;
+        final Map<String, Integer> frequencies;
+
+        Document(long creationDate, int length, Map<String, Integer> frequencies) {
+            this.creationDate = creationDate;
+            this.length = length;
+            this.frequencies = frequencies;
+        }
+    }
+
+    /**
+     * Add or replace a document
+     *
+     * @param frequencies frequency of each term in the document
+     * @param length      document length, in terms
+     */
+    void add(long id, long creationDate, Map<String, Integer> frequencies, int length) {
+        documents.put(id, new Document(creationDate, length, frequencies));
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Write the buffered documents as a new segment
+     */
+    void writeTo(Path file) throws IOException {
+        // Documents in ID order give the ordinals; walking them in that order keeps each postings list sorted
+        TreeMap<String, PostingsBuilder> postings = new TreeMap<>();
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            for (Map.Entry<Long, Document> entry : documents.entrySet()) {
+                Document document = entry.getValue();
+                int ordinal = writer.addDocument(entry.getKey(), document.creationDate, document.length);
+                for (Map.Entry<String, Integer> term : document.frequencies.entrySet()) {
+                    postings.computeIfAbsent(term.getKey(), t -> new PostingsBuilder()).add(ordinal, term.getValue());
+                }
+            }
+            for (Map.Entry<String, PostingsBuilder> term : postings.entrySet()) {
+                PostingsBuilder list = term.getValue();
+                writer.addTerm(term.getKey(), list.ordinals, list.frequencies, list.count);
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Term frequencies of a document, weighting title and tag terms over body terms
+     *
+     * @return the frequencies; the document length is their sum
+     */
+    static Map<String, Integer> analyze(String title, String body, Iterable<String> tags, int titleWeight) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : Tokenizer.tokenize(title)) {
+            frequencies.merge(term, titleWeight, Integer::sum);
+        }
+        for (String tag : tags) {
+            for (String term : Tokenizer.tokenize(tag)) {
+                frequencies.merge(term, titleWeight, Integer::sum);
+            }
+        }
+        for (String term : Tokenizer.tokenizeHtml(body)) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+}
@@ -0,0 +1,186 @@
+package com.stacksight.search.text;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Postings lists: the documents of a term, as segment ordinals, with term frequencies
+ *
+ * Encoded form of a list of n postings:
+ * - int skipCount, then skipCount entries of (int ordinal before block, int block offset),
+ *   one per block of {@link #BLOCK_SIZE} postings after the first
+ * - n pairs of varint (ordinal - previous ordinal), varint frequency
+ *
+ * Ordinals grow monotonically, so the gaps are small and most pairs take two
+ * bytes. The skip table lets {@link Iterator#advance(int)} jump over whole
+ * blocks without decoding them.
+ */
+public final class Postings {
+
+    public static final int BLOCK_SIZE = 128;
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private Postings() {
+    }
+
+    /**
+     * Cursor over a postings list, starting before its first posting
+     */
+    public interface Iterator {
+
+        /**
+         * Move to the next posting
+         *
+         * @return its ordinal, or {@link #NO_MORE_DOCS}
+         */
+        int next();
+
+        /**
+         * Move to the first posting at or after an ordinal
+         *
+         * @return its ordinal, or {@link #NO_MORE_DOCS}
+         */
+        int advance(int target);
+
+        /**
+         * Ordinal of the current posting
+         */
+        int ordinal();
+
+        /**
+         * Term frequency of the current posting
+         */
+        int frequency();
+    }
+
+    /**
+     * Encode a postings list
+     */
+    public static byte[] encode(int[] ordinals, int[] frequencies, int count) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(count * 2 + 16);
+        int skipCount = (count - 1) / BLOCK_SIZE;
+        ByteBuffer skips = ByteBuffer.allocate(Integer.BYTES + skipCount * 2 * Integer.BYTES);
+        skips.putInt(skipCount);
+
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && i % BLOCK_SIZE == 0) {
+                skips.putInt(previous).putInt(data.size());
+            }
+            writeVarInt(data, ordinals[i] - previous);
+            writeVarInt(data, frequencies[i]);
+            previous = ordinals[i];
+        }
+
+        byte[] encoded = new byte[skips.capacity() + data.size()];
+        System.arraycopy(skips.array(), 0, encoded, 0, skips.capacity());
+        System.arraycopy(data.toByteArray(), 0, encoded, skips.capacity(), data.size());
+        return encoded;
+    }
+
+    /**
+     * Iterate over an encoded postings list
+     *
+     * @param buffer   holds the list at offset; not modified
+     * @param count    number of postings in the list
+     */
+    public static Iterator decode(ByteBuffer buffer, int offset, int count) {
+        return new EncodedIterator(buffer, offset, count);
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class EncodedIterator implements Iterator {
+
+        private final ByteBuffer buffer;
+        private final int skipTable;
+        private final int skipCount;
+        private final int dataStart;
+        private final int count;
+
+        private int position;
+        private int read = 0;
+        private int ordinal = -1;
+        private int frequency = 0;
+
+        EncodedIterator(ByteBuffer buffer, int offset, int count) {
+            this.buffer = buffer;
+            this.skipCount = buffer.getInt(offset);
+            this.skipTable = offset + Integer.BYTES;
+            this.dataStart = skipTable + skipCount * 2 * Integer.BYTES;
+            this.count = count;
+            this.position = dataStart;
+        }
+
+        @Override
+        public int next() {
+            if (read >= count) {
+                return ordinal = NO_MORE_DOCS;
+            }
+            ordinal = (read == 0 ? 0 : ordinal) + readVarInt();
+            frequency = readVarInt();
+            read++;
+            return ordinal;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (ordinal >= target) {
+                return ordinal;
+            }
+
+            // Last block that starts before the target and after the current posting
+            int block = -1;
+            int low = read / BLOCK_SIZE;
+            int high = skipCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (buffer.getInt(skipTable + middle * 2 * Integer.BYTES) < target) {
+                    block = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (block >= 0 && (block + 1) * BLOCK_SIZE > read) {
+                int entry = skipTable + block * 2 * Integer.BYTES;
+                ordinal = buffer.getInt(entry);
+                position = dataStart + buffer.getInt(entry + Integer.BYTES);
+                read = (block + 1) * BLOCK_SIZE;
+            }
+
+            while (ordinal < target) {
+                next();
+            }
+            return ordinal;
+        }
+
+        @Override
+        public int ordinal() {
+            return ordinal;
+        }
+
+        @Override
+        public int frequency() {
+            return frequency;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
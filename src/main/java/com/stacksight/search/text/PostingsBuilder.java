@@ -0,0 +1,27 @@
+package com.stacksight.search.text;
+
+import java.util.Arrays;
+
+/**
+ * A growable postings list, filled in ordinal order before it is encoded
+ */
+final class PostingsBuilder {
+
+    int[] ordinals = new int[8];
+    int[] frequencies = new int[8];
+    int count = 0;
+
+    void add(int ordinal, int frequency) {
+        if (count == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, count * 2);
+            frequencies = Arrays.copyOf(frequencies, count * 2);
+        }
+        ordinals[count] = ordinal;
+        frequencies[count] = frequency;
+        count++;
+    }
+
+    void clear() {
+        count = 0;
+    }
+}
@@ -0,0 +1,86 @@
+package com.stacksight.search.text;
+
+import java.util.BitSet;
+
+/**
+ * The documents of a segment whose questions a newer segment has another copy of
+ *
+ * Kept with each committed segment until a merge drops the copies, so queries
+ * can skip them and leave them out of the collection statistics. Instances are
+ * immutable; adding a newer segment returns a new one.
+ */
+final class ReplacedDocs {
+
+    static final ReplacedDocs NONE = new ReplacedDocs(new BitSet(), 0, 0);
+
+    private final BitSet ordinals;
+    private final int count;
+    private final long length;
+
+    private ReplacedDocs(BitSet ordinals, int count, long length) {
+        this.ordinals = ordinals;
+        this.count = count;
+        this.length = length;
+    }
+
+    /**
+     * Add the documents of a segment that a newer segment replaces
+     */
+    ReplacedDocs with(Segment segment, Segment newer) {
+        BitSet updated = null;
+        int updatedCount = count;
+        long updatedLength = length;
+        for (int n = 0; n < newer.getDocCount(); n++) {
+            int ordinal = segment.ordinalOf(newer.id(n));
+            if (ordinal < 0 || ordinals.get(ordinal)) {
+                continue;
+            }
+            if (updated == null) {
+                updated = (BitSet) ordinals.clone();
+            }
+            updated.set(ordinal);
+            updatedCount++;
+            updatedLength += segment.length(ordinal);
+        }
+        return updated == null ? this : new ReplacedDocs(updated, updatedCount, updatedLength);
+    }
+
+    boolean contains(int ordinal) {
+        return ordinals.get(ordinal);
+    }
+
+    /**
+     * Get the number of replaced documents
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Get the sum of the replaced documents' lengths, in terms
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Count the replaced documents in a postings list
+     */
+    int countIn(Postings.Iterator postings) {
+        int replaced = 0;
+        int ordinal = ordinals.nextSetBit(0);
+        while (ordinal >= 0) {
+            int posting = postings.advance(ordinal);
+            if (posting == Postings.NO_MORE_DOCS) {
+                break;
+            }
+            if (posting == ordinal) {
+                replaced++;
+                ordinal = ordinals.nextSetBit(ordinal + 1);
+            } else {
+                ordinal = ordinals.nextSetBit(posting);
+            }
+        }
+        return replaced;
+    }
+}
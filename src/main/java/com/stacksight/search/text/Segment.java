@@ -0,0 +1,173 @@
+package com.stacksight.search.text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped, immutable segment written by {@link SegmentWriter}
+ *
+ * The dictionary is read onto the heap when the segment is opened; documents
+ * and postings stay in the mapped file and are paged in by the OS as queries
+ * touch them. Segments are thread-safe.
+ */
+public final class Segment {
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final long totalLength;
+
+    private final String[] terms;
+    private final int[] docFreqs;
+    private final int[] maxFrequencies;
+    private final int[] postingsOffsets;
+
+    private Segment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        int footer = buffer.limit() - SegmentWriter.FOOTER_BYTES;
+        if (buffer.limit() < SegmentWriter.HEADER_BYTES + SegmentWriter.FOOTER_BYTES
+                || buffer.getInt(0) != SegmentWriter.MAGIC
+                || buffer.getInt(buffer.limit() - Integer.BYTES) != SegmentWriter.MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        if (buffer.getInt(Integer.BYTES) != SegmentWriter.VERSION) {
+            throw new IOException("Unsupported segment version in " + file);
+        }
+        this.docCount = buffer.getInt(footer);
+        this.totalLength = buffer.getLong(footer + Integer.BYTES);
+        int dictionaryOffset = (int) buffer.getLong(footer + Integer.BYTES + Long.BYTES);
+        int termCount = buffer.getInt(footer + Integer.BYTES + 2 * Long.BYTES);
+
+        terms = new String[termCount];
+        docFreqs = new int[termCount];
+        maxFrequencies = new int[termCount];
+        postingsOffsets = new int[termCount];
+        ByteBuffer dictionary = buffer.duplicate();
+        dictionary.position(dictionaryOffset);
+        for (int i = 0; i < termCount; i++) {
+            byte[] term = new byte[dictionary.getShort()];
+            dictionary.get(term);
+            terms[i] = new String(term, StandardCharsets.UTF_8);
+            docFreqs[i] = dictionary.getInt();
+            maxFrequencies[i] = dictionary.getInt();
+            postingsOffsets[i] = (int) dictionary.getLong();
+        }
+    }
+
+    /**
+     * Map a segment file
+     */
+    public static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Segment(file, buffer);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    public long getSizeBytes() {
+        return buffer.limit();
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * Get the sum of all document lengths, in terms
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Get the question ID of a document
+     */
+    public long id(int ordinal) {
+        return buffer.getLong(documentOffset(ordinal));
+    }
+
+    /**
+     * Get the creation_date of a document
+     */
+    public long creationDate(int ordinal) {
+        return buffer.getLong(documentOffset(ordinal) + Long.BYTES);
+    }
+
+    /**
+     * Get the length of a document, in terms
+     */
+    public int length(int ordinal) {
+        return buffer.getInt(documentOffset(ordinal) + 2 * Long.BYTES);
+    }
+
+    /**
+     * Get the ordinal of a question, or -1 if the segment does not have it
+     */
+    public int ordinalOf(long id) {
+        int low = 0;
+        int high = docCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = id(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int getTermCount() {
+        return terms.length;
+    }
+
+    public String term(int termIndex) {
+        return terms[termIndex];
+    }
+
+    /**
+     * Get the index of a term, or -1 if the segment does not have it
+     */
+    public int termIndex(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index >= 0 ? index : -1;
+    }
+
+    public int docFreq(int termIndex) {
+        return docFreqs[termIndex];
+    }
+
+    public int maxFrequency(int termIndex) {
+        return maxFrequencies[termIndex];
+    }
+
+    /**
+     * Iterate over the postings of a term
+     */
+    public Postings.Iterator postings(int termIndex) {
+        return Postings.decode(buffer, postingsOffsets[termIndex], docFreqs[termIndex]);
+    }
+
+    private static int documentOffset(int ordinal) {
+        return SegmentWriter.HEADER_BYTES + ordinal * SegmentWriter.DOCUMENT_BYTES;
+    }
+}
@@ -0,0 +1,123 @@
+package com.stacksight.search.text;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges consecutive segments into one
+ *
+ * Documents are merged by question ID. When a question is in several of the
+ * segments, only its copy from the newest one is kept, so merging also drops
+ * the versions that later ones replaced. Terms are merged in order and each
+ * term's postings are renumbered to the new ordinals in a k-way merge, so
+ * memory use is bounded by the postings of one term, not the segment size.
+ */
+final class SegmentMerger {
+
+    private SegmentMerger() {
+    }
+
+    /**
+     * Merge segments, oldest first, into a new segment file
+     */
+    static void merge(List<Segment> sources, Path target) throws IOException {
+        int count = sources.size();
+        int[][] ordinalMaps = new int[count][];
+        for (int s = 0; s < count; s++) {
+            ordinalMaps[s] = new int[sources.get(s).getDocCount()];
+            Arrays.fill(ordinalMaps[s], -1);
+        }
+
+        try (SegmentWriter writer = new SegmentWriter(target)) {
+            // Documents: the newest copy of each question gets the new ordinal
+            int[] positions = new int[count];
+            while (true) {
+                long minId = Long.MAX_VALUE;
+                for (int s = 0; s < count; s++) {
+                    if (positions[s] < sources.get(s).getDocCount()) {
+                        minId = Math.min(minId, sources.get(s).id(positions[s]));
+                    }
+                }
+                if (minId == Long.MAX_VALUE) {
+                    break;
+                }
+
+                int newest = -1;
+                int newestOrdinal = -1;
+                for (int s = 0; s < count; s++) {
+                    if (positions[s] < sources.get(s).getDocCount() && sources.get(s).id(positions[s]) == minId) {
+                        newest = s;
+                        newestOrdinal = positions[s]++;
+                    }
+                }
+                Segment segment = sources.get(newest);
+                ordinalMaps[newest][newestOrdinal] = writer.addDocument(minId, segment.creationDate(newestOrdinal),
+                        segment.length(newestOrdinal));
+            }
+
+            // Terms, in order across all segments
+            int[] termPositions = new int[count];
+            Postings.Iterator[] iterators = new Postings.Iterator[count];
+            int[] current = new int[count];
+            PostingsBuilder postings = new PostingsBuilder();
+            while (true) {
+                String term = null;
+                for (int s = 0; s < count; s++) {
+                    if (termPositions[s] < sources.get(s).getTermCount()) {
+                        String candidate = sources.get(s).term(termPositions[s]);
+                        if (term == null || candidate.compareTo(term) < 0) {
+                            term = candidate;
+                        }
+                    }
+                }
+                if (term == null) {
+                    break;
+                }
+
+                for (int s = 0; s < count; s++) {
+                    iterators[s] = null;
+                    current[s] = Postings.NO_MORE_DOCS;
+                    Segment segment = sources.get(s);
+                    if (termPositions[s] < segment.getTermCount() && segment.term(termPositions[s]).equals(term)) {
+                        iterators[s] = segment.postings(termPositions[s]++);
+                        current[s] = nextMapped(iterators[s], ordinalMaps[s]);
+                    }
+                }
+
+                // Renumbered ordinals keep their order within each source, so a k-way merge sorts them
+                postings.clear();
+                while (true) {
+                    int next = -1;
+                    for (int s = 0; s < count; s++) {
+                        if (current[s] != Postings.NO_MORE_DOCS && (next < 0 || current[s] < current[next])) {
+                            next = s;
+                        }
+                    }
+                    if (next < 0) {
+                        break;
+                    }
+                    postings.add(current[next], iterators[next].frequency());
+                    current[next] = nextMapped(iterators[next], ordinalMaps[next]);
+                }
+                writer.addTerm(term, postings.ordinals, postings.frequencies, postings.count);
+            }
+
+            writer.finish();
+        }
+    }
+
+    /**
+     * Advance to the next posting whose document was kept, and get its new ordinal
+     */
+    private static int nextMapped(Postings.Iterator iterator, int[] ordinalMap) {
+        int ordinal;
+        while ((ordinal = iterator.next()) != Postings.NO_MORE_DOCS) {
+            if (ordinalMap[ordinal] >= 0) {
+                return ordinalMap[ordinal];
+            }
+        }
+        return Postings.NO_MORE_DOCS;
+    }
+}
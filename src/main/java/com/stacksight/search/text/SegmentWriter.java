@@ -0,0 +1,153 @@
+package com.stacksight.search.text;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes an immutable segment file
+ *
+ * Layout:
+ * - header: int magic, int version
+ * - documents, sorted by question ID: (long id, long creation_date, int length) each;
+ *   a document's position in this table is its ordinal
+ * - postings lists of all terms (see {@link Postings})
+ * - dictionary, sorted by term: (short UTF-8 length, term, int docFreq,
+ *   int maxFrequency, long postings offset) each
+ * - footer: int docCount, long totalLength, long dictionary offset, int termCount, int magic
+ *
+ * Documents are added first, in ID order, then terms in order. The file is
+ * written under a temporary name and moved into place by {@link #finish()}.
+ */
+public class SegmentWriter implements Closeable {
+
+    static final int MAGIC = 0x53534958; // "SSIX"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 2 * Integer.BYTES;
+    static final int DOCUMENT_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    static final int FOOTER_BYTES = 3 * Integer.BYTES + 2 * Long.BYTES;
+
+    private final Path file;
+    private final Path tmp;
+    private final DataOutputStream out;
+    private long written = 0;
+
+    private int docCount = 0;
+    private long totalLength = 0;
+    private long lastId = Long.MIN_VALUE;
+
+    private final List<byte[]> dictionaryTerms = new ArrayList<>();
+    private final List<long[]> dictionaryEntries = new ArrayList<>();
+    private String lastTerm = null;
+
+    /**
+     * Constructor
+     */
+    public SegmentWriter(Path file) throws IOException {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        written = HEADER_BYTES;
+    }
+
+    /**
+     * Add a document; IDs must be increasing
+     *
+     * @return its ordinal
+     */
+    public int addDocument(long id, long creationDate, int length) throws IOException {
+        if (id <= lastId || lastTerm != null) {
+            throw new IllegalStateException("Documents must be added first, in increasing ID order");
+        }
+        out.writeLong(id);
+        out.writeLong(creationDate);
+        out.writeInt(length);
+        written += DOCUMENT_BYTES;
+        lastId = id;
+        totalLength += length;
+        return docCount++;
+    }
+
+    /**
+     * Add a term with its postings; terms must be increasing
+     */
+    public void addTerm(String term, int[] ordinals, int[] frequencies, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (lastTerm != null && term.compareTo(lastTerm) <= 0) {
+            throw new IllegalStateException("Terms must be added in increasing order: " + term);
+        }
+        int maxFrequency = 0;
+        for (int i = 0; i < count; i++) {
+            maxFrequency = Math.max(maxFrequency, frequencies[i]);
+        }
+
+        byte[] postings = Postings.encode(ordinals, frequencies, count);
+        dictionaryTerms.add(term.getBytes(StandardCharsets.UTF_8));
+        dictionaryEntries.add(new long[] {count, maxFrequency, written});
+        out.write(postings);
+        written += postings.length;
+        lastTerm = term;
+    }
+
+    /**
+     * Get the number of bytes written so far
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+
+    /**
+     * Write the dictionary and footer, and move the file into place
+     */
+    public void finish() throws IOException {
+        long dictionaryOffset = written;
+        for (int i = 0; i < dictionaryTerms.size(); i++) {
+            byte[] term = dictionaryTerms.get(i);
+            long[] entry = dictionaryEntries.get(i);
+            out.writeShort(term.length);
+            out.write(term);
+            out.writeInt((int) entry[0]);
+            out.writeInt((int) entry[1]);
+            out.writeLong(entry[2]);
+            written += Short.BYTES + term.length + 2 * Integer.BYTES + Long.BYTES;
+        }
+        out.writeInt(docCount);
+        out.writeLong(totalLength);
+        out.writeLong(dictionaryOffset);
+        out.writeInt(dictionaryTerms.size());
+        out.writeInt(MAGIC);
+        written += FOOTER_BYTES;
+        out.close();
+
+        // Segments are memory-mapped as one buffer
+        if (written > Integer.MAX_VALUE) {
+            throw new IOException("Segment too large: " + written + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Abandon the segment, if it was not finished
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        Files.deleteIfExists(tmp);
+    }
+}
@@ -0,0 +1,492 @@
+package com.stacksight.search.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Incrementally maintained full-text index of question titles, bodies and tags
+ *
+ * A small log-structured index:
+ * 1. {@link #add} analyzes a question into a heap buffer
+ * 2. {@link #flush} writes the buffer as a new immutable, memory-mapped segment
+ *    and commits the segment list with the source offsets it covers
+ * 3. {@link #mergeOnce} merges runs of similarly sized segments in the background,
+ *    so the number of segments a query visits stays logarithmic
+ *
+ * A question indexed again (after an edit or new answers) lands in a newer
+ * segment. Each commit notes which copies in older segments it replaces (see
+ * {@link ReplacedDocs}); queries skip those and leave them out of the BM25
+ * collection statistics, and merges drop them.
+ *
+ * Queries rank by BM25 and stop early with MaxScore: the terms are ordered by
+ * their best possible contribution, and once the k-th best score is above what
+ * the rarest terms could add up to, documents matching only those terms are
+ * never scored. add and flush are called by a single indexing thread; merges
+ * and queries can run concurrently with it.
+ */
+public class TextIndex {
+
+    public static final int TITLE_WEIGHT = 3;
+
+    private static final String MANIFEST = "segments.properties";
+    private static final String SEGMENTS = "segments";
+    private static final String NEXT_SEGMENT = "next-segment";
+    private static final String OFFSET_PREFIX = "offset.";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long TIER_BASE_BYTES = 1L << 20;
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Path directory;
+    private final IndexBuffer buffer = new IndexBuffer();
+    private final Object commitLock = new Object();
+
+    private volatile View view;
+    private volatile Map<String, Long> offsets;
+    private volatile long generation = 0;
+    private long nextSegment;
+
+    /**
+     * A matching question and its score
+     */
+    public static final class Hit {
+
+        private final long questionId;
+        private final double score;
+
+        Hit(long questionId, double score) {
+            this.questionId = questionId;
+            this.score = score;
+        }
+
+        public long getQuestionId() {
+            return questionId;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * A committed segment list, oldest first, and the replaced documents of each segment
+     */
+    private static final class View {
+
+        final List<Segment> segments;
+        final List<ReplacedDocs> replaced;
+
+        View(List<Segment> segments, List<ReplacedDocs> replaced) {
+            this.segments = Collections.unmodifiableList(segments);
+            this.replaced = Collections.unmodifiableList(replaced);
+        }
+    }
+
+    /**
+     * Open the index in a directory, creating it if needed
+     *
+     * Segment files the manifest does not list (left over from an interrupted
+     * flush or merge) are deleted.
+     */
+    public TextIndex(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        Properties manifest = new Properties();
+        Path manifestFile = directory.resolve(MANIFEST);
+        if (Files.exists(manifestFile)) {
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                manifest.load(in);
+            }
+        }
+
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : manifest.getProperty(SEGMENTS, "").split(",")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        List<Segment> opened = new ArrayList<>();
+        for (String name : names) {
+            opened.add(Segment.open(directory.resolve(name)));
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp") || (name.endsWith(SEGMENT_SUFFIX) && !names.contains(name))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        Map<String, Long> loadedOffsets = new HashMap<>();
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.startsWith(OFFSET_PREFIX)) {
+                loadedOffsets.put(key.substring(OFFSET_PREFIX.length()), Long.parseLong(manifest.getProperty(key)));
+            }
+        }
+        List<ReplacedDocs> replaced = new ArrayList<>(opened.size());
+        for (int s = 0; s < opened.size(); s++) {
+            ReplacedDocs docs = ReplacedDocs.NONE;
+            for (int later = s + 1; later < opened.size(); later++) {
+                docs = docs.with(opened.get(s), opened.get(later));
+            }
+            replaced.add(docs);
+        }
+        this.view = new View(opened, replaced);
+        this.offsets = Collections.unmodifiableMap(loadedOffsets);
+        this.nextSegment = Long.parseLong(manifest.getProperty(NEXT_SEGMENT, "1"));
+    }
+
+    /**
+     * Add or replace a question; it becomes searchable at the next flush
+     */
+    public void add(long questionId, long creationDate, String title, String body, Iterable<String> tags) {
+        Map<String, Integer> frequencies = IndexBuffer.analyze(title, body, tags, TITLE_WEIGHT);
+        int length = 0;
+        for (int frequency : frequencies.values()) {
+            length += frequency;
+        }
+        buffer.add(questionId, creationDate, frequencies, length);
+    }
+
+    /**
+     * Get the number of questions added since the last flush
+     */
+    public int getBufferedDocs() {
+        return buffer.size();
+    }
+
+    /**
+     * Write the buffered questions as a segment and commit it
+     *
+     * @param sourceOffsets positions in the sources up to which everything is indexed,
+     *                      e.g. Kafka offsets by partition; replaces the committed ones
+     */
+    public void flush(Map<String, Long> sourceOffsets) throws IOException {
+        Segment flushed = null;
+        if (!buffer.isEmpty()) {
+            String name;
+            synchronized (commitLock) {
+                name = newSegmentName();
+            }
+            Path file = directory.resolve(name);
+            buffer.writeTo(file);
+            flushed = Segment.open(file);
+            buffer.clear();
+        }
+
+        synchronized (commitLock) {
+            List<Segment> updated = new ArrayList<>(view.segments);
+            List<ReplacedDocs> replaced = new ArrayList<>(view.replaced);
+            if (flushed != null) {
+                for (int s = 0; s < updated.size(); s++) {
+                    replaced.set(s, replaced.get(s).with(updated.get(s), flushed));
+                }
+                updated.add(flushed);
+                replaced.add(ReplacedDocs.NONE);
+            }
+            commit(updated, replaced, new HashMap<>(sourceOffsets));
+        }
+    }
+
+    /**
+     * Get the committed source offsets
+     */
+    public Map<String, Long> getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Merge the newest run of mergeFactor segments of the same size tier, if there is one
+     *
+     * Segments grow by mergeFactor per tier: under 1 MB, under mergeFactor MB, and so on.
+     *
+     * @param maxSegmentBytes merged segments are kept below this size
+     * @return whether segments were merged
+     */
+    public boolean mergeOnce(int mergeFactor, long maxSegmentBytes) throws IOException {
+        List<Segment> current = view.segments;
+        List<Segment> window = null;
+        for (int end = current.size(); end >= mergeFactor && window == null; end--) {
+            List<Segment> candidate = current.subList(end - mergeFactor, end);
+            int tier = tier(candidate.get(0), mergeFactor);
+            long bytes = 0;
+            boolean sameTier = true;
+            for (Segment segment : candidate) {
+                sameTier &= tier(segment, mergeFactor) == tier;
+                bytes += segment.getSizeBytes();
+            }
+            if (sameTier && bytes < maxSegmentBytes) {
+                window = new ArrayList<>(candidate);
+            }
+        }
+        if (window == null) {
+            return false;
+        }
+
+        String name;
+        synchronized (commitLock) {
+            name = newSegmentName();
+        }
+        Path file = directory.resolve(name);
+        SegmentMerger.merge(window, file);
+        Segment merged = Segment.open(file);
+
+        synchronized (commitLock) {
+            // Flushes only append, so the window is still one run
+            List<Segment> updated = new ArrayList<>(view.segments);
+            List<ReplacedDocs> replaced = new ArrayList<>(view.replaced);
+            int start = updated.indexOf(window.get(0));
+            updated.subList(start, start + window.size()).clear();
+            replaced.subList(start, start + window.size()).clear();
+            updated.add(start, merged);
+
+            // Older segments already had the window's questions; newer ones may replace merged copies
+            ReplacedDocs mergedReplaced = ReplacedDocs.NONE;
+            for (int later = start + 1; later < updated.size(); later++) {
+                mergedReplaced = mergedReplaced.with(merged, updated.get(later));
+            }
+            replaced.add(start, mergedReplaced);
+            commit(updated, replaced, offsets);
+        }
+
+        // Queries still holding the old list keep their mappings; the files go now
+        for (Segment segment : window) {
+            Files.deleteIfExists(segment.getFile());
+        }
+        return true;
+    }
+
+    private static int tier(Segment segment, int mergeFactor) {
+        int tier = 0;
+        for (long size = segment.getSizeBytes() / TIER_BASE_BYTES; size > 0; size /= mergeFactor) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private String newSegmentName() {
+        return String.format("%010d%s", nextSegment++, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Publish a segment list and write it to the manifest; called with the commit lock held
+     */
+    private void commit(List<Segment> updated, List<ReplacedDocs> replaced, Map<String, Long> updatedOffsets)
+            throws IOException {
+        Properties manifest = new Properties();
+        List<String> names = new ArrayList<>(updated.size());
+        for (Segment segment : updated) {
+            names.add(segment.getName());
+        }
+        manifest.setProperty(SEGMENTS, String.join(",", names));
+        manifest.setProperty(NEXT_SEGMENT, String.valueOf(nextSegment));
+        for (Map.Entry<String, Long> offset : updatedOffsets.entrySet()) {
+            manifest.setProperty(OFFSET_PREFIX + offset.getKey(), String.valueOf(offset.getValue()));
+        }
+
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            manifest.store(out, "StackSights text index");
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        view = new View(updated, replaced);
+        offsets = Collections.unmodifiableMap(updatedOffsets);
+        generation++;
+    }
+
+    /**
+     * Get a number that changes with every commit, to version query results
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the number of indexed questions; replaced copies are not counted
+     */
+    public long getDocCount() {
+        View current = view;
+        long count = 0;
+        for (int s = 0; s < current.segments.size(); s++) {
+            count += current.segments.get(s).getDocCount() - current.replaced.get(s).count();
+        }
+        return count;
+    }
+
+    public int getSegmentCount() {
+        return view.segments.size();
+    }
+
+    /**
+     * Find the best matches of a keyword query
+     *
+     * Any of the query's terms may match; questions with more of them, and
+     * with rarer ones, rank higher.
+     *
+     * @param k               number of hits to return
+     * @param minCreationDate earliest creation_date, or 0 for any
+     * @return hits, best first
+     */
+    public List<Hit> search(String query, int k, long minCreationDate) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+        View snapshot = view;
+        if (terms.isEmpty() || snapshot.segments.isEmpty() || k < 1) {
+            return new ArrayList<>();
+        }
+
+        // Collection statistics over the newest copy of each question
+        long docCount = 0;
+        long totalLength = 0;
+        for (int s = 0; s < snapshot.segments.size(); s++) {
+            docCount += snapshot.segments.get(s).getDocCount() - snapshot.replaced.get(s).count();
+            totalLength += snapshot.segments.get(s).getTotalLength() - snapshot.replaced.get(s).length();
+        }
+        double averageLength = Math.max(1.0, (double) totalLength / Math.max(1, docCount));
+        double[] idfs = new double[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            long docFreq = 0;
+            for (int s = 0; s < snapshot.segments.size(); s++) {
+                Segment segment = snapshot.segments.get(s);
+                int termIndex = segment.termIndex(terms.get(t));
+                if (termIndex >= 0) {
+                    docFreq += segment.docFreq(termIndex);
+                    if (snapshot.replaced.get(s).count() > 0) {
+                        docFreq -= snapshot.replaced.get(s).countIn(segment.postings(termIndex));
+                    }
+                }
+            }
+            idfs[t] = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+        }
+
+        // Newest segments first: recent questions fill the heap and raise the threshold early
+        PriorityQueue<Hit> top = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.score, b.score));
+        for (int s = snapshot.segments.size() - 1; s >= 0; s--) {
+            searchSegment(snapshot.segments.get(s), snapshot.replaced.get(s), terms, idfs, averageLength, k,
+                    minCreationDate, top);
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort((a, b) -> Double.compare(b.score, a.score));
+        return hits;
+    }
+
+    /**
+     * MaxScore over one segment
+     */
+    private static void searchSegment(Segment segment, ReplacedDocs replaced, List<String> terms, double[] idfs,
+                                      double averageLength, int k, long minCreationDate, PriorityQueue<Hit> top) {
+        List<Postings.Iterator> iterators = new ArrayList<>();
+        List<double[]> weights = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            int termIndex = segment.termIndex(terms.get(t));
+            if (termIndex < 0) {
+                continue;
+            }
+            // tf / (tf + K1 * norm) is largest for the shortest document, where norm >= 1 - B
+            int maxFrequency = segment.maxFrequency(termIndex);
+            double upperBound = idfs[t] * (K1 + 1) * maxFrequency / (maxFrequency + K1 * (1 - B));
+            iterators.add(segment.postings(termIndex));
+            weights.add(new double[] {idfs[t], upperBound});
+        }
+        int count = iterators.size();
+        if (count == 0) {
+            return;
+        }
+
+        // Ascending upper bounds; bounds[i] is the most terms 0..i can add together
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(weights.get(a)[1], weights.get(b)[1]));
+        Postings.Iterator[] cursors = new Postings.Iterator[count];
+        double[] idf = new double[count];
+        double[] bounds = new double[count];
+        for (int i = 0; i < count; i++) {
+            cursors[i] = iterators.get(order[i]);
+            idf[i] = weights.get(order[i])[0];
+            bounds[i] = weights.get(order[i])[1] + (i > 0 ? bounds[i - 1] : 0);
+            cursors[i].next();
+        }
+
+        double threshold = top.size() < k ? 0 : top.peek().score;
+        int firstEssential = essentialStart(bounds, threshold);
+        while (firstEssential < count) {
+            int ordinal = Postings.NO_MORE_DOCS;
+            for (int i = firstEssential; i < count; i++) {
+                ordinal = Math.min(ordinal, cursors[i].ordinal());
+            }
+            if (ordinal == Postings.NO_MORE_DOCS) {
+                break;
+            }
+
+            if (!replaced.contains(ordinal)
+                    && (minCreationDate <= 0 || segment.creationDate(ordinal) >= minCreationDate)) {
+                double norm = K1 * (1 - B + B * segment.length(ordinal) / averageLength);
+                double score = 0;
+                for (int i = firstEssential; i < count; i++) {
+                    if (cursors[i].ordinal() == ordinal) {
+                        score += termScore(idf[i], cursors[i].frequency(), norm);
+                    }
+                }
+                // Non-essential terms, best first, while they can still lift the document into the top k
+                for (int i = firstEssential - 1; i >= 0 && score + bounds[i] > threshold; i--) {
+                    if (cursors[i].advance(ordinal) == ordinal) {
+                        score += termScore(idf[i], cursors[i].frequency(), norm);
+                    }
+                }
+
+                if (top.size() < k || score > threshold) {
+                    top.add(new Hit(segment.id(ordinal), score));
+                    if (top.size() > k) {
+                        top.poll();
+                    }
+                    if (top.size() == k) {
+                        threshold = top.peek().score;
+                        firstEssential = essentialStart(bounds, threshold);
+                    }
+                }
+            }
+
+            for (int i = firstEssential; i < count; i++) {
+                if (cursors[i].ordinal() == ordinal) {
+                    cursors[i].next();
+                }
+            }
+        }
+    }
+
+    private static double termScore(double idf, int frequency, double norm) {
+        return idf * frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    /**
+     * Index of the first essential term: terms before it cannot reach the threshold on their own
+     */
+    private static int essentialStart(double[] bounds, double threshold) {
+        int i = 0;
+        while (i < bounds.length && bounds[i] <= threshold) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,96 @@
+package com.stacksight.search.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits question titles, bodies and queries into index terms
+ *
+ * Terms are lower-case runs of letters and digits. Programming names keep the
+ * characters that tell them apart: trailing '#' and '+' (c#, c++) and dots
+ * between word characters or before a word (node.js, .net). Bodies are HTML,
+ * so tags are skipped and entities count as separators. Very common English
+ * words and overlong tokens are dropped.
+ */
+public final class Tokenizer {
+
+    public static final int MAX_TERM_LENGTH = 32;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have", "i", "if",
+            "in", "is", "it", "its", "my", "of", "on", "or", "so", "that", "the", "this", "to", "was", "we",
+            "what", "when", "with", "you");
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Tokenize plain text, such as a title or a query
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text != null) {
+            tokenize(text, false, terms);
+        }
+        return terms;
+    }
+
+    /**
+     * Tokenize HTML, such as a question body
+     */
+    public static List<String> tokenizeHtml(String html) {
+        List<String> terms = new ArrayList<>();
+        if (html != null) {
+            tokenize(html, true, terms);
+        }
+        return terms;
+    }
+
+    private static void tokenize(String text, boolean html, List<String> terms) {
+        StringBuilder term = new StringBuilder(MAX_TERM_LENGTH);
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (html && c == '<') {
+                // Tags separate words; their attributes are not text
+                emit(term, terms);
+                int end = text.indexOf('>', i);
+                i = end < 0 ? length : end + 1;
+                continue;
+            }
+            if (html && c == '&') {
+                emit(term, terms);
+                int end = text.indexOf(';', i);
+                i = end < 0 || end - i > 10 ? i + 1 : end + 1;
+                continue;
+            }
+
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if ((c == '#' || c == '+') && term.length() > 0) {
+                term.append(c);
+            } else if (c == '.' && i + 1 < length && Character.isLetterOrDigit(text.charAt(i + 1))
+                    && (term.length() == 0 || Character.isLetterOrDigit(term.charAt(term.length() - 1)))) {
+                term.append(c);
+            } else {
+                emit(term, terms);
+            }
+            i++;
+        }
+        emit(term, terms);
+    }
+
+    private static void emit(StringBuilder term, List<String> terms) {
+        if (term.length() > 0) {
+            if (term.length() <= MAX_TERM_LENGTH) {
+                String value = term.toString();
+                if (!STOP_WORDS.contains(value)) {
+                    terms.add(value);
+                }
+            }
+            term.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.stacksight.security;
+
+import com.stacksight.cache.TtlCache;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * User cache for the authentication provider, so repeated logins skip the user lookup
+ *
+ * The provider re-reads a cached user whose password does not match, so a
+ * changed password is picked up on the next login attempt. Users are copied
+ * in and out, since credentials are erased from the principal after login.
+ */
+public class TtlUserCache implements UserCache {
+
+    private final TtlCache<String, UserDetails> cache;
+
+    public TtlUserCache(int maxEntries, long ttlMillis) {
+        this.cache = new TtlCache<>(maxEntries, ttlMillis);
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        UserDetails user = cache.getIfPresent(username);
+        return user == null ? null : User.withUserDetails(user).build();
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        cache.put(user.getUsername(), User.withUserDetails(user).build());
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        cache.invalidate(username);
+    }
+}
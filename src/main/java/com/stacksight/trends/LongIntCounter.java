@@ -0,0 +1,117 @@
+package com.stacksight.trends;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map of long keys to int counts
+ *
+ * Keys must not be Long.MIN_VALUE. Grows when half full; entries are never removed
+ * individually, only all at once with {@link #clear()}.
+ */
+public class LongIntCounter {
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * Constructor
+     */
+    public LongIntCounter(int expectedKeys) {
+        allocate(Integer.highestOneBit(Math.max(2, expectedKeys) * 2 - 1) << 1);
+    }
+
+    private void allocate(int slots) {
+        keys = new long[slots];
+        counts = new int[slots];
+        mask = slots - 1;
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    /**
+     * Add to the count of a key
+     */
+    public void add(long key, int delta) {
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                counts[slot] += delta;
+                return;
+            }
+            if (k == EMPTY_KEY) {
+                keys[slot] = key;
+                counts[slot] = delta;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Get the count of a key, or 0
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return counts[slot];
+            }
+            if (k == EMPTY_KEY) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Visit every key with its count
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY_KEY) {
+                visitor.visit(keys[i], counts[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                add(oldKeys[i], oldCounts[i]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Callback of {@link #forEach(Visitor)}
+     */
+    public interface Visitor {
+        void visit(long key, int count);
+    }
+}
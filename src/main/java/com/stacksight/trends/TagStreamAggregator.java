@@ -0,0 +1,125 @@
+package com.stacksight.trends;
+
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.TrendSeries;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental tag velocity and co-occurrence counts from the question stream
+ *
+ * Questions are counted per tag and per tag pair in the TrendSeries time bucket
+ * of their creation_date. Tags are interned to int IDs so the counters are
+ * primitive maps; {@link #drain()} turns the counts into HBase increments on the
+ * tag#reversedTimeBucket rows of stackoverflow_trends:
+ * - trend:questions  questions created in the bucket with the tag
+ * - trend:co:OTHER   questions created in the bucket tagged with both tags
+ *
+ * An aggregator is not thread-safe; use one per partition (or flush period).
+ */
+public class TagStreamAggregator {
+
+    public static final byte[] QUESTIONS = Bytes.toBytes("questions");
+    public static final String CO_OCCURRENCE_PREFIX = "co:";
+
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+
+    // Counts per bucket start
+    private final Map<Long, LongIntCounter> tagCounts = new HashMap<>();
+    private final Map<Long, LongIntCounter> pairCounts = new HashMap<>();
+
+    private int[] questionTagIds = new int[8];
+
+    /**
+     * Count a question
+     */
+    public void add(long creationDate, List<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+
+        if (questionTagIds.length < tags.size()) {
+            questionTagIds = new int[tags.size()];
+        }
+        for (int i = 0; i < tags.size(); i++) {
+            questionTagIds[i] = intern(tags.get(i));
+        }
+
+        long bucket = TrendSeries.bucket(creationDate);
+        LongIntCounter tagCounter = tagCounts.computeIfAbsent(bucket, b -> new LongIntCounter(64));
+        LongIntCounter pairCounter = pairCounts.computeIfAbsent(bucket, b -> new LongIntCounter(256));
+
+        for (int i = 0; i < tags.size(); i++) {
+            int a = questionTagIds[i];
+            tagCounter.add(a, 1);
+            for (int j = i + 1; j < tags.size(); j++) {
+                int b = questionTagIds[j];
+                // Pairs are unordered: smaller ID in the high half
+                pairCounter.add(a < b ? pairKey(a, b) : pairKey(b, a), 1);
+            }
+        }
+    }
+
+    private int intern(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id == null) {
+            id = tagNames.size();
+            tagIds.put(tag, id);
+            tagNames.add(tag);
+        }
+        return id;
+    }
+
+    private static long pairKey(int low, int high) {
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Turn the counts into increments (one per tag and bucket) and reset them
+     */
+    public List<Increment> drain() {
+        List<Increment> increments = new ArrayList<>();
+
+        for (Map.Entry<Long, LongIntCounter> entry : tagCounts.entrySet()) {
+            long bucket = entry.getKey();
+            Map<Integer, Increment> rows = new HashMap<>();
+
+            entry.getValue().forEach((tagId, count) -> 
+                    row(rows, (int) tagId, bucket).addColumn(HBaseSchema.TREND_CF, QUESTIONS, count));
+
+            LongIntCounter pairs = pairCounts.get(bucket);
+            pairs.forEach((pair, count) -> {
+                int a = (int) (pair >>> 32);
+                int b = (int) pair;
+                // Both directions, so each tag's row lists its related tags
+                row(rows, a, bucket).addColumn(HBaseSchema.TREND_CF, 
+                        Bytes.toBytes(CO_OCCURRENCE_PREFIX + tagNames.get(b)), count);
+                row(rows, b, bucket).addColumn(HBaseSchema.TREND_CF, 
+                        Bytes.toBytes(CO_OCCURRENCE_PREFIX + tagNames.get(a)), count);
+            });
+
+            increments.addAll(rows.values());
+        }
+
+        tagCounts.clear();
+        pairCounts.clear();
+        return increments;
+    }
+
+    private Increment row(Map<Integer, Increment> rows, int tagId, long bucket) {
+        return rows.computeIfAbsent(tagId, id -> new Increment(TrendSeries.rowKey(tagNames.get(id), bucket)));
+    }
+
+    /**
+     * Check whether there is anything to flush
+     */
+    public boolean isEmpty() {
+        return tagCounts.isEmpty();
+    }
+}
@@ -54,12 +54,124 @@ if (searchForm) {
             language: getActiveFilterValues('language')[0]
         };
         
-        // For demo purpose, just log the search params
-        console.log('Search query:', query);
-        console.log('Active filters:', activeFilters);
+        runSearch(buildSearchParams(query, activeFilters), false);
+    });
+}
+
+// Build the /api/search query string; tags are repeated parameters
+function buildSearchParams(query, filters) {
+    const params = new URLSearchParams();
+    if (query) {
+        params.set('q', query);
+    }
+    filters.tags.forEach(tag => params.append('tags', tag));
+    ['date', 'status', 'language'].forEach(name => {
+        if (filters[name]) {
+            params.set(name, filters[name]);
+        }
+    });
+    return params;
+}
+
+// Fetch a page of results; append keeps the results already shown (load more)
+function runSearch(params, append) {
+    const results = document.querySelector('.search-results');
+    if (!results) {
+        return;
+    }
+    
+    fetch(`/api/search?${params.toString()}`, { headers: { 'Accept': 'application/json' } })
+        .then(response => {
+            if (!response.ok) {
+                throw new Error(`Search failed (${response.status})`);
+            }
+            return response.json();
+        })
+        .then(page => renderSearchResults(results, page, params, append))
+        .catch(error => {
+            results.innerHTML = `<div class="alert alert-warning">${escapeHtml(error.message)}</div>`;
+        });
+}
+
+function renderSearchResults(results, page, params, append) {
+    if (!append) {
+        results.innerHTML = '';
+    }
+    const previousMore = results.querySelector('.search-more');
+    if (previousMore) {
+        previousMore.remove();
+    }
+    
+    if (!append && page.items.length === 0) {
+        results.innerHTML = '<p class="text-muted">No questions found.</p>';
+    }
+    
+    page.items.forEach(question => {
+        const item = document.createElement('div');
+        item.className = 'search-result mb-3';
+        item.innerHTML = `
+            <a href="${escapeHtml(question.link || '#')}" target="_blank" rel="noopener">${escapeHtml(question.title || '')}</a>
+            <div class="small text-muted">
+                ${(question.tags || []).map(tag => `<span class="badge bg-secondary me-1">${escapeHtml(tag)}</span>`).join('')}
+                score ${escapeHtml(question.score || '0')} &middot; ${escapeHtml(question.answer_count || '0')} answers
+            </div>`;
+        results.appendChild(item);
+    });
+    
+    // Keyset pagination: the next page continues from the cursor of this one
+    if (page.next_cursor) {
+        const more = document.createElement('button');
+        more.type = 'button';
+        more.className = 'btn btn-outline-primary search-more';
+        more.textContent = 'Load more';
+        more.addEventListener('click', () => {
+            const next = new URLSearchParams(params);
+            next.set('cursor', page.next_cursor);
+            runSearch(next, true);
+        });
+        results.appendChild(more);
+    }
+}
+
+function escapeHtml(value) {
+    return String(value)
+        .replace(/&/g, '&amp;')
+        .replace(/</g, '&lt;')
+        .replace(/>/g, '&gt;')
+        .replace(/"/g, '&quot;')
+        .replace(/'/g, '&#39;');
+}
+
+// Live feed: trend updates and new questions pushed over server-sent events
+const liveFeed = document.querySelector('[data-live-feed]');
+if (liveFeed && window.EventSource) {
+    const source = new EventSource('/api/live');
+    const trendRows = new Map();
+    
+    source.addEventListener('trend', event => {
+        const trend = JSON.parse(event.data);
+        let row = trendRows.get(trend.tag);
+        if (!row) {
+            row = document.createElement('div');
+            row.className = 'live-trend';
+            trendRows.set(trend.tag, row);
+            liveFeed.appendChild(row);
+        }
+        row.innerHTML = `<span class="badge bg-secondary me-1">${escapeHtml(trend.tag)}</span> ${escapeHtml(trend.count)}`;
+    });
+    
+    source.addEventListener('question', event => {
+        const question = JSON.parse(event.data);
+        const item = document.createElement('div');
+        item.className = 'live-question small';
+        item.innerHTML = `<a href="${escapeHtml(question.link)}" target="_blank" rel="noopener">${escapeHtml(question.title)}</a>`;
+        liveFeed.prepend(item);
         
-        // In real implementation, this would call your back-end endpoint
-        // window.location.href = `/search?q=${encodeURIComponent(query)}&...other params`;
+        // Keep the list short
+        const questions = liveFeed.querySelectorAll('.live-question');
+        if (questions.length > 20) {
+            questions[questions.length - 1].remove();
+        }
     });
 }
 
@@ -0,0 +1,162 @@
+package com.stacksight.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopAnswersTest {
+
+    private static final long QUESTION_ID = 42;
+
+    @Test
+    void ranksAcceptedFirstThenByScore() {
+        JSONArray answers = new JSONArray()
+                .put(answer(1, 5, false))
+                .put(answer(2, 1, true))
+                .put(answer(3, 9, false))
+                .put(answer(4, 5, false))
+                .put(answer(5, -2, false));
+
+        assertEquals(Arrays.asList(2L, 3L, 1L), ids(TopAnswers.select(answers, 3)));
+        // Equal scores keep the API order
+        assertEquals(Arrays.asList(2L, 3L, 1L, 4L), ids(TopAnswers.select(answers, 4)));
+        assertEquals(Collections.singletonList(2L), ids(TopAnswers.select(answers, 1)));
+    }
+
+    @Test
+    void selectsOnlyRecordsThatCarryTheirAnswers() {
+        JSONObject withAnswers = new JSONObject().put("question_id", QUESTION_ID).put("answer_count", 1)
+                .put("answers", new JSONArray().put(answer(1, 0, false)));
+        JSONObject unanswered = new JSONObject().put("question_id", QUESTION_ID).put("answer_count", 0);
+        JSONObject withoutAnswers = new JSONObject().put("question_id", QUESTION_ID).put("answer_count", 2);
+
+        assertEquals(Collections.singletonList(1L), ids(TopAnswers.select(withAnswers)));
+        assertTrue(TopAnswers.select(unanswered).isEmpty());
+        assertNull(TopAnswers.select(withoutAnswers));
+    }
+
+    @Test
+    void writesAllRanksOfANewQuestion() {
+        List<JSONObject> top = Arrays.asList(answer(1, 5, true), answer(2, 3, false));
+
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, top, stored());
+
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0) instanceof Put);
+        assertEquals(Arrays.asList("1", "2"), qualifiers(changes.get(0)));
+        assertTrue(Arrays.equals(HBaseSchema.qnaRowKey(QUESTION_ID), changes.get(0).getRow()));
+    }
+
+    @Test
+    void writesNothingForAnUnchangedRanking() {
+        JSONObject first = answer(1, 5, true);
+        JSONObject second = answer(2, 3, false);
+        // Same answer with its fields in another order
+        String reordered = "{\"score\":3,\"is_accepted\":false,\"answer_id\":2}";
+
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, Arrays.asList(first, second),
+                stored(first.toString(), reordered));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void writesOnlyChangedRanks() {
+        JSONObject first = answer(1, 5, true);
+        JSONObject second = answer(2, 3, false);
+        JSONObject third = answer(3, 1, false);
+
+        // The third answer's score changed, and the second one was edited
+        JSONObject edited = answer(2, 3, false).put("body", "edited");
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, Arrays.asList(first, edited, answer(3, 2, false)),
+                stored(first.toString(), second.toString(), third.toString()));
+
+        assertEquals(1, changes.size());
+        assertEquals(Arrays.asList("2", "3"), qualifiers(changes.get(0)));
+    }
+
+    @Test
+    void swapsRanksWhenTheOrderChanges() {
+        JSONObject first = answer(1, 5, false);
+        JSONObject second = answer(2, 3, false);
+
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, Arrays.asList(answer(2, 7, false), first),
+                stored(first.toString(), second.toString()));
+
+        assertEquals(1, changes.size());
+        assertEquals(Arrays.asList("1", "2"), qualifiers(changes.get(0)));
+    }
+
+    @Test
+    void deletesRanksPastTheNewAnswerCount() {
+        JSONObject first = answer(1, 5, false);
+
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, Collections.singletonList(first),
+                stored(first.toString(), answer(2, 3, false).toString(), answer(3, 1, false).toString()));
+
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0) instanceof Delete);
+        assertEquals(Arrays.asList("2", "3"), qualifiers(changes.get(0)));
+    }
+
+    @Test
+    void rewritesMalformedStoredRanks() {
+        JSONObject first = answer(1, 5, false);
+
+        List<Mutation> changes = TopAnswers.changes(QUESTION_ID, Collections.singletonList(first),
+                stored("{not json"));
+
+        assertEquals(1, changes.size());
+        assertEquals(Collections.singletonList("1"), qualifiers(changes.get(0)));
+    }
+
+    private static JSONObject answer(long answerId, int score, boolean accepted) {
+        return new JSONObject().put("answer_id", answerId).put("score", score).put("is_accepted", accepted);
+    }
+
+    private static List<Long> ids(List<JSONObject> answers) {
+        List<Long> ids = new ArrayList<>();
+        for (JSONObject answer : answers) {
+            ids.add(answer.getLong("answer_id"));
+        }
+        return ids;
+    }
+
+    /**
+     * A top_answers family with the given answers as ranks 1, 2, ...
+     */
+    private static Result stored(String... ranks) {
+        byte[] row = HBaseSchema.qnaRowKey(QUESTION_ID);
+        Cell[] cells = new Cell[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            cells[i] = new KeyValue(row, HBaseSchema.TOP_ANSWERS_CF, Bytes.toBytes(String.valueOf(i + 1)),
+                    Bytes.toBytes(ranks[i]));
+        }
+        return Result.create(cells);
+    }
+
+    private static List<String> qualifiers(Mutation mutation) {
+        List<String> qualifiers = new ArrayList<>();
+        for (Cell cell : mutation.getFamilyCellMap().get(HBaseSchema.TOP_ANSWERS_CF)) {
+            qualifiers.add(Bytes.toString(CellUtil.cloneQualifier(cell)));
+        }
+        return qualifiers;
+    }
+}
@@ -0,0 +1,101 @@
+package com.stacksight.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchBudgetTest {
+
+    private static final long HOUR_MILLIS = 3_600_000;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    private static final int RESERVE = 10;
+
+    // 2024-03-01T20:00:00Z
+    private final AtomicLong now = new AtomicLong(1_709_323_200_000L);
+    private final FetchBudget budget = new FetchBudget(4, RESERVE, now::get);
+
+    @Test
+    void stopsAtTheReserve() throws InterruptedException {
+        budget.update(RESERVE + 2, 0);
+        assertTrue(budget.acquire());
+        assertTrue(budget.acquire());
+        // Two requests in flight would take the quota down to the reserve
+        assertTrue(budget.isQuotaExhausted());
+        assertFalse(budget.acquire());
+        assertEquals(RESERVE + 2, budget.getQuotaRemaining());
+    }
+
+    @Test
+    void recoversAtUtcMidnight() throws InterruptedException {
+        budget.update(RESERVE, 0);
+        assertTrue(budget.isQuotaExhausted());
+        assertFalse(budget.acquire());
+
+        now.set((now.get() / DAY_MILLIS + 1) * DAY_MILLIS);
+        // The quota reported yesterday no longer counts, for fetchers and the scheduler alike
+        assertFalse(budget.isQuotaExhausted());
+        assertEquals(-1, budget.getQuotaRemaining());
+        assertTrue(budget.acquire());
+        assertTrue(budget.acquire());
+
+        budget.update(9_998, 0);
+        assertEquals(9_998, budget.getQuotaRemaining());
+        assertFalse(budget.isQuotaExhausted());
+    }
+
+    @Test
+    void probesOnceAnHourWhileExhausted() throws InterruptedException {
+        budget.update(RESERVE, 0);
+        now.addAndGet(HOUR_MILLIS / 2);
+        assertFalse(budget.acquire());
+
+        now.addAndGet(HOUR_MILLIS / 2);
+        assertTrue(budget.acquire());
+        // Only one probe at a time, and none again within the hour
+        assertFalse(budget.acquire());
+        budget.update(RESERVE, 0);
+        budget.release();
+        now.addAndGet(HOUR_MILLIS - 1);
+        assertFalse(budget.acquire());
+
+        now.addAndGet(1);
+        assertTrue(budget.acquire());
+        // The quota came back early: fetching resumes
+        budget.update(5_000, 0);
+        budget.release();
+        assertFalse(budget.isQuotaExhausted());
+        assertTrue(budget.acquire());
+        assertTrue(budget.acquire());
+    }
+
+    @Test
+    void probesOnceABackoffEnds() throws InterruptedException {
+        // A clock that moves with real time, so the backoff wait can end
+        AtomicLong offset = new AtomicLong();
+        FetchBudget budget = new FetchBudget(4, RESERVE, () -> System.currentTimeMillis() + offset.get());
+        budget.update(RESERVE, 0);
+        offset.addAndGet(HOUR_MILLIS);
+
+        // The probe is due while a backoff is active: it goes out once the backoff ends
+        budget.pause(200);
+        long start = System.currentTimeMillis();
+        assertTrue(budget.acquire());
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        budget.release();
+        assertFalse(budget.acquire());
+    }
+
+    @Test
+    void unknownQuotaIsNotExhausted() throws InterruptedException {
+        assertEquals(-1, budget.getQuotaRemaining());
+        assertFalse(budget.isQuotaExhausted());
+        assertTrue(budget.acquire());
+        // A response without quota_remaining keeps the last known value
+        budget.update(-1, 0);
+        assertEquals(-1, budget.getQuotaRemaining());
+    }
+}
@@ -0,0 +1,96 @@
+package com.stacksight.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuestionDedupCacheTest {
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    @Test
+    void dropsUnchangedRefetches() {
+        QuestionDedupCache cache = new QuestionDedupCache(100, HOUR_MILLIS);
+
+        assertTrue(cache.shouldProduce(1, 100));
+        assertFalse(cache.shouldProduce(1, 100));
+        // An older copy, e.g. from a lagging API replica, is not produced either
+        assertFalse(cache.shouldProduce(1, 90));
+        assertTrue(cache.shouldProduce(1, 110));
+        assertFalse(cache.shouldProduce(1, 110));
+
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void rotatesWhenTheNewestGenerationIsFull() {
+        // Four generations of two questions each
+        QuestionDedupCache cache = new QuestionDedupCache(8, HOUR_MILLIS);
+        for (long id = 1; id <= 8; id++) {
+            assertTrue(cache.shouldProduce(id, 100));
+        }
+        assertEquals(8, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        // The ninth question drops the oldest generation: questions 1 and 2
+        assertTrue(cache.shouldProduce(9, 100));
+        assertEquals(2, cache.getEvictions());
+        assertFalse(cache.shouldProduce(3, 100));
+        assertTrue(cache.shouldProduce(1, 100));
+    }
+
+    @Test
+    void questionsSeenAgainMoveToTheNewestGeneration() {
+        QuestionDedupCache cache = new QuestionDedupCache(8, HOUR_MILLIS);
+        for (long id = 1; id <= 8; id++) {
+            cache.shouldProduce(id, 100);
+        }
+
+        // Question 1 is in the oldest generation; seeing it again keeps it while 2 is dropped
+        assertFalse(cache.shouldProduce(1, 100));
+        assertTrue(cache.shouldProduce(2, 100));
+        for (long id = 10; id <= 13; id++) {
+            cache.shouldProduce(id, 100);
+        }
+        assertFalse(cache.shouldProduce(1, 100));
+    }
+
+    @Test
+    void forgetsUntouchedQuestionsAfterTheTtl() throws InterruptedException {
+        // Three generations per TTL: one rotation every 100 ms
+        QuestionDedupCache cache = new QuestionDedupCache(1_000, 300);
+        cache.shouldProduce(1, 100);
+        cache.shouldProduce(2, 100);
+
+        // Each call after a generation has passed rotates once
+        for (int i = 0; i < 2; i++) {
+            Thread.sleep(150);
+            cache.shouldProduce(100 + i, 100);
+        }
+        Thread.sleep(150);
+        // Third rotation: still remembered, in the oldest generation
+        assertFalse(cache.shouldProduce(1, 100));
+
+        Thread.sleep(150);
+        cache.shouldProduce(200, 100);
+        // Fourth rotation dropped question 2, which was never seen again
+        assertTrue(cache.shouldProduce(2, 100));
+        assertFalse(cache.shouldProduce(1, 100));
+    }
+
+    @Test
+    void clearForgetsEverything() {
+        QuestionDedupCache cache = new QuestionDedupCache(100, HOUR_MILLIS);
+        cache.shouldProduce(1, 100);
+        cache.shouldProduce(2, 100);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertTrue(cache.shouldProduce(1, 100));
+    }
+}
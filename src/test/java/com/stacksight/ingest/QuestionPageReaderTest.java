@@ -0,0 +1,182 @@
+package com.stacksight.ingest;
+
+import com.stacksight.codec.PayloadCodec;
+import com.stacksight.codec.SchemaRegistry;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuestionPageReaderTest {
+
+    @Test
+    void readsItemsAndWrapperFields() throws IOException {
+        String first = "{\"question_id\":1,\"creation_date\":100,\"last_activity_date\":150,\"title\":\"a\"}";
+        String second = "{\"title\":\"b\",\"question_id\":2,\"creation_date\":200}";
+        QuestionPageReader reader = reader("{\"items\":[" + first + "," + second + "],"
+                + "\"has_more\":true,\"quota_remaining\":42,\"backoff\":10}");
+
+        assertTrue(reader.nextItem());
+        assertEquals(1, reader.getQuestionId());
+        assertEquals(100, reader.getCreationDate());
+        assertEquals(150, reader.getLastActivityDate());
+        assertArrayEquals(bytes(first), reader.copyItem());
+
+        assertTrue(reader.nextItem());
+        assertEquals(2, reader.getQuestionId());
+        assertEquals(-1, reader.getLastActivityDate());
+        assertArrayEquals(bytes(second), reader.copyItem());
+
+        assertFalse(reader.nextItem());
+        assertTrue(reader.hasMore());
+        assertEquals(42, reader.getQuotaRemaining());
+        assertEquals(10, reader.getBackoff());
+        assertNull(reader.getErrorMessage());
+    }
+
+    @Test
+    void readsWrapperFieldsBeforeItems() throws IOException {
+        QuestionPageReader reader = reader("{ \"quota_remaining\" : 7 ,\n \"items\" : [ ] ,\"has_more\":false }");
+
+        assertFalse(reader.nextItem());
+        assertFalse(reader.hasMore());
+        assertEquals(7, reader.getQuotaRemaining());
+    }
+
+    @Test
+    void keepsEscapesVerbatim() throws IOException {
+        // Escaped quotes, backslashes and braces must not end the string, and a key
+        // that only unescapes to question_id is not question_id
+        String item = "{\"title\":\"say \\\"hi\\\" \\\\ {not} [an] array\",\"question\\u005fid\":5,"
+                + "\"body\":\"\\\\\",\"question_id\":9,\"creation_date\":300}";
+        QuestionPageReader reader = reader("{\"items\":[" + item + "]}");
+
+        assertTrue(reader.nextItem());
+        assertEquals(9, reader.getQuestionId());
+        assertEquals(300, reader.getCreationDate());
+        assertArrayEquals(bytes(item), reader.copyItem());
+        assertFalse(reader.nextItem());
+    }
+
+    @Test
+    void picksOnlyTopLevelFieldsOfNestedItems() throws IOException {
+        String item = "{\"owner\":{\"user_id\":3,\"creation_date\":1},"
+                + "\"answers\":[{\"question_id\":4,\"creation_date\":2,\"comments\":[{\"x\":[]}]}],"
+                + "\"question_id\":4,\"creation_date\":500,\"tags\":[\"java\",\"kafka\"]}";
+        QuestionPageReader reader = reader("{\"items\":[" + item + "],\"has_more\":false}");
+
+        assertTrue(reader.nextItem());
+        assertEquals(4, reader.getQuestionId());
+        assertEquals(500, reader.getCreationDate());
+        assertArrayEquals(bytes(item), reader.copyItem());
+        assertFalse(reader.nextItem());
+    }
+
+    @Test
+    void readsItemsIntoTheSchema() throws IOException {
+        SchemaRegistry registry = SchemaRegistry.load();
+        Schema schema = registry.getById(registry.getLatestId(PayloadCodec.QUESTION));
+        String item = "{\"tags\":[\"java\",\"c\\u002b\\u002b\"],\"owner\":{\"display_name\":\"J\u00f6rg\","
+                + "\"badge_counts\":{\"gold\":1}},\"is_answered\":true,\"view_count\":12,\"score\":null,"
+                + "\"answers\":[{\"answer_id\":8,\"question_id\":7,\"is_accepted\":false,\"body\":\"a\\nb\"}],"
+                + "\"title\":\"say \\\"hi\\\" \\ud83d\\ude00\",\"question_id\":7,\"last_activity_date\":900}";
+        QuestionPageReader reader = new QuestionPageReader(
+                new ByteArrayInputStream(bytes("{\"items\":[" + item + "]}")), schema);
+
+        assertTrue(reader.nextItem());
+        assertEquals(7, reader.getQuestionId());
+        // The raw bytes are still captured
+        assertArrayEquals(bytes(item), reader.copyItem());
+
+        GenericRecord record = reader.getItemRecord();
+        assertEquals(7L, record.get("question_id"));
+        assertEquals(900L, record.get("last_activity_date"));
+        // Missing fields get their defaults
+        assertEquals(-1L, record.get("creation_date"));
+        assertNull(record.get("body"));
+        assertNull(record.get("score"));
+        assertEquals("say \"hi\" \ud83d\ude00", record.get("title"));
+        assertEquals(Arrays.asList("java", "c++"), record.get("tags"));
+        assertEquals(12, record.get("view_count"));
+        assertEquals(true, record.get("is_answered"));
+        assertEquals("J\u00f6rg", ((GenericRecord) record.get("owner")).get("display_name"));
+
+        GenericRecord answer = (GenericRecord) ((List<?>) record.get("answers")).get(0);
+        assertEquals(8L, answer.get("answer_id"));
+        assertEquals(false, answer.get("is_accepted"));
+        assertEquals("a\nb", answer.get("body"));
+        assertEquals(-1L, answer.get("creation_date"));
+        assertFalse(reader.nextItem());
+    }
+
+    @Test
+    void readsItemsAcrossBufferRefills() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 40_000; i++) {
+            body.append("x");
+        }
+        String item = "{\"body\":\"" + body + "\",\"question_id\":6,\"creation_date\":600}";
+        // A stream that returns a few bytes per read, so items straddle refills
+        InputStream trickle = new ByteArrayInputStream(bytes("{\"items\":[" + item + "," + item + "]}")) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        QuestionPageReader reader = new QuestionPageReader(trickle);
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(reader.nextItem());
+            assertEquals(6, reader.getQuestionId());
+            assertArrayEquals(bytes(item), reader.copyItem());
+        }
+        assertFalse(reader.nextItem());
+    }
+
+    @Test
+    void readsErrorResponseWithoutItems() throws IOException {
+        QuestionPageReader reader = reader("{\"error_id\":502,\"error_message\":\"too many requests\","
+                + "\"error_name\":\"throttle_violation\"}");
+
+        assertFalse(reader.nextItem());
+        assertFalse(reader.hasMore());
+        assertEquals(-1, reader.getQuotaRemaining());
+        assertEquals("too many requests", reader.getErrorMessage());
+    }
+
+    @Test
+    void rejectsTruncatedBody() throws IOException {
+        QuestionPageReader reader = reader("{\"items\":[{\"question_id\":1,\"creation_date\":100},{\"question_id\":2,\"ti");
+
+        assertTrue(reader.nextItem());
+        assertEquals(1, reader.getQuestionId());
+        assertThrows(IOException.class, reader::nextItem);
+    }
+
+    @Test
+    void rejectsNonObjectBody() {
+        assertThrows(IOException.class, () -> reader("<html>Bad Gateway</html>").nextItem());
+        assertThrows(IOException.class, () -> reader("").nextItem());
+    }
+
+    private static QuestionPageReader reader(String json) {
+        return new QuestionPageReader(new ByteArrayInputStream(bytes(json)));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+package com.stacksight.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeWatermarkTest {
+
+    @Test
+    void advancesOnlyPastContiguousCompletedSlices() {
+        RangeWatermark watermark = new RangeWatermark(99, slices(100, 10, 4));
+        assertEquals(99, watermark.get());
+
+        assertFalse(watermark.complete(2));
+        assertEquals(99, watermark.get());
+        assertFalse(watermark.complete(1));
+        assertEquals(99, watermark.get());
+
+        // Completing the first slice releases the two after it as well
+        assertTrue(watermark.complete(0));
+        assertEquals(129, watermark.get());
+
+        assertTrue(watermark.complete(3));
+        assertEquals(139, watermark.get());
+    }
+
+    @Test
+    void ignoresRepeatedCompletion() {
+        RangeWatermark watermark = new RangeWatermark(0, slices(1, 5, 2));
+
+        assertTrue(watermark.complete(0));
+        assertFalse(watermark.complete(0));
+        assertEquals(5, watermark.get());
+    }
+
+    @Test
+    void stillAtStartWithoutSlices() {
+        RangeWatermark watermark = new RangeWatermark(42, Collections.emptyList());
+        assertEquals(42, watermark.get());
+    }
+
+    @Test
+    void endsAtLastSliceInAnyCompletionOrder() {
+        Random random = new Random(5);
+        for (int round = 0; round < 100; round++) {
+            int count = 1 + random.nextInt(20);
+            List<long[]> slices = slices(1_000, 1 + random.nextInt(100), count);
+            RangeWatermark watermark = new RangeWatermark(999, slices);
+
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+
+            boolean[] completed = new boolean[count];
+            for (int slice : order) {
+                long before = watermark.get();
+                boolean advanced = watermark.complete(slice);
+                completed[slice] = true;
+
+                // The watermark is the end of the longest completed prefix
+                int prefix = 0;
+                while (prefix < count && completed[prefix]) {
+                    prefix++;
+                }
+                long expected = prefix == 0 ? 999 : slices.get(prefix - 1)[1];
+                assertEquals(expected, watermark.get(), "after slices " + Arrays.toString(completed));
+                assertEquals(expected != before, advanced);
+            }
+            assertEquals(slices.get(count - 1)[1], watermark.get());
+        }
+    }
+
+    private static List<long[]> slices(long start, long length, int count) {
+        List<long[]> slices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            slices.add(new long[] {start + i * length, start + (i + 1) * length - 1});
+        }
+        return slices;
+    }
+}
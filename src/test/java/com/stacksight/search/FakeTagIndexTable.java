@@ -0,0 +1,85 @@
+package com.stacksight.search;
+
+import com.stacksight.hbase.HBaseSchema;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory stackoverflow_tag_index answering the chunked Gets of TagIndexCursor
+ *
+ * The creation_date of a question is its ID plus {@link #CREATION_DATE_OFFSET}.
+ * Any call other than get(Get) throws UnsupportedOperationException. The
+ * benchmarks module uses it too, through the test-jar.
+ */
+public final class FakeTagIndexTable {
+
+    public static final long CREATION_DATE_OFFSET = 1_600_000_000L;
+
+    private FakeTagIndexTable() {
+    }
+
+    /**
+     * Build the table
+     *
+     * @param questionIds question IDs per tag, in any order
+     */
+    public static Table of(Map<String, long[]> questionIds) {
+        Map<byte[], Cell[]> rows = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (Map.Entry<String, long[]> entry : questionIds.entrySet()) {
+            byte[] row = HBaseSchema.tagRowKey(entry.getKey());
+            long[] ids = entry.getValue().clone();
+            Arrays.sort(ids);
+
+            // Qualifiers sort ascending, so the newest question comes first
+            Cell[] cells = new Cell[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                long questionId = ids[ids.length - 1 - i];
+                cells[i] = new KeyValue(row, HBaseSchema.QUESTION_IDS_CF, HBaseSchema.tagIndexQualifier(questionId),
+                        Bytes.toBytes(CREATION_DATE_OFFSET + questionId));
+            }
+            rows.put(row, cells);
+        }
+
+        return (Table) Proxy.newProxyInstance(FakeTagIndexTable.class.getClassLoader(), new Class<?>[] {Table.class},
+                (proxy, method, args) -> {
+                    if (!"get".equals(method.getName()) || !(args[0] instanceof Get)) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    Get get = (Get) args[0];
+                    Cell[] cells = rows.getOrDefault(get.getRow(), new Cell[0]);
+                    byte[] minColumn = ((ColumnRangeFilter) get.getFilter()).getMinColumn();
+
+                    int from = firstAtOrAfter(cells, minColumn);
+                    int to = get.getMaxResultsPerColumnFamily() < 0 ? cells.length
+                            : (int) Math.min(cells.length, (long) from + get.getMaxResultsPerColumnFamily());
+                    return Result.create(Arrays.copyOfRange(cells, from, to));
+                });
+    }
+
+    private static int firstAtOrAfter(Cell[] cells, byte[] qualifier) {
+        int low = 0;
+        int high = cells.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Cell cell = cells[mid];
+            int cmp = Bytes.compareTo(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength(),
+                    qualifier, 0, qualifier.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,95 @@
+package com.stacksight.search;
+
+import org.apache.hadoop.hbase.client.Table;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TagIndexCursorTest {
+
+    @Test
+    void seeksWithinAndAcrossChunks() throws IOException {
+        // IDs 10, 20, ..., 200 in chunks of 4: 200..170, 160..130, ...
+        long[] ids = new long[20];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (i + 1) * 10;
+        }
+        TagIndexCursor cursor = cursor(ids, 4);
+
+        assertEquals(200, cursor.seek(Long.MAX_VALUE));
+        assertEquals(FakeTagIndexTable.CREATION_DATE_OFFSET + 200, cursor.getCreationDate());
+        assertEquals(190, cursor.seek(199));
+        // Last ID of the first chunk, then the first of the next one
+        assertEquals(170, cursor.seek(175));
+        assertEquals(1, cursor.getLoads());
+        assertEquals(160, cursor.seek(169));
+        assertEquals(2, cursor.getLoads());
+        // Seeking to the current ID stays put
+        assertEquals(160, cursor.seek(160));
+        assertEquals(2, cursor.getLoads());
+    }
+
+    @Test
+    void farSeekCostsOneGet() throws IOException {
+        long[] ids = new long[10_000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        TagIndexCursor cursor = cursor(ids, 100);
+
+        assertEquals(9_999, cursor.seek(Long.MAX_VALUE));
+        assertEquals(42, cursor.seek(42));
+        assertEquals(2, cursor.getLoads());
+    }
+
+    @Test
+    void reachesTheEnd() throws IOException {
+        TagIndexCursor cursor = cursor(new long[] {5, 10, 15, 20}, 2);
+
+        assertEquals(5, cursor.seek(7));
+        assertEquals(-1, cursor.seek(4));
+        assertEquals(-1, cursor.getCreationDate());
+        assertEquals(-1, cursor(new long[0], 2).seek(100));
+    }
+
+    @Test
+    void matchesLinearScanForRandomSeeks() throws IOException {
+        Random random = new Random(12);
+        for (int round = 0; round < 200; round++) {
+            long[] ids = randomIds(random, 1 + random.nextInt(300), 5_000);
+            int chunkSize = 1 + random.nextInt(20);
+            TagIndexCursor cursor = cursor(ids, chunkSize);
+
+            long maxId = 5_000;
+            while (maxId >= 0) {
+                long expected = largestAtMost(ids, maxId);
+                assertEquals(expected, cursor.seek(maxId), "seek(" + maxId + ") with chunks of " + chunkSize);
+                // Mix short steps, which gallop within a chunk, with jumps past it
+                maxId -= random.nextInt(4) == 0 ? random.nextInt(1_000) : random.nextInt(20);
+            }
+        }
+    }
+
+    static long largestAtMost(long[] ids, long maxId) {
+        long best = -1;
+        for (long id : ids) {
+            if (id <= maxId && id > best) {
+                best = id;
+            }
+        }
+        return best;
+    }
+
+    static long[] randomIds(Random random, int count, int range) {
+        return random.longs(count, 0, range).distinct().toArray();
+    }
+
+    private static TagIndexCursor cursor(long[] ids, int chunkSize) {
+        Table table = FakeTagIndexTable.of(Collections.singletonMap("java", ids));
+        return new TagIndexCursor(table, "java", chunkSize);
+    }
+}
@@ -0,0 +1,167 @@
+package com.stacksight.search;
+
+import org.apache.hadoop.hbase.client.Table;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagIntersectionTest {
+
+    @Test
+    void returnsCommonIdsNewestFirst() throws IOException {
+        Map<String, long[]> tags = new HashMap<>();
+        tags.put("java", new long[] {1, 3, 5, 7, 9, 11, 13});
+        tags.put("kafka", new long[] {2, 3, 4, 9, 13, 20});
+        tags.put("hbase", new long[] {3, 9, 10, 13});
+
+        TagIntersection intersection = intersection(tags, 2, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        assertEquals(13, intersection.next());
+        assertEquals(FakeTagIndexTable.CREATION_DATE_OFFSET + 13, intersection.getCreationDate());
+        assertEquals(9, intersection.next());
+        assertEquals(3, intersection.next());
+        assertEquals(-1, intersection.next());
+        assertTrue(intersection.isExhausted());
+    }
+
+    @Test
+    void rareTagTouchesFewChunksOfLargeTag() throws IOException {
+        Map<String, long[]> tags = new HashMap<>();
+        tags.put("large", LongStream.range(0, 100_000).toArray());
+        tags.put("rare", new long[] {99_000, 50_000, 1_000});
+
+        Table table = FakeTagIndexTable.of(tags);
+        TagIndexCursor large = new TagIndexCursor(table, "large", 100);
+        TagIndexCursor rare = new TagIndexCursor(table, "rare", 100);
+        TagIntersection intersection = new TagIntersection(Arrays.asList(rare, large), Long.MAX_VALUE,
+                Integer.MAX_VALUE);
+
+        assertEquals(99_000, intersection.next());
+        assertEquals(50_000, intersection.next());
+        assertEquals(1_000, intersection.next());
+        assertEquals(-1, intersection.next());
+        // The large tag has 1000 chunks; the join loads about one per seek, not each chunk in between
+        assertEquals(1, rare.getLoads());
+        assertTrue(large.getLoads() <= 6, "large tag loads: " + large.getLoads());
+    }
+
+    @Test
+    void matchesSetIntersectionAcrossChunkBoundaries() throws IOException {
+        Random random = new Random(7);
+        for (int round = 0; round < 300; round++) {
+            int tagCount = 1 + random.nextInt(3);
+            Map<String, long[]> tags = new HashMap<>();
+            for (int t = 0; t < tagCount; t++) {
+                // Dense and sparse tags, so some seeks gallop within a chunk and others skip chunks
+                int range = 500;
+                int count = random.nextBoolean() ? 1 + random.nextInt(40) : 100 + random.nextInt(400);
+                tags.put("tag" + t, TagIndexCursorTest.randomIds(random, count, range));
+            }
+            long beforeId = random.nextBoolean() ? Long.MAX_VALUE : random.nextInt(500);
+            int chunkSize = 1 + random.nextInt(16);
+
+            TagIntersection intersection = intersection(tags, chunkSize, beforeId, Integer.MAX_VALUE);
+            assertEquals(Arrays.toString(expected(tags, beforeId)), Arrays.toString(drain(intersection)),
+                    "round " + round + " with chunks of " + chunkSize);
+            assertTrue(intersection.isExhausted());
+        }
+    }
+
+    @Test
+    void resumesAfterLoadBudgetRunsOut() throws IOException {
+        Random random = new Random(3);
+        Map<String, long[]> tags = new HashMap<>();
+        tags.put("a", TagIndexCursorTest.randomIds(random, 800, 2_000));
+        tags.put("b", TagIndexCursorTest.randomIds(random, 800, 2_000));
+
+        // Each search may spend a few Gets; follow-ups resume where the last one stopped
+        List<Long> found = new ArrayList<>();
+        long beforeId = Long.MAX_VALUE;
+        int searches = 0;
+        while (true) {
+            TagIntersection intersection = intersection(tags, 8, beforeId, 4);
+            long id;
+            while ((id = intersection.next()) >= 0) {
+                found.add(id);
+            }
+            searches++;
+            if (intersection.isExhausted()) {
+                break;
+            }
+            long resumeBefore = intersection.getResumeBefore();
+            assertTrue(resumeBefore < beforeId, "a search must make progress");
+            beforeId = resumeBefore;
+        }
+
+        assertTrue(searches > 1);
+        assertEquals(Arrays.toString(expected(tags, Long.MAX_VALUE)),
+                Arrays.toString(found.stream().mapToLong(Long::longValue).toArray()));
+    }
+
+    @Test
+    void rejectsNoTags() {
+        assertThrows(IllegalArgumentException.class, () -> new TagIntersection(new ArrayList<>(), 10, 10));
+    }
+
+    @Test
+    void missingTagMatchesNothing() throws IOException {
+        Map<String, long[]> tags = new HashMap<>();
+        tags.put("java", new long[] {1, 2, 3});
+        tags.put("empty", new long[0]);
+
+        TagIntersection intersection = intersection(tags, 2, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        assertEquals(-1, intersection.next());
+        assertTrue(intersection.isExhausted());
+        assertFalse(intersection.getCreationDate() >= 0);
+    }
+
+    private static TagIntersection intersection(Map<String, long[]> tags, int chunkSize, long beforeId, int maxLoads) {
+        Table table = FakeTagIndexTable.of(tags);
+        List<TagIndexCursor> cursors = new ArrayList<>();
+        for (String tag : tags.keySet()) {
+            cursors.add(new TagIndexCursor(table, tag, chunkSize));
+        }
+        return new TagIntersection(cursors, beforeId, maxLoads);
+    }
+
+    private static long[] drain(TagIntersection intersection) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        long id;
+        while ((id = intersection.next()) >= 0) {
+            ids.add(id);
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long[] expected(Map<String, long[]> tags, long beforeId) {
+        LongStream common = null;
+        for (long[] ids : tags.values()) {
+            long[] sorted = ids.clone();
+            Arrays.sort(sorted);
+            common = common == null
+                    ? Arrays.stream(sorted)
+                    : common.filter(id -> Arrays.binarySearch(sorted, id) >= 0);
+        }
+        long[] result = common.filter(id -> id < beforeId).sorted().toArray();
+        // Newest first
+        for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+            long swap = result[i];
+            result[i] = result[j];
+            result[j] = swap;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,311 @@
+package com.stacksight.search.text;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextIndexTest {
+
+    // BM25 parameters of TextIndex
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double EPSILON = 1e-9;
+
+    private static final int VOCABULARY = 300;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void maxScoreMatchesExhaustiveSearch() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        Reference reference = new Reference();
+        for (long id = 1; id <= 2_000; id++) {
+            add(index, reference, id);
+        }
+        flush(index, reference);
+
+        assertQueriesMatch(index, reference, 300);
+    }
+
+    @Test
+    void replacedQuestionsCountOnlyTheirNewestCopy() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        Reference reference = new Reference();
+        for (int segment = 0; segment < 5; segment++) {
+            for (int i = 0; i < 400; i++) {
+                // New questions, and edits of questions in any earlier segment
+                long id = segment > 0 && random.nextInt(3) == 0 ? 1 + random.nextInt(400 * segment)
+                        : 1 + 400 * segment + i;
+                add(index, reference, id);
+            }
+            flush(index, reference);
+        }
+        assertEquals(5, index.getSegmentCount());
+        assertEquals(reference.live().size(), index.getDocCount());
+
+        assertQueriesMatch(index, reference, 300);
+
+        // Reopening finds the replaced copies again
+        TextIndex reopened = new TextIndex(directory);
+        assertEquals(reference.live().size(), reopened.getDocCount());
+        assertQueriesMatch(reopened, reference, 100);
+    }
+
+    @Test
+    void replacedTextNoLongerMatches() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        index.add(1, 100, "kafka consumer lag", "<p>offsets</p>", Collections.singletonList("apache-kafka"));
+        index.add(2, 100, "hbase region split", "<p>regions</p>", Collections.singletonList("hbase"));
+        index.flush(Collections.emptyMap());
+        index.add(1, 100, "spark streaming batch", "<p>micro batches</p>", Collections.singletonList("spark"));
+        index.flush(Collections.emptyMap());
+
+        assertTrue(index.search("kafka", 10, 0).isEmpty());
+        assertEquals(1, index.search("streaming", 10, 0).size());
+        assertEquals(1, index.search("streaming kafka", 10, 0).get(0).getQuestionId());
+
+        // Merging drops the replaced copy for good
+        assertTrue(index.mergeOnce(2, Long.MAX_VALUE));
+        assertEquals(2, index.getDocCount());
+        assertTrue(index.search("kafka", 10, 0).isEmpty());
+    }
+
+    @Test
+    void mergedIndexMatchesExhaustiveSearch() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        Reference reference = new Reference();
+        for (int segment = 0; segment < 8; segment++) {
+            for (int i = 0; i < 250; i++) {
+                long id = segment > 0 && random.nextInt(4) == 0 ? 1 + random.nextInt(250 * segment)
+                        : 1 + 250 * segment + i;
+                add(index, reference, id);
+            }
+            flush(index, reference);
+        }
+
+        // A partial merge leaves replaced copies in the segments it did not touch
+        assertTrue(index.mergeOnce(2, Long.MAX_VALUE));
+        reference.merge(6, 8);
+        assertEquals(7, index.getSegmentCount());
+        assertEquals(reference.live().size(), index.getDocCount());
+        assertQueriesMatch(index, reference, 100);
+
+        while (index.mergeOnce(2, Long.MAX_VALUE)) {
+            // Merge down to a single segment
+        }
+        reference.merge(0, reference.segments.size());
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(reference.live().size(), index.getDocCount());
+        assertQueriesMatch(index, reference, 300);
+    }
+
+    @Test
+    void reopenedIndexKeepsSegmentsAndOffsets() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        Reference reference = new Reference();
+        for (long id = 1; id <= 300; id++) {
+            add(index, reference, id);
+        }
+        Map<String, Long> offsets = new HashMap<>();
+        offsets.put("stackoverflow-questions-0", 300L);
+        index.flush(offsets);
+        reference.segments.add(new HashMap<>(reference.buffer));
+        reference.buffer.clear();
+        long generation = index.getGeneration();
+
+        TextIndex reopened = new TextIndex(directory);
+        assertEquals(offsets, reopened.getOffsets());
+        assertEquals(index.getDocCount(), reopened.getDocCount());
+        assertQueriesMatch(reopened, reference, 50);
+
+        // Questions added but not flushed are not searchable and not committed
+        index.add(301, 100, "unflushed", "", Collections.emptyList());
+        assertTrue(index.search("unflushed", 10, 0).isEmpty());
+        assertEquals(generation, index.getGeneration());
+    }
+
+    @Test
+    void emptyQueriesFindNothing() throws IOException {
+        TextIndex index = new TextIndex(directory);
+        assertTrue(index.search("anything", 10, 0).isEmpty());
+        index.add(1, 100, "title words", "", Collections.emptyList());
+        index.flush(Collections.emptyMap());
+        assertTrue(index.search("the of and", 10, 0).isEmpty());
+        assertTrue(index.search("title", 0, 0).isEmpty());
+        assertFalse(index.search("title", 1, 0).isEmpty());
+    }
+
+    private void assertQueriesMatch(TextIndex index, Reference reference, int queries) {
+        for (int q = 0; q < queries; q++) {
+            StringBuilder query = new StringBuilder();
+            int terms = 1 + random.nextInt(5);
+            for (int t = 0; t < terms; t++) {
+                query.append(word()).append(' ');
+            }
+            int k = new int[] {1, 3, 10, 50}[random.nextInt(4)];
+            long minCreationDate = random.nextInt(4) == 0 ? 1_000 + random.nextInt(1_000) : 0;
+
+            List<TextIndex.Hit> hits = index.search(query.toString(), k, minCreationDate);
+            Map<Long, Double> expected = reference.scores(query.toString(), minCreationDate);
+            String context = "query '" + query + "', k " + k + ", since " + minCreationDate;
+
+            List<Double> best = new ArrayList<>(expected.values());
+            best.sort(Collections.reverseOrder());
+            assertEquals(Math.min(k, best.size()), hits.size(), context);
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i < hits.size(); i++) {
+                TextIndex.Hit hit = hits.get(i);
+                assertTrue(seen.add(hit.getQuestionId()), context + ": question listed twice");
+                Double score = expected.get(hit.getQuestionId());
+                assertTrue(score != null, context + ": unexpected question " + hit.getQuestionId());
+                assertEquals(score, hit.getScore(), EPSILON, context);
+                // Ties may come in any order, but the scores must be the k best
+                assertEquals(best.get(i), hit.getScore(), EPSILON, context + ", rank " + i);
+            }
+        }
+    }
+
+    private void add(TextIndex index, Reference reference, long id) {
+        String title = words(3 + random.nextInt(8));
+        String body = "<p>" + words(random.nextInt(60)) + "</p><pre><code>" + words(random.nextInt(20))
+                + "</code></pre>";
+        List<String> tags = Arrays.asList(words(1 + random.nextInt(4)).split(" "));
+        long creationDate = 1_000 + random.nextInt(1_000);
+
+        index.add(id, creationDate, title, body, tags);
+        reference.add(id, creationDate, IndexBuffer.analyze(title, body, tags, TextIndex.TITLE_WEIGHT));
+    }
+
+    private void flush(TextIndex index, Reference reference) throws IOException {
+        index.flush(Collections.emptyMap());
+        reference.segments.add(new HashMap<>(reference.buffer));
+        reference.buffer.clear();
+    }
+
+    private String words(int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(i > 0 ? " " : "").append(word());
+        }
+        return words.toString();
+    }
+
+    /**
+     * A skewed vocabulary, so some terms are in most documents and others in few
+     */
+    private String word() {
+        double r = random.nextDouble();
+        return "w" + (int) (VOCABULARY * r * r * r);
+    }
+
+    private static final class Document {
+        final long creationDate;
+        final Map<String, Integer> frequencies;
+        final int length;
+
+        Document(long creationDate, Map<String, Integer> frequencies) {
+            this.creationDate = creationDate;
+            this.frequencies = frequencies;
+            int sum = 0;
+            for (int frequency : frequencies.values()) {
+                sum += frequency;
+            }
+            this.length = sum;
+        }
+    }
+
+    /**
+     * Exhaustive BM25 over a model of the segments
+     *
+     * Only the newest copy of a question is scored and counted in the collection
+     * statistics, whether or not merges have dropped the others yet.
+     */
+    private static final class Reference {
+        final Map<Long, Document> buffer = new HashMap<>();
+        final List<Map<Long, Document>> segments = new ArrayList<>();
+
+        void add(long id, long creationDate, Map<String, Integer> frequencies) {
+            buffer.put(id, new Document(creationDate, frequencies));
+        }
+
+        /**
+         * Merge segments [from, to) into one, keeping the newest copy of each question
+         */
+        void merge(int from, int to) {
+            Map<Long, Document> merged = new HashMap<>();
+            for (Map<Long, Document> segment : segments.subList(from, to)) {
+                merged.putAll(segment);
+            }
+            segments.subList(from, to).clear();
+            segments.add(from, merged);
+        }
+
+        Map<Long, Document> live() {
+            Map<Long, Document> live = new HashMap<>();
+            for (Map<Long, Document> segment : segments) {
+                live.putAll(segment);
+            }
+            return live;
+        }
+
+        Map<Long, Double> scores(String query, long minCreationDate) {
+            List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+            long docCount = 0;
+            long totalLength = 0;
+            Map<String, Long> docFreqs = new HashMap<>();
+            for (Document document : live().values()) {
+                docCount++;
+                totalLength += document.length;
+                for (String term : terms) {
+                    if (document.frequencies.containsKey(term)) {
+                        docFreqs.merge(term, 1L, Long::sum);
+                    }
+                }
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / Math.max(1, docCount));
+
+            Map<Long, Double> scores = new HashMap<>();
+            for (Map.Entry<Long, Document> entry : live().entrySet()) {
+                Document document = entry.getValue();
+                if (minCreationDate > 0 && document.creationDate < minCreationDate) {
+                    continue;
+                }
+                double norm = K1 * (1 - B + B * document.length / averageLength);
+                double score = 0;
+                boolean matched = false;
+                for (String term : terms) {
+                    Integer frequency = document.frequencies.get(term);
+                    if (frequency != null) {
+                        long docFreq = docFreqs.get(term);
+                        double idf = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+                        score += idf * frequency * (K1 + 1) / (frequency + norm);
+                        matched = true;
+                    }
+                }
+                if (matched) {
+                    scores.put(entry.getKey(), score);
+                }
+            }
+            return scores;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.stacksight.trends;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LongIntCounterTest {
+
+    @Test
+    void addsToExistingCounts() {
+        LongIntCounter counter = new LongIntCounter(4);
+        counter.add(7, 1);
+        counter.add(7, 2);
+        counter.add(-3, 5);
+        counter.add(0, 1);
+
+        assertEquals(3, counter.get(7));
+        assertEquals(5, counter.get(-3));
+        assertEquals(1, counter.get(0));
+        assertEquals(0, counter.get(8));
+        assertEquals(3, counter.size());
+    }
+
+    @Test
+    void growsPastTheExpectedKeys() {
+        // Keys that agree in their low bits probe into long runs before the table grows
+        LongIntCounter counter = new LongIntCounter(2);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (long i = 0; i < 5_000; i++) {
+            long key = i << 32;
+            counter.add(key, (int) i + 1);
+            expected.put(key, (int) i + 1);
+        }
+
+        assertMatches(expected, counter);
+    }
+
+    @Test
+    void matchesAHashMapOnRandomKeys() {
+        Random random = new Random(11);
+        LongIntCounter counter = new LongIntCounter(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            // Few enough distinct keys that most adds hit an existing one
+            long key = random.nextInt(3) == 0 ? random.nextLong() : random.nextInt(2_000) - 1_000;
+            if (key == Long.MIN_VALUE) {
+                continue;
+            }
+            int delta = random.nextInt(10);
+            counter.add(key, delta);
+            expected.merge(key, delta, Integer::sum);
+        }
+
+        assertMatches(expected, counter);
+    }
+
+    @Test
+    void clearForgetsAllKeys() {
+        LongIntCounter counter = new LongIntCounter(4);
+        for (long key = 0; key < 100; key++) {
+            counter.add(key, 1);
+        }
+
+        counter.clear();
+
+        assertEquals(0, counter.size());
+        assertEquals(0, counter.get(42));
+        counter.forEach((key, count) -> {
+            throw new AssertionError("visited " + key + " after clear");
+        });
+        counter.add(42, 2);
+        assertEquals(2, counter.get(42));
+        assertEquals(1, counter.size());
+    }
+
+    private static void assertMatches(Map<Long, Integer> expected, LongIntCounter counter) {
+        assertEquals(expected.size(), counter.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), counter.get(entry.getKey()), "key " + entry.getKey());
+        }
+
+        // Every key is visited exactly once
+        Map<Long, Integer> visited = new HashMap<>();
+        counter.forEach((key, count) -> assertNull(visited.put(key, count), "key " + key + " visited twice"));
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,123 @@
+package com.stacksight.trends;
+
+import com.stacksight.hbase.HBaseSchema;
+import com.stacksight.hbase.TrendSeries;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TagStreamAggregatorTest {
+
+    // Start of a TrendSeries bucket
+    private static final long BUCKET = 1_700_000_100L;
+
+    @Test
+    void countsTagsAndPairsInBothDirections() {
+        TagStreamAggregator aggregator = new TagStreamAggregator();
+        aggregator.add(BUCKET + 10, Arrays.asList("java", "spring"));
+        aggregator.add(BUCKET + 20, Arrays.asList("spring", "java", "hibernate"));
+        aggregator.add(BUCKET + 30, Collections.singletonList("java"));
+
+        Map<String, Map<String, Long>> rows = rows(aggregator.drain());
+
+        assertEquals(3, rows.size());
+        Map<String, Long> java = rows.get(row("java", BUCKET));
+        assertEquals(3L, java.get("questions"));
+        assertEquals(2L, java.get("co:spring"));
+        assertEquals(1L, java.get("co:hibernate"));
+        assertEquals(3, java.size());
+
+        Map<String, Long> spring = rows.get(row("spring", BUCKET));
+        assertEquals(2L, spring.get("questions"));
+        assertEquals(2L, spring.get("co:java"));
+        assertEquals(1L, spring.get("co:hibernate"));
+
+        Map<String, Long> hibernate = rows.get(row("hibernate", BUCKET));
+        assertEquals(1L, hibernate.get("questions"));
+        assertEquals(1L, hibernate.get("co:java"));
+        assertEquals(1L, hibernate.get("co:spring"));
+    }
+
+    @Test
+    void keepsTimeBucketsApart() {
+        TagStreamAggregator aggregator = new TagStreamAggregator();
+        long next = BUCKET + TrendSeries.BUCKET_SECONDS;
+        aggregator.add(BUCKET, Arrays.asList("kafka", "java"));
+        aggregator.add(next - 1, Collections.singletonList("kafka"));
+        aggregator.add(next, Collections.singletonList("kafka"));
+
+        Map<String, Map<String, Long>> rows = rows(aggregator.drain());
+
+        assertEquals(3, rows.size());
+        assertEquals(2L, rows.get(row("kafka", BUCKET)).get("questions"));
+        assertEquals(1L, rows.get(row("kafka", BUCKET)).get("co:java"));
+        // No pairs in the later bucket: only questions
+        assertEquals(Collections.singletonMap("questions", 1L), rows.get(row("kafka", next)));
+    }
+
+    @Test
+    void drainResetsTheCounts() {
+        TagStreamAggregator aggregator = new TagStreamAggregator();
+        assertTrue(aggregator.isEmpty());
+        aggregator.add(BUCKET, Collections.emptyList());
+        assertTrue(aggregator.isEmpty());
+
+        aggregator.add(BUCKET, Arrays.asList("hbase", "hadoop"));
+        assertFalse(aggregator.isEmpty());
+        assertEquals(2, aggregator.drain().size());
+
+        assertTrue(aggregator.isEmpty());
+        assertTrue(aggregator.drain().isEmpty());
+
+        // Interned tags are kept: counting starts again from zero
+        aggregator.add(BUCKET, Collections.singletonList("hbase"));
+        assertEquals(Collections.singletonMap("questions", 1L), rows(aggregator.drain()).get(row("hbase", BUCKET)));
+    }
+
+    @Test
+    void handlesQuestionsWithManyTags() {
+        TagStreamAggregator aggregator = new TagStreamAggregator();
+        List<String> tags = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+        aggregator.add(BUCKET, tags);
+
+        Map<String, Map<String, Long>> rows = rows(aggregator.drain());
+
+        assertEquals(tags.size(), rows.size());
+        for (String tag : tags) {
+            // questions plus one co-occurrence per other tag
+            assertEquals(tags.size(), rows.get(row(tag, BUCKET)).size(), tag);
+        }
+    }
+
+    private static String row(String tag, long bucket) {
+        return Bytes.toStringBinary(TrendSeries.rowKey(tag, bucket));
+    }
+
+    /**
+     * The trend family of each increment, by row
+     */
+    private static Map<String, Map<String, Long>> rows(List<Increment> increments) {
+        Map<String, Map<String, Long>> rows = new HashMap<>();
+        for (Increment increment : increments) {
+            Map<String, Long> columns = new HashMap<>();
+            NavigableMap<byte[], Long> family = increment.getFamilyMapOfLongs().get(HBaseSchema.TREND_CF);
+            for (Map.Entry<byte[], Long> column : family.entrySet()) {
+                columns.put(Bytes.toString(column.getKey()), column.getValue());
+            }
+            assertNull(rows.put(Bytes.toStringBinary(increment.getRow()), columns), "row listed twice");
+        }
+        return rows;
+    }
+}